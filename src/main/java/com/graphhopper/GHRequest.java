@@ -105,6 +105,10 @@ public class GHRequest {
         return from + " " + to + " (" + algo + ")";
     }
 
+    /**
+     * Together with the vehicle it selects the contraction hierarchies profile
+     * of GraphHopper.chProfiles for dijkstrabi and astarbi.
+     */
     public GHRequest type(WeightCalculation weightCalc) {
         this.weightCalc = weightCalc;
         return this;
@@ -21,6 +21,8 @@ package com.graphhopper;
 import com.graphhopper.reader.OSMReader;
 import com.graphhopper.routing.Path;
 import com.graphhopper.routing.RoutingAlgorithm;
+import com.graphhopper.routing.RoutingAlgorithmFactory;
+import com.graphhopper.routing.SearchStatePool;
 import com.graphhopper.routing.ch.PrepareContractionHierarchies;
 import com.graphhopper.routing.util.AcceptWay;
 import com.graphhopper.routing.util.AlgorithmPreparation;
@@ -28,10 +30,14 @@ import com.graphhopper.routing.util.CarFlagEncoder;
 import com.graphhopper.routing.util.FastestCalc;
 import com.graphhopper.routing.util.VehicleEncoder;
 import com.graphhopper.routing.util.FootFlagEncoder;
-import com.graphhopper.routing.util.NoOpAlgorithmPreparation;
 import com.graphhopper.routing.util.ShortestCalc;
+import com.graphhopper.routing.util.WeightCalculation;
+import com.graphhopper.storage.CHOverlay;
 import com.graphhopper.storage.Directory;
 import com.graphhopper.storage.Graph;
+import com.graphhopper.storage.FrozenGraph;
+import com.graphhopper.storage.FrozenLevelGraph;
+import com.graphhopper.storage.GraphSnapshots;
 import com.graphhopper.storage.GraphStorage;
 import com.graphhopper.storage.LevelGraph;
 import com.graphhopper.storage.LevelGraphStorage;
@@ -39,38 +45,76 @@ import com.graphhopper.storage.index.Location2IDIndex;
 import com.graphhopper.storage.index.Location2IDQuadtree;
 import com.graphhopper.storage.MMapDirectory;
 import com.graphhopper.storage.RAMDirectory;
+import com.graphhopper.storage.Storable;
 import com.graphhopper.storage.index.Location2NodesNtree;
 import com.graphhopper.storage.index.Location2NodesNtreeLG;
+import com.graphhopper.storage.index.WayIdIndex;
 import com.graphhopper.util.CmdArgs;
 import com.graphhopper.util.DouglasPeucker;
 import com.graphhopper.util.Helper;
 import com.graphhopper.util.PointList;
 import com.graphhopper.util.StopWatch;
+import gnu.trove.list.array.TIntArrayList;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Main wrapper of the offline API for a simple and efficient usage.
  *
+ * Thread safety: configure and call load() from one thread. Afterwards route()
+ * can be called concurrently from several threads as the graph, the location
+ * index and the algorithm preparation are only read. All request scoped state
+ * like the algorithm or the resulting Path is created for every call, only the
+ * search states of the algorithms are reused per thread via a
+ * SearchStatePool. This read-only sharing is only guaranteed for the
+ * in-memory storage and the read-only memory mapped storage, see GraphStorage
+ * and memoryMappedReadOnly.
+ *
+ * A new graph can be loaded with hotSwap while route() is still called. The
+ * queries which already started finish on the old graph which is closed
+ * afterwards.
+ *
+ * The speeds of OSM ways can be changed while route() is called, see
+ * updateSpeeds.
+ *
  * @see GraphHopperAPI
  * @author Peter Karich
  */
 public class GraphHopper implements GraphHopperAPI {
 
-    private Graph graph;
-    private AlgorithmPreparation prepare;
-    private Location2IDIndex index;
+    // replaced as a whole so that every query sees one consistent graph
+    private volatile Routing routing;
     private boolean inMemory = true;
     private boolean storeOnFlush = true;
     private boolean memoryMapped;
+    private boolean readOnly = false;
+    private boolean frozen = false;
+    private boolean compactFrozen = false;
     private boolean chUsage = false;
+    private boolean storeWayIds = false;
     private String ghLocation = "";
     private boolean simplify = true;
     private int preciseIndexResolution = 1000;
     private boolean chFast = true;
+    private int chThreads = 1;
+    private String[] chProfiles = new String[0];
+    private long chUnpackCacheBytes = 0;
     private boolean edgeCalcOnSearch = true;
     private boolean searchRegion = true;
     private AcceptWay acceptWay = new AcceptWay(true, false, false);
+    private final SearchStatePool statePool = new SearchStatePool();
+    private Logger logger = LoggerFactory.getLogger(getClass());
 
     public GraphHopper() {
     }
@@ -80,8 +124,7 @@ public class GraphHopper implements GraphHopperAPI {
      */
     GraphHopper(Graph g) {
         this();
-        this.graph = g;
-        initIndex(new RAMDirectory());
+        routing = new Routing(g, null, initIndex(g, new RAMDirectory()), null);
     }
 
     public AcceptWay acceptWay() {
@@ -123,6 +166,7 @@ public class GraphHopper implements GraphHopperAPI {
         if (inMemory) {
             this.inMemory = true;
             this.memoryMapped = false;
+            this.readOnly = false;
             this.storeOnFlush = storeOnFlush;
         } else {
             memoryMapped();
@@ -133,6 +177,41 @@ public class GraphHopper implements GraphHopperAPI {
     public GraphHopper memoryMapped() {
         this.inMemory = false;
         memoryMapped = true;
+        readOnly = false;
+        return this;
+    }
+
+    /**
+     * Maps an existing graph folder read-only. The files are neither modified
+     * nor flushed so several JVM processes on the same machine can load the
+     * same folder and share the pages via the OS page cache. The location
+     * index has to be stored in this folder already and importing an OSM file
+     * is not possible in this mode.
+     */
+    public GraphHopper memoryMappedReadOnly() {
+        memoryMapped();
+        readOnly = true;
+        return this;
+    }
+
+    /**
+     * If true the loaded graph is rewritten into a read-only FrozenGraph with
+     * contiguous adjacency lists for faster queries. If memory mapped the
+     * frozen graph is stored next to the graph and loaded on the next start,
+     * otherwise it is kept in memory.
+     */
+    public GraphHopper frozen(boolean frozen) {
+        this.frozen = frozen;
+        return this;
+    }
+
+    /**
+     * If true the frozen graph stores its adjacency lists and edges variable
+     * length encoded which needs less memory than the original graph but
+     * makes iterating a bit slower. Only used if frozen is enabled.
+     */
+    public GraphHopper compactFrozen(boolean compactFrozen) {
+        this.compactFrozen = compactFrozen;
         return this;
     }
 
@@ -147,6 +226,53 @@ public class GraphHopper implements GraphHopperAPI {
         return this;
     }
 
+    /**
+     * Enables contraction hierarchies for several weightings or vehicles
+     * without a full graph copy per profile. The graph stays a normal
+     * GraphStorage and every profile is prepared in a CHOverlay stored in the
+     * sub folder 'ch-weighting-vehicle' of the graph. The overlay stores only
+     * the levels, the shortcuts and the weights, the nodes and edges are read
+     * from the graph. A request with the algorithm dijkstrabi or astarbi uses
+     * the profile matching its type and vehicle, all other requests are
+     * calculated on the graph without shortcuts.
+     *
+     * @param profiles like "fastest,car" or "shortest,foot", the vehicle is
+     * car if not specified
+     */
+    public GraphHopper chProfiles(String... profiles) {
+        chProfiles = profiles;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads used to prepare the contraction hierarchies
+     * while importing an OSM file.
+     */
+    public GraphHopper chThreads(int threads) {
+        chThreads = threads;
+        return this;
+    }
+
+    /**
+     * Sets the memory budget per contraction hierarchies preparation for the
+     * precomputed original edges of the most important shortcuts, which
+     * speeds up the unpacking of long routes. 0 disables the cache.
+     */
+    public GraphHopper chUnpackCache(long bytes) {
+        chUnpackCacheBytes = bytes;
+        return this;
+    }
+
+    /**
+     * Stores the OSM way id of every edge while importing, which is necessary
+     * for updateSpeeds. A loaded graph which stores the way ids can be
+     * updated independent of this setting.
+     */
+    public GraphHopper storeWayIds(boolean storeWayIds) {
+        this.storeWayIds = storeWayIds;
+        return this;
+    }
+
     /**
      * This method specifies if the returned path should be simplified or not,
      * via douglas-peucker or similar algorithm.
@@ -165,16 +291,71 @@ public class GraphHopper implements GraphHopperAPI {
         return this;
     }
 
+    /**
+     * Loads the graph from the specified folder or imports the specified OSM
+     * file. The folder can also be the base folder of GraphSnapshots, then the
+     * current snapshot is loaded.
+     */
     @Override
     public GraphHopper load(String graphHopperFile) {
-        if (graph != null)
-            throw new IllegalStateException("graph is already loaded");
+        if (routing != null)
+            throw new IllegalStateException("graph is already loaded, use hotSwap to replace it");
+
+        routing = loadRouting(graphHopperFile, true);
+        return this;
+    }
+
+    /**
+     * Loads the graph, location index and preparation of the specified folder
+     * and then atomically replaces the current ones. Call this from a
+     * background thread: route() keeps using the old graph until the new one
+     * is completely loaded. The old graph is closed when the last query on it
+     * has finished. To update a graph without modifying the files in use,
+     * write it into a new snapshot via GraphSnapshots and swap to the base
+     * folder of the snapshots.
+     */
+    public GraphHopper hotSwap(String graphHopperFile) {
+        Routing newRouting = loadRouting(graphHopperFile, false);
+        Routing old;
+        synchronized (this) {
+            old = routing;
+            routing = newRouting;
+        }
+        if (old != null)
+            old.release();
+        return this;
+    }
+
+    /**
+     * Releases the loaded graph. Running queries finish before it is closed.
+     */
+    public void close() {
+        Routing old;
+        synchronized (this) {
+            old = routing;
+            routing = null;
+        }
+        if (old != null)
+            old.release();
+    }
+
+    private Routing loadRouting(String graphHopperFile, boolean allowImport) {
+        if (chProfiles.length > 0 && (chUsage || frozen))
+            throw new IllegalStateException("chProfiles cannot be combined with contractionHierarchies or frozen");
+
+        Routing newRouting;
+        if (GraphSnapshots.isSnapshotBase(graphHopperFile))
+            graphHopperFile = new GraphSnapshots(graphHopperFile).current();
 
         if (graphHopperFile.indexOf(".") < 0) {
             if (new File(graphHopperFile + "-gh").exists())
                 graphHopperFile += "-gh";
             else if (new File(graphHopperFile + ".osm").exists())
                 graphHopperFile += ".osm";
+            else if (new File(graphHopperFile + ".osm.pbf").exists())
+                graphHopperFile += ".osm.pbf";
+            else if (new File(graphHopperFile + ".osm.bz2").exists())
+                graphHopperFile += ".osm.bz2";
             else
                 throw new IllegalArgumentException("No file end and no existing osm or gh file found for " + graphHopperFile);
         }
@@ -189,76 +370,255 @@ public class GraphHopper implements GraphHopperAPI {
                     throw new IllegalStateException("Couldn't extract file " + tmpGHFile + " to " + to, ex);
                 }
             }
+            newRouting = loadGraph(graphHopperFile);
+        } else if (tmpGHFile.endsWith(".osm") || tmpGHFile.endsWith(".xml") || tmpGHFile.endsWith(".pbf")
+                || tmpGHFile.endsWith(".bz2") || tmpGHFile.endsWith(".gz") || tmpGHFile.endsWith(".zip")) {
+            if (!allowImport)
+                throw new IllegalArgumentException("Cannot swap to " + graphHopperFile
+                        + ", import it into a new snapshot and swap to the snapshot instead");
+            newRouting = importOSM(graphHopperFile);
+        } else
+            throw new IllegalArgumentException("Unknown file end " + graphHopperFile);
 
-            GraphStorage storage;
-            Directory dir;
-            if (memoryMapped) {
-                dir = new MMapDirectory(graphHopperFile);
-            } else if (inMemory) {
-                dir = new RAMDirectory(graphHopperFile, storeOnFlush);
-            } else
-                throw new IllegalStateException("either memory mapped or in-memory!");
-
-            if (chUsage) {
-                storage = new LevelGraphStorage(dir);
-                PrepareContractionHierarchies tmpPrepareCH = new PrepareContractionHierarchies();
-
-                VehicleEncoder encoder;
-                if (acceptWay.acceptsCar())
-                    encoder = new CarFlagEncoder();
-                else
-                    encoder = new FootFlagEncoder();
-                if (chFast) {
-                    tmpPrepareCH.type(new FastestCalc(encoder)).vehicle(encoder);
-                } else {
-                    tmpPrepareCH.type(new ShortestCalc()).vehicle(encoder);
-                }
-                prepare = tmpPrepareCH;
-            } else
-                storage = new GraphStorage(dir);
-
-            if (!storage.loadExisting())
-                throw new IllegalStateException("Invalid storage at:" + graphHopperFile);
-
-            graph = storage;
-            initIndex(dir);
-        } else if (tmpGHFile.endsWith(".osm") || tmpGHFile.endsWith(".xml")) {
-            if (Helper.isEmpty(ghLocation))
-                ghLocation = Helper.pruneFileEnd(graphHopperFile) + "-gh";
-            CmdArgs args = new CmdArgs().put("osmreader.osm", graphHopperFile).
-                    put("osmreader.graph-location", ghLocation);
-            if (memoryMapped)
-                args.put("osmreader.dataaccess", "mmap");
-            else {
-                if (inMemory && storeOnFlush) {
-                    args.put("osmreader.dataaccess", "inmemory+save");
-                } else
-                    args.put("osmreader.dataaccess", "inmemory");
+        if (chProfiles.length > 0) {
+            if (!(newRouting.graph instanceof GraphStorage))
+                throw new IllegalStateException("chProfiles need a GraphStorage but was " + newRouting.graph.getClass());
+            loadCHProfiles((GraphStorage) newRouting.graph, newRouting);
+        }
+        if (chUnpackCacheBytes > 0) {
+            if (chUsage)
+                ((PrepareContractionHierarchies) newRouting.prepare).unpackCache(chUnpackCacheBytes);
+            for (PrepareContractionHierarchies profile : newRouting.profiles.values()) {
+                profile.unpackCache(chUnpackCacheBytes);
             }
+        }
+        return newRouting;
+    }
 
-            args.put("osmreader.type", acceptWay.toString());
-            if (chUsage) {
-                args.put("osmreader.levelgraph", "true");
-                args.put("osmreader.chShortcuts", chFast ? "fastest" : "shortest");
-            }
+    /**
+     * Loads the graph, preparation and location index of the specified graph
+     * folder.
+     */
+    private Routing loadGraph(String location) {
+        GraphStorage storage;
+        Directory dir = createDirectory(location);
+        AlgorithmPreparation prepare = null;
+        if (chUsage) {
+            storage = new LevelGraphStorage(dir);
+            PrepareContractionHierarchies tmpPrepareCH = new PrepareContractionHierarchies();
 
-            try {
-                OSMReader reader = OSMReader.osm2Graph(args);
-                graph = reader.graph();
-                prepare = reader.preparation();
-                index = reader.location2IDIndex();
-            } catch (IOException ex) {
-                throw new RuntimeException("Cannot parse file " + graphHopperFile, ex);
+            VehicleEncoder encoder;
+            if (acceptWay.acceptsCar())
+                encoder = new CarFlagEncoder();
+            else
+                encoder = new FootFlagEncoder();
+            if (chFast) {
+                tmpPrepareCH.type(new FastestCalc(encoder)).vehicle(encoder);
+            } else {
+                tmpPrepareCH.type(new ShortestCalc()).vehicle(encoder);
             }
+            prepare = tmpPrepareCH;
         } else
-            throw new IllegalArgumentException("Unknown file end " + graphHopperFile);
+            storage = new GraphStorage(dir);
 
-        return this;
+        if (!storage.loadExisting())
+            throw new IllegalStateException("Invalid storage at:" + location);
+
+        // the stored preparation has to match the configured weighting and vehicle
+        if (chUsage && !((PrepareContractionHierarchies) prepare).graph(storage).loadExisting())
+            logger.warn("No metadata of the contraction hierarchies preparation found at "
+                    + location + ", assuming it fits");
+
+        Graph graph = storage;
+        if (frozen) {
+            graph = freeze(storage, dir);
+            storage.close();
+        }
+        if (prepare != null)
+            // set the graph only once as route() is not allowed to modify the shared preparation
+            prepare.graph(graph);
+        Routing newRouting = new Routing(graph, prepare, initIndex(graph, dir), dir);
+        // a frozen graph is a copy which cannot be updated
+        if (!frozen && storage.isStoringWayIds()) {
+            WayIdIndex wayIndex = new WayIdIndex(storage, dir);
+            if (!wayIndex.loadExisting())
+                wayIndex.prepareIndex();
+            newRouting.wayIndex = wayIndex;
+        }
+        return newRouting;
     }
 
+    /**
+     * Imports the OSM file into ghLocation. A frozen graph replaces the
+     * imported storage: if the storage was written to disc it is closed and
+     * the graph folder is loaded like on the next start, which also stores
+     * the frozen graph and the location index there.
+     */
+    private Routing importOSM(String graphHopperFile) {
+        if (readOnly)
+            throw new IllegalStateException("Cannot import " + graphHopperFile + " into a read-only memory mapped graph");
+        String tmpGHFile = graphHopperFile.toLowerCase();
+        if (Helper.isEmpty(ghLocation)) {
+            ghLocation = Helper.pruneFileEnd(graphHopperFile);
+            // germany.osm.bz2 => germany-gh
+            if (!tmpGHFile.endsWith(".pbf") && ghLocation.toLowerCase().endsWith(".osm"))
+                ghLocation = Helper.pruneFileEnd(ghLocation);
+            ghLocation += "-gh";
+        }
+        CmdArgs args = new CmdArgs().put("osmreader.osm", graphHopperFile).
+                put("osmreader.graph-location", ghLocation);
+        boolean stored = true;
+        if (memoryMapped)
+            args.put("osmreader.dataaccess", "mmap");
+        else {
+            if (inMemory && storeOnFlush) {
+                args.put("osmreader.dataaccess", "inmemory+save");
+            } else {
+                args.put("osmreader.dataaccess", "inmemory");
+                stored = false;
+            }
+        }
+
+        args.put("osmreader.type", acceptWay.toString());
+        args.put("osmreader.storeWayIds", "" + storeWayIds);
+        if (chUsage) {
+            args.put("osmreader.levelgraph", "true");
+            args.put("osmreader.chShortcuts", chFast ? "fastest" : "shortest");
+            args.put("osmreader.chThreads", "" + chThreads);
+        }
+
+        OSMReader reader;
+        try {
+            reader = OSMReader.osm2Graph(args);
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot parse file " + graphHopperFile, ex);
+        }
+        // the reader could have replaced its graph e.g. while sorting
+        GraphStorage storage = (GraphStorage) reader.graph();
+        AlgorithmPreparation prepare = reader.preparation();
+        if (!frozen) {
+            prepare.graph(storage);
+            Routing newRouting = new Routing(storage, prepare, reader.location2IDIndex(), storage.directory());
+            newRouting.wayIndex = reader.wayIdIndex();
+            return newRouting;
+        }
+
+        if (stored) {
+            closeReader(reader);
+            return loadGraph(ghLocation);
+        }
+        Graph graph = freeze(storage, storage.directory());
+        closeReader(reader);
+        prepare.graph(graph);
+        // nothing is stored, so the index of the frozen graph is only kept in memory
+        return new Routing(graph, prepare, initIndex(graph, new RAMDirectory()), null);
+    }
+
+    private void closeReader(OSMReader reader) {
+        reader.location2IDIndex().close();
+        if (reader.wayIdIndex() != null)
+            reader.wayIdIndex().close();
+        ((GraphStorage) reader.graph()).close();
+    }
+
+    private Directory createDirectory(String location) {
+        if (memoryMapped)
+            return new MMapDirectory(location, readOnly);
+        else if (inMemory)
+            return new RAMDirectory(location, storeOnFlush);
+        else
+            throw new IllegalStateException("either memory mapped or in-memory!");
+    }
+
+    /**
+     * Loads the overlay of every configured profile or prepares it if it does
+     * not exist yet.
+     */
+    private void loadCHProfiles(GraphStorage base, Routing newRouting) {
+        for (String profile : chProfiles) {
+            String[] parts = profile.split(",");
+            String weighting = parts[0].trim().toLowerCase();
+            VehicleEncoder encoder = Helper.getVehicleEncoder(parts.length > 1 ? parts[1].trim() : "car");
+            WeightCalculation type;
+            if ("fastest".equals(weighting))
+                type = new FastestCalc(encoder);
+            else if ("shortest".equals(weighting))
+                type = new ShortestCalc();
+            else
+                throw new IllegalArgumentException("Value " + profile + " not valid for configuring "
+                        + "a contraction hierarchies profile");
+
+            String name = "ch-" + weighting + "-" + encoder.toString().toLowerCase();
+            CHOverlay overlay = new CHOverlay(base, createDirectory(base.directory().location() + name));
+            PrepareContractionHierarchies prepare = new PrepareContractionHierarchies().
+                    type(type).vehicle(encoder).threads(chThreads);
+            if (overlay.loadExisting()) {
+                if (!prepare.graph(overlay).loadExisting())
+                    logger.warn("No metadata of the contraction hierarchies preparation found for "
+                            + name + ", assuming it fits");
+            } else {
+                if (readOnly)
+                    throw new IllegalStateException("Cannot prepare the profile " + name + " in a read-only graph");
+                StopWatch sw = new StopWatch().start();
+                overlay.create(base.nodes());
+                prepare.graph(overlay).doWork();
+                overlay.flush();
+                prepare.flush();
+                logger.info("prepared profile " + name + " in " + sw.stop().getSeconds() + "s, " + overlay);
+            }
+            newRouting.addProfile(profileKey(type, encoder), prepare, overlay);
+        }
+    }
+
+    static String profileKey(WeightCalculation type, VehicleEncoder encoder) {
+        return type + "," + encoder;
+    }
+
+    /**
+     * @return the current routing data which cannot be closed until released
+     */
+    private Routing acquireRouting() {
+        while (true) {
+            Routing tmp = routing;
+            if (tmp == null)
+                throw new IllegalStateException("Call load before routing");
+            // fails only if it was swapped and closed meanwhile
+            if (tmp.acquire())
+                return tmp;
+        }
+    }
+
+    /**
+     * Calculates the route for the specified request. Can be called from
+     * several threads after load() has finished.
+     */
     @Override
     public GHResponse route(GHRequest request) {
         request.check();
+        Routing tmp = acquireRouting();
+        try {
+            return route(request, tmp);
+        } finally {
+            tmp.release();
+        }
+    }
+
+    private GHResponse route(GHRequest request, Routing tmp) {
+        // waits for a running updateSpeeds, so the query sees all or none of its changes
+        tmp.updateLock.readLock().lock();
+        try {
+            return routeUnlocked(request, tmp);
+        } finally {
+            tmp.updateLock.readLock().unlock();
+        }
+    }
+
+    private GHResponse routeUnlocked(GHRequest request, Routing tmp) {
+        Graph graph = tmp.graph;
+        AlgorithmPreparation prepare = tmp.prepare;
+        Location2IDIndex index = tmp.index;
+        // node ids of the overlays are the same as in the graph
+        PrepareContractionHierarchies profile = tmp.profiles.get(profileKey(request.type(), request.vehicle()));
         StopWatch sw = new StopWatch().start();
         int from = index.findID(request.from().lat, request.from().lon);
         int to = index.findID(request.to().lat, request.to().lon);
@@ -272,16 +632,20 @@ public class GraphHopper implements GraphHopperAPI {
         sw = new StopWatch().start();
         RoutingAlgorithm algo = null;
         if (chUsage) {
-            prepare.graph(graph);
             if (request.algorithm().equals("dijkstrabi"))
                 algo = prepare.createAlgo();
             else if (request.algorithm().equals("astarbi"))
                 algo = ((PrepareContractionHierarchies) prepare).createAStar();
             else
                 rsp.addError(new IllegalStateException("Only dijkstrabi and astarbi is supported for LevelGraph (using contraction hierarchies)!"));
+        } else if (profile != null && request.algorithm().equals("dijkstrabi")) {
+            algo = profile.createAlgo();
+        } else if (profile != null && request.algorithm().equals("astarbi")) {
+            algo = profile.createAStar();
         } else {
-            prepare = NoOpAlgorithmPreparation.createAlgoPrepare(graph, request.algorithm(), request.vehicle());
-            algo = prepare.createAlgo();
+            // request scoped algorithm, only the search states are reused per thread
+            algo = new RoutingAlgorithmFactory(request.algorithm(), false, statePool).
+                    createAlgo(graph, request.vehicle());
             algo.type(request.type());
         }
         if (rsp.hasError())
@@ -303,7 +667,113 @@ public class GraphHopper implements GraphHopperAPI {
         return rsp.points(points).distance(path.distance()).time(path.time()).debugInfo(debug);
     }
 
-    private void initIndex(Directory dir) {
+    /**
+     * Sets the speed of the specified vehicle for all edges of the specified
+     * OSM ways, e.g. to apply traffic information several times an hour
+     * without importing the OSM file again. The graph needs to store the way
+     * ids, see storeWayIds.
+     *
+     * The edges are changed in place in the current graph while it is
+     * acquired like for a query, so a concurrent hotSwap or close cannot
+     * close it meanwhile. The queries are blocked until all speeds are
+     * written: a query sees all or none of the changes. If the graph is
+     * stored, the changes are written to disc on the next flush only. A graph
+     * loaded via hotSwap afterwards does not contain them, write them into a
+     * new snapshot for this.
+     *
+     * Only queries on the graph itself use the new speeds. A frozen graph is
+     * a copy of the imported graph and cannot be updated. The contraction
+     * hierarchies of contractionHierarchies and chProfiles are not prepared
+     * again and keep the old speeds, which includes the fastest routes.
+     *
+     * @param speeds the new speed per way
+     * @return the number of updated edges
+     */
+    public int updateSpeeds(long[] wayIds, int[] speeds, VehicleEncoder encoder) {
+        if (speeds.length < wayIds.length)
+            throw new IllegalArgumentException("speeds need one entry per way " + wayIds.length);
+        if (readOnly)
+            throw new IllegalStateException("Cannot update a read-only memory mapped graph");
+        Routing tmp = acquireRouting();
+        try {
+            if (!(tmp.graph instanceof GraphStorage))
+                throw new IllegalStateException("Cannot update the speeds of " + tmp.graph.getClass()
+                        + ", a frozen graph is a copy which ignores updates");
+            if (tmp.wayIndex == null)
+                throw new IllegalStateException("The graph does not store way ids, see storeWayIds");
+
+            TIntArrayList edges = new TIntArrayList(wayIds.length * 4);
+            TIntArrayList edgeSpeeds = new TIntArrayList(wayIds.length * 4);
+            for (int i = 0; i < wayIds.length; i++) {
+                TIntArrayList wayEdges = tmp.wayIndex.findEdges(wayIds[i]);
+                for (int j = 0; j < wayEdges.size(); j++) {
+                    edges.add(wayEdges.get(j));
+                    edgeSpeeds.add(speeds[i]);
+                }
+            }
+            // the write lock also publishes the in place changes to the next queries
+            tmp.updateLock.writeLock().lock();
+            try {
+                ((GraphStorage) tmp.graph).updateSpeeds(edges.toArray(), edgeSpeeds.toArray(), encoder);
+            } finally {
+                tmp.updateLock.writeLock().unlock();
+            }
+            return edges.size();
+        } finally {
+            tmp.release();
+        }
+    }
+
+    /**
+     * Prepares a loaded instance for low latency queries. For a memory mapped
+     * graph the hot files are loaded into physical memory, then the specified
+     * number of random queries is executed to touch the remaining pages and
+     * warm up the JIT. The graph is acquired like for a query, so a
+     * concurrent hotSwap or close waits with closing it until the warm up has
+     * finished.
+     */
+    public GraphHopper warmUp(int queries) {
+        Routing tmp = acquireRouting();
+        try {
+            if (tmp.dir instanceof MMapDirectory)
+                ((MMapDirectory) tmp.dir).prefetch(hotFiles(tmp.graph));
+
+            Graph graph = tmp.graph;
+            int nodes = graph.nodes();
+            if (nodes == 0)
+                return this;
+            Random rand = new Random(123);
+            for (int i = 0; i < queries; i++) {
+                int from = rand.nextInt(nodes);
+                int to = rand.nextInt(nodes);
+                GHRequest req = new GHRequest(graph.getLatitude(from), graph.getLongitude(from),
+                        graph.getLatitude(to), graph.getLongitude(to));
+                if (chUsage || chProfiles.length > 0)
+                    req.algorithm("dijkstrabi");
+                if (!acceptWay.acceptsCar())
+                    req.vehicle(new FootFlagEncoder());
+                route(req, tmp);
+            }
+            return this;
+        } finally {
+            tmp.release();
+        }
+    }
+
+    /**
+     * @return the names of the files which are read by every query on the
+     * specified graph: the nodes, the edges and the location index. A frozen
+     * graph replaces the files of the GraphStorage which are closed then.
+     */
+    private static String[] hotFiles(Graph graph) {
+        if (graph instanceof FrozenGraph)
+            return new String[]{"frozen_nodes", "frozen_offsets", "frozen_adjacency", "frozen_edges",
+                "frozen_edge_blocks", "spatialNIndex", "loc2idIndex"};
+        return new String[]{"nodes", "edges", "spatialNIndex", "loc2idIndex"};
+    }
+
+    private Location2IDIndex initIndex(Graph graph, Directory dir) {
+        Location2IDIndex index;
         if (preciseIndexResolution > 0) {
             Location2NodesNtree tmpIndex;
             if (graph instanceof LevelGraph)
@@ -321,9 +791,93 @@ public class GraphHopper implements GraphHopperAPI {
         }
         if (!index.loadExisting())
             index.prepareIndex();
+        return index;
+    }
+
+    private Graph freeze(Graph g, Directory dir) {
+        if (memoryMapped && dir instanceof MMapDirectory) {
+            FrozenGraph stored = createFrozenGraph(g, dir);
+            if (stored.loadExisting()) {
+                if (stored.nodes() != g.nodes() || stored.getAllEdges().maxId() != g.getAllEdges().maxId())
+                    throw new IllegalStateException("The frozen graph does not match the graph in " + dir
+                            + ", remove the frozen_* files to create it again");
+                return stored;
+            }
+            if (!((MMapDirectory) dir).isReadOnly()) {
+                stored.compact(compactFrozen).freeze(g);
+                stored.flush();
+                return stored;
+            }
+        }
+        return createFrozenGraph(g, new RAMDirectory()).compact(compactFrozen).freeze(g);
+    }
+
+    private FrozenGraph createFrozenGraph(Graph g, Directory dir) {
+        if (g instanceof LevelGraph)
+            return new FrozenLevelGraph(dir);
+        return new FrozenGraph(dir);
     }
 
     public Graph graph() {
-        return graph;
+        Routing tmp = routing;
+        return tmp == null ? null : tmp.graph;
+    }
+
+    /**
+     * The graph, location index and preparation used by route(). It is closed
+     * when it was replaced and the last query using it has finished.
+     */
+    private static class Routing {
+
+        final Graph graph;
+        final AlgorithmPreparation prepare;
+        final Location2IDIndex index;
+        final Directory dir;
+        // the contraction hierarchies preparation per profile key
+        Map<String, PrepareContractionHierarchies> profiles = Collections.emptyMap();
+        private final List<CHOverlay> overlays = new ArrayList<CHOverlay>();
+        // null if the graph does not store way ids or is frozen
+        WayIdIndex wayIndex;
+        // read by every query, written by updateSpeeds
+        final ReadWriteLock updateLock = new ReentrantReadWriteLock();
+        // one reference for being the current routing plus one per running query
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        Routing(Graph graph, AlgorithmPreparation prepare, Location2IDIndex index, Directory dir) {
+            this.graph = graph;
+            this.prepare = prepare;
+            this.index = index;
+            this.dir = dir;
+        }
+
+        void addProfile(String key, PrepareContractionHierarchies prepare, CHOverlay overlay) {
+            if (profiles.isEmpty())
+                profiles = new HashMap<String, PrepareContractionHierarchies>();
+            profiles.put(key, prepare);
+            overlays.add(overlay);
+        }
+
+        boolean acquire() {
+            while (true) {
+                int current = refs.get();
+                if (current <= 0)
+                    return false;
+                if (refs.compareAndSet(current, current + 1))
+                    return true;
+            }
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0) {
+                index.close();
+                if (wayIndex != null)
+                    wayIndex.close();
+                for (CHOverlay overlay : overlays) {
+                    overlay.close();
+                }
+                if (graph instanceof Storable)
+                    ((Storable) graph).close();
+            }
+        }
     }
 }
@@ -24,8 +24,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * An in-memory simple B-Tree. Later we'll use DataAccess to allow on-disc
- * storage for very large data sets. Delete not supported.
+ * An in-memory simple B-Tree. For very large data sets use the DataAccess
+ * based GHLongIntSegmentMap. Delete not supported.
  *
  * @author Peter Karich
  */
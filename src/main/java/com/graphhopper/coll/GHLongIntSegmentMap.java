@@ -0,0 +1,290 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.coll;
+
+import com.graphhopper.storage.DataAccess;
+import com.graphhopper.storage.Directory;
+import com.graphhopper.util.BitUtil;
+import com.graphhopper.util.Helper;
+import gnu.trove.map.hash.TLongIntHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A long->int map for big data sets like the OSM ids of a planet import which
+ * keeps only a small buffer on the heap. When the buffer is full its entries
+ * are sorted and written as an immutable segment into a DataAccess, so
+ * depending on the Directory the segments are stored in RAM or memory mapped
+ * on disc. Segments of similar size are merged so there are only
+ * O(log(size/bufferSize)) segments to search. A lookup first checks the buffer
+ * and then does a binary search in the segments, newest first.
+ * <p/>
+ * Inserts never touch the segments: put only returns a previous value which
+ * is still in the buffer and size() counts a key which was put again after
+ * its segment was written once per segment until the segments are merged.
+ * After optimize() the size is exact.
+ *
+ * @author Peter Karich
+ */
+public class GHLongIntSegmentMap implements LongIntMap {
+
+    // key (2 ints) and value
+    private static final int ENTRY_INTS = 3;
+    private final Directory dir;
+    private final String name;
+    private final int noEntryValue = -1;
+    private final int bufferSize;
+    private TLongIntHashMap buffer;
+    // the oldest and biggest segment first
+    private List<Segment> segments = new ArrayList<Segment>();
+    private int segmentCounter;
+
+    public GHLongIntSegmentMap(Directory dir, String name) {
+        this(dir, name, 1 << 20);
+    }
+
+    /**
+     * @param bufferSize the number of entries kept on the heap before they are
+     * written into a new segment
+     */
+    public GHLongIntSegmentMap(Directory dir, String name, int bufferSize) {
+        if (bufferSize < 1)
+            throw new IllegalArgumentException("illegal bufferSize:" + bufferSize);
+        this.dir = dir;
+        this.name = name;
+        this.bufferSize = bufferSize;
+        buffer = createBuffer();
+    }
+
+    private TLongIntHashMap createBuffer() {
+        return new TLongIntHashMap(Math.min(bufferSize, 1 << 16), 0.5f, Long.MIN_VALUE, noEntryValue);
+    }
+
+    /**
+     * @return the previous value of the key if it is still in the buffer,
+     * otherwise -1
+     */
+    @Override
+    public int put(long key, int value) {
+        if (value == noEntryValue)
+            throw new IllegalArgumentException("Illegal value " + value);
+        // the buffer uses Long.MIN_VALUE as no-entry key
+        if (key == Long.MIN_VALUE)
+            throw new IllegalArgumentException("Illegal key " + key);
+
+        int oldValue = buffer.put(key, value);
+        if (buffer.size() >= bufferSize)
+            flushBuffer();
+        return oldValue;
+    }
+
+    @Override
+    public int get(long key) {
+        int value = buffer.get(key);
+        if (value != noEntryValue)
+            return value;
+
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Segment segment = segments.get(i);
+            long index = segment.indexOf(key);
+            if (index >= 0)
+                return segment.value(index);
+        }
+        return noEntryValue;
+    }
+
+    /**
+     * @return the number of entries in the buffer and the segments. Duplicate
+     * keys are only dropped when segments are merged.
+     */
+    @Override
+    public long size() {
+        long size = buffer.size();
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /**
+     * Writes the buffer into a segment and merges all segments into one, which
+     * makes lookups faster.
+     */
+    @Override
+    public void optimize() {
+        flushBuffer();
+        while (segments.size() > 1) {
+            mergeLastSegments();
+        }
+    }
+
+    /**
+     * @return memory usage in MB of the heap buffer and the segments which are
+     * probably off-heap
+     */
+    @Override
+    public int memoryUsage() {
+        return Math.round((heapBytes() + segmentBytes()) / Helper.MB);
+    }
+
+    long heapBytes() {
+        // a long and an int per slot
+        return buffer.capacity() * 12L;
+    }
+
+    long segmentBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.da.capacity();
+        }
+        return bytes;
+    }
+
+    int segments() {
+        return segments.size();
+    }
+
+    /**
+     * Removes all segments from the directory.
+     */
+    public void remove() {
+        for (Segment segment : segments) {
+            dir.remove(segment.da);
+        }
+        segments.clear();
+        buffer = createBuffer();
+    }
+
+    void flushBuffer() {
+        if (buffer.isEmpty())
+            return;
+
+        long[] keys = buffer.keys();
+        Arrays.sort(keys);
+        Segment segment = createSegment(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            segment.set(i, keys[i], buffer.get(keys[i]));
+        }
+        segment.size = keys.length;
+        segments.add(segment);
+        buffer = createBuffer();
+
+        // merge segments of similar size to keep the number of segments logarithmic
+        while (segments.size() > 1
+                && segments.get(segments.size() - 2).size <= 2 * segments.get(segments.size() - 1).size) {
+            mergeLastSegments();
+        }
+    }
+
+    private Segment createSegment(long entries) {
+        Segment segment = new Segment(dir.findCreate(name + "_" + segmentCounter++));
+        segment.da.create(Math.max(entries, 1) * ENTRY_INTS * 4);
+        return segment;
+    }
+
+    /**
+     * Merges the two newest segments. For equal keys the value of the newer
+     * segment wins.
+     */
+    private void mergeLastSegments() {
+        Segment newer = segments.remove(segments.size() - 1);
+        Segment older = segments.remove(segments.size() - 1);
+        Segment merged = createSegment(older.size + newer.size);
+        long i = 0, j = 0, k = 0;
+        while (i < older.size || j < newer.size) {
+            if (j >= newer.size) {
+                merged.set(k++, older.key(i), older.value(i));
+                i++;
+            } else if (i >= older.size) {
+                merged.set(k++, newer.key(j), newer.value(j));
+                j++;
+            } else {
+                long oldKey = older.key(i);
+                long newKey = newer.key(j);
+                if (oldKey < newKey) {
+                    merged.set(k++, oldKey, older.value(i));
+                    i++;
+                } else {
+                    merged.set(k++, newKey, newer.value(j));
+                    j++;
+                    if (oldKey == newKey)
+                        i++;
+                }
+            }
+        }
+        merged.size = k;
+        dir.remove(older.da);
+        dir.remove(newer.da);
+        segments.add(merged);
+    }
+
+    @Override
+    public String toString() {
+        return "segments:" + segments.size() + ", buffer:" + buffer.size()
+                + ", heap:" + heapBytes() / Helper.MB + "MB, segments:" + segmentBytes() / Helper.MB + "MB";
+    }
+
+    /**
+     * Sorted entries in a DataAccess.
+     */
+    static class Segment {
+
+        final DataAccess da;
+        long size;
+
+        Segment(DataAccess da) {
+            this.da = da;
+        }
+
+        void set(long index, long key, int value) {
+            long pointer = index * ENTRY_INTS;
+            da.setInt(pointer, (int) (key >>> 32));
+            da.setInt(pointer + 1, (int) (key & 0xFFFFFFFFL));
+            da.setInt(pointer + 2, value);
+        }
+
+        long key(long index) {
+            long pointer = index * ENTRY_INTS;
+            return BitUtil.toLong(da.getInt(pointer), da.getInt(pointer + 1));
+        }
+
+        int value(long index) {
+            return da.getInt(index * ENTRY_INTS + 2);
+        }
+
+        /**
+         * @return the index of the key or a negative value if not found
+         */
+        long indexOf(long key) {
+            long low = 0, high = size - 1;
+            while (low <= high) {
+                long mid = (low + high) >>> 1;
+                long midKey = key(mid);
+                if (midKey < key)
+                    low = mid + 1;
+                else if (midKey > key)
+                    high = mid - 1;
+                else
+                    return mid;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.coll;
+
+import java.util.Arrays;
+
+/**
+ * A binary min heap of int elements with double keys which additionally
+ * stores the heap position of every element. This makes contains() O(1) and
+ * update() O(log n) instead of the linear search of IntDoubleBinHeap. The
+ * elements have to be small, non-negative integers like node ids as they are
+ * used as index into the position array.
+ *
+ * @author Peter Karich
+ */
+public class IntDoubleIndexedHeap implements BinHeapWrapper<Number, Integer> {
+
+    private static final float GROW_FACTOR = 1.5f;
+    // 1-based indexing, 0 in positions means not in heap
+    private double[] keys;
+    private int[] elem;
+    private int[] positions;
+    private int size;
+
+    public IntDoubleIndexedHeap() {
+        this(1000, 1000);
+    }
+
+    /**
+     * @param capacity the expected maximum size of the heap
+     * @param indexCapacity the expected maximum element plus one
+     */
+    public IntDoubleIndexedHeap(int capacity, int indexCapacity) {
+        capacity = Math.max(10, capacity);
+        keys = new double[capacity + 1];
+        elem = new int[capacity + 1];
+        positions = new int[Math.max(10, indexCapacity)];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int element) {
+        return element < positions.length && positions[element] > 0;
+    }
+
+    @Override
+    public Double peekKey() {
+        return peek_key();
+    }
+
+    public double peek_key() {
+        if (size == 0)
+            throw new IllegalStateException("An empty queue does not have a minimum key.");
+        return keys[1];
+    }
+
+    @Override
+    public Integer peekElement() {
+        return peek_element();
+    }
+
+    public int peek_element() {
+        if (size == 0)
+            throw new IllegalStateException("An empty queue does not have a minimum value.");
+        return elem[1];
+    }
+
+    /**
+     * @return the key of the specified element which has to be in the heap
+     */
+    public double getKey(int element) {
+        return keys[positions[element]];
+    }
+
+    @Override
+    public Integer pollElement() {
+        return poll_element();
+    }
+
+    public int poll_element() {
+        if (size == 0)
+            throw new IllegalStateException("An empty queue does not have a minimum value.");
+        int minElem = elem[1];
+        positions[minElem] = 0;
+        int lastElem = elem[size];
+        double lastKey = keys[size];
+        size--;
+        if (size > 0)
+            siftDown(1, lastKey, lastElem);
+        return minElem;
+    }
+
+    @Override
+    public void insert(Number key, Integer element) {
+        insert_(key.doubleValue(), element);
+    }
+
+    /**
+     * Adds the element or changes its key if it is already in the heap.
+     */
+    public void insert_(double key, int element) {
+        update_(key, element);
+    }
+
+    @Override
+    public void update(Number key, Integer element) {
+        update_(key.doubleValue(), element);
+    }
+
+    /**
+     * Changes the key of the element, either decreasing or increasing it. Adds
+     * the element if it is not yet in the heap.
+     */
+    public void update_(double key, int element) {
+        if (element >= positions.length)
+            positions = Arrays.copyOf(positions, Math.max(element + 1, Math.round(GROW_FACTOR * positions.length)));
+
+        int i = positions[element];
+        if (i == 0) {
+            size++;
+            if (size >= elem.length)
+                ensureCapacity(Math.round(GROW_FACTOR * size));
+            siftUp(size, key, element);
+        } else if (key < keys[i])
+            siftUp(i, key, element);
+        else
+            siftDown(i, key, element);
+    }
+
+    private void siftUp(int i, double key, int element) {
+        while (i > 1) {
+            int parent = i >> 1;
+            if (keys[parent] <= key)
+                break;
+            move(parent, i);
+            i = parent;
+        }
+        set(i, key, element);
+    }
+
+    private void siftDown(int i, double key, int element) {
+        while (true) {
+            int child = i << 1;
+            if (child > size)
+                break;
+            if (child < size && keys[child + 1] < keys[child])
+                child++;
+            if (keys[child] >= key)
+                break;
+            move(child, i);
+            i = child;
+        }
+        set(i, key, element);
+    }
+
+    private void move(int from, int to) {
+        keys[to] = keys[from];
+        elem[to] = elem[from];
+        positions[elem[to]] = to;
+    }
+
+    private void set(int i, double key, int element) {
+        keys[i] = key;
+        elem[i] = element;
+        positions[element] = i;
+    }
+
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity < size)
+            throw new IllegalStateException("BinHeap contains too many elements to fit in new capacity.");
+        keys = Arrays.copyOf(keys, capacity + 1);
+        elem = Arrays.copyOf(elem, capacity + 1);
+    }
+
+    /**
+     * Removes all elements in O(size) without touching the rest of the
+     * position array.
+     */
+    @Override
+    public void clear() {
+        for (int i = 1; i <= size; i++) {
+            positions[elem[i]] = 0;
+        }
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= size; i++) {
+            if (i > 1)
+                sb.append(", ");
+            sb.append(keys[i]).append(":").append(elem[i]);
+        }
+        return sb.toString();
+    }
+}
@@ -18,6 +18,8 @@
  */
 package com.graphhopper.reader;
 
+import com.graphhopper.coll.GHLongIntBTree;
+import com.graphhopper.coll.GHLongIntSegmentMap;
 import com.graphhopper.routing.util.AcceptWay;
 import com.graphhopper.routing.util.AlgorithmPreparation;
 import com.graphhopper.routing.util.FastestCalc;
@@ -35,29 +37,30 @@ import com.graphhopper.storage.LevelGraph;
 import com.graphhopper.storage.MMapDirectory;
 import com.graphhopper.storage.LevelGraphStorage;
 import com.graphhopper.storage.index.Location2IDIndex;
+import com.graphhopper.storage.index.WayIdIndex;
 import com.graphhopper.storage.RAMDirectory;
+import com.graphhopper.storage.DirectDirectory;
 import com.graphhopper.storage.index.Location2IDQuadtree;
 import com.graphhopper.storage.index.Location2NodesNtree;
 import com.graphhopper.storage.index.Location2NodesNtreeLG;
+import com.graphhopper.util.BZip2InputStream;
 import com.graphhopper.util.CmdArgs;
 import com.graphhopper.util.Constants;
 import com.graphhopper.util.GHUtility;
 import com.graphhopper.util.Helper;
 import static com.graphhopper.util.Helper.*;
-import com.graphhopper.util.Helper7;
+import com.graphhopper.util.ReadAheadInputStream;
 import com.graphhopper.util.StopWatch;
+import gnu.trove.list.TLongList;
 import java.io.*;
+import java.util.Map;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.ZipInputStream;
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLStreamConstants;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * This class parses an OSM xml file and creates a graph from it. See run.sh on
+ * This class parses an OSM xml or PBF file and creates a graph from it. See run.sh on
  * how to use it from command line.
  *
  * @author Peter Karich,
@@ -85,9 +88,17 @@ public class OSMReader {
     private long expectedNodes;
     private AlgorithmPreparation prepare;
     private Location2IDIndex index;
-    private boolean sortGraph = false;
+    private WayIdIndex wayIdIndex;
+    private boolean sortGraph = true;
     private int locationIndexHighResolution = 1000;
     private boolean doPrepare = true;
+    private int chThreads = 1;
+    private int chWitnessHops = Integer.MAX_VALUE;
+    private int chWitnessSettledNodes = Integer.MAX_VALUE;
+    private int workerThreads = 2;
+    private boolean singlePass = false;
+    private boolean offHeapIdMap = false;
+    private boolean readAhead = true;
 
     /**
      * Opens or creates a graph. The specified args need a property 'graph' (a
@@ -123,6 +134,10 @@ public class OSMReader {
         Directory dir;
         if ("mmap".equalsIgnoreCase(dataAccess)) {
             dir = new MMapDirectory(graphLocation);
+        } else if ("direct+save".equalsIgnoreCase(dataAccess)) {
+            dir = new DirectDirectory(graphLocation, true);
+        } else if ("direct".equalsIgnoreCase(dataAccess)) {
+            dir = new DirectDirectory(graphLocation, false);
         } else {
             if ("inmemory+save".equalsIgnoreCase(dataAccess))
                 dir = new RAMDirectory(graphLocation, true);
@@ -138,6 +153,8 @@ public class OSMReader {
             storage = new LevelGraphStorage(dir);
         else
             storage = new GraphStorage(dir);
+        // to update the edges of a way later on, ignored if the graph already exists
+        storage.storeWayIds(args.getBool("osmreader.storeWayIds", false));
         return osm2Graph(new OSMReader(storage, size), args);
     }
 
@@ -148,13 +165,20 @@ public class OSMReader {
         String type = args.get("osmreader.type", "CAR");
         // System.out.println(args);
         AcceptWay acceptWay = AcceptWay.parse(type);
+        osmReader.singlePass(args.getBool("osmreader.singlePass", false));
+        osmReader.offHeapIdMap(args.getBool("osmreader.offHeapIdMap", false));
+        osmReader.readAhead(args.getBool("osmreader.readAhead", true));
         osmReader.acceptStreet(acceptWay);
         final String algoStr = args.get("osmreader.algo", "astar");
         AlgorithmPreparation algoPrepare = NoOpAlgorithmPreparation.
                 createAlgoPrepare(algoStr, acceptWay.firstEncoder());
         osmReader.defaultAlgoPrepare(algoPrepare);
-        osmReader.sort(args.getBool("osmreader.sortGraph", false));
+        osmReader.sort(args.getBool("osmreader.sortGraph", true));
         osmReader.prepare(args.getBool("osmreader.doPrepare", true));
+        osmReader.chThreads(args.getInt("osmreader.chThreads", 1));
+        osmReader.chWitnessLimits(args.getInt("osmreader.chWitnessHops", Integer.MAX_VALUE),
+                args.getInt("osmreader.chWitnessSettledNodes", Integer.MAX_VALUE));
+        osmReader.workerThreads(args.getInt("osmreader.workerThreads", 2));
         osmReader.chShortcuts(args.get("osmreader.chShortcuts", "no"));
         osmReader.locationIndexHighResolution(args.getInt("osmreader.locationIndexHighResolution", 1000));
         if (!osmReader.loadExisting()) {
@@ -187,32 +211,66 @@ public class OSMReader {
         if (!graphStorage.loadExisting())
             return false;
 
+        // fails if the graph was prepared for a different weighting or vehicle
+        if (prepare instanceof PrepareContractionHierarchies
+                && !((PrepareContractionHierarchies) prepare).loadExisting())
+            logger.warn("no metadata of the contraction hierarchies preparation found, assuming it fits");
+
         if (!location2IDIndex().loadExisting())
             createIndex();
+        else if (wayIdIndex() != null && !wayIdIndex().loadExisting())
+            wayIdIndex().prepareIndex();
         return true;
     }
 
     private InputStream createInputStream(File file) throws IOException {
         FileInputStream fi = new FileInputStream(file);
-        if (file.getAbsolutePath().endsWith(".gz"))
-            return new GZIPInputStream(fi);
-        else if (file.getAbsolutePath().endsWith(".zip"))
-            return new ZipInputStream(fi);
+        String name = file.getName().toLowerCase();
+        InputStream is;
+        if (name.endsWith(".gz"))
+            is = new GZIPInputStream(fi, 1 << 16);
+        else if (name.endsWith(".bz2"))
+            is = new BZip2InputStream(fi);
+        else if (name.endsWith(".zip")) {
+            ZipInputStream zis = new ZipInputStream(fi);
+            if (zis.getNextEntry() == null) {
+                zis.close();
+                throw new IOException("zip file is empty " + file);
+            }
+            is = zis;
+        } else
+            return fi;
 
-        return fi;
+        // decompress in a separate thread
+        if (readAhead)
+            return new ReadAheadInputStream(is);
+        return is;
     }
 
     void osm2Graph(File osmXmlFile) throws IOException {
         logger.info("using " + helper.getStorageInfo(graphStorage) + ", accepts:"
                 + helper.acceptWay() + ", memory:" + Helper.memInfo());
-        helper.preProcess(createInputStream(osmXmlFile));
-        writeOsm2Graph(createInputStream(osmXmlFile));
+        if (isPBF(osmXmlFile)) {
+            if (!singlePass)
+                helper.preProcess(new PBFReader(createInputStream(osmXmlFile)).workerThreads(workerThreads));
+            writePbf2Graph(createInputStream(osmXmlFile));
+        } else {
+            if (!singlePass)
+                helper.preProcess(new OSMXMLPipeline(createInputStream(osmXmlFile), helper.acceptWay()).
+                        workerThreads(workerThreads));
+            writeOsm2Graph(createInputStream(osmXmlFile));
+        }
         cleanUp();
         optimize();
         flush();
         createIndex();
     }
 
+    static boolean isPBF(File file) {
+        String name = file.getName().toLowerCase();
+        return name.endsWith(".pbf");
+    }
+
     void optimize() {
         logger.info("optimizing ... (" + Helper.memInfo() + ")");
         graphStorage.optimize();
@@ -221,9 +279,7 @@ public class OSMReader {
         // move this into the GraphStorage.optimize method?
         if (sortGraph) {
             logger.info("sorting ... (" + Helper.memInfo() + ")");
-            GraphStorage newGraph = GHUtility.newStorage(graphStorage);
-            GHUtility.sortDFS(graphStorage, newGraph);
-            graphStorage = newGraph;
+            GHUtility.sortSpatial(graphStorage);
         }
 
         if (doPrepare) {
@@ -252,90 +308,112 @@ public class OSMReader {
         logger.info("flushing graph with " + graphStorage.nodes() + " nodes, bounds:"
                 + graphStorage.bounds() + ", " + Helper.memInfo() + ")");
         graphStorage.flush();
+        if (prepare instanceof PrepareContractionHierarchies)
+            ((PrepareContractionHierarchies) prepare).flush();
     }
 
     void createIndex() {
         location2IDIndex().prepareIndex();
+        if (wayIdIndex() != null)
+            wayIdIndex().prepareIndex();
     }
 
     /**
      * Creates the edges and nodes files from the specified inputstream (osm xml
-     * file).
+     * file). Parsing and the evaluation of the way tags is done in a pipeline
+     * with several threads, the graph is written from the calling thread only.
      */
     void writeOsm2Graph(InputStream is) {
         if (is == null)
             throw new IllegalStateException("Stream cannot be empty");
 
-        // detected nodes means inclusive pillar nodes where we don't need to reserver space for
-        int tmp = (int) (helper.expectedNodes() / 50);
-        if (tmp < 0 || helper.expectedNodes() == 0)
-            throw new IllegalStateException("Expected nodes not in bounds: " + nf(helper.expectedNodes()));
-
-        logger.info("creating graph. Found nodes (pillar+tower):" + nf(helper.expectedNodes()) + ", " + Helper.memInfo());
-        graphStorage.create(tmp);
-        XMLInputFactory factory = XMLInputFactory.newInstance();
-        XMLStreamReader sReader = null;
-        long wayStart = -1;
-        StopWatch sw = new StopWatch();
+        createStorage();
         try {
-            sReader = factory.createXMLStreamReader(is, "UTF-8");
-            long counter = 1;
-            for (int event = sReader.next(); event != XMLStreamConstants.END_DOCUMENT;
-                    event = sReader.next(), counter++) {
-
-                switch (event) {
-                    case XMLStreamConstants.START_ELEMENT:
-                        if ("node".equals(sReader.getLocalName())) {
-                            processNode(sReader);
-                            if (counter % 10000000 == 0) {
-                                logger.info(nf(counter) + ", locs:" + nf(locations)
-                                        + " (" + skippedLocations + ") " + Helper.memInfo());
-                            }
-                        } else if ("way".equals(sReader.getLocalName())) {
-                            if (wayStart < 0) {
-                                helper.startWayProcessing();
-                                logger.info(nf(counter) + ", now parsing ways");
-                                wayStart = counter;
-                                sw.start();
-                            }
-                            helper.processWay(sReader);
-                            if (counter - wayStart == 10000 && sw.stop().getSeconds() > 1) {
-                                logger.warn("Something is wrong! Processing ways takes too long! "
-                                        + sw.getSeconds() + "sec for only " + (counter - wayStart) + " entries");
-                            }
-                            // hmmh a bit hacky: counter does +=2 until the next loop
-                            if ((counter / 2) % 1000000 == 0) {
-                                logger.info(nf(counter) + ", locs:" + nf(locations)
-                                        + " (" + skippedLocations + "), edges:" + nf(helper.edgeCount())
-                                        + " " + Helper.memInfo());
-                            }
-                        }
-                        break;
-                }
-            }
-            // logger.info("storage nodes:" + storage.nodes() + " vs. graph nodes:" + storage.getGraph().nodes());
-        } catch (XMLStreamException ex) {
+            new OSMXMLPipeline(is, helper.acceptWay()).workerThreads(workerThreads).read(new GraphSink());
+        } catch (IOException ex) {
             throw new RuntimeException("Couldn't process file", ex);
-        } finally {
-            Helper7.close(sReader);
         }
         helper.finishedReading();
     }
 
-    private void processNode(XMLStreamReader sReader) throws XMLStreamException {
-        long osmId;
+    /**
+     * Same as writeOsm2Graph but for a PBF file. The nodes are processed in
+     * file order although the blobs are decoded in several threads.
+     */
+    void writePbf2Graph(InputStream is) {
+        createStorage();
         try {
-            osmId = Long.parseLong(sReader.getAttributeValue(null, "id"));
-        } catch (Exception ex) {
-            logger.error("cannot get id from xml node:" + sReader.getAttributeValue(null, "id"), ex);
-            return;
+            new PBFReader(is).workerThreads(workerThreads).read(new GraphSink());
+        } catch (IOException ex) {
+            throw new RuntimeException("Couldn't process file", ex);
         }
+        helper.finishedReading();
+    }
 
-        double lat = -1;
-        double lon = -1;
+    /**
+     * Feeds the parsed nodes and ways into the helper and logs the progress.
+     */
+    private class GraphSink implements OSMXMLPipeline.Sink, PBFReader.Sink {
+
+        private final StopWatch sw = new StopWatch();
+        private long nodeCounter = 0;
+        private long wayCounter = 0;
+
+        @Override public void processNode(long osmId, double lat, double lon) {
+            OSMReader.this.processNode(osmId, lat, lon);
+            if (++nodeCounter % 10000000 == 0)
+                logger.info(nf(nodeCounter) + ", locs:" + nf(locations)
+                        + " (" + skippedLocations + ") " + Helper.memInfo());
+        }
+
+        @Override public void processWay(long osmId, TLongList nodes, int flags) {
+            startWay();
+            helper.wayId(osmId);
+            helper.addEdge(nodes, flags);
+            finishWay();
+        }
+
+        @Override public void processWay(long osmId, TLongList nodes, Map<String, Object> tags) {
+            startWay();
+            helper.wayId(osmId);
+            helper.processWay(nodes, tags);
+            finishWay();
+        }
+
+        private void startWay() {
+            if (wayCounter == 0) {
+                helper.startWayProcessing();
+                logger.info(nf(nodeCounter) + ", now parsing ways");
+                sw.start();
+            }
+        }
+
+        private void finishWay() {
+            wayCounter++;
+            if (wayCounter == 10000 && sw.stop().getSeconds() > 1) {
+                logger.warn("Something is wrong! Processing ways takes too long! "
+                        + sw.getSeconds() + "sec for only " + wayCounter + " entries");
+            }
+            if (wayCounter % 1000000 == 0) {
+                logger.info(nf(wayCounter) + " ways, locs:" + nf(locations)
+                        + " (" + skippedLocations + "), edges:" + nf(helper.edgeCount())
+                        + " " + Helper.memInfo());
+            }
+        }
+    }
+
+    private void createStorage() {
+        // detected nodes means inclusive pillar nodes where we don't need to reserver space for
+        int tmp = (int) (helper.expectedNodes() / 50);
+        if (tmp < 0 || helper.expectedNodes() == 0)
+            throw new IllegalStateException("Expected nodes not in bounds: " + nf(helper.expectedNodes()));
+
+        logger.info("creating graph. Found nodes (pillar+tower):" + nf(helper.expectedNodes()) + ", " + Helper.memInfo());
+        graphStorage.create(tmp);
+    }
+
+    private void processNode(long osmId, double lat, double lon) {
         try {
-            lat = Double.parseDouble(sReader.getAttributeValue(null, "lat"));
-            lon = Double.parseDouble(sReader.getAttributeValue(null, "lon"));
             if (isInBounds(lat, lon)) {
                 helper.addNode(osmId, lat, lon);
                 locations++;
@@ -370,6 +448,34 @@ public class OSMReader {
         return prepare;
     }
 
+    /**
+     * Specifies the number of threads for the contraction hierarchies
+     * preparation. Call it before chShortcuts.
+     */
+    public OSMReader chThreads(int threads) {
+        chThreads = threads;
+        return this;
+    }
+
+    /**
+     * Limits the hops and the settled nodes of the witness searches in the
+     * contraction hierarchies preparation. Call it before chShortcuts.
+     */
+    public OSMReader chWitnessLimits(int hops, int settledNodes) {
+        chWitnessHops = hops;
+        chWitnessSettledNodes = settledNodes;
+        return this;
+    }
+
+    /**
+     * Specifies the number of threads decoding the blobs of a PBF file or
+     * converting the parsed elements of an xml file.
+     */
+    public OSMReader workerThreads(int threads) {
+        workerThreads = threads;
+        return this;
+    }
+
     /**
      * Specifies if shortcuts should be introduced (contraction hierarchies) to
      * improve query speed.
@@ -385,9 +491,11 @@ public class OSMReader {
         if (tmpIndex >= 0)
             encoder = Helper.getVehicleEncoder(chShortcuts.substring(tmpIndex + 1).trim());
         if ("true".equals(chShortcuts) || "fastest".equals(chShortcuts)) {
-            prepare = new PrepareContractionHierarchies().type(new FastestCalc(encoder)).vehicle(encoder);
+            prepare = new PrepareContractionHierarchies().type(new FastestCalc(encoder)).vehicle(encoder).
+                    threads(chThreads).witnessHops(chWitnessHops).witnessSettledNodes(chWitnessSettledNodes);
         } else if ("shortest".equals(chShortcuts)) {
-            prepare = new PrepareContractionHierarchies().type(new ShortestCalc()).vehicle(encoder);
+            prepare = new PrepareContractionHierarchies().type(new ShortestCalc()).vehicle(encoder).
+                    threads(chThreads).witnessHops(chWitnessHops).witnessSettledNodes(chWitnessSettledNodes);
         } else
             throw new IllegalArgumentException("Value " + chShortcuts + " not valid for configuring "
                     + "contraction hierarchies algorithm preparation");
@@ -402,7 +510,57 @@ public class OSMReader {
     }
 
     OSMReaderHelper createDoubleParseHelper() {
-        return new OSMReaderHelperDoubleParse(graphStorage, expectedNodes);
+        return initOsmIdMap(new OSMReaderHelperDoubleParse(graphStorage, expectedNodes));
+    }
+
+    OSMReaderHelper createSinglePassHelper() {
+        return initOsmIdMap(new OSMReaderHelperSinglePass(graphStorage, expectedNodes));
+    }
+
+    private OSMReaderHelper initOsmIdMap(OSMReaderHelper tmpHelper) {
+        if (offHeapIdMap)
+            tmpHelper.osmIdMap(new GHLongIntSegmentMap(graphStorage.directory(), "tmpOsmIdMap"));
+        return tmpHelper;
+    }
+
+    /**
+     * If true the map from OSM ids to node ids is stored in DataAccess objects
+     * of the graph directory with only a small buffer on the heap. Necessary
+     * for very big imports like the planet. Call it before reading.
+     */
+    public OSMReader offHeapIdMap(boolean offHeapIdMap) {
+        if (this.offHeapIdMap == offHeapIdMap)
+            return this;
+        this.offHeapIdMap = offHeapIdMap;
+        if (offHeapIdMap)
+            initOsmIdMap(helper);
+        else
+            helper.osmIdMap(new GHLongIntBTree(200));
+        return this;
+    }
+
+    /**
+     * If true a compressed osm file is decompressed in a separate thread
+     * while parsing.
+     */
+    public OSMReader readAhead(boolean readAhead) {
+        this.readAhead = readAhead;
+        return this;
+    }
+
+    /**
+     * If true the osm file is read only once and the ways are spilled into a
+     * temporary storage instead of parsing the file twice. This is faster
+     * but requires temporary space for the coordinates of all nodes.
+     */
+    public OSMReader singlePass(boolean singlePass) {
+        if (this.singlePass == singlePass)
+            return this;
+        this.singlePass = singlePass;
+        AcceptWay acceptWay = helper.acceptWay();
+        helper = singlePass ? createSinglePassHelper() : createDoubleParseHelper();
+        helper.acceptWay(acceptWay);
+        return this;
     }
 
     OSMReaderHelper helper() {
@@ -425,9 +583,18 @@ public class OSMReader {
     }
 
     /**
-     * Sets if the graph should be sorted to improve query speed. Often not
-     * appropriated if graph is huge as sorting is done via copying into a new
-     * instance.
+     * @return the index from OSM way ids to edges or null if the graph does
+     * not store way ids
+     */
+    public WayIdIndex wayIdIndex() {
+        if (wayIdIndex == null && graphStorage.isStoringWayIds())
+            wayIdIndex = new WayIdIndex(graphStorage, graphStorage.directory());
+        return wayIdIndex;
+    }
+
+    /**
+     * Sets if the nodes and edges of the graph should be renumbered along a
+     * space filling curve to improve query speed. This is done in-place.
      */
     public OSMReader sort(boolean bool) {
         sortGraph = bool;
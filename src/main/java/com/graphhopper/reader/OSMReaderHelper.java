@@ -18,38 +18,37 @@
  */
 package com.graphhopper.reader;
 
+import com.graphhopper.coll.GHLongIntSegmentMap;
+import com.graphhopper.coll.LongIntMap;
 import com.graphhopper.routing.util.AcceptWay;
 import com.graphhopper.storage.Graph;
 import com.graphhopper.storage.GraphStorage;
 import com.graphhopper.util.DistanceCalc;
 import com.graphhopper.util.EdgeIterator;
-import com.graphhopper.util.Helper;
 import com.graphhopper.util.PointList;
 import gnu.trove.list.TLongList;
 import gnu.trove.list.array.TLongArrayList;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
-import javax.xml.stream.XMLStreamConstants;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * @author Peter Karich
  */
 public abstract class OSMReaderHelper {
 
-    private final Logger logger = LoggerFactory.getLogger(getClass());
     protected long zeroCounter = 0;
     protected final Graph g;
     protected final long expectedNodes;
     private DistanceCalc callback = new DistanceCalc();
     private AcceptWay acceptWay;
+    protected LongIntMap osmIdToIndexMap;
     protected TLongArrayList wayNodes = new TLongArrayList(10);
     private Map<String, Object> osmProperties = new HashMap<String, Object>();
     private Map<String, Object> outProperties = new HashMap<String, Object>();
+    // the OSM id of the way which edges are currently added
+    private long wayId;
 
     public OSMReaderHelper(Graph g, long expectedNodes) {
         this.g = g;
@@ -65,6 +64,23 @@ public abstract class OSMReaderHelper {
         return acceptWay;
     }
 
+    /**
+     * Specifies the map from OSM ids to the ids used while reading. E.g. a
+     * GHLongIntSegmentMap for big files to keep the heap small. Call it before
+     * reading.
+     */
+    public OSMReaderHelper osmIdMap(LongIntMap map) {
+        releaseOsmIdMap();
+        osmIdToIndexMap = map;
+        return this;
+    }
+
+    protected void releaseOsmIdMap() {
+        if (osmIdToIndexMap instanceof GHLongIntSegmentMap)
+            ((GHLongIntSegmentMap) osmIdToIndexMap).remove();
+        osmIdToIndexMap = null;
+    }
+
     public void callback(DistanceCalc callback) {
         this.callback = callback;
     }
@@ -80,10 +96,34 @@ public abstract class OSMReaderHelper {
     public void preProcess(InputStream osmXml) {
     }
 
+    /**
+     * Same as preProcess(InputStream) but with a configured pipeline.
+     */
+    public void preProcess(OSMXMLPipeline pipeline) throws IOException {
+    }
+
+    /**
+     * Same as preProcess(InputStream) but for a PBF file.
+     */
+    public void preProcess(PBFReader pbfReader) throws IOException {
+    }
+
     public abstract boolean addNode(long osmId, double lat, double lon);
 
     public abstract int addEdge(TLongList nodes, int flags);
 
+    /**
+     * Sets the OSM id of the way for the next edges, it is stored if the graph
+     * stores way ids.
+     */
+    void wayId(long wayId) {
+        this.wayId = wayId;
+    }
+
+    long wayId() {
+        return wayId;
+    }
+
     int addEdge(int fromIndex, int toIndex, PointList pointList, int flags) {
         if (fromIndex < 0 || toIndex < 0)
             throw new AssertionError("to or from index is invalid for this edge "
@@ -115,6 +155,8 @@ public abstract class OSMReaderHelper {
         EdgeIterator iter = g.edge(fromIndex, toIndex, towerNodeDistance, flags);
         if (nodes > 2)
             iter.wayGeometry(pillarNodes);
+        if (g instanceof GraphStorage && ((GraphStorage) g).isStoringWayIds())
+            ((GraphStorage) g).wayId(iter.edge(), wayId);
         return nodes;
     }
 
@@ -133,11 +175,14 @@ public abstract class OSMReaderHelper {
     void startWayProcessing() {
     }
 
-    public void processWay(XMLStreamReader sReader) throws XMLStreamException {
-        boolean valid = parseWay(sReader);
+    /**
+     * Processes an already parsed way e.g. from a PBF file.
+     */
+    public void processWay(TLongList nodes, Map<String, Object> tags) {
+        boolean valid = parseWay(nodes, tags);
         if (valid) {
             int flags = acceptWay.toFlags(outProperties);
-            addEdge(wayNodes, flags);            
+            addEdge(wayNodes, flags);
         }
     }
 
@@ -145,33 +190,14 @@ public abstract class OSMReaderHelper {
      * wayNodes will be filled with participating node ids. outProperties will
      * be filled with way information after calling this method.
      *
-     * @return true the current xml entry is a way entry and has nodes
+     * @return true if the way is accepted and has nodes
      */
-    boolean parseWay(XMLStreamReader sReader) throws XMLStreamException {
+    boolean parseWay(TLongList nodes, Map<String, Object> tags) {
         wayNodes.clear();
         osmProperties.clear();
         outProperties.clear();
-        for (int tmpE = sReader.nextTag(); tmpE != XMLStreamConstants.END_ELEMENT;
-                tmpE = sReader.nextTag()) {
-            if (tmpE == XMLStreamConstants.START_ELEMENT) {
-                if ("nd".equals(sReader.getLocalName())) {
-                    String ref = sReader.getAttributeValue(null, "ref");
-                    try {
-                        wayNodes.add(Long.parseLong(ref));
-                    } catch (Exception ex) {
-                        logger.error("cannot get ref from way. ref:" + ref, ex);
-                    }
-                } else if ("tag".equals(sReader.getLocalName())) {
-                    String tagKey = sReader.getAttributeValue(null, "k");
-                    if (tagKey != null && !Helper.isEmpty(tagKey)) {
-                        String tagValue = sReader.getAttributeValue(null, "v");
-                        osmProperties.put(tagKey, tagValue);
-                    }
-                }
-                sReader.next();
-            }
-        }
-
+        wayNodes.addAll(nodes);
+        osmProperties.putAll(tags);
         boolean isWay = acceptWay.handleTags(outProperties, osmProperties, wayNodes);
         boolean hasNodes = wayNodes.size() > 1;
         return isWay && hasNodes;
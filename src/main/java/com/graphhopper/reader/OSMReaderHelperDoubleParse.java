@@ -19,21 +19,16 @@
 package com.graphhopper.reader;
 
 import com.graphhopper.coll.BigLongIntMap;
-import com.graphhopper.coll.LongIntMap;
 import com.graphhopper.coll.GHLongIntBTree;
 import com.graphhopper.storage.DataAccess;
 import com.graphhopper.storage.Directory;
 import com.graphhopper.storage.GraphStorage;
 import com.graphhopper.util.Helper;
-import static com.graphhopper.util.Helper.*;
-import com.graphhopper.util.Helper7;
 import com.graphhopper.util.PointList;
 import gnu.trove.list.TLongList;
+import java.io.IOException;
 import java.io.InputStream;
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLStreamConstants;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,7 +49,6 @@ public class OSMReaderHelperDoubleParse extends OSMReaderHelper {
     // tower node is <= -3
     private static final int TOWER_NODE = -2;
     private final Logger logger = LoggerFactory.getLogger(getClass());
-    private LongIntMap osmIdToIndexMap;
     private int towerId = 0;
     private int pillarId = 0;
     // remember how many times a node was used to identify tower nodes
@@ -201,7 +195,7 @@ public class OSMReaderHelperDoubleParse extends OSMReaderHelper {
     }
 
     private void printInfo(String str) {
-        LoggerFactory.getLogger(getClass()).info("finished " + str + " processing."
+        logger.info("finished " + str + " processing."
                 + " nodes: " + g.nodes() + ", osmIdMap.size:" + osmIdToIndexMap.size()
                 + ", osmIdMap:" + osmIdToIndexMap.memoryUsage() + "MB"
                 + ", osmIdMap.toString:" + osmIdToIndexMap + " "
@@ -215,13 +209,12 @@ public class OSMReaderHelperDoubleParse extends OSMReaderHelper {
 
     @Override
     void finishedReading() {
-        osmIdToIndexMap.optimize();
         printInfo("way");
         dir.remove(pillarLats);
         dir.remove(pillarLons);
         pillarLons = null;
         pillarLats = null;
-        osmIdToIndexMap = null;
+        releaseOsmIdMap();
     }
 
     private void setHasHighways(long osmId) {
@@ -248,41 +241,51 @@ public class OSMReaderHelperDoubleParse extends OSMReaderHelper {
      */
     @Override
     public void preProcess(InputStream osmXml) {
-        pillarLats.create(Math.max(expectedNodes / 50, 100));
-        pillarLons.create(Math.max(expectedNodes / 50, 100));
         if (osmXml == null)
             throw new AssertionError("Stream cannot be empty");
-
-        XMLInputFactory factory = XMLInputFactory.newInstance();
-        XMLStreamReader sReader = null;
         try {
-            sReader = factory.createXMLStreamReader(osmXml, "UTF-8");
-            long tmpCounter = 1;
-            for (int event = sReader.next(); event != XMLStreamConstants.END_DOCUMENT;
-                    event = sReader.next(), tmpCounter++) {
-                if (tmpCounter % 50000000 == 0)
-                    logger.info(nf(tmpCounter) + " (preprocess), osmIdMap:"
-                            + nf(osmIdToIndexMap.size()) + " (" + osmIdToIndexMap.memoryUsage() + "MB) "
-                            + Helper.memInfo());
+            preProcess(new OSMXMLPipeline(osmXml, acceptWay()));
+        } catch (IOException ex) {
+            throw new RuntimeException("Problem while parsing file", ex);
+        }
+    }
 
-                switch (event) {
-                    case XMLStreamConstants.START_ELEMENT:
-                        if ("way".equals(sReader.getLocalName())) {
-                            boolean valid = parseWay(sReader);
-                            if (valid) {
-                                int s = wayNodes.size();
-                                for (int index = 0; index < s; index++) {
-                                    setHasHighways(wayNodes.get(index));
-                                }
-                            }
-                        }
-                        break;
-                }
+    @Override
+    public void preProcess(OSMXMLPipeline pipeline) throws IOException {
+        initPreProcess();
+        pipeline.skipNodes(true).read(new OSMXMLPipeline.Sink() {
+            @Override public void processNode(long osmId, double lat, double lon) {
             }
-        } catch (XMLStreamException ex) {
-            throw new RuntimeException("Problem while parsing file", ex);
-        } finally {
-            Helper7.close(sReader);
+
+            @Override public void processWay(long osmId, TLongList nodes, int flags) {
+                markWayNodes(nodes);
+            }
+        });
+    }
+
+    @Override
+    public void preProcess(PBFReader pbfReader) throws IOException {
+        initPreProcess();
+        pbfReader.skipNodes(true).read(new PBFReader.Sink() {
+            @Override public void processNode(long osmId, double lat, double lon) {
+            }
+
+            @Override public void processWay(long osmId, TLongList nodes, Map<String, Object> tags) {
+                if (parseWay(nodes, tags))
+                    markWayNodes(wayNodes);
+            }
+        });
+    }
+
+    private void initPreProcess() {
+        pillarLats.create(Math.max(expectedNodes / 50, 100));
+        pillarLons.create(Math.max(expectedNodes / 50, 100));
+    }
+
+    private void markWayNodes(TLongList nodes) {
+        int s = nodes.size();
+        for (int index = 0; index < s; index++) {
+            setHasHighways(nodes.get(index));
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,238 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader;
+
+import com.graphhopper.coll.GHLongIntBTree;
+import com.graphhopper.storage.DataAccess;
+import com.graphhopper.storage.Directory;
+import com.graphhopper.storage.GraphStorage;
+import com.graphhopper.util.BitUtil;
+import com.graphhopper.util.Helper;
+import static com.graphhopper.util.Helper.*;
+import com.graphhopper.util.PointList;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TIntArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This helper parses the osm file only once. All node coordinates are
+ * buffered in DataAccess objects and the accepted ways are spilled as lists of
+ * internal node indices together with their flags and OSM way id into a
+ * temporary DataAccess.
+ * Tower and pillar nodes are identified after reading via a pass over the
+ * spilled ways which is a lot smaller than the osm file. Compared to
+ * OSMReaderHelperDoubleParse this requires more temporary space as the
+ * coordinates of all nodes are stored, not only of the nodes used in ways.
+ *
+ * @author Peter Karich
+ */
+public class OSMReaderHelperSinglePass extends OSMReaderHelper {
+
+    private static final int EMPTY = -1;
+    // usage count of a node is capped here, it is a tower node then
+    private static final int TOWER_USAGE = 2;
+    // integers before the node indices of a spilled way
+    private static final int WAY_HEADER = 4;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Directory dir;
+    private DataAccess nodeLats, nodeLons;
+    // how many times a node is used in ways or if negative the tower node id
+    private DataAccess nodeUsage;
+    // for every way: flags, way id as two integers, node count and the
+    // internal node indices
+    private DataAccess spilledWays;
+    private long spillPointer = 0;
+    private long spilledWayCount = 0;
+    private int nodeIndex = 0;
+    private int towerId = 0;
+    private boolean initialized = false;
+    private final TIntArrayList gapIndices = new TIntArrayList();
+
+    public OSMReaderHelperSinglePass(GraphStorage storage, long expectedNodes) {
+        super(storage, expectedNodes);
+        dir = storage.directory();
+        nodeLats = dir.findCreate("tmpNodeLatitudes");
+        nodeLons = dir.findCreate("tmpNodeLongitudes");
+        nodeUsage = dir.findCreate("tmpNodeUsage");
+        spilledWays = dir.findCreate("tmpSpilledWays");
+        // osm id -> internal index of the buffered node
+        osmIdToIndexMap = new GHLongIntBTree(200);
+    }
+
+    /**
+     * Creates the temporary storage not before reading as this helper is
+     * also created if the graph is only loaded.
+     */
+    private void initStorage() {
+        if (initialized)
+            return;
+        initialized = true;
+        long bytes = Math.max(expectedNodes * 4, 100);
+        nodeLats.create(bytes);
+        nodeLons.create(bytes);
+        nodeUsage.create(bytes);
+        spilledWays.create(bytes);
+    }
+
+    @Override
+    public boolean addNode(long osmId, double lat, double lon) {
+        initStorage();
+        if (osmIdToIndexMap.get(osmId) != EMPTY)
+            return false;
+
+        long bytes = (nodeIndex + 1) * 4L;
+        nodeLats.ensureCapacity(bytes);
+        nodeLons.ensureCapacity(bytes);
+        nodeUsage.ensureCapacity(bytes);
+        nodeLats.setInt(nodeIndex, Helper.degreeToInt(lat));
+        nodeLons.setInt(nodeIndex, Helper.degreeToInt(lon));
+        nodeUsage.setInt(nodeIndex, 0);
+        osmIdToIndexMap.put(osmId, nodeIndex);
+        nodeIndex++;
+        return true;
+    }
+
+    /**
+     * Spills the way into a temporary DataAccess. The edges are created in
+     * finishedReading.
+     *
+     * @return always 0 as no edge is created yet
+     */
+    @Override
+    public int addEdge(TLongList osmIds, int flags) {
+        initStorage();
+        int size = osmIds.size();
+        spilledWays.ensureCapacity((spillPointer + WAY_HEADER + size) * 4);
+        long countPointer = spillPointer + 3;
+        long pointer = spillPointer + WAY_HEADER;
+        int count = 0;
+        gapIndices.clear();
+        for (int i = 0; i < size; i++) {
+            int index = osmIdToIndexMap.get(osmIds.get(i));
+            if (index == EMPTY) {
+                // Skip nodes not in the file or not in bounds. Like in the
+                // double parse helper the node before such a gap is a tower node.
+                if (count > 0)
+                    gapIndices.add(spilledWays.getInt(pointer - 1));
+                continue;
+            }
+            spilledWays.setInt(pointer++, index);
+            count++;
+        }
+        if (count < 2)
+            // not enough nodes, overwrite it with the next way
+            return 0;
+
+        for (long p = spillPointer + WAY_HEADER; p < pointer; p++) {
+            int index = spilledWays.getInt(p);
+            int usage = nodeUsage.getInt(index);
+            if (usage < TOWER_USAGE)
+                nodeUsage.setInt(index, usage + 1);
+        }
+        for (int i = 0; i < gapIndices.size(); i++) {
+            nodeUsage.setInt(gapIndices.get(i), TOWER_USAGE);
+        }
+        long osmWayId = wayId();
+        spilledWays.setInt(spillPointer, flags);
+        spilledWays.setInt(spillPointer + 1, (int) (osmWayId >>> 32));
+        spilledWays.setInt(spillPointer + 2, (int) osmWayId);
+        spilledWays.setInt(countPointer, count);
+        spillPointer = pointer;
+        spilledWayCount++;
+        return 0;
+    }
+
+    @Override
+    void startWayProcessing() {
+        logger.info("finished node processing. buffered nodes: " + nf(nodeIndex)
+                + ", osmIdMap:" + osmIdToIndexMap.memoryUsage() + "MB " + Helper.memInfo());
+        // the osm ids are only necessary for the ways
+        osmIdToIndexMap.optimize();
+    }
+
+    @Override
+    void finishedReading() {
+        logger.info("finished way processing. spilled ways: " + nf(spilledWayCount) + " ("
+                + spillPointer * 4 / Helper.MB + "MB), " + Helper.memInfo());
+        releaseOsmIdMap();
+        initStorage();
+        createEdges();
+        logger.info("finished edge creation. nodes: " + g.nodes() + ", " + Helper.memInfo());
+        dir.remove(spilledWays);
+        dir.remove(nodeUsage);
+        dir.remove(nodeLats);
+        dir.remove(nodeLons);
+        spilledWays = null;
+        nodeUsage = null;
+        nodeLats = null;
+        nodeLons = null;
+    }
+
+    /**
+     * Iterates over the spilled ways and splits them at tower nodes: nodes
+     * used more than once or end-standing nodes.
+     */
+    void createEdges() {
+        PointList pointList = new PointList(10);
+        long pointer = 0;
+        while (pointer < spillPointer) {
+            int flags = spilledWays.getInt(pointer);
+            // the edges of this way get its id, see OSMReaderHelper.addEdge
+            wayId(BitUtil.toLong(spilledWays.getInt(pointer + 1), spilledWays.getInt(pointer + 2)));
+            int count = spilledWays.getInt(pointer + 3);
+            pointer += WAY_HEADER;
+            pointList.clear();
+            int firstNode = -1;
+            for (int i = 0; i < count; i++) {
+                int index = spilledWays.getInt(pointer + i);
+                double lat = Helper.intToDegree(nodeLats.getInt(index));
+                double lon = Helper.intToDegree(nodeLons.getInt(index));
+                pointList.add(lat, lon);
+                int usage = nodeUsage.getInt(index);
+                if (usage < 0 || usage >= TOWER_USAGE || i == 0 || i == count - 1) {
+                    int tower = towerNode(index, lat, lon);
+                    if (firstNode >= 0) {
+                        addEdge(firstNode, tower, pointList, flags);
+                        pointList.clear();
+                        pointList.add(lat, lon);
+                    }
+                    firstNode = tower;
+                }
+            }
+            pointer += count;
+        }
+    }
+
+    private int towerNode(int index, double lat, double lon) {
+        int usage = nodeUsage.getInt(index);
+        if (usage < 0)
+            return -usage - 1;
+
+        int id = towerId++;
+        g.setNode(id, lat, lon);
+        nodeUsage.setInt(index, -id - 1);
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader;
+
+import com.graphhopper.routing.util.AcceptWay;
+import com.graphhopper.util.Helper;
+import com.graphhopper.util.Helper7;
+import com.graphhopper.util.StopWatch;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads an OSM xml file in a pipeline: a parser thread collects the raw
+ * attributes of nodes and ways into batches, worker threads convert the
+ * numbers and evaluate the way tags into flags and the calling thread hands
+ * the results over to the Sink in file order. The queue between the parser and
+ * the calling thread is bounded so the parser cannot run too far ahead.
+ *
+ * The Sink is only called from the calling thread, so everything writing into
+ * the graph stays single threaded.
+ *
+ * @author Peter Karich
+ */
+public class OSMXMLPipeline {
+
+    /**
+     * Receives the nodes and the accepted ways in file order.
+     */
+    public interface Sink {
+
+        void processNode(long osmId, double lat, double lon);
+
+        /**
+         * Only called for ways accepted by AcceptWay and with at least two
+         * nodes.
+         */
+        void processWay(long osmId, TLongList nodes, int flags);
+    }
+    private static final Logger logger = LoggerFactory.getLogger(OSMXMLPipeline.class);
+    private final InputStream is;
+    private final AcceptWay acceptWay;
+    private int workerThreads = 2;
+    private int batchSize = 1000;
+    private int queueSize = 32;
+    private boolean skipNodes = false;
+    // statistics, written by the parser thread and read after the end batch
+    private long nodeCount;
+    private long wayCount;
+    private StopWatch parserBlocked = new StopWatch();
+    private StopWatch writerWaiting = new StopWatch();
+
+    public OSMXMLPipeline(InputStream is, AcceptWay acceptWay) {
+        if (is == null)
+            throw new IllegalStateException("Stream cannot be empty");
+        this.is = is;
+        this.acceptWay = acceptWay;
+    }
+
+    /**
+     * Specifies the number of threads converting the parsed batches.
+     */
+    public OSMXMLPipeline workerThreads(int workerThreads) {
+        this.workerThreads = Math.max(1, workerThreads);
+        return this;
+    }
+
+    /**
+     * Specifies the number of nodes or ways per batch.
+     */
+    public OSMXMLPipeline batchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        return this;
+    }
+
+    /**
+     * Specifies how many batches can wait for the Sink.
+     */
+    public OSMXMLPipeline queueSize(int queueSize) {
+        this.queueSize = Math.max(1, queueSize);
+        return this;
+    }
+
+    /**
+     * If true the nodes are not collected which makes e.g. the preprocessing
+     * of the ways faster.
+     */
+    public OSMXMLPipeline skipNodes(boolean skipNodes) {
+        this.skipNodes = skipNodes;
+        return this;
+    }
+
+    /**
+     * Reads the whole stream and closes it afterwards.
+     */
+    public void read(Sink sink) throws IOException {
+        final BlockingQueue<Future<Batch>> queue = new ArrayBlockingQueue<Future<Batch>>(queueSize);
+        final ExecutorService service = Executors.newFixedThreadPool(workerThreads);
+        Thread parser = new Thread("osm-xml-parser") {
+            @Override public void run() {
+                Batch end = new Batch();
+                end.end = true;
+                Future<Batch> last = done(end);
+                try {
+                    parse(queue, service);
+                } catch (Throwable ex) {
+                    last = failed(ex instanceof Exception ? (Exception) ex : new RuntimeException(ex));
+                } finally {
+                    try {
+                        queue.put(last);
+                    } catch (InterruptedException ex) {
+                        // the reading thread gave up
+                    }
+                }
+            }
+        };
+        parser.setDaemon(true);
+        StopWatch sw = new StopWatch().start();
+        parser.start();
+        try {
+            while (true) {
+                writerWaiting.start();
+                Batch batch = waitFor(take(queue));
+                writerWaiting.stop();
+                if (batch.end)
+                    break;
+                batch.emit(sink);
+            }
+        } finally {
+            parser.interrupt();
+            service.shutdownNow();
+            is.close();
+        }
+        float secs = sw.stop().getSeconds();
+        logger.info("read " + Helper.nf(nodeCount) + " nodes and " + Helper.nf(wayCount) + " ways in "
+                + secs + "s (" + Helper.nf((long) ((nodeCount + wayCount) / Math.max(secs, 1e-3f)))
+                + " elements/s) with " + workerThreads + " worker threads."
+                + " Parser blocked by full queue:" + parserBlocked.getSeconds()
+                + "s, sink waiting for batches:" + writerWaiting.getSeconds() + "s");
+    }
+
+    private Future<Batch> take(BlockingQueue<Future<Batch>> queue) {
+        try {
+            return queue.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private Batch waitFor(Future<Batch> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException)
+                throw (IOException) ex.getCause();
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    private static Future<Batch> done(final Batch batch) {
+        FutureTask<Batch> task = new FutureTask<Batch>(new Callable<Batch>() {
+            @Override public Batch call() {
+                return batch;
+            }
+        });
+        task.run();
+        return task;
+    }
+
+    private static Future<Batch> failed(final Exception ex) {
+        FutureTask<Batch> task = new FutureTask<Batch>(new Callable<Batch>() {
+            @Override public Batch call() throws Exception {
+                throw ex;
+            }
+        });
+        task.run();
+        return task;
+    }
+
+    void parse(BlockingQueue<Future<Batch>> queue, ExecutorService service)
+            throws IOException, InterruptedException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        XMLStreamReader sReader = null;
+        Batch batch = new Batch();
+        try {
+            sReader = factory.createXMLStreamReader(is, "UTF-8");
+            for (int event = sReader.next(); event != XMLStreamConstants.END_DOCUMENT;
+                    event = sReader.next()) {
+                if (event != XMLStreamConstants.START_ELEMENT)
+                    continue;
+
+                String name = sReader.getLocalName();
+                if ("node".equals(name)) {
+                    if (skipNodes)
+                        continue;
+                    // keep the file order: batches contain either nodes or ways
+                    if (!batch.ways.isEmpty())
+                        batch = submit(batch, queue, service);
+                    batch.nodeIds.add(sReader.getAttributeValue(null, "id"));
+                    batch.nodeLats.add(sReader.getAttributeValue(null, "lat"));
+                    batch.nodeLons.add(sReader.getAttributeValue(null, "lon"));
+                    nodeCount++;
+                    if (batch.nodeIds.size() >= batchSize)
+                        batch = submit(batch, queue, service);
+                } else if ("way".equals(name)) {
+                    if (!batch.nodeIds.isEmpty())
+                        batch = submit(batch, queue, service);
+                    batch.ways.add(parseWay(sReader));
+                    wayCount++;
+                    if (batch.ways.size() >= batchSize)
+                        batch = submit(batch, queue, service);
+                }
+            }
+            if (!batch.nodeIds.isEmpty() || !batch.ways.isEmpty())
+                submit(batch, queue, service);
+        } catch (XMLStreamException ex) {
+            throw new IOException("Couldn't parse xml", ex);
+        } finally {
+            Helper7.close(sReader);
+        }
+    }
+
+    private RawWay parseWay(XMLStreamReader sReader) throws XMLStreamException {
+        RawWay way = new RawWay();
+        way.id = sReader.getAttributeValue(null, "id");
+        for (int tmpE = sReader.nextTag(); tmpE != XMLStreamConstants.END_ELEMENT;
+                tmpE = sReader.nextTag()) {
+            if (tmpE == XMLStreamConstants.START_ELEMENT) {
+                if ("nd".equals(sReader.getLocalName())) {
+                    way.refs.add(sReader.getAttributeValue(null, "ref"));
+                } else if ("tag".equals(sReader.getLocalName())) {
+                    String tagKey = sReader.getAttributeValue(null, "k");
+                    if (tagKey != null && !Helper.isEmpty(tagKey)) {
+                        String tagValue = sReader.getAttributeValue(null, "v");
+                        way.tags.put(tagKey, tagValue);
+                    }
+                }
+                sReader.next();
+            }
+        }
+        return way;
+    }
+
+    private Batch submit(final Batch batch, BlockingQueue<Future<Batch>> queue, ExecutorService service)
+            throws InterruptedException {
+        Future<Batch> future = service.submit(new Callable<Batch>() {
+            @Override public Batch call() {
+                batch.convert(acceptWay);
+                return batch;
+            }
+        });
+        if (queue.remainingCapacity() == 0) {
+            parserBlocked.start();
+            queue.put(future);
+            parserBlocked.stop();
+        } else
+            queue.put(future);
+        return new Batch();
+    }
+
+    static class RawWay {
+
+        String id;
+        List<String> refs = new ArrayList<String>(10);
+        Map<String, Object> tags = new HashMap<String, Object>(4);
+        // filled in convert
+        long osmId;
+        TLongArrayList nodes;
+        boolean accepted;
+        int flags;
+    }
+
+    static class Batch {
+
+        boolean end = false;
+        List<String> nodeIds = new ArrayList<String>();
+        List<String> nodeLats = new ArrayList<String>();
+        List<String> nodeLons = new ArrayList<String>();
+        List<RawWay> ways = new ArrayList<RawWay>();
+        // filled in convert
+        TLongArrayList osmIds;
+        double[] lats;
+        double[] lons;
+
+        /**
+         * Parses the numbers and evaluates the tags. Runs in a worker thread.
+         */
+        void convert(AcceptWay acceptWay) {
+            int size = nodeIds.size();
+            osmIds = new TLongArrayList(size);
+            lats = new double[size];
+            lons = new double[size];
+            for (int i = 0; i < size; i++) {
+                long osmId;
+                try {
+                    osmId = Long.parseLong(nodeIds.get(i));
+                } catch (Exception ex) {
+                    logger.error("cannot get id from xml node:" + nodeIds.get(i), ex);
+                    continue;
+                }
+                int index = osmIds.size();
+                try {
+                    lats[index] = Double.parseDouble(nodeLats.get(i));
+                    lons[index] = Double.parseDouble(nodeLons.get(i));
+                } catch (Exception ex) {
+                    throw new RuntimeException("cannot handle lon/lat of node " + osmId + ": "
+                            + nodeLats.get(i) + "," + nodeLons.get(i), ex);
+                }
+                osmIds.add(osmId);
+            }
+            nodeIds = nodeLats = nodeLons = null;
+
+            Map<String, Object> outProperties = new HashMap<String, Object>();
+            for (RawWay way : ways) {
+                try {
+                    way.osmId = Long.parseLong(way.id);
+                } catch (Exception ex) {
+                    way.osmId = -1;
+                }
+                way.nodes = new TLongArrayList(way.refs.size());
+                for (String ref : way.refs) {
+                    try {
+                        way.nodes.add(Long.parseLong(ref));
+                    } catch (Exception ex) {
+                        logger.error("cannot get ref from way. ref:" + ref, ex);
+                    }
+                }
+                outProperties.clear();
+                way.accepted = acceptWay.handleTags(outProperties, way.tags, way.nodes)
+                        && way.nodes.size() > 1;
+                if (way.accepted)
+                    way.flags = acceptWay.toFlags(outProperties);
+                way.refs = null;
+                way.tags = null;
+            }
+        }
+
+        void emit(Sink sink) {
+            for (int i = 0; i < osmIds.size(); i++) {
+                sink.processNode(osmIds.get(i), lats[i], lons[i]);
+            }
+            for (RawWay way : ways) {
+                if (way.accepted)
+                    sink.processWay(way.osmId, way.nodes, way.flags);
+            }
+        }
+    }
+}
@@ -0,0 +1,599 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader;
+
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads OSM PBF files (http://wiki.openstreetmap.org/wiki/PBF_Format) without
+ * depending on a protobuf library. The blobs are read sequentially from the
+ * stream but inflated and decoded in worker threads. The decoded blocks are
+ * handed over to the Sink in the original file order and from the calling
+ * thread only, so the Sink needn't be thread safe.
+ *
+ * Relations, node tags and meta data like user or timestamp are skipped as
+ * they are not necessary to create the graph.
+ *
+ * @author Peter Karich
+ */
+public class PBFReader {
+
+    /**
+     * Receives the nodes and ways in file order.
+     */
+    public interface Sink {
+
+        void processNode(long osmId, double lat, double lon);
+
+        /**
+         * @param nodes the node ids of this way. The list is reused by the
+         * reader so copy it if you need it after this call.
+         */
+        void processWay(long osmId, TLongList nodes, Map<String, Object> tags);
+    }
+    // limits from the specification
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+    private final InputStream is;
+    private int workerThreads = 2;
+    private boolean skipNodes = false;
+
+    public PBFReader(InputStream is) {
+        if (is == null)
+            throw new IllegalStateException("Stream cannot be empty");
+        this.is = is;
+    }
+
+    /**
+     * Specifies the number of threads decoding the blobs. If smaller than 1
+     * everything is done in the calling thread.
+     */
+    public PBFReader workerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+        return this;
+    }
+
+    /**
+     * If true the nodes are not decoded at all which makes e.g. the
+     * preprocessing of the ways a lot faster.
+     */
+    public PBFReader skipNodes(boolean skipNodes) {
+        this.skipNodes = skipNodes;
+        return this;
+    }
+
+    /**
+     * Reads the whole stream and closes it afterwards.
+     */
+    public void read(Sink sink) throws IOException {
+        DataInputStream dis = new DataInputStream(is);
+        ExecutorService service = null;
+        if (workerThreads > 0)
+            service = Executors.newFixedThreadPool(workerThreads);
+        try {
+            // limit the number of decoded blocks waiting in memory
+            int maxPending = Math.max(1, 2 * workerThreads);
+            LinkedList<Future<Block>> pending = new LinkedList<Future<Block>>();
+            boolean headerFound = false;
+            for (RawBlob raw = readBlob(dis); raw != null; raw = readBlob(dis)) {
+                if ("OSMHeader".equals(raw.type)) {
+                    checkHeader(raw.decompress());
+                    headerFound = true;
+                    continue;
+                }
+                if (!"OSMData".equals(raw.type))
+                    // unknown blobs should be skipped
+                    continue;
+                if (!headerFound)
+                    throw new IllegalStateException("OSMData blob before the OSMHeader blob");
+
+                final RawBlob tmpRaw = raw;
+                Callable<Block> task = new Callable<Block>() {
+                    @Override public Block call() throws Exception {
+                        return decodeBlock(tmpRaw.decompress());
+                    }
+                };
+                if (service == null) {
+                    try {
+                        task.call().emit(sink);
+                    } catch (IOException ex) {
+                        throw ex;
+                    } catch (Exception ex) {
+                        throw new RuntimeException(ex);
+                    }
+                    continue;
+                }
+
+                pending.add(service.submit(task));
+                if (pending.size() >= maxPending)
+                    waitFor(pending.removeFirst()).emit(sink);
+            }
+            while (!pending.isEmpty()) {
+                waitFor(pending.removeFirst()).emit(sink);
+            }
+        } finally {
+            if (service != null)
+                service.shutdownNow();
+            dis.close();
+        }
+    }
+
+    private Block waitFor(Future<Block> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException)
+                throw (IOException) ex.getCause();
+            throw new RuntimeException("Couldn't decode block", ex.getCause());
+        }
+    }
+
+    /**
+     * @return null if the end of the stream is reached
+     */
+    RawBlob readBlob(DataInputStream dis) throws IOException {
+        int headerSize;
+        try {
+            headerSize = dis.readInt();
+        } catch (EOFException ex) {
+            return null;
+        }
+        if (headerSize < 0 || headerSize > MAX_HEADER_SIZE)
+            throw new IOException("Invalid blob header size " + headerSize);
+
+        byte[] bytes = new byte[headerSize];
+        dis.readFully(bytes);
+        ProtoBuffer header = new ProtoBuffer(bytes, 0, headerSize);
+        RawBlob raw = new RawBlob();
+        int dataSize = -1;
+        while (header.hasMore()) {
+            int key = header.readKey();
+            switch (key >>> 3) {
+                case 1:
+                    raw.type = header.readString();
+                    break;
+                case 3:
+                    dataSize = (int) header.readVarint();
+                    break;
+                default:
+                    header.skip(key);
+            }
+        }
+        if (dataSize < 0 || dataSize > MAX_BLOB_SIZE)
+            throw new IOException("Invalid blob size " + dataSize + " for blob of type " + raw.type);
+
+        raw.data = new byte[dataSize];
+        dis.readFully(raw.data);
+        return raw;
+    }
+
+    void checkHeader(ProtoBuffer header) throws IOException {
+        while (header.hasMore()) {
+            int key = header.readKey();
+            if (key >>> 3 == 4) {
+                String feature = header.readString();
+                if (!"OsmSchema-V0.6".equals(feature) && !"DenseNodes".equals(feature))
+                    throw new IllegalStateException("Feature " + feature + " of the PBF file is not supported");
+            } else
+                header.skip(key);
+        }
+    }
+
+    /**
+     * Decodes a PrimitiveBlock.
+     */
+    Block decodeBlock(ProtoBuffer buf) throws IOException {
+        Block block = new Block();
+        String[] strings = new String[0];
+        List<ProtoBuffer> groups = new ArrayList<ProtoBuffer>();
+        while (buf.hasMore()) {
+            int key = buf.readKey();
+            switch (key >>> 3) {
+                case 1:
+                    strings = decodeStringTable(buf.readMessage());
+                    break;
+                case 2:
+                    groups.add(buf.readMessage());
+                    break;
+                case 17:
+                    block.granularity = (int) buf.readVarint();
+                    break;
+                case 19:
+                    block.latOffset = buf.readSVarint();
+                    break;
+                case 20:
+                    block.lonOffset = buf.readSVarint();
+                    break;
+                default:
+                    buf.skip(key);
+            }
+        }
+        // the string table and the offsets could come after the groups
+        for (ProtoBuffer group : groups) {
+            while (group.hasMore()) {
+                int key = group.readKey();
+                switch (key >>> 3) {
+                    case 1:
+                        if (skipNodes)
+                            group.skip(key);
+                        else
+                            decodeNode(group.readMessage(), block);
+                        break;
+                    case 2:
+                        if (skipNodes)
+                            group.skip(key);
+                        else
+                            decodeDenseNodes(group.readMessage(), block);
+                        break;
+                    case 3:
+                        decodeWay(group.readMessage(), strings, block);
+                        break;
+                    default:
+                        // relations and changesets
+                        group.skip(key);
+                }
+            }
+        }
+        return block;
+    }
+
+    private String[] decodeStringTable(ProtoBuffer buf) throws IOException {
+        List<String> list = new ArrayList<String>();
+        while (buf.hasMore()) {
+            int key = buf.readKey();
+            if (key >>> 3 == 1)
+                list.add(buf.readString());
+            else
+                buf.skip(key);
+        }
+        return list.toArray(new String[list.size()]);
+    }
+
+    private void decodeNode(ProtoBuffer buf, Block block) throws IOException {
+        long id = 0;
+        long lat = 0;
+        long lon = 0;
+        while (buf.hasMore()) {
+            int key = buf.readKey();
+            switch (key >>> 3) {
+                case 1:
+                    id = buf.readSVarint();
+                    break;
+                case 8:
+                    lat = buf.readSVarint();
+                    break;
+                case 9:
+                    lon = buf.readSVarint();
+                    break;
+                default:
+                    buf.skip(key);
+            }
+        }
+        block.addNode(id, lat, lon);
+    }
+
+    private void decodeDenseNodes(ProtoBuffer buf, Block block) throws IOException {
+        TLongArrayList ids = new TLongArrayList();
+        TLongArrayList lats = new TLongArrayList();
+        TLongArrayList lons = new TLongArrayList();
+        while (buf.hasMore()) {
+            int key = buf.readKey();
+            switch (key >>> 3) {
+                case 1:
+                    buf.readSVarints(key, ids);
+                    break;
+                case 8:
+                    buf.readSVarints(key, lats);
+                    break;
+                case 9:
+                    buf.readSVarints(key, lons);
+                    break;
+                default:
+                    buf.skip(key);
+            }
+        }
+        if (ids.size() != lats.size() || ids.size() != lons.size())
+            throw new IOException("Dense nodes with different sizes of ids, lats and lons "
+                    + ids.size() + ", " + lats.size() + ", " + lons.size());
+        // all three are delta encoded
+        long id = 0, lat = 0, lon = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            id += ids.get(i);
+            lat += lats.get(i);
+            lon += lons.get(i);
+            block.addNode(id, lat, lon);
+        }
+    }
+
+    private void decodeWay(ProtoBuffer buf, String[] strings, Block block) throws IOException {
+        Way way = new Way();
+        TLongArrayList keys = new TLongArrayList();
+        TLongArrayList vals = new TLongArrayList();
+        while (buf.hasMore()) {
+            int key = buf.readKey();
+            switch (key >>> 3) {
+                case 1:
+                    way.id = buf.readVarint();
+                    break;
+                case 2:
+                    buf.readVarints(key, keys);
+                    break;
+                case 3:
+                    buf.readVarints(key, vals);
+                    break;
+                case 8:
+                    buf.readSVarints(key, way.nodes);
+                    break;
+                default:
+                    buf.skip(key);
+            }
+        }
+        if (keys.size() != vals.size())
+            throw new IOException("Way " + way.id + " has different number of keys and values");
+        for (int i = 0; i < keys.size(); i++) {
+            way.tags.put(strings[(int) keys.get(i)], strings[(int) vals.get(i)]);
+        }
+        // refs are delta encoded
+        long ref = 0;
+        for (int i = 0; i < way.nodes.size(); i++) {
+            ref += way.nodes.get(i);
+            way.nodes.set(i, ref);
+        }
+        block.ways.add(way);
+    }
+
+    static class RawBlob {
+
+        String type;
+        byte[] data;
+
+        ProtoBuffer decompress() throws IOException {
+            ProtoBuffer blob = new ProtoBuffer(data, 0, data.length);
+            ProtoBuffer raw = null;
+            byte[] zlibData = null;
+            int rawSize = -1;
+            while (blob.hasMore()) {
+                int key = blob.readKey();
+                switch (key >>> 3) {
+                    case 1:
+                        raw = blob.readMessage();
+                        break;
+                    case 2:
+                        rawSize = (int) blob.readVarint();
+                        break;
+                    case 3:
+                        zlibData = blob.readBytes();
+                        break;
+                    case 4:
+                        throw new IOException("LZMA compressed blobs are not supported");
+                    default:
+                        blob.skip(key);
+                }
+            }
+            if (raw != null)
+                return raw;
+            if (zlibData == null || rawSize < 0)
+                throw new IOException("Blob of type " + type + " without data");
+
+            byte[] bytes = new byte[rawSize];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(zlibData);
+                int len = 0;
+                while (len < rawSize && !inflater.finished()) {
+                    int tmp = inflater.inflate(bytes, len, rawSize - len);
+                    if (tmp == 0 && inflater.needsInput())
+                        break;
+                    len += tmp;
+                }
+                if (len != rawSize)
+                    throw new IOException("Blob of type " + type + " has " + len
+                            + " uncompressed bytes but should have " + rawSize);
+            } catch (DataFormatException ex) {
+                throw new IOException("Couldn't inflate blob of type " + type, ex);
+            } finally {
+                inflater.end();
+            }
+            return new ProtoBuffer(bytes, 0, rawSize);
+        }
+    }
+
+    static class Way {
+
+        long id;
+        TLongArrayList nodes = new TLongArrayList(10);
+        Map<String, Object> tags = new HashMap<String, Object>(4);
+    }
+
+    /**
+     * A decoded PrimitiveBlock. The raw coordinates are converted when they
+     * are emitted as the offsets could be stored after the groups.
+     */
+    static class Block {
+
+        int granularity = 100;
+        long latOffset;
+        long lonOffset;
+        TLongArrayList nodeIds = new TLongArrayList();
+        TLongArrayList rawLats = new TLongArrayList();
+        TLongArrayList rawLons = new TLongArrayList();
+        List<Way> ways = new ArrayList<Way>();
+
+        void addNode(long id, long lat, long lon) {
+            nodeIds.add(id);
+            rawLats.add(lat);
+            rawLons.add(lon);
+        }
+
+        void emit(Sink sink) {
+            for (int i = 0; i < nodeIds.size(); i++) {
+                double lat = 1e-9 * (latOffset + (long) granularity * rawLats.get(i));
+                double lon = 1e-9 * (lonOffset + (long) granularity * rawLons.get(i));
+                sink.processNode(nodeIds.get(i), lat, lon);
+            }
+            for (Way way : ways) {
+                sink.processWay(way.id, way.nodes, way.tags);
+            }
+        }
+    }
+
+    /**
+     * Minimal reader of the protocol buffer wire format
+     * (https://developers.google.com/protocol-buffers/docs/encoding).
+     */
+    static class ProtoBuffer {
+
+        private final byte[] bytes;
+        private int pos;
+        private final int end;
+
+        ProtoBuffer(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.pos = offset;
+            this.end = offset + length;
+        }
+
+        boolean hasMore() {
+            return pos < end;
+        }
+
+        int readKey() throws IOException {
+            return (int) readVarint();
+        }
+
+        long readVarint() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= end)
+                    throw new IOException("Truncated varint");
+                byte b = bytes[pos++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return result;
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        long readSVarint() throws IOException {
+            long v = readVarint();
+            // zig zag decoding
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        private int readLength() throws IOException {
+            int len = (int) readVarint();
+            if (len < 0 || pos + len > end)
+                throw new IOException("Invalid length " + len + " at position " + pos);
+            return len;
+        }
+
+        ProtoBuffer readMessage() throws IOException {
+            int len = readLength();
+            ProtoBuffer msg = new ProtoBuffer(bytes, pos, len);
+            pos += len;
+            return msg;
+        }
+
+        byte[] readBytes() throws IOException {
+            int len = readLength();
+            byte[] res = new byte[len];
+            System.arraycopy(bytes, pos, res, 0, len);
+            pos += len;
+            return res;
+        }
+
+        String readString() throws IOException {
+            int len = readLength();
+            try {
+                String str = new String(bytes, pos, len, "UTF-8");
+                pos += len;
+                return str;
+            } catch (UnsupportedEncodingException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        /**
+         * Reads a repeated varint field which can be packed or not.
+         */
+        void readVarints(int key, TLongArrayList list) throws IOException {
+            if ((key & 7) == 2) {
+                ProtoBuffer packed = readMessage();
+                while (packed.hasMore()) {
+                    list.add(packed.readVarint());
+                }
+            } else
+                list.add(readVarint());
+        }
+
+        void readSVarints(int key, TLongArrayList list) throws IOException {
+            if ((key & 7) == 2) {
+                ProtoBuffer packed = readMessage();
+                while (packed.hasMore()) {
+                    list.add(packed.readSVarint());
+                }
+            } else
+                list.add(readSVarint());
+        }
+
+        void skip(int key) throws IOException {
+            switch (key & 7) {
+                case 0:
+                    readVarint();
+                    break;
+                case 1:
+                    pos += 8;
+                    break;
+                case 2:
+                    // do not use pos += readLength() as pos would be evaluated first
+                    int len = readLength();
+                    pos += len;
+                    break;
+                case 5:
+                    pos += 4;
+                    break;
+                default:
+                    throw new IOException("Unsupported wire type " + (key & 7) + " at position " + pos);
+            }
+            if (pos > end)
+                throw new IOException("Truncated message");
+        }
+    }
+}
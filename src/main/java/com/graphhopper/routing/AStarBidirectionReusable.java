@@ -0,0 +1,107 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing;
+
+import com.graphhopper.routing.util.VehicleEncoder;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.DistanceCalc;
+import com.graphhopper.util.DistancePlaneProjection;
+
+/**
+ * The bidirectional A* of AStarBidirection on top of the reusable search
+ * states of DijkstraBidirectionReusable. The open sets are ordered by the
+ * estimated full weight while the states keep the real weight.
+ *
+ * @see AStarBidirection
+ * @author Peter Karich
+ */
+public class AStarBidirectionReusable extends DijkstraBidirectionReusable {
+
+    private DistanceCalc dist;
+    private double approximationFactor;
+    private double fromLat, fromLon;
+    private double toLat, toLon;
+
+    public AStarBidirectionReusable(Graph graph, VehicleEncoder encoder) {
+        super(graph, encoder);
+        approximation(false);
+    }
+
+    public AStarBidirectionReusable(Graph graph, VehicleEncoder encoder,
+            SearchState stateFrom, SearchState stateTo) {
+        super(graph, encoder, stateFrom, stateTo);
+        approximation(false);
+    }
+
+    /**
+     * @param approx if true it enables approximative distance calculation from
+     * lat,lon values
+     */
+    public AStarBidirectionReusable approximation(boolean approx) {
+        if (approx) {
+            dist = new DistancePlaneProjection();
+            approximationFactor = 0.5;
+        } else {
+            dist = new DistanceCalc();
+            approximationFactor = 1.15;
+        }
+        return this;
+    }
+
+    /**
+     * Specify a low value like 0.5 for worse but faster results. Or over 1.1
+     * for more precise.
+     */
+    public AStarBidirectionReusable approximationFactor(double approxFactor) {
+        this.approximationFactor = approxFactor;
+        return this;
+    }
+
+    @Override public Path calcPath(int from, int to) {
+        fromLat = graph.getLatitude(from);
+        fromLon = graph.getLongitude(from);
+        toLat = graph.getLatitude(to);
+        toLon = graph.getLongitude(to);
+        return super.calcPath(from, to);
+    }
+
+    @Override
+    protected double calcKey(int node, double weight, boolean forward) {
+        double lat = graph.getLatitude(node);
+        double lon = graph.getLongitude(node);
+        double weightToGoal = forward
+                ? dist.calcDist(toLat, toLon, lat, lon)
+                : dist.calcDist(fromLat, fromLon, lat, lon);
+        return weight + weightCalc.getMinWeight(weightToGoal);
+    }
+
+    @Override
+    public boolean checkFinishCondition() {
+        double tmp = shortest.weight() * approximationFactor;
+        if (currFrom < 0)
+            return stateTo.weight(currTo) >= tmp;
+        else if (currTo < 0)
+            return stateFrom.weight(currFrom) >= tmp;
+        return stateFrom.weight(currFrom) + stateTo.weight(currTo) >= tmp;
+    }
+
+    @Override public String name() {
+        return "astarbi";
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing;
+
+import com.graphhopper.routing.util.VehicleEncoder;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.DistanceCalc;
+import com.graphhopper.util.DistancePlaneProjection;
+
+/**
+ * This class implements the A* algorithm according to
+ * http://en.wikipedia.org/wiki/A*_search_algorithm on top of the primitive
+ * SearchState of DijkstraReusable. The open set is ordered by the estimated
+ * full weight while the state keeps the real weight.
+ *
+ * @see AStar for the reference implementation
+ * @author Peter Karich
+ */
+public class AStarReusable extends DijkstraReusable {
+
+    private DistanceCalc dist = new DistancePlaneProjection();
+    private double toLat, toLon;
+
+    public AStarReusable(Graph graph, VehicleEncoder encoder) {
+        super(graph, encoder);
+    }
+
+    public AStarReusable(Graph graph, VehicleEncoder encoder, SearchState state) {
+        super(graph, encoder, state);
+    }
+
+    /**
+     * @param approx if true it enables an approximative distance calculation
+     * from lat,lon values
+     */
+    public AStarReusable approximation(boolean approx) {
+        if (approx)
+            dist = new DistancePlaneProjection();
+        else
+            dist = new DistanceCalc();
+        return this;
+    }
+
+    @Override
+    protected void initCalc(int from, int to) {
+        toLat = graph.getLatitude(to);
+        toLon = graph.getLongitude(to);
+    }
+
+    @Override
+    protected double calcKey(int node, double weight) {
+        double weightToGoal = dist.calcDist(toLat, toLon, graph.getLatitude(node), graph.getLongitude(node));
+        return weight + weightCalc.getMinWeight(weightToGoal);
+    }
+
+    @Override public String name() {
+        return "astar";
+    }
+}
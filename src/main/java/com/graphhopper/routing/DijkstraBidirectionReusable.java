@@ -0,0 +1,175 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing;
+
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.routing.util.VehicleEncoder;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.EdgeIterator;
+
+/**
+ * Calculates the shortest path in bidirectional way like
+ * DijkstraBidirectionRef but stores both shortest-path-trees in a SearchState.
+ * Contrary to the other algorithms an instance can be used for several
+ * calcPath calls, which avoids all allocations except the returned Path.
+ * Share the states via a SearchStatePool but never between threads.
+ *
+ * @author Peter Karich
+ */
+public class DijkstraBidirectionReusable extends AbstractRoutingAlgorithm {
+
+    private int visitedFromCount;
+    private int visitedToCount;
+    protected final SearchState stateFrom;
+    protected final SearchState stateTo;
+    // -1 if the search in this direction has no more nodes
+    protected int currFrom;
+    protected int currTo;
+    protected PathBidirState shortest;
+
+    public DijkstraBidirectionReusable(Graph graph, VehicleEncoder encoder) {
+        this(graph, encoder, new SearchState(graph.nodes()), new SearchState(graph.nodes()));
+    }
+
+    public DijkstraBidirectionReusable(Graph graph, VehicleEncoder encoder,
+            SearchState stateFrom, SearchState stateTo) {
+        super(graph, encoder);
+        if (stateFrom == stateTo)
+            throw new IllegalArgumentException("Both directions need their own state");
+        this.stateFrom = stateFrom;
+        this.stateTo = stateTo;
+    }
+
+    void initFrom(int from) {
+        currFrom = from;
+        stateFrom.reset(graph.nodes()).init(from);
+    }
+
+    void initTo(int to) {
+        currTo = to;
+        stateTo.reset(graph.nodes()).init(to);
+    }
+
+    @Override public Path calcPath(int from, int to) {
+        visitedFromCount = 0;
+        visitedToCount = 0;
+        shortest = new PathBidirState(graph, flagEncoder, stateFrom, stateTo);
+        initFrom(from);
+        initTo(to);
+        if (from == to)
+            return new Path(graph, flagEncoder);
+
+        int finish = 0;
+        while (finish < 2) {
+            finish = 0;
+            if (!fillEdgesFrom())
+                finish++;
+
+            if (!fillEdgesTo())
+                finish++;
+        }
+
+        return shortest.extract();
+    }
+
+    /**
+     * @return the key which orders the specified node in the open set of its
+     * direction
+     */
+    protected double calcKey(int node, double weight, boolean forward) {
+        return weight;
+    }
+
+    public boolean checkFinishCondition() {
+        if (currFrom < 0)
+            return stateTo.weight(currTo) >= shortest.weight();
+        else if (currTo < 0)
+            return stateFrom.weight(currFrom) >= shortest.weight();
+        return stateFrom.weight(currFrom) + stateTo.weight(currTo) >= shortest.weight();
+    }
+
+    void fillEdges(int currNode, SearchState state, SearchState stateOther,
+            EdgeFilter filter, boolean forward) {
+
+        double currWeight = state.weight(currNode);
+        EdgeIterator iter = graph.getEdges(currNode, filter);
+        while (iter.next()) {
+            if (!accept(iter))
+                continue;
+            int neighborNode = iter.adjNode();
+            double tmpWeight = weightCalc.getWeight(iter.distance(), iter.flags()) + currWeight;
+            if (!state.isVisited(neighborNode) || state.weight(neighborNode) > tmpWeight)
+                state.update(neighborNode, tmpWeight, calcKey(neighborNode, tmpWeight, forward),
+                        iter.edge(), currNode);
+
+            updateShortest(neighborNode, state.weight(neighborNode), stateOther);
+        }
+    }
+
+    void updateShortest(int node, double weight, SearchState stateOther) {
+        if (!stateOther.isVisited(node))
+            return;
+
+        // update μ
+        double newShortest = weight + stateOther.weight(node);
+        if (newShortest < shortest.weight()) {
+            shortest.meetingNode(node);
+            shortest.weight(newShortest);
+        }
+    }
+
+    public boolean fillEdgesFrom() {
+        if (currFrom >= 0) {
+            fillEdges(currFrom, stateFrom, stateTo, outEdgeFilter, true);
+            visitedFromCount++;
+            currFrom = stateFrom.poll();
+            if (currFrom < 0)
+                return false;
+
+            if (checkFinishCondition())
+                return false;
+        } else if (currTo < 0)
+            return false;
+        return true;
+    }
+
+    public boolean fillEdgesTo() {
+        if (currTo >= 0) {
+            fillEdges(currTo, stateTo, stateFrom, inEdgeFilter, false);
+            visitedToCount++;
+            currTo = stateTo.poll();
+            if (currTo < 0)
+                return false;
+
+            if (checkFinishCondition())
+                return false;
+        } else if (currFrom < 0)
+            return false;
+        return true;
+    }
+
+    @Override
+    public int calcVisitedNodes() {
+        return visitedFromCount + visitedToCount;
+    }
+
+    @Override public String name() {
+        return "dijkstrabi";
+    }
+}
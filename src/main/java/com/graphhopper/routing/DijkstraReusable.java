@@ -0,0 +1,97 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing;
+
+import com.graphhopper.routing.util.VehicleEncoder;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.EdgeIterator;
+
+/**
+ * Implements a single source shortest path algorithm
+ * http://en.wikipedia.org/wiki/Dijkstra's_algorithm
+ *
+ * Same as DijkstraSimple but without EdgeEntry objects: weights and parents
+ * are stored in the node indexed arrays of a SearchState and the open set
+ * supports decrease-key in O(log n). An instance can be used for several
+ * calcPath calls.
+ *
+ * @see DijkstraSimple for the reference implementation
+ * @author Peter Karich
+ */
+public class DijkstraReusable extends AbstractRoutingAlgorithm {
+
+    protected final SearchState state;
+    private int visitedNodes;
+
+    public DijkstraReusable(Graph graph, VehicleEncoder encoder) {
+        this(graph, encoder, new SearchState(graph.nodes()));
+    }
+
+    public DijkstraReusable(Graph graph, VehicleEncoder encoder, SearchState state) {
+        super(graph, encoder);
+        this.state = state;
+    }
+
+    @Override public Path calcPath(int from, int to) {
+        visitedNodes = 0;
+        initCalc(from, to);
+        state.reset(graph.nodes()).init(from);
+        int currNode;
+        while ((currNode = state.poll()) >= 0) {
+            visitedNodes++;
+            if (currNode == to)
+                return new PathState(graph, flagEncoder, state).endNode(to).extract();
+
+            double currWeight = state.weight(currNode);
+            EdgeIterator iter = neighbors(currNode);
+            while (iter.next()) {
+                if (!accept(iter))
+                    continue;
+                int neighborNode = iter.adjNode();
+                double tmpWeight = weightCalc.getWeight(iter.distance(), iter.flags()) + currWeight;
+                if (!state.isVisited(neighborNode) || state.weight(neighborNode) > tmpWeight)
+                    state.update(neighborNode, tmpWeight, calcKey(neighborNode, tmpWeight),
+                            iter.edge(), currNode);
+            }
+        }
+        return new Path(graph, flagEncoder);
+    }
+
+    /**
+     * Called before every search.
+     */
+    protected void initCalc(int from, int to) {
+    }
+
+    /**
+     * @return the key which orders the specified node in the open set
+     */
+    protected double calcKey(int node, double weight) {
+        return weight;
+    }
+
+    @Override
+    public int calcVisitedNodes() {
+        return visitedNodes;
+    }
+
+    @Override public String name() {
+        return "dijkstra";
+    }
+}
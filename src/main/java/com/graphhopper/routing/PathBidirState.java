@@ -0,0 +1,70 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing;
+
+import com.graphhopper.routing.util.VehicleEncoder;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.EdgeIterator;
+
+/**
+ * This class creates a Path from the two node indexed shortest-path-trees of a
+ * bidirectional search meeting at one node.
+ *
+ * @author Peter Karich
+ */
+public class PathBidirState extends PathState {
+
+    private final SearchState stateFrom;
+    private final SearchState stateTo;
+    private int meetingNode = -1;
+
+    public PathBidirState(Graph g, VehicleEncoder encoder, SearchState stateFrom, SearchState stateTo) {
+        super(g, encoder, stateFrom);
+        this.stateFrom = stateFrom;
+        this.stateTo = stateTo;
+    }
+
+    public PathBidirState meetingNode(int node) {
+        meetingNode = node;
+        return this;
+    }
+
+    /**
+     * Extracts path from two shortest-path-tree
+     */
+    @Override
+    public Path extract() {
+        if (meetingNode < 0)
+            return this;
+
+        sw.start();
+        fromNode(extractTree(stateFrom, meetingNode));
+        reverseOrder();
+
+        int node = meetingNode;
+        int edgeId = stateTo.parentEdge(node);
+        while (EdgeIterator.Edge.isValid(edgeId)) {
+            node = stateTo.parentNode(node);
+            processDistance(edgeId, node);
+            edgeId = stateTo.parentEdge(node);
+        }
+        sw.stop();
+        return found(true);
+    }
+}
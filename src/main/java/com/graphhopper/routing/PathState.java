@@ -0,0 +1,72 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing;
+
+import com.graphhopper.routing.util.VehicleEncoder;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.EdgeIterator;
+
+/**
+ * This class creates a Path from the node indexed shortest-path-tree of a
+ * SearchState, going upwards from the end node to the root.
+ *
+ * @author Peter Karich
+ */
+public class PathState extends Path {
+
+    private final SearchState state;
+    private int endNode = -1;
+
+    public PathState(Graph g, VehicleEncoder encoder, SearchState state) {
+        super(g, encoder);
+        this.state = state;
+    }
+
+    public PathState endNode(int node) {
+        endNode = node;
+        return this;
+    }
+
+    @Override
+    public Path extract() {
+        if (endNode < 0)
+            return this;
+
+        sw.start();
+        fromNode(extractTree(state, endNode));
+        reverseOrder();
+        sw.stop();
+        return found(true);
+    }
+
+    /**
+     * Adds the edges from node up to the root of the tree.
+     *
+     * @return the root node
+     */
+    protected int extractTree(SearchState tree, int node) {
+        int edgeId = tree.parentEdge(node);
+        while (EdgeIterator.Edge.isValid(edgeId)) {
+            processDistance(edgeId, node);
+            node = tree.parentNode(node);
+            edgeId = tree.parentEdge(node);
+        }
+        return node;
+    }
+}
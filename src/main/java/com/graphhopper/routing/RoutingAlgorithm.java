@@ -23,7 +23,7 @@ import com.graphhopper.util.NotThreadSafe;
 
 /**
  * Calculates the shortest path from the specified node ids. Can be used only
- * once.
+ * once, except DijkstraBidirectionReusable and its subclasses.
  *
  * @author Peter Karich,
  */
@@ -26,12 +26,21 @@ import com.graphhopper.routing.util.WeightCalculation;
 import com.graphhopper.storage.Graph;
 
 /**
+ * Creates the algorithms by name. The default algorithms work on primitive
+ * search states. Without a SearchStatePool every algorithm gets its own
+ * states, with a pool all algorithms created on the same thread share them,
+ * so only one of them may be used at a time per thread. Append 'Ref' to the
+ * name to get the EdgeEntry based reference implementation, e.g.
+ * dijkstrabiRef.
+ *
  * @author Peter Karich
  */
 public class RoutingAlgorithmFactory {
 
     private String algoStr;
     private boolean approx;
+    // null if every algorithm gets its own states
+    private SearchStatePool pool;
 
     /**
      * @param algo possible values are astar (A* algorithm), astarbi
@@ -39,21 +48,44 @@ public class RoutingAlgorithmFactory {
      * bit faster bidirectional Dijkstra).
      */
     public RoutingAlgorithmFactory(String algo, boolean approx) {
+        this(algo, approx, null);
+    }
+
+    /**
+     * @param pool the per thread states shared by all algorithms of this
+     * factory and of other users of the pool or null to allocate the states
+     * per algorithm
+     */
+    public RoutingAlgorithmFactory(String algo, boolean approx, SearchStatePool pool) {
         this.algoStr = algo;
         this.approx = approx;
+        this.pool = pool;
     }
 
     public RoutingAlgorithm createAlgo(Graph g, VehicleEncoder encoder) {
-        if ("dijkstrabi".equalsIgnoreCase(algoStr)) {
+        if ("dijkstrabiRef".equalsIgnoreCase(algoStr)) {
             return new DijkstraBidirectionRef(g, encoder);
+        } else if ("dijkstraRef".equalsIgnoreCase(algoStr)) {
+            return new DijkstraSimple(g, encoder);
+        } else if ("astarbiRef".equalsIgnoreCase(algoStr)) {
+            return new AStarBidirection(g, encoder).approximation(approx);
+        } else if ("astarRef".equalsIgnoreCase(algoStr)) {
+            return new AStar(g, encoder);
         } else if ("dijkstraNative".equalsIgnoreCase(algoStr)) {
             return new DijkstraBidirection(g, encoder);
+        }
+
+        SearchState[] states = pool == null
+                ? new SearchState[]{new SearchState(g.nodes()), new SearchState(g.nodes())}
+                : pool.get(g.nodes());
+        if ("dijkstrabi".equalsIgnoreCase(algoStr)) {
+            return new DijkstraBidirectionReusable(g, encoder, states[0], states[1]);
         } else if ("dijkstra".equalsIgnoreCase(algoStr)) {
-            return new DijkstraSimple(g, encoder);
+            return new DijkstraReusable(g, encoder, states[0]);
         } else if ("astarbi".equalsIgnoreCase(algoStr)) {
-            return new AStarBidirection(g, encoder).approximation(approx);
+            return new AStarBidirectionReusable(g, encoder, states[0], states[1]).approximation(approx);
         } else
-            return new AStar(g, encoder);
+            return new AStarReusable(g, encoder, states[0]);
     }
 
     public static RoutingAlgorithm createAlgoForCar(String algoStr, Graph g, boolean shortest) {
@@ -0,0 +1,130 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing;
+
+import com.graphhopper.coll.IntDoubleIndexedHeap;
+import com.graphhopper.util.EdgeIterator;
+import com.graphhopper.util.NotThreadSafe;
+import java.util.Arrays;
+
+/**
+ * The shortest-path-tree of one search direction stored in node indexed
+ * arrays. Instead of clearing the arrays for every query a visited stamp is
+ * compared against the current epoch, so reset() is O(1) and a state can be
+ * reused for thousands of queries without any allocation. The price is
+ * roughly 24 bytes per node of the graph, independent of the explored area.
+ *
+ * The open set is an IntDoubleIndexedHeap so an improved node gets its key
+ * decreased in O(log n) instead of being removed and added again.
+ *
+ * @see SearchStatePool
+ * @author Peter Karich
+ */
+@NotThreadSafe
+public class SearchState {
+
+    private int epoch;
+    private int[] visited;
+    private double[] weights;
+    private int[] parentEdges;
+    private int[] parentNodes;
+    private final IntDoubleIndexedHeap openSet;
+
+    public SearchState(int nodes) {
+        nodes = Math.max(10, nodes);
+        visited = new int[nodes];
+        weights = new double[nodes];
+        parentEdges = new int[nodes];
+        parentNodes = new int[nodes];
+        openSet = new IntDoubleIndexedHeap(nodes / 10, nodes);
+        epoch = 1;
+    }
+
+    /**
+     * Forgets the previous search. Grows the arrays if the graph has more
+     * nodes than this state.
+     */
+    public SearchState reset(int nodes) {
+        if (nodes > visited.length) {
+            visited = Arrays.copyOf(visited, nodes);
+            weights = Arrays.copyOf(weights, nodes);
+            parentEdges = Arrays.copyOf(parentEdges, nodes);
+            parentNodes = Arrays.copyOf(parentNodes, nodes);
+        }
+        openSet.clear();
+        epoch++;
+        if (epoch == Integer.MAX_VALUE) {
+            Arrays.fill(visited, 0);
+            epoch = 1;
+        }
+        return this;
+    }
+
+    /**
+     * Adds the start node of the search.
+     */
+    public void init(int node) {
+        update(node, 0, 0, EdgeIterator.NO_EDGE, -1);
+    }
+
+    public boolean isVisited(int node) {
+        return visited[node] == epoch;
+    }
+
+    /**
+     * Stores the (better) weight of node and adds it to the open set or
+     * decreases its key there.
+     */
+    public void update(int node, double weight, double key, int edgeId, int parentNode) {
+        visited[node] = epoch;
+        weights[node] = weight;
+        parentEdges[node] = edgeId;
+        parentNodes[node] = parentNode;
+        openSet.update_(key, node);
+    }
+
+    /**
+     * @return the node with the smallest key or -1 if the open set is empty.
+     */
+    public int poll() {
+        if (openSet.isEmpty())
+            return -1;
+        return openSet.poll_element();
+    }
+
+    public double weight(int node) {
+        return weights[node];
+    }
+
+    public int parentEdge(int node) {
+        return parentEdges[node];
+    }
+
+    public int parentNode(int node) {
+        return parentNodes[node];
+    }
+
+    int capacity() {
+        return visited.length;
+    }
+
+    void epoch(int epoch) {
+        this.epoch = epoch;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing;
+
+/**
+ * Keeps one pair of SearchState per thread so that a server can route
+ * thousands of queries per second without allocating the shortest-path-trees
+ * again. The states are created lazily and grow with the graph.
+ *
+ * @author Peter Karich
+ */
+public class SearchStatePool {
+
+    private final ThreadLocal<SearchState[]> states = new ThreadLocal<SearchState[]>();
+
+    /**
+     * @return the forward and the backward state of the current thread
+     */
+    public SearchState[] get(int nodes) {
+        SearchState[] arr = states.get();
+        if (arr == null) {
+            arr = new SearchState[]{new SearchState(nodes), new SearchState(nodes)};
+            states.set(arr);
+        }
+        return arr;
+    }
+
+    /**
+     * Releases the states of the current thread.
+     */
+    public void remove() {
+        states.remove();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license
+ *  agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  Peter Karich licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License. You may obtain a copy of the
+ *  License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing.ch;
+
+import com.graphhopper.routing.util.WeightCalculation;
+import com.graphhopper.storage.LevelGraph;
+
+/**
+ * The result of one customization of a PrepareCustomizableCH: per edge id the
+ * weight, the directions the edge can be used in and for a shortcut its
+ * skipped edges on the best path. The graph only holds the topology, so
+ * several instances e.g. for the shortest and the fastest route can be
+ * queried at the same time.
+ *
+ * The arrays are not modified after creation, an instance can be shared by
+ * all query threads.
+ *
+ * @see PrepareCustomizableCH#calcWeights(WeightCalculation)
+ * @author Peter Karich
+ */
+public class CCHWeights {
+
+    // from the lower to the higher node
+    static final byte UP = 1;
+    // from the higher to the lower node
+    static final byte DOWN = 2;
+    private final WeightCalculation calc;
+    private final double[] weights;
+    private final byte[] access;
+    // skippedEdge1 and skippedEdge2 for every edge
+    private final int[] skippedEdges;
+    private final ShortcutUnpackCache unpackCache;
+
+    CCHWeights(WeightCalculation calc, double[] weights, byte[] access, int[] skippedEdges) {
+        this(calc, weights, access, skippedEdges, null);
+    }
+
+    private CCHWeights(WeightCalculation calc, double[] weights, byte[] access, int[] skippedEdges,
+            ShortcutUnpackCache unpackCache) {
+        this.calc = calc;
+        this.weights = weights;
+        this.access = access;
+        this.skippedEdges = skippedEdges;
+        this.unpackCache = unpackCache;
+    }
+
+    /**
+     * @return a copy sharing the weights with the precomputed original edges
+     * of the most important shortcuts, see
+     * PrepareContractionHierarchies.unpackCache
+     */
+    CCHWeights unpackCache(LevelGraph g, long maxBytes) {
+        ShortcutUnpackCache cache = maxBytes <= 0 ? null : new ShortcutUnpackCache(g, this, maxBytes);
+        return new CCHWeights(calc, weights, access, skippedEdges, cache);
+    }
+
+    ShortcutUnpackCache unpackCache() {
+        return unpackCache;
+    }
+
+    /**
+     * @return the WeightCalculation this instance was customized for
+     */
+    public WeightCalculation type() {
+        return calc;
+    }
+
+    double weight(int edge) {
+        return weights[edge];
+    }
+
+    /**
+     * @param direction UP or DOWN
+     */
+    boolean isAccessible(int edge, byte direction) {
+        return (access[edge] & direction) != 0;
+    }
+
+    /**
+     * @return false for shortcuts which do not connect their nodes in any
+     * direction
+     */
+    boolean isAccessible(int edge) {
+        return access[edge] != 0;
+    }
+
+    int skippedEdge1(int edge) {
+        return skippedEdges[2 * edge];
+    }
+
+    int skippedEdge2(int edge) {
+        return skippedEdges[2 * edge + 1];
+    }
+
+    @Override public String toString() {
+        return calc + ", edges:" + weights.length;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing.ch;
+
+import com.graphhopper.storage.DataAccess;
+import com.graphhopper.storage.Directory;
+import com.graphhopper.storage.LevelGraph;
+import com.graphhopper.storage.Storable;
+import com.graphhopper.util.BitUtil;
+
+/**
+ * Describes a contraction hierarchies preparation stored in the file
+ * 'chMetadata' next to the graph: the weighting and the vehicle the graph was
+ * contracted for, the number of nodes and shortcuts and a checksum of the node
+ * levels. PrepareContractionHierarchies.loadExisting compares it with its
+ * configuration and the loaded graph, so a stored graph is never used with a
+ * different weighting or vehicle.
+ *
+ * @author Peter Karich
+ */
+public class CHMetadata implements Storable<CHMetadata> {
+
+    private static final int VERSION = 1;
+    private final DataAccess da;
+    private String weighting = "";
+    private String vehicle = "";
+    private int nodes;
+    private int shortcuts;
+    private long levelChecksum;
+
+    public CHMetadata(Directory dir) {
+        da = dir.findCreate("chMetadata");
+    }
+
+    public String weighting() {
+        return weighting;
+    }
+
+    public CHMetadata weighting(String weighting) {
+        this.weighting = weighting;
+        return this;
+    }
+
+    public String vehicle() {
+        return vehicle;
+    }
+
+    public CHMetadata vehicle(String vehicle) {
+        this.vehicle = vehicle;
+        return this;
+    }
+
+    public int nodes() {
+        return nodes;
+    }
+
+    public CHMetadata nodes(int nodes) {
+        this.nodes = nodes;
+        return this;
+    }
+
+    public int shortcuts() {
+        return shortcuts;
+    }
+
+    public CHMetadata shortcuts(int shortcuts) {
+        this.shortcuts = shortcuts;
+        return this;
+    }
+
+    public long levelChecksum() {
+        return levelChecksum;
+    }
+
+    public CHMetadata levelChecksum(long levelChecksum) {
+        this.levelChecksum = levelChecksum;
+        return this;
+    }
+
+    /**
+     * @return a checksum over the levels of all nodes which changes if a node
+     * is added or the contraction order differs
+     */
+    public static long calcLevelChecksum(LevelGraph g) {
+        long checksum = 17;
+        int len = g.nodes();
+        for (int node = 0; node < len; node++) {
+            checksum = 31 * checksum + g.getLevel(node);
+        }
+        return checksum;
+    }
+
+    /**
+     * Reads the stored metadata. The directory hands out the same file to
+     * every instance, so if it is already in memory it is only read again.
+     */
+    @Override
+    public boolean loadExisting() {
+        if (da.capacity() == 0 && !da.loadExisting())
+            return false;
+        int version = da.getHeader(0);
+        if (version != VERSION)
+            throw new IllegalStateException("CH metadata version " + version + " is not supported, expected "
+                    + VERSION + ". Prepare the graph again.");
+        nodes = da.getHeader(1);
+        shortcuts = da.getHeader(2);
+        levelChecksum = BitUtil.toLong(da.getHeader(3), da.getHeader(4));
+        weighting = readString(0);
+        vehicle = readString(1 + weighting.length());
+        return true;
+    }
+
+    @Override
+    public CHMetadata create(long bytes) {
+        if (da.capacity() == 0)
+            da.create(Math.max(bytes, 100));
+        return this;
+    }
+
+    @Override
+    public void flush() {
+        da.setHeader(0, VERSION);
+        da.setHeader(1, nodes);
+        da.setHeader(2, shortcuts);
+        da.setHeader(3, (int) (levelChecksum >>> 32));
+        da.setHeader(4, (int) levelChecksum);
+        da.ensureCapacity(4L * (2 + weighting.length() + vehicle.length()));
+        writeString(0, weighting);
+        writeString(1 + weighting.length(), vehicle);
+        da.flush();
+    }
+
+    private void writeString(long pointer, String str) {
+        da.setInt(pointer, str.length());
+        for (int i = 0; i < str.length(); i++) {
+            da.setInt(pointer + 1 + i, str.charAt(i));
+        }
+    }
+
+    private String readString(long pointer) {
+        int len = da.getInt(pointer);
+        StringBuilder sb = new StringBuilder(len);
+        for (int i = 0; i < len; i++) {
+            sb.append((char) da.getInt(pointer + 1 + i));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        da.close();
+    }
+
+    @Override
+    public long capacity() {
+        return da.capacity();
+    }
+
+    @Override
+    public String toString() {
+        return "weighting:" + weighting + ", vehicle:" + vehicle + ", nodes:" + nodes
+                + ", shortcuts:" + shortcuts + ", levelChecksum:" + levelChecksum;
+    }
+}
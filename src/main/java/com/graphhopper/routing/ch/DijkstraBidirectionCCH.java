@@ -0,0 +1,84 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license
+ *  agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  Peter Karich licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License. You may obtain a copy of the
+ *  License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing.ch;
+
+import com.graphhopper.routing.PathBidirState;
+import com.graphhopper.routing.SearchState;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.routing.util.ShortestCalc;
+import com.graphhopper.routing.util.VehicleEncoder;
+import com.graphhopper.storage.LevelGraph;
+import com.graphhopper.util.EdgeIterator;
+import com.graphhopper.util.NotThreadSafe;
+
+/**
+ * The query of customizable contraction hierarchies. It reads the weights,
+ * directions and skipped edges from the CCHWeights it was created with
+ * instead of from the graph, which keeps the real distances. So a running
+ * query is not affected by a concurrent customize.
+ *
+ * @see PrepareCustomizableCH#createAlgo(CCHWeights)
+ * @author Peter Karich
+ */
+@NotThreadSafe
+class DijkstraBidirectionCCH extends DijkstraBidirectionCH {
+
+    private final CCHWeights weights;
+
+    DijkstraBidirectionCCH(LevelGraph graph, VehicleEncoder encoder, CCHWeights weights,
+            SearchState stateFrom, SearchState stateTo) {
+        // the graph distances are not modified => no weight to revert
+        super(graph, encoder, new ShortestCalc(), stateFrom, stateTo);
+        this.weights = weights;
+        unpackCache = weights.unpackCache();
+        forwardFilter = new AccessFilter(CCHWeights.UP);
+        backwardFilter = new AccessFilter(CCHWeights.DOWN);
+    }
+
+    CCHWeights weights() {
+        return weights;
+    }
+
+    @Override
+    PathBidirState createPath() {
+        return new Path4CHState(graph, flagEncoder, pathCalc, stateFrom, stateTo, weights, unpackCache);
+    }
+
+    @Override
+    double weight(EdgeIterator iter) {
+        return weights.weight(iter.edge());
+    }
+
+    @Override public String name() {
+        return "dijkstrabiCCH";
+    }
+
+    private class AccessFilter implements EdgeFilter {
+
+        private final byte direction;
+
+        AccessFilter(byte direction) {
+            this.direction = direction;
+        }
+
+        @Override public boolean accept(EdgeIterator iter) {
+            return weights.isAccessible(iter.edge(), direction);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing.ch;
+
+import com.graphhopper.routing.AbstractRoutingAlgorithm;
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.PathBidirState;
+import com.graphhopper.routing.RoutingAlgorithm;
+import com.graphhopper.routing.SearchState;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.routing.util.VehicleEncoder;
+import com.graphhopper.routing.util.WeightCalculation;
+import com.graphhopper.storage.LevelGraph;
+import com.graphhopper.util.EdgeIterator;
+import com.graphhopper.util.NotThreadSafe;
+
+/**
+ * The query of contraction hierarchies: a bidirectional Dijkstra which only
+ * goes upwards in both directions. After the preparation removed the edges
+ * from higher to lower nodes the adjacency list of a node contains only its
+ * upward edges, the forward search follows the outgoing and the backward
+ * search the incoming ones.
+ *
+ * With stall-on-demand a node is not expanded if one of its already visited
+ * neighbors reaches it with a smaller weight. Then its weight cannot be the
+ * weight of a shortest path and its upward edges cannot lead to the meeting
+ * node of the shortest path. This skips large parts of the upward search
+ * space. A direction stops if its smallest weight is not smaller than the
+ * best path found so far.
+ *
+ * Both shortest-path-trees are stored in a SearchState, so an instance is
+ * reusable and a query allocates only the returned path.
+ *
+ * @see PrepareContractionHierarchies#createAlgo()
+ * @author Peter Karich
+ */
+@NotThreadSafe
+public class DijkstraBidirectionCH extends AbstractRoutingAlgorithm {
+
+    final SearchState stateFrom;
+    final SearchState stateTo;
+    final WeightCalculation pathCalc;
+    // the upward edges of the forward and of the backward search
+    EdgeFilter forwardFilter;
+    EdgeFilter backwardFilter;
+    private boolean stallOnDemand = true;
+    ShortcutUnpackCache unpackCache;
+    private PathBidirState shortest;
+    private int visitedCount;
+    private int stalledCount;
+
+    public DijkstraBidirectionCH(LevelGraph graph, VehicleEncoder encoder, WeightCalculation pathCalc,
+            SearchState stateFrom, SearchState stateTo) {
+        super(graph, encoder);
+        if (stateFrom == stateTo)
+            throw new IllegalArgumentException("Both directions need their own state");
+        this.pathCalc = pathCalc;
+        this.stateFrom = stateFrom;
+        this.stateTo = stateTo;
+        forwardFilter = outEdgeFilter;
+        backwardFilter = inEdgeFilter;
+    }
+
+    /**
+     * Disables stall-on-demand, e.g. to compare the visited nodes.
+     */
+    public DijkstraBidirectionCH stallOnDemand(boolean stallOnDemand) {
+        this.stallOnDemand = stallOnDemand;
+        return this;
+    }
+
+    DijkstraBidirectionCH unpackCache(ShortcutUnpackCache unpackCache) {
+        this.unpackCache = unpackCache;
+        return this;
+    }
+
+    @Override public RoutingAlgorithm type(WeightCalculation wc) {
+        // allow only initial configuration
+        if (weightCalc != null)
+            throw new IllegalStateException("You'll need to change weightCalculation of preparation instead of algorithm!");
+        return super.type(wc);
+    }
+
+    @Override public Path calcPath(int from, int to) {
+        visitedCount = 0;
+        stalledCount = 0;
+        shortest = createPath();
+        int nodes = graph.nodes();
+        stateFrom.reset(nodes).init(from);
+        stateTo.reset(nodes).init(to);
+        if (from == to)
+            return new Path(graph, flagEncoder);
+
+        boolean fromActive = true, toActive = true;
+        while (fromActive || toActive) {
+            if (fromActive)
+                fromActive = fillEdges(stateFrom, stateTo, forwardFilter, backwardFilter);
+            if (toActive)
+                toActive = fillEdges(stateTo, stateFrom, backwardFilter, forwardFilter);
+        }
+        return shortest.extract();
+    }
+
+    PathBidirState createPath() {
+        return new Path4CHState(graph, flagEncoder, pathCalc, stateFrom, stateTo, unpackCache);
+    }
+
+    /**
+     * @return the weight of the current edge, the prepared graph stores it as
+     * distance
+     */
+    double weight(EdgeIterator iter) {
+        return weightCalc.getWeight(iter.distance(), iter.flags());
+    }
+
+    /**
+     * Settles the next node of the specified direction and relaxes its
+     * upward edges if it is not stalled.
+     *
+     * @return false if this direction cannot improve the shortest path anymore
+     */
+    private boolean fillEdges(SearchState state, SearchState stateOther, EdgeFilter filter,
+            EdgeFilter reverseFilter) {
+        int currNode = state.poll();
+        if (currNode < 0)
+            return false;
+        double currWeight = state.weight(currNode);
+        if (currWeight >= shortest.weight())
+            return false;
+
+        visitedCount++;
+        if (stallOnDemand && isStalled(currNode, currWeight, state, reverseFilter)) {
+            stalledCount++;
+            return true;
+        }
+
+        EdgeIterator iter = graph.getEdges(currNode, filter);
+        while (iter.next()) {
+            if (!accept(iter))
+                continue;
+            int neighborNode = iter.adjNode();
+            double tmpWeight = weight(iter) + currWeight;
+            if (!state.isVisited(neighborNode) || state.weight(neighborNode) > tmpWeight)
+                state.update(neighborNode, tmpWeight, tmpWeight, iter.edge(), currNode);
+
+            if (stateOther.isVisited(neighborNode)) {
+                double newShortest = state.weight(neighborNode) + stateOther.weight(neighborNode);
+                if (newShortest < shortest.weight()) {
+                    shortest.meetingNode(neighborNode);
+                    shortest.weight(newShortest);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if a visited neighbor reaches the node with a smaller
+     * weight. The weight of a visited node is the weight of an existing path,
+     * so the node cannot have its shortest weight.
+     */
+    private boolean isStalled(int node, double weight, SearchState state, EdgeFilter reverseFilter) {
+        EdgeIterator iter = graph.getEdges(node, reverseFilter);
+        while (iter.next()) {
+            int neighborNode = iter.adjNode();
+            if (state.isVisited(neighborNode)
+                    && state.weight(neighborNode) + weight(iter) < weight)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the settled nodes of both directions including the stalled ones
+     */
+    @Override
+    public int calcVisitedNodes() {
+        return visitedCount;
+    }
+
+    public int stalledNodes() {
+        return stalledCount;
+    }
+
+    @Override public String name() {
+        return "dijkstrabiCH";
+    }
+}
@@ -26,77 +26,43 @@ import com.graphhopper.util.EdgeIterator;
 import com.graphhopper.util.EdgeSkipIterator;
 
 /**
- * Recursivly unpack shortcuts.
+ * Unpacks the shortcuts of a path found by a bidirectional algorithm.
  *
  * @see PrepareContractionHierarchies
  * @author Peter Karich,
  */
 public class Path4CH extends PathBidirRef {
 
-    private WeightCalculation calc;
+    private final WeightCalculation calc;
+    private final ShortcutUnpacker unpacker;
+    private final ShortcutUnpacker.Visitor visitor = new ShortcutUnpacker.Visitor() {
+        @Override public void next(EdgeSkipIterator originalEdge) {
+            calcDistance(originalEdge);
+            int flags = originalEdge.flags();
+            calcTime(calc.revertWeight(originalEdge.distance(), flags), flags);
+            addEdge(originalEdge.edge());
+        }
+    };
 
     public Path4CH(Graph g, VehicleEncoder encoder, WeightCalculation calc) {
+        this(g, encoder, calc, null);
+    }
+
+    Path4CH(Graph g, VehicleEncoder encoder, WeightCalculation calc, ShortcutUnpackCache cache) {
         super(g, encoder);
         this.calc = calc;
+        unpacker = new ShortcutUnpacker(g, cache);
     }
 
     @Override
     protected void processDistance(int tmpEdge, int endNode) {
-        EdgeIterator mainIter = graph.getEdgeProps(tmpEdge, endNode);
-
         // Shortcuts do only contain valid weight so first expand before adding
         // to distance and time
-        expandEdge((EdgeSkipIterator) mainIter, false);
+        unpacker.unpack(tmpEdge, endNode, reverseOrder, visitor);
     }
 
     @Override
     public void calcDistance(EdgeIterator mainIter) {
         distance += calc.revertWeight(mainIter.distance(), mainIter.flags());
     }
-
-    private void expandEdge(EdgeSkipIterator mainIter, boolean revert) {
-        if (!mainIter.isShortcut()) {
-            calcDistance(mainIter);
-            int flags = mainIter.flags();
-            calcTime(calc.revertWeight(mainIter.distance(), flags), flags);
-            addEdge(mainIter.edge());
-            return;
-        }
-
-        int skippedEdge1 = mainIter.skippedEdge1();
-        int skippedEdge2 = mainIter.skippedEdge2();
-        int from = mainIter.baseNode(), to = mainIter.adjNode();
-        if (revert) {
-            int tmp = from;
-            from = to;
-            to = tmp;
-        }
-
-        // getEdgeProps could possibly return an empty edge if the shortcut is available for both directions
-        if (reverseOrder) {
-            EdgeSkipIterator iter = (EdgeSkipIterator) graph.getEdgeProps(skippedEdge1, to);
-            boolean empty = iter.isEmpty();
-            if (empty)
-                iter = (EdgeSkipIterator) graph.getEdgeProps(skippedEdge2, to);
-            expandEdge(iter, false);
-
-            if (empty)
-                iter = (EdgeSkipIterator) graph.getEdgeProps(skippedEdge1, from);
-            else
-                iter = (EdgeSkipIterator) graph.getEdgeProps(skippedEdge2, from);
-            expandEdge(iter, true);
-        } else {
-            EdgeSkipIterator iter = (EdgeSkipIterator) graph.getEdgeProps(skippedEdge1, from);
-            boolean empty = iter.isEmpty();
-            if (empty)
-                iter = (EdgeSkipIterator) graph.getEdgeProps(skippedEdge2, from);
-            expandEdge(iter, true);
-
-            if (empty)
-                iter = (EdgeSkipIterator) graph.getEdgeProps(skippedEdge1, to);
-            else
-                iter = (EdgeSkipIterator) graph.getEdgeProps(skippedEdge2, to);
-            expandEdge(iter, false);
-        }
-    }
 }
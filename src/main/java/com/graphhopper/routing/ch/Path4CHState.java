@@ -0,0 +1,74 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing.ch;
+
+import com.graphhopper.routing.PathBidirState;
+import com.graphhopper.routing.SearchState;
+import com.graphhopper.routing.util.VehicleEncoder;
+import com.graphhopper.routing.util.WeightCalculation;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.EdgeIterator;
+import com.graphhopper.util.EdgeSkipIterator;
+
+/**
+ * Like Path4CH but extracted from the two shortest-path-trees of a
+ * DijkstraBidirectionCH.
+ *
+ * @author Peter Karich
+ */
+public class Path4CHState extends PathBidirState {
+
+    private final WeightCalculation calc;
+    private final ShortcutUnpacker unpacker;
+    private final ShortcutUnpacker.Visitor visitor = new ShortcutUnpacker.Visitor() {
+        @Override public void next(EdgeSkipIterator originalEdge) {
+            calcDistance(originalEdge);
+            int flags = originalEdge.flags();
+            calcTime(calc.revertWeight(originalEdge.distance(), flags), flags);
+            addEdge(originalEdge.edge());
+        }
+    };
+
+    public Path4CHState(Graph g, VehicleEncoder encoder, WeightCalculation calc,
+            SearchState stateFrom, SearchState stateTo) {
+        this(g, encoder, calc, stateFrom, stateTo, null);
+    }
+
+    Path4CHState(Graph g, VehicleEncoder encoder, WeightCalculation calc,
+            SearchState stateFrom, SearchState stateTo, ShortcutUnpackCache cache) {
+        this(g, encoder, calc, stateFrom, stateTo, null, cache);
+    }
+
+    Path4CHState(Graph g, VehicleEncoder encoder, WeightCalculation calc,
+            SearchState stateFrom, SearchState stateTo, CCHWeights weights, ShortcutUnpackCache cache) {
+        super(g, encoder, stateFrom, stateTo);
+        this.calc = calc;
+        unpacker = new ShortcutUnpacker(g, weights, cache);
+    }
+
+    @Override
+    protected void processDistance(int tmpEdge, int endNode) {
+        unpacker.unpack(tmpEdge, endNode, reverseOrder, visitor);
+    }
+
+    @Override
+    public void calcDistance(EdgeIterator mainIter) {
+        distance += calc.revertWeight(mainIter.distance(), mainIter.flags());
+    }
+}
@@ -21,10 +21,10 @@ package com.graphhopper.routing.ch;
 import com.graphhopper.coll.GHSortedCollection;
 import com.graphhopper.routing.AStarBidirection;
 import com.graphhopper.routing.DijkstraBidirectionRef;
-import com.graphhopper.routing.DijkstraSimple;
-import com.graphhopper.routing.Path;
 import com.graphhopper.routing.PathBidirRef;
 import com.graphhopper.routing.RoutingAlgorithm;
+import com.graphhopper.routing.SearchState;
+import com.graphhopper.routing.SearchStatePool;
 import com.graphhopper.routing.util.AbstractAlgoPreparation;
 import com.graphhopper.routing.util.CarFlagEncoder;
 import com.graphhopper.routing.util.DefaultEdgeFilter;
@@ -33,8 +33,9 @@ import com.graphhopper.routing.util.LevelEdgeFilter;
 import com.graphhopper.routing.util.VehicleEncoder;
 import com.graphhopper.routing.util.ShortestCalc;
 import com.graphhopper.routing.util.WeightCalculation;
-import com.graphhopper.storage.EdgeEntry;
+import com.graphhopper.storage.CHOverlay;
 import com.graphhopper.storage.Graph;
+import com.graphhopper.storage.GraphStorage;
 import com.graphhopper.storage.LevelGraph;
 import com.graphhopper.storage.LevelGraphStorage;
 import com.graphhopper.util.DistanceCalc;
@@ -44,12 +45,17 @@ import com.graphhopper.util.EdgeSkipIterator;
 import com.graphhopper.util.GHUtility;
 import com.graphhopper.util.Helper;
 import com.graphhopper.util.StopWatch;
+import gnu.trove.list.array.TDoubleArrayList;
 import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -64,6 +70,12 @@ import org.slf4j.LoggerFactory;
  * The only difference is that we use two skipped edges instead of one skipped
  * node for faster unpacking.
  *
+ * With threads(n) bigger than one the nodes are contracted in rounds: every
+ * round picks a set of pairwise non-adjacent nodes with low priority, finds
+ * their shortcuts concurrently on the unchanged graph and then inserts all of
+ * them from the calling thread. Only the witness searches run in parallel,
+ * all writes to the graph stay single threaded.
+ *
  * @author Peter Karich
  */
 public class PrepareContractionHierarchies extends AbstractAlgoPreparation<PrepareContractionHierarchies> {
@@ -83,14 +95,20 @@ public class PrepareContractionHierarchies extends AbstractAlgoPreparation<Prepa
     // shortcut is one direction, speed is only involved while recalculating the endNode weights - see prepareEdges
     private int scOneDir;
     private int scBothDir;
-    private Map<Shortcut, Shortcut> shortcuts = new HashMap<Shortcut, Shortcut>();
-    private List<NodeCH> goalNodes = new ArrayList<NodeCH>();
-    private LevelEdgeFilterCH levelEdgeFilter;
-    private OneToManyDijkstraCH algo;
+    private ShortcutFinder finder;
+    private ShortcutFinder[] parallelFinders = new ShortcutFinder[0];
     private int updateSize;
+    private int threads = 1;
+    private int batchSize = 1000;
     private boolean removesHigher2LowerEdges = true;
+    private int witnessHops = Integer.MAX_VALUE;
+    private int witnessSettledNodes = Integer.MAX_VALUE;
     private long counter;
     private int newShortcuts;
+    private boolean prepared;
+    // the search states of createAlgo per query thread
+    private final SearchStatePool statePool = new SearchStatePool();
+    private ShortcutUnpackCache unpackCache;
 
     public PrepareContractionHierarchies() {
         type(new ShortestCalc()).vehicle(new CarFlagEncoder());
@@ -99,6 +117,8 @@ public class PrepareContractionHierarchies extends AbstractAlgoPreparation<Prepa
     @Override
     public PrepareContractionHierarchies graph(Graph g) {
         this.g = (LevelGraph) g;
+        // the cached shortcuts belong to the previous graph
+        unpackCache = null;
         return this;
     }
 
@@ -106,10 +126,22 @@ public class PrepareContractionHierarchies extends AbstractAlgoPreparation<Prepa
         return scBothDir;
     }
 
+    SearchStatePool statePool() {
+        return statePool;
+    }
+
     int scOneDir() {
         return scOneDir;
     }
 
+    WeightCalculation type() {
+        return prepareWeightCalc;
+    }
+
+    VehicleEncoder vehicle() {
+        return prepareEncoder;
+    }
+
     public PrepareContractionHierarchies type(WeightCalculation weightCalc) {
         prepareWeightCalc = weightCalc;
         shortestCalc = new ShortestCalc();
@@ -131,6 +163,50 @@ public class PrepareContractionHierarchies extends AbstractAlgoPreparation<Prepa
         return this;
     }
 
+    /**
+     * Sets the number of threads used to find shortcuts and to recalculate
+     * priorities. Default is 1 which contracts one node after the other.
+     */
+    public PrepareContractionHierarchies threads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive but was " + threads);
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * The maximum number of low priority nodes inspected per round of the
+     * parallel contraction. Smaller values mean more rounds but less
+     * shortcuts as the contraction order is closer to the sequential one.
+     */
+    public PrepareContractionHierarchies batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Limits the number of edges of a witness path. Nodes reached with this
+     * number of hops are not expanded further. Smaller values make the
+     * preparation faster but create more shortcuts. Default is no limit.
+     */
+    public PrepareContractionHierarchies witnessHops(int witnessHops) {
+        if (witnessHops < 1)
+            throw new IllegalArgumentException("witnessHops must be positive but was " + witnessHops);
+        this.witnessHops = witnessHops;
+        return this;
+    }
+
+    /**
+     * Limits the number of settled nodes of a single witness search. Default
+     * is no limit.
+     */
+    public PrepareContractionHierarchies witnessSettledNodes(int witnessSettledNodes) {
+        if (witnessSettledNodes < 1)
+            throw new IllegalArgumentException("witnessSettledNodes must be positive but was " + witnessSettledNodes);
+        this.witnessSettledNodes = witnessSettledNodes;
+        return this;
+    }
+
     /**
      * Disconnect is very important to improve query time and preparation if
      * enabled. It will remove the edge going from the higher level node to the
@@ -146,15 +222,76 @@ public class PrepareContractionHierarchies extends AbstractAlgoPreparation<Prepa
     public PrepareContractionHierarchies doWork() {
         super.doWork();
         initFromGraph();
+        prepared = true;
         if (!prepareEdges())
             return this;
 
         if (!prepareNodes())
             return this;
-        contractNodes();
+        if (threads > 1)
+            contractNodesParallel();
+        else
+            contractNodes();
         return this;
     }
 
+    /**
+     * Stores the metadata of the finished preparation into the directory of
+     * the graph, see CHMetadata. Does nothing if the graph was not prepared or
+     * is not a GraphStorage.
+     */
+    public void flush() {
+        if (!prepared || !(g instanceof GraphStorage))
+            return;
+
+        new CHMetadata(((GraphStorage) g).directory()).create(100).
+                weighting(prepareWeightCalc.toString()).vehicle(prepareEncoder.toString()).
+                nodes(g.nodes()).shortcuts(shortcuts()).
+                levelChecksum(CHMetadata.calcLevelChecksum(g)).flush();
+    }
+
+    /**
+     * Loads the metadata of a former preparation of the graph and makes sure
+     * it matches the configured weighting and vehicle as well as the graph.
+     * Afterwards doWork is not necessary.
+     *
+     * @return false if no metadata was stored for the graph
+     * @throws IllegalStateException if the stored preparation does not match
+     */
+    public boolean loadExisting() {
+        if (!(g instanceof GraphStorage))
+            return false;
+
+        CHMetadata meta = new CHMetadata(((GraphStorage) g).directory());
+        if (!meta.loadExisting())
+            return false;
+        checkMetadata(meta);
+        newShortcuts = meta.shortcuts();
+        prepared = true;
+        return true;
+    }
+
+    void checkMetadata(CHMetadata meta) {
+        if (!prepareWeightCalc.toString().equals(meta.weighting()))
+            throw new IllegalStateException("Graph was prepared for weighting " + meta.weighting()
+                    + " but " + prepareWeightCalc + " is configured");
+        checkTopology(meta);
+    }
+
+    /**
+     * Checks the stored vehicle, the node count and the levels.
+     */
+    void checkTopology(CHMetadata meta) {
+        if (!prepareEncoder.toString().equals(meta.vehicle()))
+            throw new IllegalStateException("Graph was prepared for vehicle " + meta.vehicle()
+                    + " but " + prepareEncoder + " is configured");
+        if (g.nodes() != meta.nodes())
+            throw new IllegalStateException("Graph was prepared with " + meta.nodes()
+                    + " nodes but has " + g.nodes() + " nodes");
+        if (CHMetadata.calcLevelChecksum(g) != meta.levelChecksum())
+            throw new IllegalStateException("Node levels of the graph do not match the preparation " + meta);
+    }
+
     boolean prepareEdges() {
         // In CH the flags (speed) are ignored as calculating the new flags for a shortcut is often not possible.
         // Also several shortcuts would be necessary with the different modes (e.g. fastest and shortest)
@@ -259,210 +396,447 @@ public class PrepareContractionHierarchies extends AbstractAlgoPreparation<Prepa
                     sortedNodes.update(nn, tmpOld, neighborWn.priority);
 
                 if (removesHigher2LowerEdges)
-                    ((LevelGraphStorage) g).disconnect(iter, EdgeIterator.NO_EDGE, false);
+                    disconnect(iter);
             }
         }
         logger.info("new shortcuts " + newShortcuts + ", " + prepareWeightCalc
                 + ", " + prepareEncoder + ", removeHigher2LowerEdges:" + removesHigher2LowerEdges);
     }
 
+    /**
+     * Removes the edge from the adjacency list of the adjacent node.
+     */
+    private void disconnect(EdgeIterator iter) {
+        if (g instanceof CHOverlay)
+            ((CHOverlay) g).disconnect(iter);
+        else
+            ((LevelGraphStorage) g).disconnect(iter, EdgeIterator.NO_EDGE, false);
+    }
+
+    void contractNodesParallel() {
+        ExecutorService service = Executors.newFixedThreadPool(threads);
+        try {
+            contractNodesParallel(service);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Parallel contraction was interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Parallel contraction failed", ex.getCause());
+        } finally {
+            service.shutdown();
+        }
+        logger.info("new shortcuts " + newShortcuts + ", " + prepareWeightCalc
+                + ", " + prepareEncoder + ", removeHigher2LowerEdges:" + removesHigher2LowerEdges
+                + ", threads:" + threads);
+    }
+
+    private void contractNodesParallel(ExecutorService service)
+            throws InterruptedException, ExecutionException {
+        ShortcutFinder[] finders = new ShortcutFinder[threads];
+        for (int i = 0; i < threads; i++) {
+            finders[i] = new ShortcutFinder();
+        }
+        parallelFinders = finders;
+        int level = 1;
+        int round = 0;
+        counter = 0;
+        // marks the batch nodes and their neighbors to keep the batch independent
+        int[] roundMarker = new int[g.nodes()];
+        // marks the neighbors which need a priority update
+        int[] updateMarker = new int[g.nodes()];
+        TIntArrayList batch = new TIntArrayList();
+        TIntArrayList postponed = new TIntArrayList();
+        TIntArrayList neighbors = new TIntArrayList();
+        final int[] shortcutStarts = new int[Math.max(threads, batchSize)];
+        final int[] shortcutEnds = new int[shortcutStarts.length];
+        while (!sortedNodes.isEmpty()) {
+            round++;
+            batch.resetQuick();
+            postponed.resetQuick();
+            int candidates = Math.min(batchSize, Math.max(threads, sortedNodes.size() / 10));
+            for (int i = 0; i < candidates && !sortedNodes.isEmpty(); i++) {
+                int node = sortedNodes.pollKey();
+                if (roundMarker[node] == round) {
+                    postponed.add(node);
+                    continue;
+                }
+
+                batch.add(node);
+                roundMarker[node] = round;
+                EdgeIterator iter = g.getEdges(node, vehicleAllFilter);
+                while (iter.next()) {
+                    roundMarker[iter.adjNode()] = round;
+                }
+            }
+            for (int i = 0; i < postponed.size(); i++) {
+                int node = postponed.get(i);
+                sortedNodes.insert(node, refs[node].priority);
+            }
+
+            final int[] batchNodes = batch.toArray();
+            for (ShortcutFinder f : finders) {
+                f.shortcuts.clear();
+            }
+            // every finder appends to its own buffer, the range of a node is stored at its batch index
+            invokeAll(service, finders, batchNodes, new FinderTask() {
+                @Override void run(ShortcutFinder finder, int index) {
+                    shortcutStarts[index] = finder.shortcuts.size();
+                    finder.findShortcuts(batchNodes[index], finder.shortcuts);
+                    shortcutEnds[index] = finder.shortcuts.size();
+                }
+            });
+
+            // all graph modifications happen in this thread
+            neighbors.resetQuick();
+            for (int i = 0; i < batchNodes.length; i++) {
+                int node = batchNodes[i];
+                // invokeAll assigns index i to the finder i % finders.length
+                ShortcutBuffer buffer = finders[i % finders.length].shortcuts;
+                newShortcuts += addShortcuts(buffer, shortcutStarts[i], shortcutEnds[i]);
+                g.setLevel(node, level);
+                level++;
+                counter++;
+                EdgeIterator iter = g.getEdges(node, vehicleAllFilter);
+                while (iter.next()) {
+                    int nn = iter.adjNode();
+                    if (g.getLevel(nn) != 0)
+                        continue;
+
+                    if (updateMarker[nn] != round) {
+                        updateMarker[nn] = round;
+                        neighbors.add(nn);
+                    }
+                    if (removesHigher2LowerEdges)
+                        disconnect(iter);
+                }
+            }
+
+            // recompute priority of uncontracted neighbors
+            final int[] neighborNodes = neighbors.toArray();
+            final int[] priorities = new int[neighborNodes.length];
+            invokeAll(service, finders, neighborNodes, new FinderTask() {
+                @Override void run(ShortcutFinder finder, int index) {
+                    priorities[index] = finder.calculatePriority(neighborNodes[index]);
+                }
+            });
+            for (int i = 0; i < neighborNodes.length; i++) {
+                PriorityNode neighborWn = refs[neighborNodes[i]];
+                int tmpOld = neighborWn.priority;
+                neighborWn.priority = priorities[i];
+                if (neighborWn.priority != tmpOld)
+                    sortedNodes.update(neighborWn.node, tmpOld, neighborWn.priority);
+            }
+
+            if (round % 200 == 0)
+                logger.info(counter + ", nodes: " + sortedNodes.size() + ", shortcuts:" + newShortcuts
+                        + ", batch:" + batchNodes.length + ", memory:" + Helper.memInfo());
+        }
+    }
+
+    /**
+     * Splits the specified nodes into one task per finder and waits until all
+     * tasks are done. As Future.get is called for every task the results
+     * written by the worker threads are visible afterwards.
+     */
+    private void invokeAll(ExecutorService service, ShortcutFinder[] finders,
+            final int[] nodes, final FinderTask task) throws InterruptedException, ExecutionException {
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(finders.length);
+        for (int t = 0; t < finders.length && t < nodes.length; t++) {
+            final int offset = t;
+            final int step = finders.length;
+            final ShortcutFinder finder = finders[t];
+            tasks.add(new Callable<Object>() {
+                @Override public Object call() {
+                    for (int i = offset; i < nodes.length; i += step) {
+                        task.run(finder, i);
+                    }
+                    return null;
+                }
+            });
+        }
+        for (Future<Object> future : service.invokeAll(tasks)) {
+            future.get();
+        }
+    }
+
+    private static abstract class FinderTask {
+
+        abstract void run(ShortcutFinder finder, int index);
+    }
+
     public int shortcuts() {
         return newShortcuts;
     }
 
     /**
-     * Calculates the priority of endNode v without changing the graph. Warning:
-     * the calculated priority must NOT depend on priority(v) and therefor
-     * findShortcuts should also not depend on the priority(v). Otherwise
-     * updating the priority before contracting in contractNodes() could lead to
-     * a slowishor even endless loop.
+     * @return the number of witness searches of the last preparation
      */
-    int calculatePriority(int v) {
-        // set of shortcuts that would be added if endNode v would be contracted next.
-        Collection<Shortcut> tmpShortcuts = findShortcuts(v);
-        // from shortcuts we can compute the edgeDifference
-
-        // # low influence: with it the shortcut creation is slightly faster
-        //
-        // |shortcuts(v)| − |{(u, v) | v uncontracted}| − |{(v, w) | v uncontracted}|        
-        // meanDegree is used instead of outDegree+inDegree as if one endNode is in both directions
-        // only one bucket memory is used. Additionally one shortcut could also stand for two directions.
-        int degree = GHUtility.count(g.getEdges(v, vehicleAllFilter));
-        int edgeDifference = tmpShortcuts.size() - degree;
-
-        // # huge influence: the bigger the less shortcuts gets created and the faster is the preparation
-        //
-        // every endNode has an 'original edge' number associated. initially it is r=1
-        // when a new shortcut is introduced then r of the associated edges is summed up:
-        // r(u,w)=r(u,v)+r(v,w) now we can define
-        // originalEdgesCount = σ(v) := sum_{ (u,w) ∈ shortcuts(v) } of r(u, w)
-        int originalEdgesCount = 0;
-        for (Shortcut sc : tmpShortcuts) {
-            originalEdgesCount += sc.originalEdges;
+    public long witnessSearches() {
+        long sum = finder == null ? 0 : finder.search.searches();
+        for (ShortcutFinder f : parallelFinders) {
+            sum += f.search.searches();
         }
+        return sum;
+    }
 
-        // # lowest influence on preparation speed or shortcut creation count 
-        // (but according to paper should speed up queries)
-        //
-        // number of already contracted neighbors of v
-        int contractedNeighbors = 0;
-        EdgeSkipIterator iter = g.getEdges(v, vehicleAllFilter);
-        while (iter.next()) {
-            if (iter.isShortcut())
-                contractedNeighbors++;
+    /**
+     * @return the number of nodes settled by all witness searches of the last
+     * preparation
+     */
+    public long settledWitnessNodes() {
+        long sum = finder == null ? 0 : finder.search.settledNodes();
+        for (ShortcutFinder f : parallelFinders) {
+            sum += f.search.settledNodes();
         }
+        return sum;
+    }
 
-        // unterfranken example
-        // 10, 50, 1 => 180s preparation, q 3.3ms
-        //  2,  4, 1 => 200s preparation, q 3.0ms
-        // according to the paper do a simple linear combination of the properties to get the priority
-        return 10 * edgeDifference + 50 * originalEdgesCount + contractedNeighbors;
+    /**
+     * Calculates the priority of endNode v without changing the graph.
+     */
+    int calculatePriority(int v) {
+        return finder.calculatePriority(v);
     }
 
     PrepareContractionHierarchies initFromGraph() {
         originalEdges = new TIntArrayList(g.nodes() / 2, -1);
-        levelEdgeFilter = new LevelEdgeFilterCH(this.g);
+        finder = new ShortcutFinder();
+        parallelFinders = new ShortcutFinder[0];
         sortedNodes = new GHSortedCollection(g.nodes());
         refs = new PriorityNode[g.nodes()];
         return this;
     }
 
-    static class LevelEdgeFilterCH extends LevelEdgeFilter {
-
-        int avoidNode;
-        LevelGraph g;
+    /**
+     * Holds the state of the witness searches and the found shortcuts in
+     * primitive buffers which are reused for all nodes. Every thread of the
+     * parallel contraction needs its own instance.
+     */
+    class ShortcutFinder {
+
+        private final WitnessSearch search = new WitnessSearch(g, prepareEncoder).
+                maxHops(witnessHops).maxSettledNodes(witnessSettledNodes);
+        private final ShortcutBuffer shortcuts = new ShortcutBuffer();
+        private final TIntArrayList goalNodes = new TIntArrayList();
+        private final TIntArrayList goalEdges = new TIntArrayList();
+        private final TDoubleArrayList goalWeights = new TDoubleArrayList();
+        // maps the node pair of a found shortcut to its last index in the buffer
+        private final TLongIntHashMap pairIndex = new TLongIntHashMap(100, 0.5f, -1, -1);
+        // the previous index with the same node pair, relative to the start of the current node
+        private final TIntArrayList samePairIndex = new TIntArrayList();
+
+        /**
+         * Calculates the priority of endNode v without changing the graph. Warning:
+         * the calculated priority must NOT depend on priority(v) and therefor
+         * findShortcuts should also not depend on the priority(v). Otherwise
+         * updating the priority before contracting in contractNodes() could lead to
+         * a slowishor even endless loop.
+         */
+        int calculatePriority(int v) {
+            // set of shortcuts that would be added if endNode v would be contracted next.
+            shortcuts.clear();
+            findShortcuts(v, shortcuts);
+            // from shortcuts we can compute the edgeDifference
+
+            // # low influence: with it the shortcut creation is slightly faster
+            //
+            // |shortcuts(v)| − |{(u, v) | v uncontracted}| − |{(v, w) | v uncontracted}|        
+            // meanDegree is used instead of outDegree+inDegree as if one endNode is in both directions
+            // only one bucket memory is used. Additionally one shortcut could also stand for two directions.
+            int degree = GHUtility.count(g.getEdges(v, vehicleAllFilter));
+            int edgeDifference = shortcuts.size() - degree;
+
+            // # huge influence: the bigger the less shortcuts gets created and the faster is the preparation
+            //
+            // every endNode has an 'original edge' number associated. initially it is r=1
+            // when a new shortcut is introduced then r of the associated edges is summed up:
+            // r(u,w)=r(u,v)+r(v,w) now we can define
+            // originalEdgesCount = σ(v) := sum_{ (u,w) ∈ shortcuts(v) } of r(u, w)
+            int originalEdgesCount = 0;
+            for (int i = 0; i < shortcuts.size(); i++) {
+                originalEdgesCount += shortcuts.originalEdges.getQuick(i);
+            }
 
-        public LevelEdgeFilterCH(LevelGraph g) {
-            super(g);
-        }
+            // # lowest influence on preparation speed or shortcut creation count 
+            // (but according to paper should speed up queries)
+            //
+            // number of already contracted neighbors of v
+            int contractedNeighbors = 0;
+            EdgeSkipIterator iter = g.getEdges(v, vehicleAllFilter);
+            while (iter.next()) {
+                if (iter.isShortcut())
+                    contractedNeighbors++;
+            }
 
-        public LevelEdgeFilterCH avoidNode(int node) {
-            this.avoidNode = node;
-            return this;
+            // unterfranken example
+            // 10, 50, 1 => 180s preparation, q 3.3ms
+            //  2,  4, 1 => 200s preparation, q 3.0ms
+            // according to the paper do a simple linear combination of the properties to get the priority
+            return 10 * edgeDifference + 50 * originalEdgesCount + contractedNeighbors;
         }
 
-        @Override public boolean accept(EdgeIterator iter) {
-            if (!super.accept(iter))
-                return false;
-            // ignore if it is skipNode or a endNode already contracted
-            int node = iter.adjNode();
-            return avoidNode != node && graph.getLevel(node) == 0;
+        /**
+         * Finds shortcuts, does not change the underlying graph.
+         */
+        Collection<Shortcut> findShortcuts(int v) {
+            shortcuts.clear();
+            findShortcuts(v, shortcuts);
+            List<Shortcut> list = new ArrayList<Shortcut>(shortcuts.size());
+            for (int i = 0; i < shortcuts.size(); i++) {
+                list.add(shortcuts.get(i));
+            }
+            return list;
         }
-    }
 
-    /**
-     * Finds shortcuts, does not change the underlying graph.
-     */
-    Collection<Shortcut> findShortcuts(int v) {
-        // we can use distance instead of weight, see prepareEdges where distance is overwritten by weight!
-        goalNodes.clear();
-        shortcuts.clear();
-        EdgeIterator iter1 = g.getEdges(v, vehicleInFilter);
-        // TODO PERFORMANCE collect outEdgeFilter nodes (goal-nodes) only once and just skip u
-        while (iter1.next()) {
-            int u = iter1.adjNode();
-            int lu = g.getLevel(u);
-            if (lu != 0)
-                continue;
-
-            double v_u_weight = iter1.distance();
-            // one-to-many extractPath path
-            goalNodes.clear();
-            EdgeIterator iter2 = g.getEdges(v, vehicleOutFilter);
-            double maxWeight = 0;
-            while (iter2.next()) {
-                int w = iter2.adjNode();
-                int lw = g.getLevel(w);
-                if (w == u || lw != 0)
+        /**
+         * Appends the shortcuts necessary to contract v to the specified
+         * buffer, does not change the underlying graph.
+         *
+         * @return the number of appended shortcuts
+         */
+        int findShortcuts(int v, ShortcutBuffer out) {
+            int start = out.size();
+            pairIndex.clear();
+            samePairIndex.resetQuick();
+            // we can use distance instead of weight, see prepareEdges where distance is overwritten by weight!
+            EdgeIterator iter1 = g.getEdges(v, vehicleInFilter);
+            while (iter1.next()) {
+                int u = iter1.adjNode();
+                if (g.getLevel(u) != 0)
                     continue;
 
-                NodeCH n = new NodeCH();
-                n.endNode = w;
-                n.originalEdges = getOrigEdgeCount(iter2.edge());
-                n.distance = v_u_weight + iter2.distance();
-                n.edge = iter2.edge();
-                goalNodes.add(n);
-
-                if (maxWeight < n.distance)
-                    maxWeight = n.distance;
-            }
+                double v_u_weight = iter1.distance();
+                // one-to-many witness search from u to all outgoing neighbors w of v
+                goalNodes.resetQuick();
+                goalEdges.resetQuick();
+                goalWeights.resetQuick();
+                search.reset();
+                EdgeIterator iter2 = g.getEdges(v, vehicleOutFilter);
+                double maxWeight = 0;
+                while (iter2.next()) {
+                    int w = iter2.adjNode();
+                    if (w == u || g.getLevel(w) != 0)
+                        continue;
+
+                    double weight = v_u_weight + iter2.distance();
+                    goalNodes.add(w);
+                    goalEdges.add(iter2.edge());
+                    goalWeights.add(weight);
+                    search.addTarget(w);
+                    if (maxWeight < weight)
+                        maxWeight = weight;
+                }
 
-            if (goalNodes.isEmpty())
-                continue;
+                if (goalNodes.isEmpty())
+                    continue;
 
-            // TODO instead of a weight-limit we could use a hop-limit 
-            // and successively increasing it when mean-degree of graph increases
-            algo = new OneToManyDijkstraCH(g, prepareEncoder);
-            algo.limit(maxWeight).edgeFilter(levelEdgeFilter.avoidNode(v));
-            algo.type(shortestCalc);
-            algo.calcPath(u, goalNodes);
-            internalFindShortcuts(goalNodes, u, iter1.edge());
-        }
-        return shortcuts.keySet();
-    }
+                search.search(u, v, maxWeight);
+                int skippedEdge1 = iter1.edge();
+                int uOrigEdgeCount = getOrigEdgeCount(skippedEdge1);
+                for (int i = 0; i < goalNodes.size(); i++) {
+                    int w = goalNodes.getQuick(i);
+                    double weight = goalWeights.getQuick(i);
+                    if (search.weight(w) < weight) {
+                        // FOUND witness path, so do not add shortcut
+                        continue;
+                    }
 
-    void internalFindShortcuts(List<NodeCH> goalNodes, int fromNode, int skippedEdge1) {
-        int uOrigEdgeCount = getOrigEdgeCount(skippedEdge1);
-        for (NodeCH n : goalNodes) {
-            if (n.entry != null && n.entry.weight < n.distance) {
-                // FOUND witness path, so do not add shortcut
-                continue;
-            }
+                    // FOUND shortcut but be sure that it is the only shortcut in the buffer 
+                    // and also in the graph for u->w. If existing AND identical length => update flags.
+                    // Hint: shortcuts are always one-way due to distinct level of every endNode but we don't
+                    // know yet the levels so we need to determine the correct direction or if both directions
+                    if (indexOf(out, start, u, w, weight) >= 0)
+                        continue;
+
+                    int reverse = indexOf(out, start, w, u, weight);
+                    if (reverse >= 0) {
+                        out.flags.setQuick(reverse, scBothDir);
+                        continue;
+                    }
 
-            // FOUND shortcut but be sure that it is the only shortcut in the collection 
-            // and also in the graph for u->w. If existing AND identical length => update flags.
-            // Hint: shortcuts are always one-way due to distinct level of every endNode but we don't
-            // know yet the levels so we need to determine the correct direction or if both directions
-
-            // minor improvement: if (shortcuts.containsKey((long) n.endNode * refs.length + u)) 
-            // then two shortcuts with the same nodes (u<->n.endNode) exists => check current shortcut against both
-
-            Shortcut sc = new Shortcut(fromNode, n.endNode, n.distance);
-            if (shortcuts.containsKey(sc))
-                continue;
-            else {
-                Shortcut tmpSc = new Shortcut(n.endNode, fromNode, n.distance);
-                Shortcut tmpRetSc = shortcuts.get(tmpSc);
-                if (tmpRetSc != null) {
-                    tmpRetSc.flags = scBothDir;
-                    continue;
+                    int skippedEdge2 = goalEdges.getQuick(i);
+                    long pair = (long) u * g.nodes() + w;
+                    samePairIndex.add(pairIndex.get(pair));
+                    pairIndex.put(pair, out.size());
+                    out.add(u, w, weight, skippedEdge1, skippedEdge2,
+                            uOrigEdgeCount + getOrigEdgeCount(skippedEdge2), scOneDir);
                 }
             }
+            return out.size() - start;
+        }
 
-            shortcuts.put(sc, sc);
-            sc.skippedEdge1 = skippedEdge1;
-            sc.skippedEdge2 = n.edge;
-            sc.originalEdges = uOrigEdgeCount + n.originalEdges;
+        /**
+         * @return the index of the identical shortcut found for the current
+         * node or -1
+         */
+        private int indexOf(ShortcutBuffer out, int start, int from, int to, double distance) {
+            int index = pairIndex.get((long) from * g.nodes() + to);
+            while (index >= 0) {
+                if (out.distance.getQuick(index) == distance)
+                    return index;
+                index = samePairIndex.getQuick(index - start);
+            }
+            return -1;
         }
     }
 
+    /**
+     * Finds shortcuts, does not change the underlying graph.
+     */
+    Collection<Shortcut> findShortcuts(int v) {
+        return finder.findShortcuts(v);
+    }
+
     /**
      * Introduces the necessary shortcuts for endNode v in the graph.
      */
     int addShortcuts(int v) {
-        Collection<Shortcut> foundShortcuts = findShortcuts(v);
+        ShortcutBuffer buffer = finder.shortcuts;
+        buffer.clear();
+        finder.findShortcuts(v, buffer);
+        return addShortcuts(buffer, 0, buffer.size());
+    }
+
+    /**
+     * Inserts the shortcuts of the specified buffer range into the graph or
+     * updates an existing and longer shortcut instead.
+     */
+    int addShortcuts(ShortcutBuffer buffer, int start, int end) {
         int tmpNewShortcuts = 0;
-        for (Shortcut sc : foundShortcuts) {
+        for (int i = start; i < end; i++) {
+            int from = buffer.from.getQuick(i);
+            int to = buffer.to.getQuick(i);
+            double distance = buffer.distance.getQuick(i);
+            int flags = buffer.flags.getQuick(i);
+            int skippedEdge1 = buffer.skippedEdge1.getQuick(i);
+            int skippedEdge2 = buffer.skippedEdge2.getQuick(i);
+            int origEdges = buffer.originalEdges.getQuick(i);
             boolean updatedInGraph = false;
             // check if we need to update some existing shortcut in the graph
-            EdgeSkipIterator iter = g.getEdges(sc.from, vehicleOutFilter);
+            EdgeSkipIterator iter = g.getEdges(from, vehicleOutFilter);
             while (iter.next()) {
-                if (iter.isShortcut() && iter.adjNode() == sc.to
-                        && prepareEncoder.canBeOverwritten(iter.flags(), sc.flags)
-                        && iter.distance() > sc.distance) {
-                    iter.flags(sc.flags);
-                    iter.skippedEdges(sc.skippedEdge1, sc.skippedEdge2);
-                    iter.distance(sc.distance);
-                    setOrigEdgeCount(iter.edge(), sc.originalEdges);
+                if (iter.adjNode() == to && iter.distance() <= distance
+                        && prepareEncoder.canBeOverwritten(flags, iter.flags())) {
+                    // a limited witness search can miss an existing edge which is not longer
+                    updatedInGraph = true;
+                    break;
+                }
+                if (iter.isShortcut() && iter.adjNode() == to
+                        && prepareEncoder.canBeOverwritten(iter.flags(), flags)
+                        && iter.distance() > distance) {
+                    iter.flags(flags);
+                    iter.skippedEdges(skippedEdge1, skippedEdge2);
+                    iter.distance(distance);
+                    setOrigEdgeCount(iter.edge(), origEdges);
                     updatedInGraph = true;
                     break;
                 }
             }
 
             if (!updatedInGraph) {
-                iter = g.edge(sc.from, sc.to, sc.distance, sc.flags);
-                iter.skippedEdges(sc.skippedEdge1, sc.skippedEdge2);
-                setOrigEdgeCount(iter.edge(), sc.originalEdges);
+                iter = g.edge(from, to, distance, flags);
+                iter.skippedEdges(skippedEdge1, skippedEdge2);
+                setOrigEdgeCount(iter.edge(), origEdges);
                 tmpNewShortcuts++;
             }
         }
@@ -479,8 +853,46 @@ public class PrepareContractionHierarchies extends AbstractAlgoPreparation<Prepa
         return originalEdges.getQuick(index);
     }
 
+    /**
+     * Precomputes the original edges of the most important shortcuts for the
+     * paths of all algorithms created afterwards. Call it after doWork or
+     * after the graph of a stored preparation was set.
+     *
+     * @param maxBytes the memory budget, 0 to disable the cache
+     */
+    public PrepareContractionHierarchies unpackCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            unpackCache = null;
+            return this;
+        }
+        StopWatch sw = new StopWatch().start();
+        unpackCache = new ShortcutUnpackCache(g, maxBytes);
+        logger.info("cached " + Helper.nf(unpackCache.shortcuts()) + " unpacked shortcuts in "
+                + sw.stop().getSeconds() + "s, " + unpackCache.bytes() / Helper.MB + "MB");
+        return this;
+    }
+
+    /**
+     * Creates the query with stall-on-demand. The search states are reused
+     * per thread, so the algorithm is cheap to create but must not be shared
+     * between threads.
+     */
     @Override
     public RoutingAlgorithm createAlgo() {
+        SearchState[] states = statePool.get(g.nodes());
+        // do not change weight within the query => the default ShortestCalc is used
+        DijkstraBidirectionCH dijkstra = new DijkstraBidirectionCH(g, prepareEncoder,
+                createWeightCalculation(), states[0], states[1]).unpackCache(unpackCache);
+        if (!removesHigher2LowerEdges)
+            dijkstra.edgeFilter(new LevelEdgeFilter(g));
+        return dijkstra;
+    }
+
+    /**
+     * Creates the former query based on DijkstraBidirectionRef without
+     * stall-on-demand, e.g. to compare it with createAlgo.
+     */
+    public RoutingAlgorithm createDijkstraRef() {
         // do not change weight within DijkstraBidirectionRef => so use ShortestCalc
         DijkstraBidirectionRef dijkstra = new DijkstraBidirectionRef(g, prepareEncoder) {
             @Override protected void initCollections(int nodes) {
@@ -508,7 +920,7 @@ public class PrepareContractionHierarchies extends AbstractAlgoPreparation<Prepa
                 // CH changes the distance in prepareEdges to the weight
                 // now we need to transform it back to the real distance
                 WeightCalculation wc = createWeightCalculation();
-                return new Path4CH(graph, flagEncoder, wc);
+                return new Path4CH(graph, flagEncoder, wc, unpackCache);
             }
 
             @Override public String name() {
@@ -548,7 +960,7 @@ public class PrepareContractionHierarchies extends AbstractAlgoPreparation<Prepa
                 // CH changes the distance in prepareEdges to the weight
                 // now we need to transform it back to the real distance
                 WeightCalculation wc = createWeightCalculation();
-                return new Path4CH(graph, flagEncoder, wc);
+                return new Path4CH(graph, flagEncoder, wc, unpackCache);
             }
 
             @Override public String name() {
@@ -580,70 +992,6 @@ public class PrepareContractionHierarchies extends AbstractAlgoPreparation<Prepa
         };
     }
 
-    /**
-     * Use an one-to-many algorithm to make preparation faster. We need to use
-     * DijkstraSimple as AStar or DijkstraBidirection cannot be efficiently used
-     * with multiple goals
-     */
-    static class OneToManyDijkstraCH extends DijkstraSimple {
-
-        double limit;
-        Collection<NodeCH> goals;
-
-        public OneToManyDijkstraCH(Graph graph, VehicleEncoder encoder) {
-            super(graph, encoder);
-        }
-
-        OneToManyDijkstraCH limit(double weight) {
-            limit = weight;
-            return this;
-        }
-
-        @Override public Path calcPath(int from, int to) {
-            throw new IllegalArgumentException("call the other calcPath instead");
-        }
-
-        Path calcPath(int from, Collection<NodeCH> goals) {
-            this.goals = goals;
-            return super.calcPath(from, -1);
-        }
-
-        @Override public boolean finished(EdgeEntry curr, int _ignoreTo) {
-            if (curr.weight > limit)
-                return true;
-
-            int found = 0;
-            for (NodeCH n : goals) {
-                if (n.endNode == curr.endNode) {
-                    n.entry = curr;
-                    found++;
-                } else if (n.entry != null) {
-                    found++;
-                }
-            }
-            return found == goals.size();
-        }
-
-//        @Override
-//        protected EdgeEntry newEdgeEntry(EdgeEntry ee, int edge, int tmpNode, double tmpWeight) {
-//            if (ee == null)
-//                return new EdgeEntryCH(0, edge, tmpNode, tmpWeight);
-//            return new EdgeEntryCH(((EdgeEntryCH) ee).hops + 1, edge, tmpNode, tmpWeight);
-//        }
-        @Override public String name() {
-            return "dijkstraOne2Many";
-        }
-    }
-
-//    private static class EdgeEntryCH extends EdgeEntry {
-//
-//        int hops;
-//
-//        public EdgeEntryCH(int hops, int edgeId, int endNode, double distance) {
-//            super(edgeId, endNode, distance);
-//            this.hops = hops;
-//        }
-//    }
     private static class PriorityNode {
 
         int node;
@@ -675,41 +1023,55 @@ public class PrepareContractionHierarchies extends AbstractAlgoPreparation<Prepa
             this.distance = dist;
         }
 
-        @Override
-        public int hashCode() {
-            int hash = 5;
-            hash = 23 * hash + from;
-            hash = 23 * hash + to;
-            return 23 * hash
-                    + (int) (Double.doubleToLongBits(this.distance) ^ (Double.doubleToLongBits(this.distance) >>> 32));
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (obj == null || getClass() != obj.getClass())
-                return false;
-            final Shortcut other = (Shortcut) obj;
-            if (this.from != other.from || this.to != other.to)
-                return false;
-
-            return Double.doubleToLongBits(this.distance) == Double.doubleToLongBits(other.distance);
-        }
-
         @Override public String toString() {
             return from + "->" + to + ", dist:" + distance;
         }
     }
 
-    static class NodeCH {
+    /**
+     * The found shortcuts as parallel primitive lists, one entry per shortcut.
+     */
+    class ShortcutBuffer {
+
+        final TIntArrayList from = new TIntArrayList();
+        final TIntArrayList to = new TIntArrayList();
+        final TDoubleArrayList distance = new TDoubleArrayList();
+        final TIntArrayList skippedEdge1 = new TIntArrayList();
+        final TIntArrayList skippedEdge2 = new TIntArrayList();
+        final TIntArrayList originalEdges = new TIntArrayList();
+        final TIntArrayList flags = new TIntArrayList();
+
+        int size() {
+            return from.size();
+        }
 
-        int endNode;
-        int originalEdges;
-        int edge;
-        EdgeEntry entry;
-        double distance;
+        void clear() {
+            from.resetQuick();
+            to.resetQuick();
+            distance.resetQuick();
+            skippedEdge1.resetQuick();
+            skippedEdge2.resetQuick();
+            originalEdges.resetQuick();
+            flags.resetQuick();
+        }
 
-        @Override public String toString() {
-            return "" + endNode;
+        void add(int fromNode, int toNode, double dist, int skipped1, int skipped2, int origEdges, int scFlags) {
+            from.add(fromNode);
+            to.add(toNode);
+            distance.add(dist);
+            skippedEdge1.add(skipped1);
+            skippedEdge2.add(skipped2);
+            originalEdges.add(origEdges);
+            flags.add(scFlags);
+        }
+
+        Shortcut get(int index) {
+            Shortcut sc = new Shortcut(from.get(index), to.get(index), distance.get(index));
+            sc.skippedEdge1 = skippedEdge1.get(index);
+            sc.skippedEdge2 = skippedEdge2.get(index);
+            sc.originalEdges = originalEdges.get(index);
+            sc.flags = flags.get(index);
+            return sc;
         }
     }
 }
@@ -0,0 +1,605 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing.ch;
+
+import com.graphhopper.routing.RoutingAlgorithm;
+import com.graphhopper.routing.SearchState;
+import com.graphhopper.routing.util.AllEdgesSkipIterator;
+import com.graphhopper.routing.util.DefaultEdgeFilter;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.routing.util.VehicleEncoder;
+import com.graphhopper.routing.util.WeightCalculation;
+import com.graphhopper.storage.DataAccess;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.storage.LevelGraphStorage;
+import com.graphhopper.util.EdgeIterator;
+import com.graphhopper.util.EdgeSkipIterator;
+import com.graphhopper.util.StopWatch;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.hash.TLongHashSet;
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prepares the graph for contraction hierarchies in two phases, see
+ * customizable contraction hierarchies (Dibbelt, Strasser, Wagner).
+ *
+ * doWork calculates the node order and the shortcuts without looking at any
+ * weight: the order is a nested dissection of the node coordinates and all
+ * neighbors of a contracted node get connected without a witness search.
+ * Every connected pair of nodes gets two one-way shortcuts as the best path of
+ * both directions can skip different nodes.
+ *
+ * customize then calculates the weights of the edges and shortcuts for a
+ * WeightCalculation. It visits the nodes from the lowest to the highest level
+ * and relaxes every shortcut over the lower triangles, this is fast compared
+ * to doWork. So after the speeds were updated (GraphStorage.updateSpeeds) or
+ * to switch from shortest to fastest only customize has to be called again.
+ * The graph is not modified by customize: the weights, directions and
+ * skipped edges of the shortcuts are stored per edge id in a separate
+ * CCHWeights, so the topology is shared by any number of weightings, see
+ * calcWeights and createAlgo(CCHWeights). threads(n) is ignored as the first
+ * phase does no witness searches.
+ *
+ * Queries may run while customize runs. customize publishes the new weights
+ * at once when they are complete, an algorithm returned by createAlgo() keeps
+ * the weights which were current at its creation.
+ *
+ * @see PrepareContractionHierarchies
+ * @author Peter Karich
+ */
+public class PrepareCustomizableCH extends PrepareContractionHierarchies {
+
+    // the 'cchEdges' entry of an original edge is its distance,
+    // of a shortcut it is the direction relative to the node ids
+    private static final int SC_FROM_SMALLER = -1;
+    private static final int SC_FROM_BIGGER = -2;
+    private static final double DIST_FACTOR = 1000;
+    private Logger logger = LoggerFactory.getLogger(getClass());
+    private LevelGraphStorage g;
+    private DataAccess edgeInfo;
+    private EdgeFilter vehicleAllFilter;
+    // the nodes from the lowest to the highest level
+    private int[] order;
+    // a node is in the current set if its entry equals the current stamp
+    private int[] marks;
+    private int stamp;
+    // the pairs of nodes which are already connected via shortcuts
+    private TLongHashSet shortcutPairs;
+    private TIntArrayList neighbors;
+    private TIntArrayList neighborEdges;
+    private int shortcuts;
+    private boolean topology;
+    private long unpackCacheBytes;
+    // the weights of the last customize, replaced as a whole
+    private volatile CCHWeights weights;
+
+    @Override
+    public PrepareCustomizableCH graph(Graph g) {
+        super.graph(g);
+        this.g = (LevelGraphStorage) g;
+        edgeInfo = this.g.directory().findCreate("cchEdges");
+        weights = null;
+        return this;
+    }
+
+    /**
+     * The customization relies on the removed edges, so only true is allowed.
+     */
+    @Override
+    public PrepareCustomizableCH removeHigher2LowerEdges(boolean removeHigher2LowerEdges) {
+        if (!removeHigher2LowerEdges)
+            throw new IllegalArgumentException("Customizable contraction hierarchies need to remove higher to lower edges");
+        return this;
+    }
+
+    @Override
+    public PrepareCustomizableCH doWork() {
+        super.doWork();
+        if (topology)
+            customize(type());
+        else
+            // no edges to contract and to weight
+            weights = new CCHWeights(type(), new double[0], new byte[0], new int[0]);
+        return this;
+    }
+
+    @Override
+    PrepareCustomizableCH initFromGraph() {
+        int nodes = g.nodes();
+        vehicleAllFilter = new DefaultEdgeFilter(vehicle(), true, true);
+        marks = new int[nodes];
+        shortcutPairs = new TLongHashSet();
+        neighbors = new TIntArrayList();
+        neighborEdges = new TIntArrayList();
+        return this;
+    }
+
+    @Override
+    boolean prepareEdges() {
+        if (edgeInfo.capacity() > 0) {
+            // the graph was already prepared => only customize
+            shortcuts = edgeInfo.getHeader(0);
+            topology = true;
+            return false;
+        }
+
+        // marks the original edges
+        AllEdgesSkipIterator iter = g.getAllEdges();
+        edgeInfo.create(4L * Math.max(iter.maxId(), 1));
+        int c = 0;
+        while (iter.next()) {
+            c++;
+            edgeInfo(iter.edge(), (int) Math.round(iter.distance() * DIST_FACTOR));
+        }
+        return c > 0;
+    }
+
+    @Override
+    boolean prepareNodes() {
+        int len = g.nodes();
+        if (len == 0)
+            return false;
+        int[] nodes = new int[len];
+        for (int node = 0; node < len; node++) {
+            nodes[node] = node;
+        }
+        order = new int[len];
+        dissect(nodes, 0, len, 0);
+        return true;
+    }
+
+    /**
+     * Orders nodes[from, to) into order[rank, rank + to - from): the halves of
+     * a bisection along the longer side of their bounding box come first, then
+     * the nodes of the left half which have an edge into the right half. These
+     * separate both halves, so no shortcut crosses them.
+     */
+    private void dissect(int[] nodes, int from, int to, int rank) {
+        int size = to - from;
+        if (size <= 2) {
+            System.arraycopy(nodes, from, order, rank, size);
+            return;
+        }
+
+        double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+        double minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+        for (int i = from; i < to; i++) {
+            double lat = g.getLatitude(nodes[i]);
+            double lon = g.getLongitude(nodes[i]);
+            minLat = Math.min(minLat, lat);
+            maxLat = Math.max(maxLat, lat);
+            minLon = Math.min(minLon, lon);
+            maxLon = Math.max(maxLon, lon);
+        }
+        boolean byLat = maxLat - minLat >= maxLon - minLon;
+        int middle = from + size / 2;
+        select(nodes, from, to, middle, byLat);
+
+        int tmpStamp = nextStamp();
+        for (int i = middle; i < to; i++) {
+            marks[nodes[i]] = tmpStamp;
+        }
+        // move the separator to the end of the left half
+        int separator = middle;
+        for (int i = middle - 1; i >= from; i--) {
+            if (!hasNeighbor(nodes[i], tmpStamp))
+                continue;
+            separator--;
+            int tmp = nodes[i];
+            nodes[i] = nodes[separator];
+            nodes[separator] = tmp;
+        }
+
+        dissect(nodes, from, separator, rank);
+        rank += separator - from;
+        dissect(nodes, middle, to, rank);
+        rank += to - middle;
+        System.arraycopy(nodes, separator, order, rank, middle - separator);
+    }
+
+    private boolean hasNeighbor(int node, int tmpStamp) {
+        EdgeSkipIterator iter = g.getEdges(node, vehicleAllFilter);
+        while (iter.next()) {
+            if (marks[iter.adjNode()] == tmpStamp)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Partially sorts nodes[from, to) by latitude or longitude so that the
+     * k-th node is in place, the nodes before are not bigger and the nodes
+     * after are not smaller.
+     */
+    private void select(int[] nodes, int from, int to, int k, boolean byLat) {
+        int lo = from, hi = to - 1;
+        while (lo < hi) {
+            double pivot = coordinate(nodes[(lo + hi) >>> 1], byLat);
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (coordinate(nodes[i], byLat) < pivot) {
+                    i++;
+                }
+                while (coordinate(nodes[j], byLat) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = nodes[i];
+                    nodes[i] = nodes[j];
+                    nodes[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j)
+                hi = j;
+            else if (k >= i)
+                lo = i;
+            else
+                return;
+        }
+    }
+
+    private double coordinate(int node, boolean byLat) {
+        return byLat ? g.getLatitude(node) : g.getLongitude(node);
+    }
+
+    @Override
+    void contractNodesParallel() {
+        contractNodes();
+    }
+
+    @Override
+    void contractNodes() {
+        StopWatch sw = new StopWatch().start();
+        for (int rank = 0; rank < order.length; rank++) {
+            int v = order[rank];
+            shortcuts += addShortcuts(v);
+            g.setLevel(v, rank + 1);
+
+            // remove every edge to higher nodes, also the ones not accessible for the vehicle
+            EdgeSkipIterator iter = g.getEdges(v);
+            while (iter.next()) {
+                if (g.getLevel(iter.adjNode()) == 0)
+                    g.disconnect(iter, EdgeIterator.NO_EDGE, false);
+            }
+        }
+        shortcutPairs = null;
+        topology = true;
+        edgeInfo.setHeader(0, shortcuts);
+        logger.info("new shortcuts " + shortcuts + ", " + vehicle() + ", " + sw.stop().getSeconds() + "s");
+    }
+
+    /**
+     * Connects all uncontracted neighbors of v which are not yet connected via
+     * shortcuts. The skipped edges are valid but the shortcuts are not
+     * accessible until customize calculated their weights.
+     */
+    @Override
+    int addShortcuts(int v) {
+        int degree = collectNeighbors(v);
+        int added = 0;
+        for (int i = 0; i < degree; i++) {
+            int a = neighbors.get(i);
+            for (int j = i + 1; j < degree; j++) {
+                int b = neighbors.get(j);
+                if (!shortcutPairs.add(Math.min(a, b) * (long) order.length + Math.max(a, b)))
+                    continue;
+
+                addShortcut(a, b, neighborEdges.get(i), neighborEdges.get(j));
+                addShortcut(b, a, neighborEdges.get(j), neighborEdges.get(i));
+                added += 2;
+            }
+        }
+        return added;
+    }
+
+    private void addShortcut(int from, int to, int skippedEdge1, int skippedEdge2) {
+        EdgeSkipIterator iter = g.edge(from, to, 0, 0);
+        iter.skippedEdges(skippedEdge1, skippedEdge2);
+        edgeInfo(iter.edge(), from < to ? SC_FROM_SMALLER : SC_FROM_BIGGER);
+    }
+
+    /**
+     * Fills neighbors with the distinct uncontracted nodes which are connected
+     * to v via an edge accessible by the vehicle or via a shortcut.
+     */
+    private int collectNeighbors(int v) {
+        neighbors.resetQuick();
+        neighborEdges.resetQuick();
+        int tmpStamp = nextStamp();
+        EdgeSkipIterator iter = g.getEdges(v);
+        while (iter.next()) {
+            int adj = iter.adjNode();
+            if (adj == v || marks[adj] == tmpStamp || g.getLevel(adj) != 0)
+                continue;
+            if (edgeInfo.getInt(iter.edge()) >= 0 && !vehicleAllFilter.accept(iter))
+                continue;
+
+            marks[adj] = tmpStamp;
+            neighbors.add(adj);
+            neighborEdges.add(iter.edge());
+        }
+        return neighbors.size();
+    }
+
+    private int nextStamp() {
+        stamp++;
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(marks, 0);
+            stamp = 1;
+        }
+        return stamp;
+    }
+
+    private void edgeInfo(int edge, int value) {
+        edgeInfo.ensureCapacity(4L * (edge + 1));
+        edgeInfo.setInt(edge, value);
+    }
+
+    /**
+     * Calculates the weights of all edges and shortcuts for the specified
+     * WeightCalculation, e.g. for the fastest instead of the shortest route or
+     * after the speeds of some edges were changed, and makes them the weights
+     * of createAlgo(). The node order and the shortcuts stay the same.
+     * Algorithms created before keep the former weights, so the graph can be
+     * queried while this runs.
+     */
+    public PrepareCustomizableCH customize(WeightCalculation calc) {
+        CCHWeights tmp = calcWeights(calc);
+        if (unpackCacheBytes > 0)
+            tmp = tmp.unpackCache(g, unpackCacheBytes);
+        type(calc);
+        weights = tmp;
+        return this;
+    }
+
+    /**
+     * Calculates the weights of all edges and shortcuts for the specified
+     * WeightCalculation without changing the weights of createAlgo(). The
+     * graph is only read, so this can run concurrently to queries and to
+     * other customizations.
+     */
+    public CCHWeights calcWeights(WeightCalculation calc) {
+        if (!topology)
+            throw new IllegalStateException("Call doWork or loadExisting before customize");
+        StopWatch sw = new StopWatch().start();
+        VehicleEncoder encoder = vehicle();
+
+        // the remaining edges of a node go to higher nodes, copy them into arrays
+        int nodes = g.nodes();
+        int[] order = new int[nodes];
+        int[] first = new int[nodes + 1];
+        TIntArrayList adjNodes = new TIntArrayList();
+        TIntArrayList edgeIds = new TIntArrayList();
+        for (int node = 0; node < nodes; node++) {
+            int level = g.getLevel(node);
+            if (level < 1 || level > nodes)
+                throw new IllegalStateException("Node " + node + " was not contracted, level " + level);
+            order[level - 1] = node;
+            first[node] = adjNodes.size();
+            EdgeSkipIterator iter = g.getEdges(node);
+            while (iter.next()) {
+                adjNodes.add(iter.adjNode());
+                edgeIds.add(iter.edge());
+            }
+        }
+        int size = adjNodes.size();
+        first[nodes] = size;
+        int[] infos = new int[size];
+        // the weight from the lower to the higher node (out) and back (in)
+        double[] weightOut = new double[size];
+        double[] weightIn = new double[size];
+        int[] skippedEdges1 = new int[size];
+        int[] skippedEdges2 = new int[size];
+        Arrays.fill(weightOut, Double.POSITIVE_INFINITY);
+        Arrays.fill(weightIn, Double.POSITIVE_INFINITY);
+        for (int node = 0, k = 0; node < nodes; node++) {
+            EdgeSkipIterator iter = g.getEdges(node);
+            for (; iter.next(); k++) {
+                int info = edgeInfo.getInt(iter.edge());
+                infos[k] = info;
+                if (info < 0)
+                    continue;
+                int flags = iter.flags();
+                double weight = calc.getWeight(iter.distance(), flags);
+                if (encoder.isForward(flags))
+                    weightOut[k] = weight;
+                if (encoder.isBackward(flags))
+                    weightIn[k] = weight;
+            }
+        }
+
+        // the best weight and edge from (in) and to (out) the upward neighbors of v
+        double[] bestIn = new double[nodes];
+        double[] bestOut = new double[nodes];
+        int[] edgeIn = new int[nodes];
+        int[] edgeOut = new int[nodes];
+        int[] members = new int[nodes];
+        TIntArrayList upward = new TIntArrayList();
+        for (int i = 0; i < nodes; i++) {
+            int v = order[i];
+            int tmpStamp = i + 1;
+            upward.resetQuick();
+            // the weights of the edges to higher nodes are final as all lower nodes were visited
+            for (int k = first[v]; k < first[v + 1]; k++) {
+                int adj = adjNodes.getQuick(k);
+                if (adj == v)
+                    continue;
+                if (members[adj] != tmpStamp) {
+                    members[adj] = tmpStamp;
+                    upward.add(adj);
+                    bestIn[adj] = Double.POSITIVE_INFINITY;
+                    bestOut[adj] = Double.POSITIVE_INFINITY;
+                }
+                if (weightOut[k] < bestOut[adj]) {
+                    bestOut[adj] = weightOut[k];
+                    edgeOut[adj] = edgeIds.getQuick(k);
+                }
+                if (weightIn[k] < bestIn[adj]) {
+                    bestIn[adj] = weightIn[k];
+                    edgeIn[adj] = edgeIds.getQuick(k);
+                }
+            }
+
+            // relax the shortcuts between the upward neighbors via v
+            int len = upward.size();
+            for (int j = 0; j < len; j++) {
+                int a = upward.getQuick(j);
+                for (int k = first[a]; k < first[a + 1]; k++) {
+                    int b = adjNodes.getQuick(k);
+                    if (infos[k] >= 0 || members[b] != tmpStamp)
+                        continue;
+
+                    if ((infos[k] == SC_FROM_SMALLER) == (a < b)) {
+                        double weight = bestIn[a] + bestOut[b];
+                        if (weight < weightOut[k]) {
+                            weightOut[k] = weight;
+                            skippedEdges1[k] = edgeIn[a];
+                            skippedEdges2[k] = edgeOut[b];
+                        }
+                    } else {
+                        double weight = bestIn[b] + bestOut[a];
+                        if (weight < weightIn[k]) {
+                            weightIn[k] = weight;
+                            skippedEdges1[k] = edgeIn[b];
+                            skippedEdges2[k] = edgeOut[a];
+                        }
+                    }
+                }
+            }
+        }
+
+        // store them per edge id, unreachable shortcuts get no direction
+        int edges = g.getAllEdges().maxId();
+        double[] tmpWeights = new double[edges];
+        byte[] access = new byte[edges];
+        int[] skippedEdges = new int[2 * edges];
+        for (int k = 0; k < size; k++) {
+            int edge = edgeIds.getQuick(k);
+            byte dir = 0;
+            if (weightOut[k] < Double.POSITIVE_INFINITY)
+                dir |= CCHWeights.UP;
+            if (weightIn[k] < Double.POSITIVE_INFINITY)
+                dir |= CCHWeights.DOWN;
+            access[edge] = dir;
+            tmpWeights[edge] = Math.min(weightOut[k], weightIn[k]);
+            skippedEdges[2 * edge] = skippedEdges1[k];
+            skippedEdges[2 * edge + 1] = skippedEdges2[k];
+        }
+        logger.info("customized " + shortcuts() + " shortcuts for " + calc + " in " + sw.stop().getSeconds() + "s");
+        return new CCHWeights(calc, tmpWeights, access, skippedEdges);
+    }
+
+    /**
+     * @return the weights of the last customize or null
+     */
+    public CCHWeights weights() {
+        return weights;
+    }
+
+    /**
+     * The original edges of the shortcuts depend on the weights, so the cache
+     * is created for every customization.
+     */
+    @Override
+    public PrepareCustomizableCH unpackCache(long maxBytes) {
+        unpackCacheBytes = maxBytes;
+        CCHWeights tmp = weights;
+        if (tmp != null)
+            weights = tmp.unpackCache(g, maxBytes);
+        return this;
+    }
+
+    /**
+     * Creates the query for the weights of the last customize.
+     */
+    @Override
+    public RoutingAlgorithm createAlgo() {
+        CCHWeights tmp = weights;
+        if (tmp == null)
+            throw new IllegalStateException("Call customize before creating an algorithm");
+        return createAlgo(tmp);
+    }
+
+    /**
+     * Creates the query for the specified weights, e.g. of calcWeights. The
+     * search states are reused per thread like in createAlgo().
+     */
+    public RoutingAlgorithm createAlgo(CCHWeights weights) {
+        SearchState[] states = statePool().get(g.nodes());
+        return new DijkstraBidirectionCCH(g, vehicle(), weights, states[0], states[1]);
+    }
+
+    /**
+     * Not supported as the graph contains no weights.
+     */
+    @Override
+    public RoutingAlgorithm createDijkstraRef() {
+        throw new UnsupportedOperationException("Customizable contraction hierarchies support only createAlgo");
+    }
+
+    /**
+     * Not supported as the graph contains no weights.
+     */
+    @Override
+    public RoutingAlgorithm createAStar() {
+        throw new UnsupportedOperationException("Customizable contraction hierarchies support only createAlgo");
+    }
+
+    /**
+     * @return the number of shortcuts created in doWork, two per connected
+     * pair of nodes
+     */
+    @Override
+    public int shortcuts() {
+        return shortcuts;
+    }
+
+    /**
+     * Loads the original distances of a former doWork, e.g. to customize a
+     * graph which was loaded from disc. The stored metadata is checked if it
+     * exists.
+     */
+    @Override
+    public boolean loadExisting() {
+        if (!edgeInfo.loadExisting())
+            return false;
+        super.loadExisting();
+        shortcuts = edgeInfo.getHeader(0);
+        topology = true;
+        return true;
+    }
+
+    /**
+     * The weighting is not checked as customize can switch it.
+     */
+    @Override
+    void checkMetadata(CHMetadata meta) {
+        checkTopology(meta);
+    }
+
+    @Override
+    public void flush() {
+        super.flush();
+        edgeInfo.flush();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing.ch;
+
+import com.graphhopper.routing.util.AllEdgesSkipIterator;
+import com.graphhopper.storage.LevelGraph;
+import com.graphhopper.util.EdgeSkipIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+import java.util.Arrays;
+
+/**
+ * The original edges of the most important shortcuts, precomputed to avoid
+ * unpacking them for every path. Nearly every long route passes the nodes
+ * with the highest levels, so the shortcuts are ranked by the lower level of
+ * their two nodes and added until the next one does not fit into the memory
+ * budget.
+ *
+ * The cache is immutable after creation and can be shared by all query
+ * threads. It is only valid for the graph it was created from and for
+ * customizable contraction hierarchies only for the CCHWeights.
+ *
+ * @see PrepareContractionHierarchies#unpackCache(long)
+ * @author Peter Karich
+ */
+class ShortcutUnpackCache {
+
+    // map overhead per entry
+    private static final int ENTRY_BYTES = 16;
+    // shortcuts with less original edges are faster unpacked than looked up
+    private static final int MIN_EDGES = 3;
+    // for every shortcut: count, nodeA and then edge,adjNode for every
+    // original edge in the direction from nodeA to nodeB
+    private final int[] pool;
+    private final TIntIntHashMap offsets;
+
+    ShortcutUnpackCache(LevelGraph g, long maxBytes) {
+        this(g, null, maxBytes);
+    }
+
+    /**
+     * @param weights the skipped edges of the customization or null to use
+     * the ones of the graph
+     */
+    ShortcutUnpackCache(LevelGraph g, CCHWeights weights, long maxBytes) {
+        AllEdgesSkipIterator iter = g.getAllEdges();
+        TIntArrayList tmpKeys = new TIntArrayList();
+        while (iter.next()) {
+            // shortcuts without a path in the customization have no valid skipped edges
+            if (iter.isShortcut() && (weights == null || weights.isAccessible(iter.edge())))
+                tmpKeys.add(iter.edge());
+        }
+        // the highest rank first, the edge id keeps the order deterministic
+        long[] ranked = new long[tmpKeys.size()];
+        for (int i = 0; i < ranked.length; i++) {
+            int edge = tmpKeys.get(i);
+            EdgeSkipIterator sc = g.getEdgeProps(edge, -1);
+            int rank = Math.min(g.getLevel(sc.baseNode()), g.getLevel(sc.adjNode()));
+            ranked[i] = ((long) (Integer.MAX_VALUE - rank) << 32) | edge;
+        }
+        Arrays.sort(ranked);
+
+        final TIntArrayList tmpPool = new TIntArrayList();
+        offsets = new TIntIntHashMap(100, 0.5f, -1, -1);
+        ShortcutUnpacker unpacker = new ShortcutUnpacker(g, weights, null);
+        ShortcutUnpacker.Visitor collector = new ShortcutUnpacker.Visitor() {
+            @Override public void next(EdgeSkipIterator originalEdge) {
+                tmpPool.add(originalEdge.edge());
+                tmpPool.add(originalEdge.adjNode());
+            }
+        };
+        long bytes = 0;
+        for (long key : ranked) {
+            int edge = (int) key;
+            EdgeSkipIterator sc = g.getEdgeProps(edge, -1);
+            int offset = tmpPool.size();
+            tmpPool.add(0);
+            tmpPool.add(sc.baseNode());
+            unpacker.unpack(edge, sc.adjNode(), false, collector);
+            int count = (tmpPool.size() - offset - 2) / 2;
+            long entryBytes = 4L * (tmpPool.size() - offset) + ENTRY_BYTES;
+            if (count < MIN_EDGES || bytes + entryBytes > maxBytes) {
+                tmpPool.remove(offset, tmpPool.size() - offset);
+                if (count < MIN_EDGES)
+                    continue;
+                break;
+            }
+            tmpPool.set(offset, count);
+            offsets.put(edge, offset);
+            bytes += entryBytes;
+        }
+        pool = tmpPool.toArray();
+    }
+
+    /**
+     * @return the start of the specified shortcut in the pool or -1 if it is
+     * not cached
+     */
+    int offset(int edge) {
+        return offsets.get(edge);
+    }
+
+    int[] pool() {
+        return pool;
+    }
+
+    int shortcuts() {
+        return offsets.size();
+    }
+
+    long bytes() {
+        return 4L * pool.length + (long) ENTRY_BYTES * offsets.size();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing.ch;
+
+import com.graphhopper.storage.Graph;
+import com.graphhopper.util.EdgeSkipIterator;
+import com.graphhopper.util.NotThreadSafe;
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Expands a shortcut into its original edges in the order they are added to a
+ * path. Instead of recursion an explicit stack of (edge, adjNode) pairs is
+ * used, so a deep hierarchy cannot overflow the call stack. The skipped edges
+ * of a shortcut are resolved by their ids, the one ending at the adjacent
+ * node is the second half of the shortcut. Shortcuts found in the optional
+ * ShortcutUnpackCache are not expanded at all. For customizable contraction
+ * hierarchies the skipped edges come from the CCHWeights of the query.
+ *
+ * @see Path4CH
+ * @author Peter Karich
+ */
+@NotThreadSafe
+class ShortcutUnpacker {
+
+    /**
+     * Receives the original edges of an unpacked edge, where adjNode is the
+     * node the edge is traversed to.
+     */
+    interface Visitor {
+
+        void next(EdgeSkipIterator originalEdge);
+    }
+    private final Graph graph;
+    private final CCHWeights weights;
+    private final ShortcutUnpackCache cache;
+    // pairs of edge and adjNode, the next edge to unpack at the end
+    private final TIntArrayList stack = new TIntArrayList();
+
+    /**
+     * @param cache the precomputed shortcuts or null
+     */
+    ShortcutUnpacker(Graph graph, ShortcutUnpackCache cache) {
+        this(graph, null, cache);
+    }
+
+    /**
+     * @param weights the skipped edges of the customization or null to use
+     * the ones of the graph
+     */
+    ShortcutUnpacker(Graph graph, CCHWeights weights, ShortcutUnpackCache cache) {
+        this.graph = graph;
+        this.weights = weights;
+        this.cache = cache;
+    }
+
+    /**
+     * @param reverseOrder true if the original edges have to be visited from
+     * endNode backwards, see Path.reverseOrder
+     */
+    void unpack(int edge, int endNode, boolean reverseOrder, Visitor visitor) {
+        stack.resetQuick();
+        stack.add(edge);
+        stack.add(endNode);
+        while (!stack.isEmpty()) {
+            int size = stack.size();
+            int currEdge = stack.get(size - 2);
+            int adjNode = stack.get(size - 1);
+            stack.remove(size - 2, 2);
+            if (cache != null) {
+                int offset = cache.offset(currEdge);
+                if (offset >= 0) {
+                    visitCached(offset, adjNode, reverseOrder, visitor);
+                    continue;
+                }
+            }
+
+            EdgeSkipIterator iter = (EdgeSkipIterator) graph.getEdgeProps(currEdge, adjNode);
+            if (!iter.isShortcut()) {
+                visitor.next(iter);
+                continue;
+            }
+
+            int skippedEdge1, skippedEdge2;
+            if (weights == null) {
+                skippedEdge1 = iter.skippedEdge1();
+                skippedEdge2 = iter.skippedEdge2();
+            } else {
+                skippedEdge1 = weights.skippedEdge1(currEdge);
+                skippedEdge2 = weights.skippedEdge2(currEdge);
+            }
+            int first = skippedEdge2;
+            EdgeSkipIterator second = (EdgeSkipIterator) graph.getEdgeProps(skippedEdge1, adjNode);
+            if (second.isEmpty()) {
+                first = skippedEdge1;
+                second = (EdgeSkipIterator) graph.getEdgeProps(skippedEdge2, adjNode);
+            }
+            // the half which has to be visited first is pushed last
+            if (reverseOrder) {
+                push(first, second.baseNode());
+                push(second.edge(), adjNode);
+            } else {
+                push(second.edge(), adjNode);
+                push(first, second.baseNode());
+            }
+        }
+    }
+
+    private void push(int edge, int adjNode) {
+        stack.add(edge);
+        stack.add(adjNode);
+    }
+
+    private void visitCached(int offset, int adjNode, boolean reverseOrder, Visitor visitor) {
+        int[] pool = cache.pool();
+        int count = pool[offset];
+        int nodeA = pool[offset + 1];
+        int start = offset + 2;
+        // the pool stores the edges from nodeA to nodeB
+        boolean forward = pool[start + 2 * count - 1] == adjNode;
+        for (int i = 0; i < count; i++) {
+            int j = reverseOrder ? count - 1 - i : i;
+            int index = forward ? j : count - 1 - j;
+            int edge = pool[start + 2 * index];
+            int node;
+            if (forward)
+                node = pool[start + 2 * index + 1];
+            else
+                node = index == 0 ? nodeA : pool[start + 2 * index - 1];
+            visitor.next((EdgeSkipIterator) graph.getEdgeProps(edge, node));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing.ch;
+
+import com.graphhopper.coll.IntDoubleIndexedHeap;
+import com.graphhopper.routing.util.DefaultEdgeFilter;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.routing.util.VehicleEncoder;
+import com.graphhopper.storage.LevelGraph;
+import com.graphhopper.util.EdgeIterator;
+import com.graphhopper.util.NotThreadSafe;
+import java.util.Arrays;
+
+/**
+ * The one-to-many Dijkstra of the CH preparation which looks for a witness
+ * path from u to the targets w avoiding the node v which gets contracted. The
+ * state is kept in node indexed arrays and is forgotten via an epoch like in
+ * SearchState, so one instance serves all searches of a preparation thread
+ * without allocating. Only uncontracted nodes are visited and the distance of
+ * the edges is used as weight, see PrepareContractionHierarchies.prepareEdges.
+ *
+ * A search stops if all targets are settled, if the next node is heavier than
+ * the limit or if maxSettledNodes are settled. Nodes reached via maxHops edges
+ * are not expanded. Stopping early is safe, it only leads to more shortcuts.
+ *
+ * @author Peter Karich
+ */
+@NotThreadSafe
+class WitnessSearch {
+
+    private final LevelGraph g;
+    private final EdgeFilter outFilter;
+    private final IntDoubleIndexedHeap heap;
+    private int maxHops = Integer.MAX_VALUE;
+    private int maxSettledNodes = Integer.MAX_VALUE;
+    private int epoch;
+    private int[] visited;
+    private int[] settled;
+    private int[] targets;
+    private double[] weights;
+    private int[] hops;
+    private int targetCount;
+    private long searches;
+    private long settledNodes;
+
+    public WitnessSearch(LevelGraph g, VehicleEncoder encoder) {
+        this.g = g;
+        outFilter = new DefaultEdgeFilter(encoder, false, true);
+        int nodes = Math.max(10, g.nodes());
+        visited = new int[nodes];
+        settled = new int[nodes];
+        targets = new int[nodes];
+        weights = new double[nodes];
+        hops = new int[nodes];
+        heap = new IntDoubleIndexedHeap(100, nodes);
+    }
+
+    public WitnessSearch maxHops(int maxHops) {
+        this.maxHops = maxHops;
+        return this;
+    }
+
+    public WitnessSearch maxSettledNodes(int maxSettledNodes) {
+        this.maxSettledNodes = maxSettledNodes;
+        return this;
+    }
+
+    /**
+     * Forgets the targets and the result of the previous search.
+     */
+    public WitnessSearch reset() {
+        heap.clear();
+        targetCount = 0;
+        epoch++;
+        if (epoch == Integer.MAX_VALUE) {
+            Arrays.fill(visited, 0);
+            Arrays.fill(settled, 0);
+            Arrays.fill(targets, 0);
+            epoch = 1;
+        }
+        return this;
+    }
+
+    public void addTarget(int node) {
+        if (targets[node] == epoch)
+            return;
+        targets[node] = epoch;
+        targetCount++;
+    }
+
+    /**
+     * Searches from the specified node until all targets are settled, without
+     * visiting avoidNode and without settling nodes heavier than maxWeight.
+     */
+    public void search(int from, int avoidNode, double maxWeight) {
+        searches++;
+        int found = 0;
+        int settledCount = 0;
+        update(from, 0, 0);
+        while (!heap.isEmpty()) {
+            int node = heap.poll_element();
+            double weight = weights[node];
+            if (weight > maxWeight)
+                break;
+
+            settled[node] = epoch;
+            settledCount++;
+            if (targets[node] == epoch && ++found == targetCount || settledCount >= maxSettledNodes)
+                break;
+            if (hops[node] >= maxHops)
+                continue;
+
+            int nextHops = hops[node] + 1;
+            EdgeIterator iter = g.getEdges(node, outFilter);
+            while (iter.next()) {
+                int adj = iter.adjNode();
+                if (adj == avoidNode || g.getLevel(adj) != 0 || settled[adj] == epoch)
+                    continue;
+
+                double tmpWeight = weight + iter.distance();
+                if (visited[adj] != epoch || tmpWeight < weights[adj])
+                    update(adj, tmpWeight, nextHops);
+            }
+        }
+        settledNodes += settledCount;
+    }
+
+    private void update(int node, double weight, int nodeHops) {
+        visited[node] = epoch;
+        weights[node] = weight;
+        hops[node] = nodeHops;
+        heap.update_(weight, node);
+    }
+
+    /**
+     * @return the weight of the shortest path to the settled node or infinity
+     * if the last search did not settle the node
+     */
+    public double weight(int node) {
+        if (settled[node] != epoch)
+            return Double.POSITIVE_INFINITY;
+        return weights[node];
+    }
+
+    /**
+     * @return the number of searches of this instance
+     */
+    public long searches() {
+        return searches;
+    }
+
+    /**
+     * @return the number of nodes settled by all searches of this instance
+     */
+    public long settledNodes() {
+        return settledNodes;
+    }
+}
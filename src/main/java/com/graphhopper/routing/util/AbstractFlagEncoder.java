@@ -84,6 +84,15 @@ public class AbstractFlagEncoder implements VehicleEncoder {
         return getSpeedPart(flags) * factor;
     }
 
+    @Override
+    public int setSpeed(int flags, int speed) {
+        if (speed < 0)
+            throw new IllegalArgumentException("speed cannot be negative: " + speed);
+        int speedWindow = flagWindow >>> speedShift;
+        int part = Math.min(speed / factor, speedWindow);
+        return (flags & ~(speedWindow << speedShift)) | part << speedShift;
+    }
+
     public int flagsDefault(boolean bothDirections) {
         if (bothDirections)
             return defaultSpeedPart << speedShift | BOTH;
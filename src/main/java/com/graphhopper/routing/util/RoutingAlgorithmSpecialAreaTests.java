@@ -94,12 +94,22 @@ public class RoutingAlgorithmSpecialAreaTests {
                 createAlgoPrepare(g, "astarbi", encoder),
                 createAlgoPrepare(g, "dijkstraNative", encoder),
                 createAlgoPrepare(g, "dijkstrabi", encoder),
-                createAlgoPrepare(g, "dijkstra", encoder)));
+                createAlgoPrepare(g, "dijkstra", encoder),
+                createAlgoPrepare(g, "astarRef", encoder),
+                createAlgoPrepare(g, "astarbiRef", encoder),
+                createAlgoPrepare(g, "dijkstrabiRef", encoder),
+                createAlgoPrepare(g, "dijkstraRef", encoder)));
         if (withCh) {
             LevelGraph graphCH = (LevelGraphStorage) g.copyTo(new GraphBuilder().levelGraphCreate());
             PrepareContractionHierarchies prepareCH = new PrepareContractionHierarchies().graph(graphCH);
             prepareCH.doWork();
             prepare.add(prepareCH);
+
+            LevelGraph graphParallelCH = (LevelGraphStorage) g.copyTo(new GraphBuilder().levelGraphCreate());
+            PrepareContractionHierarchies prepareParallelCH = new PrepareContractionHierarchies().
+                    graph(graphParallelCH).threads(2);
+            prepareParallelCH.doWork();
+            prepare.add(prepareParallelCH);
             // TODO prepare.add(prepareCH.createAStar().approximation(true).approximationFactor(.9));
         }
         return prepare;
@@ -36,6 +36,12 @@ public interface VehicleEncoder {
      */
     int getSpeed(int flags);
 
+    /**
+     * @return the specified flags with the new speed in km/h, the directions
+     * and the flags of other vehicles are kept
+     */
+    int setSpeed(int flags, int speed);
+
     boolean isForward(int flags);
 
     boolean isBackward(int flags);
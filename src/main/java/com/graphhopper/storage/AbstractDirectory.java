@@ -69,6 +69,9 @@ public abstract class AbstractDirectory implements Directory {
 
     @Override
     public void remove(DataAccess da) {
+        // release the memory before forgetting the object, e.g. the native
+        // memory of a DirectDataAccess
+        da.close();
         removeByName(da.name());
     }
     
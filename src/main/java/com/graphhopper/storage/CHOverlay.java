@@ -0,0 +1,446 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license
+ *  agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  Peter Karich licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License. You may obtain a copy of the
+ *  License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.storage;
+
+import com.graphhopper.routing.util.AllEdgesIterator;
+import com.graphhopper.routing.util.AllEdgesSkipIterator;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.util.EdgeIterator;
+import com.graphhopper.util.EdgeSkipIterator;
+import com.graphhopper.util.GHUtility;
+import com.graphhopper.util.PointList;
+import com.graphhopper.util.shapes.BBox;
+import static com.graphhopper.util.Helper.*;
+
+/**
+ * The levels and shortcuts of one contraction hierarchies profile on top of a
+ * shared base GraphStorage. The nodes, distances, flags and the geometry are
+ * read from the base graph and exist only once for all profiles. Per profile
+ * the overlay stores:
+ *
+ * - the levels and the shortcuts, the shortcuts get the ids after the base
+ * edges
+ *
+ * - the weight of every base edge which the preparation writes via distance(),
+ * it starts with the distance of the base graph
+ *
+ * - two bits per base edge which hide the edge in the adjacency list of its
+ * nodes, see disconnect. So the preparation removes the edges from higher to
+ * lower nodes without modifying the base graph.
+ *
+ * Only the shortcuts support flags(int) and skippedEdges. The overlay has to
+ * be stored in its own directory and is only valid as long as the base graph
+ * is not modified.
+ *
+ * @author Peter Karich
+ */
+public class CHOverlay implements LevelGraph, Storable<CHOverlay> {
+
+    private final GraphStorage base;
+    private final Directory dir;
+    // the levels and the shortcuts, its nodes have no coordinates
+    private final LevelGraphStorage shortcuts;
+    // per base edge the weight as int like the distance of GraphStorage
+    private final DataAccess weights;
+    // two bits per base edge: hidden from the list of nodeA and of nodeB
+    private final DataAccess hidden;
+    private int baseEdges = -1;
+
+    public CHOverlay(GraphStorage base, Directory dir) {
+        if (base.directory() == dir)
+            throw new IllegalArgumentException("The overlay needs its own directory, not the one of the base graph");
+        this.base = base;
+        this.dir = dir;
+        shortcuts = new LevelGraphStorage(dir);
+        shortcuts.combinedEncoder(base.combinedEncoder());
+        weights = dir.findCreate("chWeights");
+        hidden = dir.findCreate("chHidden");
+    }
+
+    public GraphStorage base() {
+        return base;
+    }
+
+    public Directory directory() {
+        return dir;
+    }
+
+    /**
+     * Creates the overlay for the current edges of the base graph. Afterwards
+     * it can be prepared, e.g. via PrepareContractionHierarchies.
+     */
+    @Override
+    public CHOverlay create(long nodeCount) {
+        int nodes = base.nodes();
+        shortcuts.create(Math.max(nodeCount, nodes));
+        if (nodes > 0)
+            shortcuts.ensureNodeIndex(nodes - 1);
+        AllEdgesIterator iter = base.getAllEdges();
+        baseEdges = iter.maxId();
+        weights.create(4L * Math.max(baseEdges, 1));
+        hidden.create(4L * (baseEdges / 16 + 1));
+        while (iter.next()) {
+            weights.setInt(iter.edge(), (int) Math.round(iter.distance() * GraphStorage.INT_DIST_FACTOR));
+        }
+        return this;
+    }
+
+    @Override
+    public boolean loadExisting() {
+        if (!weights.loadExisting())
+            return false;
+        if (!hidden.loadExisting() || !shortcuts.loadExisting())
+            throw new IllegalStateException("Cannot load the overlay. Corrupt file or directory? " + dir);
+        baseEdges = weights.getHeader(0);
+        if (weights.getHeader(1) != base.nodes() || baseEdges != base.getAllEdges().maxId())
+            throw new IllegalStateException("The overlay at " + dir.location()
+                    + " does not belong to the base graph " + base);
+        return true;
+    }
+
+    @Override
+    public void flush() {
+        weights.setHeader(0, baseEdges);
+        weights.setHeader(1, base.nodes());
+        weights.flush();
+        hidden.flush();
+        shortcuts.flush();
+    }
+
+    @Override
+    public void close() {
+        weights.close();
+        hidden.close();
+        shortcuts.close();
+    }
+
+    @Override
+    public long capacity() {
+        return weights.capacity() + hidden.capacity() + shortcuts.capacity();
+    }
+
+    @Override
+    public int nodes() {
+        return base.nodes();
+    }
+
+    /**
+     * Not supported, the nodes belong to the base graph.
+     */
+    @Override
+    public void setNode(int node, double lat, double lon) {
+        throw new UnsupportedOperationException("The nodes belong to the base graph");
+    }
+
+    @Override
+    public double getLatitude(int node) {
+        return base.getLatitude(node);
+    }
+
+    @Override
+    public double getLongitude(int node) {
+        return base.getLongitude(node);
+    }
+
+    @Override
+    public BBox bounds() {
+        return base.bounds();
+    }
+
+    @Override
+    public void setLevel(int node, int level) {
+        shortcuts.setLevel(node, level);
+    }
+
+    @Override
+    public int getLevel(int node) {
+        return shortcuts.getLevel(node);
+    }
+
+    /**
+     * Adds a shortcut, the edges of the base graph cannot be changed.
+     */
+    @Override
+    public EdgeSkipIterator edge(int a, int b, double distance, int flags) {
+        checkNode(Math.max(a, b));
+        OverlayEdge edge = new OverlayEdge();
+        edge.shortcut(shortcuts.edge(a, b, distance, flags));
+        return edge;
+    }
+
+    @Override
+    public EdgeSkipIterator edge(int a, int b, double distance, boolean bothDirections) {
+        checkNode(Math.max(a, b));
+        OverlayEdge edge = new OverlayEdge();
+        edge.shortcut(shortcuts.edge(a, b, distance, bothDirections));
+        return edge;
+    }
+
+    private void checkNode(int node) {
+        if (node >= base.nodes())
+            throw new IllegalArgumentException("Node " + node + " does not exist in the base graph " + base);
+    }
+
+    @Override
+    public EdgeSkipIterator getEdgeProps(int edgeId, int endNode) {
+        OverlayEdge edge = new OverlayEdge();
+        if (edgeId < baseEdges) {
+            EdgeIterator iter = base.getEdgeProps(edgeId, endNode);
+            if (iter.isEmpty())
+                return GHUtility.EMPTY;
+            edge.base(iter);
+        } else {
+            EdgeSkipIterator iter = shortcuts.getEdgeProps(edgeId - baseEdges, endNode);
+            if (iter.isEmpty())
+                return GHUtility.EMPTY;
+            edge.shortcut(iter);
+        }
+        return edge;
+    }
+
+    @Override
+    public EdgeSkipIterator getEdges(int node) {
+        return getEdges(node, EdgeFilter.ALL_EDGES);
+    }
+
+    @Override
+    public EdgeSkipIterator getEdges(int node, EdgeFilter filter) {
+        return new OverlayEdges(node, filter);
+    }
+
+    /**
+     * @return the base edges first and then the shortcuts, including the
+     * hidden edges
+     */
+    @Override
+    public AllEdgesSkipIterator getAllEdges() {
+        return new AllOverlayEdges();
+    }
+
+    /**
+     * Hides the edge from the adjacency list of iter.adjNode(). Like
+     * LevelGraphStorage.disconnect(iter, EdgeIterator.NO_EDGE, false) but the
+     * base graph is not modified.
+     */
+    public void disconnect(EdgeIterator iter) {
+        int edge = iter.edge();
+        if (edge < baseEdges) {
+            long index = edge >>> 4;
+            int bit = 1 << ((edge & 15) * 2 + side(iter.adjNode(), iter.baseNode()));
+            hidden.setInt(index, hidden.getInt(index) | bit);
+        } else {
+            EdgeSkipIterator sc = shortcuts.getEdgeProps(edge - baseEdges, iter.adjNode());
+            shortcuts.disconnect(sc, EdgeIterator.NO_EDGE, false);
+        }
+    }
+
+    private boolean isHidden(int edge, int node, int adjNode) {
+        int bit = 1 << ((edge & 15) * 2 + side(node, adjNode));
+        return (hidden.getInt(edge >>> 4) & bit) != 0;
+    }
+
+    /**
+     * @return 0 if node is nodeA of the edge in the base graph, 1 for nodeB
+     */
+    private static int side(int node, int adjNode) {
+        return node <= adjNode ? 0 : 1;
+    }
+
+    private double weight(int edge) {
+        return weights.getInt(edge) / GraphStorage.INT_DIST_FACTOR;
+    }
+
+    private void weight(int edge, double weight) {
+        weights.setInt(edge, (int) (weight * GraphStorage.INT_DIST_FACTOR));
+    }
+
+    @Override
+    public Graph copyTo(Graph g) {
+        throw new UnsupportedOperationException("Not supported for an overlay, copy the base graph instead");
+    }
+
+    @Override
+    public void markNodeRemoved(int index) {
+        throw new UnsupportedOperationException("The nodes belong to the base graph");
+    }
+
+    @Override
+    public boolean isNodeRemoved(int index) {
+        return base.isNodeRemoved(index);
+    }
+
+    @Override
+    public void optimize() {
+        throw new UnsupportedOperationException("Not supported for an overlay, optimize the base graph before");
+    }
+
+    @Override public String toString() {
+        return "overlay of " + nf(baseEdges) + " base edges, shortcuts " + shortcuts;
+    }
+
+    /**
+     * Points either to an edge of the base graph or to a shortcut.
+     */
+    class OverlayEdge implements EdgeSkipIterator {
+
+        EdgeIterator baseIter;
+        EdgeSkipIterator scIter;
+        boolean onBase;
+
+        final void base(EdgeIterator iter) {
+            baseIter = iter;
+            onBase = true;
+        }
+
+        final void shortcut(EdgeSkipIterator iter) {
+            scIter = iter;
+            onBase = false;
+        }
+
+        private EdgeIterator current() {
+            return onBase ? baseIter : scIter;
+        }
+
+        @Override public boolean next() {
+            return false;
+        }
+
+        @Override public int edge() {
+            return onBase ? baseIter.edge() : baseEdges + scIter.edge();
+        }
+
+        @Override public int baseNode() {
+            return current().baseNode();
+        }
+
+        @Override public int adjNode() {
+            return current().adjNode();
+        }
+
+        @Override public double distance() {
+            return onBase ? weight(baseIter.edge()) : scIter.distance();
+        }
+
+        @Override public void distance(double dist) {
+            if (onBase)
+                weight(baseIter.edge(), dist);
+            else
+                scIter.distance(dist);
+        }
+
+        @Override public int flags() {
+            return current().flags();
+        }
+
+        @Override public void flags(int flags) {
+            if (onBase)
+                throw new UnsupportedOperationException("The flags of edge " + edge() + " belong to the base graph");
+            scIter.flags(flags);
+        }
+
+        @Override public PointList wayGeometry() {
+            return current().wayGeometry();
+        }
+
+        @Override public void wayGeometry(PointList list) {
+            throw new UnsupportedOperationException("The geometry belongs to the base graph");
+        }
+
+        @Override public boolean isEmpty() {
+            return false;
+        }
+
+        @Override public boolean isShortcut() {
+            return !onBase && scIter.isShortcut();
+        }
+
+        @Override public int skippedEdge1() {
+            return onBase ? EdgeIterator.NO_EDGE : scIter.skippedEdge1();
+        }
+
+        @Override public int skippedEdge2() {
+            return onBase ? EdgeIterator.NO_EDGE : scIter.skippedEdge2();
+        }
+
+        @Override public void skippedEdges(int edge1, int edge2) {
+            if (onBase)
+                throw new UnsupportedOperationException("Edge " + edge() + " of the base graph is no shortcut");
+            scIter.skippedEdges(edge1, edge2);
+        }
+
+        @Override public String toString() {
+            return edge() + " " + baseNode() + "-" + adjNode();
+        }
+    }
+
+    /**
+     * The visible base edges of a node and then its shortcuts.
+     */
+    class OverlayEdges extends OverlayEdge {
+
+        private final EdgeFilter filter;
+        private final int node;
+
+        OverlayEdges(int node, EdgeFilter filter) {
+            this.node = node;
+            this.filter = filter;
+            base(base.getEdges(node));
+        }
+
+        @Override public boolean next() {
+            if (onBase) {
+                while (baseIter.next()) {
+                    if (!isHidden(baseIter.edge(), node, baseIter.adjNode()) && filter.accept(this))
+                        return true;
+                }
+                shortcut(shortcuts.getEdges(node));
+            }
+            while (scIter.next()) {
+                if (filter.accept(this))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    class AllOverlayEdges extends OverlayEdge implements AllEdgesSkipIterator {
+
+        private final int maxId;
+
+        AllOverlayEdges() {
+            AllEdgesSkipIterator tmp = shortcuts.getAllEdges();
+            maxId = baseEdges + tmp.maxId();
+            base(base.getAllEdges());
+            scIter = tmp;
+        }
+
+        @Override public int maxId() {
+            return maxId;
+        }
+
+        @Override public boolean next() {
+            if (onBase) {
+                if (baseIter.next())
+                    return true;
+                onBase = false;
+            }
+            return scIter.next();
+        }
+    }
+}
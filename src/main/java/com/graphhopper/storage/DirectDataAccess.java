@@ -0,0 +1,281 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.storage;
+
+import com.graphhopper.util.Helper;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * An in-memory data structure like RAMDataAccess but the segments live
+ * off-heap in direct ByteBuffers of the native byte order: getInt and setInt
+ * only need one lookup in the segment array and an absolute access of the
+ * buffer. Out of bound indices still throw an exception.
+ * <p/>
+ * On disc the same big endian format as for the other DataAccess
+ * implementations is used. So files are exchangeable and loadExisting reads
+ * them segment wise via a FileChannel, only converting the bytes if the
+ * native order differs. The memory is released in close, so always call it.
+ *
+ * @author Peter Karich
+ */
+public class DirectDataAccess extends AbstractDataAccess {
+
+    private ByteBuffer[] segments = new ByteBuffer[0];
+    private boolean closed = false;
+    private boolean store;
+    private transient int segmentSizePower;
+    private transient int indexDivisor;
+
+    DirectDataAccess(String name, String location, boolean store) {
+        super(name, location);
+        this.store = store;
+    }
+
+    /**
+     * @param store true if in-memory data should be saved when calling flush
+     */
+    public DirectDataAccess store(boolean store) {
+        this.store = store;
+        return this;
+    }
+
+    @Override
+    public boolean isStoring() {
+        return store;
+    }
+
+    @Override
+    public DataAccess copyTo(DataAccess da) {
+        if (da instanceof DirectDataAccess) {
+            DirectDataAccess uda = (DirectDataAccess) da;
+            for (int h = 0; h < header.length; h++) {
+                uda.setHeader(h, getHeader(h));
+            }
+            uda.free(0, uda.segments.length);
+            uda.segments = new ByteBuffer[segments.length];
+            uda.segmentSize(segmentSizeInBytes);
+            for (int i = 0; i < segments.length; i++) {
+                ByteBuffer copy = newSegment();
+                copy.put(segments[i].duplicate());
+                copy.clear();
+                uda.segments[i] = copy;
+            }
+            // leave id, store and close unchanged
+            return da;
+        } else
+            return super.copyTo(da);
+    }
+
+    @Override
+    public DirectDataAccess create(long bytes) {
+        if (segments.length > 0)
+            throw new IllegalThreadStateException("already created");
+
+        // initialize transient values
+        segmentSize(segmentSizeInBytes);
+        ensureCapacity(Math.max(10 * 4, bytes));
+        return this;
+    }
+
+    @Override
+    public void ensureCapacity(long bytes) {
+        long cap = capacity();
+        long todoBytes = bytes - cap;
+        if (todoBytes <= 0)
+            return;
+
+        int segmentsToCreate = (int) (todoBytes / segmentSizeInBytes);
+        if (todoBytes % segmentSizeInBytes != 0)
+            segmentsToCreate++;
+
+        ByteBuffer[] newSegs = Arrays.copyOf(segments, segments.length + segmentsToCreate);
+        for (int i = segments.length; i < newSegs.length; i++) {
+            try {
+                // a new direct buffer is already zeroed
+                newSegs[i] = newSegment();
+            } catch (OutOfMemoryError err) {
+                segments = Arrays.copyOf(newSegs, i);
+                throw new OutOfMemoryError(err.getMessage() + " - problem when allocating off-heap memory. Old capacity: "
+                        + cap + ", new bytes:" + todoBytes + ", segmentSizePower:" + segmentSizePower
+                        + ", new segments:" + segmentsToCreate + ", existing:" + i);
+            }
+        }
+        segments = newSegs;
+    }
+
+    private ByteBuffer newSegment() {
+        return ByteBuffer.allocateDirect(segmentSizeInBytes).order(ByteOrder.nativeOrder());
+    }
+
+    @Override
+    public boolean loadExisting() {
+        if (segments.length > 0)
+            throw new IllegalStateException("already initialized");
+        if (!store || closed)
+            return false;
+        File file = new File(fullName());
+        if (!file.exists() || file.length() == 0)
+            return false;
+        try {
+            RandomAccessFile raFile = new RandomAccessFile(fullName(), "r");
+            try {
+                long byteCount = readHeader(raFile) - HEADER_OFFSET;
+                if (byteCount < 0)
+                    return false;
+                int segmentCount = (int) (byteCount / segmentSizeInBytes);
+                if (byteCount % segmentSizeInBytes != 0)
+                    segmentCount++;
+                ensureCapacity((long) segmentCount * segmentSizeInBytes);
+
+                // read every segment at once into a big endian buffer and 
+                // convert it into the native order of its segment
+                FileChannel channel = raFile.getChannel();
+                channel.position(HEADER_OFFSET);
+                ByteBuffer buffer = ByteBuffer.allocateDirect(segmentSizeInBytes);
+                for (int s = 0; s < segmentCount; s++) {
+                    buffer.clear();
+                    while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    }
+                    buffer.flip();
+                    segments[s].asIntBuffer().put(buffer.asIntBuffer());
+                }
+                return true;
+            } finally {
+                raFile.close();
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Problem while loading " + fullName(), ex);
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (closed)
+            throw new IllegalStateException("already closed");
+        if (!store)
+            return;
+        try {
+            RandomAccessFile raFile = new RandomAccessFile(fullName(), "rw");
+            try {
+                long len = capacity();
+                writeHeader(raFile, len, segmentSizeInBytes);
+                raFile.setLength(HEADER_OFFSET + len);
+                FileChannel channel = raFile.getChannel();
+                channel.position(HEADER_OFFSET);
+                ByteBuffer buffer = ByteBuffer.allocateDirect(segmentSizeInBytes);
+                for (int s = 0; s < segments.length; s++) {
+                    buffer.clear();
+                    buffer.asIntBuffer().put(segments[s].asIntBuffer());
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+            } finally {
+                raFile.close();
+            }
+        } catch (Exception ex) {
+            throw new RuntimeException("Couldn't store integers to " + toString(), ex);
+        }
+    }
+
+    @Override
+    public void setInt(long longIndex, int value) {
+        // convert longIndex to byte index => *4
+        longIndex <<= 2;
+        segments[(int) (longIndex >>> segmentSizePower)].putInt((int) (longIndex & indexDivisor), value);
+    }
+
+    @Override
+    public int getInt(long longIndex) {
+        longIndex <<= 2;
+        return segments[(int) (longIndex >>> segmentSizePower)].getInt((int) (longIndex & indexDivisor));
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        free(0, segments.length);
+        segments = new ByteBuffer[0];
+        closed = true;
+    }
+
+    /**
+     * Releases the memory of the specified segments without waiting for the
+     * garbage collector. Be sure you bring the segments array in a consistent
+     * state afterwards.
+     *
+     * @param from inclusive
+     * @param to exclusive
+     */
+    private void free(int from, int to) {
+        for (int i = from; i < to; i++) {
+            Helper.cleanMappedByteBuffer(segments[i]);
+            segments[i] = null;
+        }
+    }
+
+    @Override
+    public long capacity() {
+        return (long) segments() * segmentSizeInBytes;
+    }
+
+    @Override
+    public int segments() {
+        return segments.length;
+    }
+
+    @Override
+    public DataAccess segmentSize(int bytes) {
+        super.segmentSize(bytes);
+        segmentSizePower = (int) (Math.log(segmentSizeInBytes) / Math.log(2));
+        indexDivisor = segmentSizeInBytes - 1;
+        return this;
+    }
+
+    @Override
+    public void trimTo(long capacity) {
+        if (capacity < segmentSizeInBytes)
+            capacity = segmentSizeInBytes;
+        int remainingSegments = (int) (capacity / segmentSizeInBytes);
+        if (capacity % segmentSizeInBytes != 0)
+            remainingSegments++;
+        if (remainingSegments >= segments.length)
+            return;
+
+        free(remainingSegments, segments.length);
+        segments = Arrays.copyOf(segments, remainingSegments);
+    }
+
+    @Override
+    public void rename(String newName) {
+        if (!checkBeforeRename(newName))
+            return;
+        if (store)
+            super.rename(newName);
+
+        // in every case set the name
+        name = newName;
+    }
+}
@@ -41,7 +41,7 @@ public interface Directory {
     DataAccess rename(DataAccess da, String newName);
 
     /**
-     * Removes the specified object from the directory.
+     * Closes and removes the specified object from the directory.
      */
     void remove(DataAccess da);
 }
@@ -0,0 +1,1066 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.storage;
+
+import com.graphhopper.routing.util.AllEdgesIterator;
+import com.graphhopper.routing.util.CombinedEncoder;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.util.BitUtil;
+import com.graphhopper.util.EdgeIterator;
+import com.graphhopper.util.GHUtility;
+import com.graphhopper.util.Helper;
+import static com.graphhopper.util.Helper.*;
+import com.graphhopper.util.PointList;
+import com.graphhopper.util.shapes.BBox;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A read-only graph in a compressed sparse row layout: the adjacent edges of a
+ * node are stored contiguously and node i owns the entries from offset[i] to
+ * offset[i+1]. Every entry already contains the adjacent node, the edge id,
+ * the direction dependent flags and the distance so that iterating over the
+ * edges of a node is a linear scan instead of following the links of
+ * GraphStorage through the edges area.
+ *
+ * Create it via freeze from any (prepared) graph. The node and edge ids stay
+ * the same, also an existing location index can be used. Adjacent edges are
+ * stored as returned from getEdges of the original graph, e.g. the removed
+ * higher-to-lower edges of a contraction hierarchy are preserved.
+ *
+ * With compact(true) the adjacency entries are stored as variable length
+ * longs instead of four integers: the adjacent node relative to the base
+ * node, the edge id relative to the previous entry, the flags and the
+ * distance in millimeters. Also the edge table is stored as variable length
+ * records in blocks of 8 edges and only the start of every block is stored
+ * as integer. A record refers to the adjacency entry of one of its nodes
+ * instead of repeating the other node, the distance and the flags. Then the
+ * whole graph needs less memory than the GraphStorage it was created from,
+ * for the price of decoding the entries while iterating and of decoding up
+ * to 8 records plus one adjacency list to access the properties of an edge.
+ *
+ * Like the other storages it can be frozen into and loaded from every
+ * Directory, e.g. from an MMapDirectory.
+ *
+ * Life cycle: (1) object creation, (2) freeze or loadExisting, (3) usage, (4)
+ * close
+ *
+ * @see FrozenLevelGraph
+ * @author Peter Karich
+ */
+public class FrozenGraph implements Graph, Storable<FrozenGraph> {
+
+    private static final int NO_NODE = -1;
+    private static final float INT_DIST_FACTOR = 1000f;
+    // adjacency memory layout: adjNode,edge,flags,dist
+    private static final int A_NODE = 0, A_EDGE = 1, A_FLAGS = 2, A_DIST = 3, A_SIZE = 4;
+    // compact mode: 2^3 edge records per block
+    private static final int EDGE_BLOCK_POWER = 3;
+    private static final int EDGE_BLOCK_MASK = (1 << EDGE_BLOCK_POWER) - 1;
+    // compact mode: where a record finds the nodes, the distance and the flags
+    private static final int ANCHOR_A = 0, ANCHOR_B = 1, INLINE = 2;
+    private final Directory dir;
+    // node memory layout: lat,lon
+    protected final int N_LAT, N_LON;
+    protected int nodeEntrySize;
+    protected DataAccess nodes;
+    // first adjacency entry of every node plus the end of the last node
+    private DataAccess offsets;
+    private DataAccess adjacency;
+    // edge memory layout: nodeA,nodeB,dist,flags,geometryRef
+    protected final int E_NODEA, E_NODEB, E_DIST, E_FLAGS, E_GEO;
+    protected int edgeEntrySize;
+    protected DataAccess edges;
+    // compact mode only: the byte offset of the first edge record of every block
+    private DataAccess edgeBlocks;
+    // length | lat | lon | ... like in GraphStorage
+    private DataAccess geometry;
+    private int nodeEntryIndex = -1, edgeEntryIndex = -1;
+    private int nodeCount;
+    private int edgeCount;
+    private long adjacencyCount;
+    private boolean compact = false;
+    // only in compact mode the offsets point to bytes instead of entries
+    private long adjacencyBytes;
+    private long edgeBytes;
+    private int maxGeoRef = 1;
+    private BBox bounds = BBox.INVERSE.clone();
+    private boolean initialized = false;
+    private CombinedEncoder combiEncoder = new CombinedEncoder();
+
+    public FrozenGraph(Directory dir) {
+        this.dir = dir;
+        nodes = dir.findCreate("frozen_nodes");
+        offsets = dir.findCreate("frozen_offsets");
+        adjacency = dir.findCreate("frozen_adjacency");
+        edges = dir.findCreate("frozen_edges");
+        edgeBlocks = dir.findCreate("frozen_edge_blocks");
+        geometry = dir.findCreate("frozen_geometry");
+        N_LAT = nextNodeEntryIndex();
+        N_LON = nextNodeEntryIndex();
+
+        E_NODEA = nextEdgeEntryIndex();
+        E_NODEB = nextEdgeEntryIndex();
+        E_DIST = nextEdgeEntryIndex();
+        E_FLAGS = nextEdgeEntryIndex();
+        E_GEO = nextEdgeEntryIndex();
+        initNodeAndEdgeEntrySize();
+    }
+
+    public FrozenGraph combinedEncoder(CombinedEncoder combiEncoder) {
+        this.combiEncoder = combiEncoder;
+        return this;
+    }
+
+    /**
+     * Stores the adjacency entries and the edges variable length encoded,
+     * call this before freeze. A loaded graph uses the format it was created
+     * with.
+     */
+    public FrozenGraph compact(boolean compact) {
+        checkInit();
+        this.compact = compact;
+        return this;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    protected final int nextEdgeEntryIndex() {
+        edgeEntryIndex++;
+        return edgeEntryIndex;
+    }
+
+    protected final int nextNodeEntryIndex() {
+        nodeEntryIndex++;
+        return nodeEntryIndex;
+    }
+
+    protected final void initNodeAndEdgeEntrySize() {
+        nodeEntrySize = nodeEntryIndex + 1;
+        edgeEntrySize = edgeEntryIndex + 1;
+    }
+
+    /**
+     * @return the directory where this graph is stored.
+     */
+    public Directory directory() {
+        return dir;
+    }
+
+    void checkInit() {
+        if (initialized)
+            throw new IllegalStateException("You cannot create this FrozenGraph twice "
+                    + "or after calling loadExisting");
+    }
+
+    /**
+     * Only allocates the storage, use freeze instead.
+     */
+    @Override
+    public FrozenGraph create(long nodeCount) {
+        checkInit();
+        long initBytes = Math.max(nodeCount * 4, 100);
+        nodes.create(initBytes * nodeEntrySize);
+        offsets.create(initBytes + 4);
+        adjacency.create(initBytes * A_SIZE * 2);
+        edges.create(initBytes * edgeEntrySize);
+        // only used and sized in compact mode
+        edgeBlocks.create(100);
+        geometry.create(initBytes);
+        initialized = true;
+        return this;
+    }
+
+    /**
+     * Rewrites the specified graph into this graph. Afterwards the specified
+     * graph is not necessary for this graph anymore.
+     */
+    public FrozenGraph freeze(Graph graph) {
+        create(graph.nodes());
+        nodeCount = graph.nodes();
+        bounds = graph.bounds().clone();
+        ensure(nodes, (long) nodeCount * nodeEntrySize);
+        for (int node = 0; node < nodeCount; node++) {
+            long pointer = (long) node * nodeEntrySize;
+            nodes.setInt(pointer + N_LAT, Helper.degreeToInt(graph.getLatitude(node)));
+            nodes.setInt(pointer + N_LON, Helper.degreeToInt(graph.getLongitude(node)));
+            freezeNode(graph, node, pointer);
+        }
+
+        AllEdgesIterator allIter = graph.getAllEdges();
+        edgeCount = allIter.maxId();
+        // the compact edge records refer to the adjacency, so write it first
+        ensure(offsets, nodeCount + 1);
+        adjacencyCount = 0;
+        EdgeWriter writer;
+        if (compact) {
+            CompactEdgeWriter compactWriter = new CompactEdgeWriter();
+            freezeCompactAdjacency(graph, compactWriter);
+            writer = compactWriter;
+        } else {
+            freezeAdjacency(graph);
+            writer = new EdgeWriter();
+        }
+        writer.init();
+        int[] entry = new int[edgeEntrySize];
+        int nextEdge = 0;
+        while (allIter.next()) {
+            int edge = allIter.edge();
+            if (edge < nextEdge)
+                throw new IllegalStateException("The edges of the graph are not ordered by their id, "
+                        + edge + " after " + (nextEdge - 1));
+            for (; nextEdge < edge; nextEdge++) {
+                writer.writeRemoved(nextEdge, entry);
+            }
+            int nodeA = allIter.baseNode();
+            int nodeB = allIter.adjNode();
+            int flags = allIter.flags();
+            PointList pillarNodes = allIter.wayGeometry();
+            // the smaller node is the first one
+            if (nodeA > nodeB) {
+                int tmp = nodeA;
+                nodeA = nodeB;
+                nodeB = tmp;
+                flags = combiEncoder.swapDirection(flags);
+                pillarNodes.reverse();
+            }
+            entry[E_NODEA] = nodeA;
+            entry[E_NODEB] = nodeB;
+            entry[E_DIST] = distToInt(allIter.distance());
+            entry[E_FLAGS] = flags;
+            entry[E_GEO] = writeGeometry(pillarNodes);
+            freezeEdge(allIter, entry);
+            writer.write(edge, entry);
+            nextEdge++;
+        }
+        for (; nextEdge < edgeCount; nextEdge++) {
+            writer.writeRemoved(nextEdge, entry);
+        }
+
+        if (compact) {
+            adjacency.trimTo(adjacencyBytes);
+            edges.trimTo(edgeBytes);
+            edgeBlocks.trimTo(((long) (edgeCount >>> EDGE_BLOCK_POWER) + 1) * 4);
+        } else {
+            adjacency.trimTo(adjacencyCount * A_SIZE * 4);
+            edges.trimTo((long) edgeCount * edgeEntrySize * 4);
+        }
+        nodes.trimTo((long) nodeCount * nodeEntrySize * 4);
+        offsets.trimTo((nodeCount + 1L) * 4);
+        geometry.trimTo((long) maxGeoRef * 4);
+        return this;
+    }
+
+    private void freezeAdjacency(Graph graph) {
+        for (int node = 0; node < nodeCount; node++) {
+            offsets.setInt(node, (int) adjacencyCount);
+            EdgeIterator iter = graph.getEdges(node);
+            while (iter.next()) {
+                long pointer = adjacencyCount * A_SIZE;
+                ensure(adjacency, pointer + A_SIZE);
+                adjacency.setInt(pointer + A_NODE, iter.adjNode());
+                adjacency.setInt(pointer + A_EDGE, iter.edge());
+                adjacency.setInt(pointer + A_FLAGS, iter.flags());
+                adjacency.setInt(pointer + A_DIST, distToInt(iter.distance()));
+                adjacencyCount++;
+                if (adjacencyCount > Integer.MAX_VALUE)
+                    throw new IllegalStateException("too many adjacent edges " + toString());
+            }
+        }
+        offsets.setInt(nodeCount, (int) adjacencyCount);
+    }
+
+    private void freezeCompactAdjacency(Graph graph, CompactEdgeWriter writer) {
+        VLongStorage entries = new VLongStorage(1024);
+        adjacencyBytes = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            offsets.setInt(node, (int) adjacencyBytes);
+            entries.seek(0);
+            int prevEdge = 0;
+            EdgeIterator iter = graph.getEdges(node);
+            while (iter.next()) {
+                entries.writeVLong(BitUtil.toZigZag((long) iter.adjNode() - node));
+                entries.writeVLong(BitUtil.toZigZag((long) iter.edge() - prevEdge));
+                entries.writeVLong(iter.flags() & 0xFFFFFFFFL);
+                entries.writeVLong(distToInt(iter.distance()) & 0xFFFFFFFFL);
+                if (iter.adjNode() >= node)
+                    writer.atSmallerNode.set(iter.edge());
+                else
+                    writer.atLargerNode.set(iter.edge());
+                prevEdge = iter.edge();
+                adjacencyCount++;
+            }
+            adjacencyBytes = writeBytes(adjacency, adjacencyBytes, entries);
+            if (adjacencyBytes > Integer.MAX_VALUE)
+                throw new IllegalStateException("too many adjacency bytes " + toString());
+        }
+        offsets.setInt(nodeCount, (int) adjacencyBytes);
+    }
+
+    /**
+     * Appends the written bytes of the storage at the specified byte pointer.
+     *
+     * @return the byte pointer after the written bytes
+     */
+    private static long writeBytes(DataAccess da, long bytePointer, VLongStorage bytes) {
+        ensure(da, (bytePointer + bytes.position()) / 4 + 1);
+        return bytes.writeTo(da, bytePointer);
+    }
+
+    /**
+     * Writes the edge entries as integers, the edges have to be written in
+     * the order of their ids.
+     */
+    private class EdgeWriter {
+
+        void init() {
+            ensure(edges, (long) edgeCount * edgeEntrySize);
+        }
+
+        void write(int edge, int[] entry) {
+            long pointer = (long) edge * edgeEntrySize;
+            for (int i = 0; i < edgeEntrySize; i++) {
+                edges.setInt(pointer + i, entry[i]);
+            }
+        }
+
+        void writeRemoved(int edge, int[] entry) {
+            Arrays.fill(entry, 0);
+            entry[E_NODEA] = NO_NODE;
+            write(edge, entry);
+        }
+    }
+
+    /**
+     * Writes the edge entries as variable length records. The adjacent node,
+     * the distance and the flags are already stored in the adjacency, so a
+     * record only stores the anchor node whose adjacency contains the edge,
+     * relative to the previous record of the block. Only if neither node
+     * lists the edge the other properties are stored too, see
+     * CompactEdgeReader.
+     */
+    private class CompactEdgeWriter extends EdgeWriter {
+
+        private final VLongStorage record = new VLongStorage(64);
+        // filled while freezing the adjacency
+        final BitSet atSmallerNode = new BitSet();
+        final BitSet atLargerNode = new BitSet();
+        private int prevAnchor;
+        private int prevGeoRef;
+
+        @Override
+        void init() {
+            edgeBytes = 0;
+            ensure(edgeBlocks, (edgeCount >>> EDGE_BLOCK_POWER) + 1);
+        }
+
+        @Override
+        void write(int edge, int[] entry) {
+            if ((edge & EDGE_BLOCK_MASK) == 0) {
+                edgeBlocks.setInt(edge >>> EDGE_BLOCK_POWER, (int) edgeBytes);
+                prevAnchor = 0;
+                prevGeoRef = 0;
+            }
+            record.seek(0);
+            int nodeA = entry[E_NODEA];
+            if (nodeA == NO_NODE)
+                record.writeVLong(0);
+            else {
+                int mode, anchor;
+                // prefer the shorter adjacency as it is scanned to read the edge
+                if (atSmallerNode.get(edge) && (!atLargerNode.get(edge)
+                        || adjacencyLength(nodeA) <= adjacencyLength(entry[E_NODEB]))) {
+                    mode = ANCHOR_A;
+                    anchor = nodeA;
+                } else if (atLargerNode.get(edge)) {
+                    mode = ANCHOR_B;
+                    anchor = entry[E_NODEB];
+                } else {
+                    mode = INLINE;
+                    anchor = nodeA;
+                }
+                record.writeVLong((BitUtil.toZigZag((long) anchor - prevAnchor) << 2 | mode) + 1);
+                if (mode == INLINE) {
+                    record.writeVLong((long) entry[E_NODEB] - nodeA);
+                    record.writeVLong(entry[E_DIST] & 0xFFFFFFFFL);
+                    record.writeVLong(entry[E_FLAGS] & 0xFFFFFFFFL);
+                }
+                int geoRef = entry[E_GEO];
+                if (geoRef == EdgeIterator.NO_EDGE)
+                    record.writeVLong(0);
+                else {
+                    record.writeVLong(BitUtil.toZigZag((long) geoRef - prevGeoRef) + 1);
+                    prevGeoRef = geoRef;
+                }
+                // the properties of sub classes like skipped edges are often -1
+                for (int i = E_GEO + 1; i < edgeEntrySize; i++) {
+                    record.writeVLong((entry[i] + 1L) & 0xFFFFFFFFL);
+                }
+                prevAnchor = anchor;
+            }
+            edgeBytes = writeBytes(edges, edgeBytes, record);
+            if (edgeBytes > Integer.MAX_VALUE)
+                throw new IllegalStateException("too many edge bytes " + toString());
+        }
+    }
+
+    private int adjacencyLength(int node) {
+        return offsets.getInt(node + 1) - offsets.getInt(node);
+    }
+
+    /**
+     * Reads the variable length longs of the bytes written via writeBytes.
+     */
+    static class VLongReader {
+
+        final DataAccess da;
+        long pointer;
+        // the current integer of the byte stream
+        int word;
+        long wordIndex = -1;
+
+        VLongReader(DataAccess da, long pointer) {
+            this.da = da;
+            this.pointer = pointer;
+        }
+
+        final long readVLong() {
+            int b = readByte();
+            long i = b & 0x7F;
+            for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+                b = readByte();
+                i |= (long) (b & 0x7F) << shift;
+            }
+            return i;
+        }
+
+        final int readByte() {
+            long index = pointer >>> 2;
+            if (index != wordIndex) {
+                word = da.getInt(index);
+                wordIndex = index;
+            }
+            int b = (word >>> ((int) (pointer & 3) << 3)) & 0xFF;
+            pointer++;
+            return b;
+        }
+    }
+
+    /**
+     * Decodes the edge records of the compact mode starting from the
+     * specified edge, see CompactEdgeWriter.
+     */
+    private class CompactEdgeReader extends VLongReader {
+
+        // the edge of the next record
+        private int edge;
+        private int prevAnchor;
+        private int prevGeoRef;
+
+        CompactEdgeReader(int edge, int[] entry) {
+            super(edges, edgeBlocks.getInt(edge >>> EDGE_BLOCK_POWER));
+            this.edge = edge & ~EDGE_BLOCK_MASK;
+            // skip the previous records of the block
+            while (this.edge < edge) {
+                read(entry, false);
+            }
+        }
+
+        void next(int[] entry) {
+            read(entry, true);
+        }
+
+        /**
+         * @param complete false if only the delta encoded values have to be
+         * decoded to read the next record
+         */
+        private void read(int[] entry, boolean complete) {
+            if ((edge & EDGE_BLOCK_MASK) == 0) {
+                prevAnchor = 0;
+                prevGeoRef = 0;
+            }
+            int currentEdge = edge++;
+            long value = readVLong();
+            if (value == 0) {
+                entry[E_NODEA] = NO_NODE;
+                return;
+            }
+            value--;
+            int mode = (int) (value & 3);
+            prevAnchor += (int) BitUtil.fromZigZag(value >>> 2);
+            if (mode == INLINE) {
+                entry[E_NODEA] = prevAnchor;
+                entry[E_NODEB] = prevAnchor + (int) readVLong();
+                entry[E_DIST] = (int) readVLong();
+                entry[E_FLAGS] = (int) readVLong();
+            }
+            long geoRef = readVLong();
+            if (geoRef == 0)
+                entry[E_GEO] = EdgeIterator.NO_EDGE;
+            else {
+                prevGeoRef += (int) BitUtil.fromZigZag(geoRef - 1);
+                entry[E_GEO] = prevGeoRef;
+            }
+            for (int i = E_GEO + 1; i < edgeEntrySize; i++) {
+                entry[i] = (int) readVLong() - 1;
+            }
+            if (complete && mode != INLINE)
+                readFromAdjacency(currentEdge, prevAnchor, mode == ANCHOR_B, entry);
+        }
+    }
+
+    /**
+     * Fills the nodes, the distance and the flags of the edge from the
+     * compact adjacency entry of the anchor node.
+     */
+    private void readFromAdjacency(int edge, int anchor, boolean anchorIsNodeB, int[] entry) {
+        VLongReader reader = new VLongReader(adjacency, offsets.getInt(anchor));
+        long end = offsets.getInt(anchor + 1);
+        int entryEdge = 0;
+        while (reader.pointer < end) {
+            int adjNode = anchor + (int) BitUtil.fromZigZag(reader.readVLong());
+            entryEdge += (int) BitUtil.fromZigZag(reader.readVLong());
+            int flags = (int) reader.readVLong();
+            int dist = (int) reader.readVLong();
+            if (entryEdge != edge)
+                continue;
+            entry[E_DIST] = dist;
+            if (anchorIsNodeB) {
+                entry[E_NODEA] = adjNode;
+                entry[E_NODEB] = anchor;
+                entry[E_FLAGS] = combiEncoder.swapDirection(flags);
+            } else {
+                entry[E_NODEA] = anchor;
+                entry[E_NODEB] = adjNode;
+                entry[E_FLAGS] = flags;
+            }
+            return;
+        }
+        throw new IllegalStateException("edge " + edge + " not found in the adjacency of node " + anchor);
+    }
+
+    /**
+     * Reads all properties of the specified edge into entry.
+     *
+     * @return entry
+     */
+    protected final int[] readEdge(int edgeId, int[] entry) {
+        if (compact) {
+            new CompactEdgeReader(edgeId, entry).next(entry);
+            return entry;
+        }
+        long pointer = (long) edgeId * edgeEntrySize;
+        for (int i = 0; i < edgeEntrySize; i++) {
+            entry[i] = edges.getInt(pointer + i);
+        }
+        return entry;
+    }
+
+    /**
+     * @return the specified property of the edge, e.g. E_GEO
+     */
+    protected final int edgeValue(int edgeId, int index) {
+        if (compact)
+            return readEdge(edgeId, new int[edgeEntrySize])[index];
+        return edges.getInt((long) edgeId * edgeEntrySize + index);
+    }
+
+    /**
+     * Hook to copy further node properties of the original graph.
+     */
+    protected void freezeNode(Graph graph, int node, long nodePointer) {
+    }
+
+    /**
+     * Hook to copy further edge properties of the original graph into the
+     * entry, at the indices reserved via nextEdgeEntryIndex.
+     */
+    protected void freezeEdge(AllEdgesIterator iter, int[] entry) {
+    }
+
+    private int writeGeometry(PointList pillarNodes) {
+        if (pillarNodes.isEmpty())
+            return EdgeIterator.NO_EDGE;
+        int len = pillarNodes.size();
+        int geoRef = maxGeoRef;
+        maxGeoRef += len * 2 + 1;
+        ensure(geometry, maxGeoRef);
+        geometry.setInt(geoRef, len);
+        for (int i = 0; i < len; i++) {
+            geometry.setInt(geoRef + i * 2 + 1, Helper.degreeToInt(pillarNodes.latitude(i)));
+            geometry.setInt(geoRef + i * 2 + 2, Helper.degreeToInt(pillarNodes.longitude(i)));
+        }
+        return geoRef;
+    }
+
+    /**
+     * Makes sure that the specified number of integers fit into da.
+     */
+    private static void ensure(DataAccess da, long ints) {
+        long bytes = ints * 4;
+        if (bytes <= da.capacity())
+            return;
+        da.ensureCapacity(Math.max(bytes, da.capacity() + da.capacity() / 2));
+    }
+
+    private int distToInt(double f) {
+        return (int) Math.round(f * INT_DIST_FACTOR);
+    }
+
+    private double intToDist(int i) {
+        return (double) i / INT_DIST_FACTOR;
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("A frozen graph is read-only");
+    }
+
+    @Override
+    public int nodes() {
+        return nodeCount;
+    }
+
+    @Override
+    public void setNode(int node, double lat, double lon) {
+        throw readOnly();
+    }
+
+    @Override
+    public double getLatitude(int node) {
+        return Helper.intToDegree(nodes.getInt((long) node * nodeEntrySize + N_LAT));
+    }
+
+    @Override
+    public double getLongitude(int node) {
+        return Helper.intToDegree(nodes.getInt((long) node * nodeEntrySize + N_LON));
+    }
+
+    @Override
+    public BBox bounds() {
+        return bounds;
+    }
+
+    @Override
+    public EdgeIterator edge(int a, int b, double distance, int flags) {
+        throw readOnly();
+    }
+
+    @Override
+    public EdgeIterator edge(int a, int b, double distance, boolean bothDirections) {
+        throw readOnly();
+    }
+
+    @Override
+    public EdgeIterator getEdges(int node) {
+        return createEdgeIterator(node, EdgeFilter.ALL_EDGES);
+    }
+
+    @Override
+    public EdgeIterator getEdges(int node, EdgeFilter filter) {
+        return createEdgeIterator(node, filter);
+    }
+
+    protected EdgeIterator createEdgeIterator(int node, EdgeFilter filter) {
+        return new AdjacencyIterator(node, filter);
+    }
+
+    protected class AdjacencyIterator implements EdgeIterator {
+
+        final EdgeFilter filter;
+        final int baseNode;
+        final long end;
+        long pointer;
+        int node;
+        int edgeId = EdgeIterator.NO_EDGE;
+        int flags;
+        // compact mode only: the decoded distance and the byte stream
+        int dist;
+        final VLongReader reader;
+
+        public AdjacencyIterator(int baseNode, EdgeFilter filter) {
+            this.baseNode = baseNode;
+            this.filter = filter;
+            if (compact) {
+                reader = new VLongReader(adjacency, offsets.getInt(baseNode));
+                end = offsets.getInt(baseNode + 1);
+                edgeId = 0;
+            } else {
+                reader = null;
+                pointer = (long) offsets.getInt(baseNode) * A_SIZE - A_SIZE;
+                end = (long) offsets.getInt(baseNode + 1) * A_SIZE;
+            }
+        }
+
+        @Override public boolean next() {
+            if (compact)
+                return nextCompact();
+            while (true) {
+                pointer += A_SIZE;
+                if (pointer >= end)
+                    return false;
+                node = adjacency.getInt(pointer + A_NODE);
+                edgeId = adjacency.getInt(pointer + A_EDGE);
+                flags = adjacency.getInt(pointer + A_FLAGS);
+                if (filter.accept(this))
+                    return true;
+            }
+        }
+
+        private boolean nextCompact() {
+            while (reader.pointer < end) {
+                node = baseNode + (int) BitUtil.fromZigZag(reader.readVLong());
+                edgeId += (int) BitUtil.fromZigZag(reader.readVLong());
+                flags = (int) reader.readVLong();
+                dist = (int) reader.readVLong();
+                if (filter.accept(this))
+                    return true;
+            }
+            return false;
+        }
+
+        @Override public int edge() {
+            return edgeId;
+        }
+
+        @Override public int baseNode() {
+            return baseNode;
+        }
+
+        @Override public int adjNode() {
+            return node;
+        }
+
+        @Override public double distance() {
+            if (compact)
+                return intToDist(dist);
+            return intToDist(adjacency.getInt(pointer + A_DIST));
+        }
+
+        @Override public void distance(double dist) {
+            throw readOnly();
+        }
+
+        @Override public int flags() {
+            return flags;
+        }
+
+        @Override public void flags(int flags) {
+            throw readOnly();
+        }
+
+        @Override public PointList wayGeometry() {
+            return FrozenGraph.this.wayGeometry(edgeValue(edgeId, E_GEO), baseNode > node);
+        }
+
+        @Override public void wayGeometry(PointList list) {
+            throw readOnly();
+        }
+
+        @Override public boolean isEmpty() {
+            return false;
+        }
+
+        @Override public String toString() {
+            return edge() + " " + baseNode() + "-" + adjNode();
+        }
+    }
+
+    @Override
+    public EdgeIterator getEdgeProps(int edgeId, int endNode) {
+        if (edgeId <= EdgeIterator.NO_EDGE || edgeId >= edgeCount)
+            throw new IllegalStateException("edgeId " + edgeId + " out of bounds [0," + nf(edgeCount) + ")");
+        if (endNode < 0 && endNode != -1)
+            throw new IllegalStateException("endNode " + endNode + " out of bounds [0," + nf(nodeCount) + "]");
+        int[] entry = readEdge(edgeId, new int[edgeEntrySize]);
+        int nodeA = entry[E_NODEA];
+        if (nodeA == NO_NODE)
+            throw new IllegalStateException("edgeId " + edgeId + " is invalid - already removed!");
+        int nodeB = entry[E_NODEB];
+        if (endNode == nodeB || endNode == -1)
+            return createSingleEdge(edgeId, nodeA, nodeB, entry);
+        else if (endNode == nodeA)
+            return createSingleEdge(edgeId, nodeB, nodeA, entry);
+        return GHUtility.EMPTY;
+    }
+
+    protected SingleEdge createSingleEdge(int edgeId, int baseNode, int adjNode, int[] entry) {
+        return new SingleEdge(edgeId, baseNode, adjNode, entry);
+    }
+
+    protected class SingleEdge implements EdgeIterator {
+
+        final int edgeId;
+        final int baseNode;
+        final int node;
+        final int[] entry;
+
+        public SingleEdge(int edgeId, int baseNode, int adjNode, int[] entry) {
+            this.edgeId = edgeId;
+            this.baseNode = baseNode;
+            this.node = adjNode;
+            this.entry = entry;
+        }
+
+        @Override public boolean next() {
+            return false;
+        }
+
+        @Override public int edge() {
+            return edgeId;
+        }
+
+        @Override public int baseNode() {
+            return baseNode;
+        }
+
+        @Override public int adjNode() {
+            return node;
+        }
+
+        @Override public double distance() {
+            return intToDist(entry[E_DIST]);
+        }
+
+        @Override public void distance(double dist) {
+            throw readOnly();
+        }
+
+        @Override public int flags() {
+            int flags = entry[E_FLAGS];
+            if (baseNode > node)
+                return combiEncoder.swapDirection(flags);
+            return flags;
+        }
+
+        @Override public void flags(int flags) {
+            throw readOnly();
+        }
+
+        @Override public PointList wayGeometry() {
+            return FrozenGraph.this.wayGeometry(entry[E_GEO], baseNode > node);
+        }
+
+        @Override public void wayGeometry(PointList list) {
+            throw readOnly();
+        }
+
+        @Override public boolean isEmpty() {
+            return false;
+        }
+
+        @Override public String toString() {
+            return edge() + " " + baseNode() + "-" + adjNode();
+        }
+    }
+
+    @Override
+    public AllEdgesIterator getAllEdges() {
+        return new AllEdgeIterator();
+    }
+
+    /**
+     * Includes all edges where baseNode is the smaller node.
+     */
+    protected class AllEdgeIterator implements AllEdgesIterator {
+
+        protected final int[] entry = new int[edgeEntrySize];
+        private int edgeId = -1;
+        // compact mode only: decodes the records one after the other
+        private final CompactEdgeReader reader = compact && edgeCount > 0
+                ? new CompactEdgeReader(0, entry) : null;
+
+        @Override public int maxId() {
+            return edgeCount;
+        }
+
+        @Override public boolean next() {
+            while (true) {
+                edgeId++;
+                if (edgeId >= edgeCount)
+                    return false;
+                if (reader != null)
+                    reader.next(entry);
+                else
+                    readEdge(edgeId, entry);
+                if (entry[E_NODEA] != NO_NODE)
+                    return true;
+            }
+        }
+
+        @Override public int edge() {
+            return edgeId;
+        }
+
+        @Override public int baseNode() {
+            return entry[E_NODEA];
+        }
+
+        @Override public int adjNode() {
+            return entry[E_NODEB];
+        }
+
+        @Override public double distance() {
+            return intToDist(entry[E_DIST]);
+        }
+
+        @Override public void distance(double dist) {
+            throw readOnly();
+        }
+
+        @Override public int flags() {
+            return entry[E_FLAGS];
+        }
+
+        @Override public void flags(int flags) {
+            throw readOnly();
+        }
+
+        @Override public PointList wayGeometry() {
+            return FrozenGraph.this.wayGeometry(entry[E_GEO], false);
+        }
+
+        @Override public void wayGeometry(PointList list) {
+            throw readOnly();
+        }
+
+        @Override public boolean isEmpty() {
+            return false;
+        }
+
+        @Override public String toString() {
+            return edge() + " " + baseNode() + "-" + adjNode();
+        }
+    }
+
+    private PointList wayGeometry(int geoRef, boolean reverse) {
+        int count = 0;
+        if (geoRef > EdgeIterator.NO_EDGE)
+            count = geometry.getInt(geoRef);
+        PointList pillarNodes = new PointList(count);
+        for (int i = 0; i < count; i++) {
+            double lat = Helper.intToDegree(geometry.getInt(geoRef + i * 2 + 1));
+            double lon = Helper.intToDegree(geometry.getInt(geoRef + i * 2 + 2));
+            pillarNodes.add(lat, lon);
+        }
+        if (reverse)
+            pillarNodes.reverse();
+        return pillarNodes;
+    }
+
+    @Override
+    public Graph copyTo(Graph g) {
+        return GHUtility.copyTo(this, g);
+    }
+
+    @Override
+    public void markNodeRemoved(int index) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean isNodeRemoved(int index) {
+        return false;
+    }
+
+    @Override
+    public void optimize() {
+        // already compact
+    }
+
+    @Override
+    public boolean loadExisting() {
+        checkInit();
+        if (!nodes.loadExisting())
+            return false;
+        if (!offsets.loadExisting() || !adjacency.loadExisting() || !edges.loadExisting()
+                || !edgeBlocks.loadExisting() || !geometry.loadExisting())
+            throw new IllegalStateException("cannot load frozen graph. corrupt file or directory? " + dir);
+        if (nodes.getHeader(0) != getClass().getName().hashCode())
+            throw new IllegalStateException("Cannot load the graph - it wasn't create via "
+                    + getClass().getName() + "! " + dir);
+        if (nodes.getHeader(1) != nodeEntrySize || edges.getHeader(0) != edgeEntrySize)
+            throw new IllegalStateException("Cannot load the graph - different entry sizes " + dir);
+
+        nodeCount = nodes.getHeader(2);
+        bounds.minLon = Helper.intToDegree(nodes.getHeader(3));
+        bounds.maxLon = Helper.intToDegree(nodes.getHeader(4));
+        bounds.minLat = Helper.intToDegree(nodes.getHeader(5));
+        bounds.maxLat = Helper.intToDegree(nodes.getHeader(6));
+        edgeCount = edges.getHeader(1);
+        edgeBytes = edges.getHeader(2);
+        adjacencyCount = adjacency.getHeader(0);
+        compact = adjacency.getHeader(1) == 1;
+        adjacencyBytes = adjacency.getHeader(2);
+        maxGeoRef = geometry.getHeader(0);
+        initialized = true;
+        return true;
+    }
+
+    @Override
+    public void flush() {
+        nodes.setHeader(0, getClass().getName().hashCode());
+        nodes.setHeader(1, nodeEntrySize);
+        nodes.setHeader(2, nodeCount);
+        nodes.setHeader(3, Helper.degreeToInt(bounds.minLon));
+        nodes.setHeader(4, Helper.degreeToInt(bounds.maxLon));
+        nodes.setHeader(5, Helper.degreeToInt(bounds.minLat));
+        nodes.setHeader(6, Helper.degreeToInt(bounds.maxLat));
+        edges.setHeader(0, edgeEntrySize);
+        edges.setHeader(1, edgeCount);
+        edges.setHeader(2, (int) edgeBytes);
+        adjacency.setHeader(0, (int) adjacencyCount);
+        adjacency.setHeader(1, compact ? 1 : 0);
+        adjacency.setHeader(2, (int) adjacencyBytes);
+        geometry.setHeader(0, maxGeoRef);
+
+        geometry.flush();
+        edgeBlocks.flush();
+        edges.flush();
+        adjacency.flush();
+        offsets.flush();
+        nodes.flush();
+    }
+
+    @Override
+    public void close() {
+        geometry.close();
+        edgeBlocks.close();
+        edges.close();
+        adjacency.close();
+        offsets.close();
+        nodes.close();
+    }
+
+    @Override
+    public long capacity() {
+        return nodes.capacity() + offsets.capacity() + adjacency.capacity() + edges.capacity()
+                + edgeBlocks.capacity() + geometry.capacity();
+    }
+
+    @Override public String toString() {
+        return "edges:" + nf(edgeCount) + "(" + edges.capacity() / Helper.MB + "), "
+                + "adjacency:" + nf(adjacencyCount) + "(" + adjacency.capacity() / Helper.MB
+                + (compact ? ", compact" : "") + "), "
+                + "nodes:" + nf(nodeCount) + "(" + nodes.capacity() / Helper.MB + "), "
+                + "geo:" + nf(maxGeoRef) + "(" + geometry.capacity() / Helper.MB + "), "
+                + "bounds:" + bounds;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.storage;
+
+import com.graphhopper.routing.util.AllEdgesIterator;
+import com.graphhopper.routing.util.AllEdgesSkipIterator;
+import com.graphhopper.routing.util.EdgeFilter;
+import com.graphhopper.util.EdgeIterator;
+import com.graphhopper.util.EdgeSkipIterator;
+
+/**
+ * The frozen counterpart of LevelGraphStorage which keeps the levels and the
+ * skipped edges of the shortcuts, e.g. to query a prepared contraction
+ * hierarchy.
+ *
+ * @author Peter Karich
+ */
+public class FrozenLevelGraph extends FrozenGraph implements LevelGraph {
+
+    private final int I_SKIP_EDGE1;
+    private final int I_SKIP_EDGE2;
+    private final int I_LEVEL;
+
+    public FrozenLevelGraph(Directory dir) {
+        super(dir);
+        I_SKIP_EDGE1 = nextEdgeEntryIndex();
+        I_SKIP_EDGE2 = nextEdgeEntryIndex();
+        I_LEVEL = nextNodeEntryIndex();
+        initNodeAndEdgeEntrySize();
+    }
+
+    @Override
+    public FrozenLevelGraph create(long nodeCount) {
+        super.create(nodeCount);
+        return this;
+    }
+
+    /**
+     * @param graph needs to be a LevelGraph
+     */
+    @Override
+    public FrozenLevelGraph freeze(Graph graph) {
+        if (!(graph instanceof LevelGraph))
+            throw new IllegalArgumentException("Cannot freeze " + graph.getClass().getSimpleName()
+                    + " into a level graph");
+        super.freeze(graph);
+        return this;
+    }
+
+    @Override
+    protected void freezeNode(Graph graph, int node, long nodePointer) {
+        nodes.setInt(nodePointer + I_LEVEL, ((LevelGraph) graph).getLevel(node));
+    }
+
+    @Override
+    protected void freezeEdge(AllEdgesIterator iter, int[] entry) {
+        EdgeSkipIterator skipIter = (EdgeSkipIterator) iter;
+        entry[I_SKIP_EDGE1] = skipIter.skippedEdge1();
+        entry[I_SKIP_EDGE2] = skipIter.skippedEdge2();
+    }
+
+    @Override
+    public void setLevel(int index, int level) {
+        throw new UnsupportedOperationException("A frozen graph is read-only");
+    }
+
+    @Override
+    public int getLevel(int index) {
+        return nodes.getInt((long) index * nodeEntrySize + I_LEVEL);
+    }
+
+    @Override
+    public EdgeSkipIterator edge(int a, int b, double distance, int flags) {
+        return (EdgeSkipIterator) super.edge(a, b, distance, flags);
+    }
+
+    @Override
+    public EdgeSkipIterator edge(int a, int b, double distance, boolean bothDirections) {
+        return (EdgeSkipIterator) super.edge(a, b, distance, bothDirections);
+    }
+
+    @Override
+    public EdgeSkipIterator getEdges(int node) {
+        return (EdgeSkipIterator) super.getEdges(node);
+    }
+
+    @Override
+    public EdgeSkipIterator getEdges(int node, EdgeFilter filter) {
+        return (EdgeSkipIterator) super.getEdges(node, filter);
+    }
+
+    @Override
+    protected EdgeIterator createEdgeIterator(int node, EdgeFilter filter) {
+        return new AdjacencySkipIterator(node, filter);
+    }
+
+    class AdjacencySkipIterator extends AdjacencyIterator implements EdgeSkipIterator {
+
+        public AdjacencySkipIterator(int baseNode, EdgeFilter filter) {
+            super(baseNode, filter);
+        }
+
+        @Override public int skippedEdge1() {
+            return edgeValue(edge(), I_SKIP_EDGE1);
+        }
+
+        @Override public int skippedEdge2() {
+            return edgeValue(edge(), I_SKIP_EDGE2);
+        }
+
+        @Override public void skippedEdges(int edge1, int edge2) {
+            throw new UnsupportedOperationException("A frozen graph is read-only");
+        }
+
+        @Override public boolean isShortcut() {
+            return EdgeIterator.Edge.isValid(skippedEdge1());
+        }
+    }
+
+    @Override
+    public EdgeSkipIterator getEdgeProps(int edgeId, int endNode) {
+        return (EdgeSkipIterator) super.getEdgeProps(edgeId, endNode);
+    }
+
+    @Override
+    protected SingleEdge createSingleEdge(int edgeId, int baseNode, int adjNode, int[] entry) {
+        return new SingleLevelEdge(edgeId, baseNode, adjNode, entry);
+    }
+
+    class SingleLevelEdge extends SingleEdge implements EdgeSkipIterator {
+
+        public SingleLevelEdge(int edgeId, int baseNode, int adjNode, int[] entry) {
+            super(edgeId, baseNode, adjNode, entry);
+        }
+
+        @Override public int skippedEdge1() {
+            return entry[I_SKIP_EDGE1];
+        }
+
+        @Override public int skippedEdge2() {
+            return entry[I_SKIP_EDGE2];
+        }
+
+        @Override public void skippedEdges(int edge1, int edge2) {
+            throw new UnsupportedOperationException("A frozen graph is read-only");
+        }
+
+        @Override public boolean isShortcut() {
+            return EdgeIterator.Edge.isValid(skippedEdge1());
+        }
+    }
+
+    @Override
+    public AllEdgesSkipIterator getAllEdges() {
+        return new AllEdgeSkipIterator();
+    }
+
+    class AllEdgeSkipIterator extends AllEdgeIterator implements AllEdgesSkipIterator {
+
+        @Override public int skippedEdge1() {
+            return entry[I_SKIP_EDGE1];
+        }
+
+        @Override public int skippedEdge2() {
+            return entry[I_SKIP_EDGE2];
+        }
+
+        @Override public void skippedEdges(int edge1, int edge2) {
+            throw new UnsupportedOperationException("A frozen graph is read-only");
+        }
+
+        @Override public boolean isShortcut() {
+            return EdgeIterator.Edge.isValid(skippedEdge1());
+        }
+    }
+}
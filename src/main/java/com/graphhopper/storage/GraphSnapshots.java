@@ -0,0 +1,231 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.storage;
+
+import com.graphhopper.util.Constants;
+import com.graphhopper.util.Helper;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Manages versioned graph folders below a base folder so that a graph can be
+ * written without touching the folder which is currently in use. A new
+ * snapshot is written into a temporary folder which is only renamed to its
+ * final name after all files were synced to disc. Then the 'current' pointer
+ * file is replaced, again via a rename. If the process dies in between, the
+ * previous snapshot stays valid and the temporary folder is removed on the
+ * next cleanUp.
+ *
+ * Usage: String tmp = snapshots.create(); write the graph into tmp e.g. via
+ * GraphHopper.graphHopperLocation(tmp).load(osmFile), close it and call
+ * snapshots.commit(tmp). GraphHopper.load and hotSwap accept the base folder
+ * and pick the current snapshot.
+ *
+ * @author Peter Karich
+ */
+public class GraphSnapshots {
+
+    public static final String CURRENT = "current";
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = "-gh";
+    private static final String TMP = ".tmp";
+    private final String location;
+
+    public GraphSnapshots(String location) {
+        if (Helper.isEmpty(location))
+            throw new IllegalArgumentException("location of the snapshots is empty");
+        if (!location.endsWith("/"))
+            location += "/";
+        this.location = location;
+        new File(location).mkdirs();
+    }
+
+    /**
+     * @return true if the specified folder contains a pointer to a current
+     * snapshot
+     */
+    public static boolean isSnapshotBase(String location) {
+        return new File(location, CURRENT).isFile();
+    }
+
+    public String location() {
+        return location;
+    }
+
+    /**
+     * Creates an empty temporary folder for the next snapshot.
+     *
+     * @return the location of the temporary folder
+     */
+    public String create() {
+        int version = Math.max(latestVersion(), currentVersion()) + 1;
+        File tmp = new File(location + PREFIX + version + SUFFIX + TMP);
+        Helper.removeDir(tmp);
+        if (!tmp.mkdirs())
+            throw new IllegalStateException("Cannot create snapshot folder " + tmp);
+        return tmp.getPath();
+    }
+
+    /**
+     * Syncs all files of the specified temporary folder to disc, renames it to
+     * its final name and makes it the current snapshot. The graph written into
+     * the folder has to be flushed and closed before.
+     *
+     * @return the location of the committed snapshot
+     */
+    public String commit(String tmpLocation) {
+        File tmp = new File(tmpLocation);
+        String name = tmp.getName();
+        if (!tmp.isDirectory() || !name.startsWith(PREFIX) || !name.endsWith(SUFFIX + TMP)
+                || !new File(location).getAbsoluteFile().equals(tmp.getAbsoluteFile().getParentFile()))
+            throw new IllegalArgumentException("Not a temporary snapshot folder of " + location + ": " + tmpLocation);
+
+        try {
+            for (File file : tmp.listFiles()) {
+                sync(file);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Couldn't sync snapshot " + tmpLocation, ex);
+        }
+
+        String finalName = name.substring(0, name.length() - TMP.length());
+        File target = new File(location + finalName);
+        if (target.exists())
+            throw new IllegalStateException("Snapshot " + target + " already exists");
+        if (!tmp.renameTo(target))
+            throw new IllegalStateException("Couldn't rename " + tmp + " to " + target);
+
+        // replace the pointer atomically, a reader sees the old or the new name
+        File tmpPointer = new File(location + CURRENT + TMP);
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(tmpPointer), "UTF-8");
+            try {
+                writer.write(finalName);
+            } finally {
+                writer.close();
+            }
+            sync(tmpPointer);
+        } catch (IOException ex) {
+            throw new RuntimeException("Couldn't write " + tmpPointer, ex);
+        }
+        File pointer = new File(location + CURRENT);
+        if (!tmpPointer.renameTo(pointer)) {
+            // windows does not allow renaming onto an existing file
+            if (!Constants.WINDOWS || !pointer.delete() || !tmpPointer.renameTo(pointer))
+                throw new IllegalStateException("Couldn't rename " + tmpPointer + " to " + pointer);
+        }
+        return target.getPath();
+    }
+
+    /**
+     * @return the location of the current snapshot or null if nothing was
+     * committed yet
+     */
+    public String current() {
+        File pointer = new File(location + CURRENT);
+        if (!pointer.isFile())
+            return null;
+        try {
+            List<String> lines = Helper.readFile(pointer.getPath());
+            if (lines.isEmpty() || Helper.isEmpty(lines.get(0).trim()))
+                throw new IllegalStateException("Pointer " + pointer + " is empty");
+            return location + lines.get(0).trim();
+        } catch (IOException ex) {
+            throw new RuntimeException("Couldn't read " + pointer, ex);
+        }
+    }
+
+    /**
+     * Removes left over temporary folders and all but the specified number of
+     * newest committed snapshots. The current snapshot is never removed. Do
+     * not call this while a snapshot is written.
+     *
+     * @return the number of removed folders
+     */
+    public int cleanUp(int keep) {
+        int current = currentVersion();
+        int latest = latestVersion();
+        int removed = 0;
+        for (File file : new File(location).listFiles()) {
+            String name = file.getName();
+            if (!file.isDirectory() || !name.startsWith(PREFIX))
+                continue;
+            boolean remove;
+            if (name.endsWith(TMP))
+                remove = true;
+            else {
+                int version = version(name);
+                remove = version >= 0 && version != current && version <= latest - keep;
+            }
+            if (remove && Helper.removeDir(file))
+                removed++;
+        }
+        return removed;
+    }
+
+    private int currentVersion() {
+        String str = current();
+        if (str == null)
+            return -1;
+        return version(new File(str).getName());
+    }
+
+    private int latestVersion() {
+        int max = -1;
+        for (File file : new File(location).listFiles()) {
+            if (file.isDirectory() && !file.getName().endsWith(TMP))
+                max = Math.max(max, version(file.getName()));
+        }
+        return max;
+    }
+
+    /**
+     * @return the version of the specified folder name or -1 if not a
+     * snapshot
+     */
+    private static int version(String name) {
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX))
+            return -1;
+        try {
+            return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    private static void sync(File file) throws IOException {
+        if (file.isDirectory()) {
+            for (File f : file.listFiles()) {
+                sync(f);
+            }
+            return;
+        }
+        RandomAccessFile raFile = new RandomAccessFile(file, "rw");
+        try {
+            raFile.getFD().sync();
+        } finally {
+            raFile.close();
+        }
+    }
+}
@@ -24,12 +24,15 @@ import com.graphhopper.coll.SparseIntIntArray;
 import com.graphhopper.routing.util.CombinedEncoder;
 import com.graphhopper.routing.util.EdgeFilter;
 import com.graphhopper.routing.util.AllEdgesIterator;
+import com.graphhopper.routing.util.VehicleEncoder;
+import com.graphhopper.util.BitUtil;
 import com.graphhopper.util.EdgeIterator;
 import com.graphhopper.util.GHUtility;
 import com.graphhopper.util.Helper;
 import static com.graphhopper.util.Helper.*;
 import com.graphhopper.util.PointList;
 import com.graphhopper.util.shapes.BBox;
+import java.util.Arrays;
 
 /**
  * The main implementation which handles nodes and edges file format. It can be
@@ -49,7 +52,7 @@ public class GraphStorage implements Graph, Storable<GraphStorage> {
 
     private static final int NO_NODE = -1;
     // distance of around +-1000 000 meter are ok
-    private static final float INT_DIST_FACTOR = 1000f;
+    static final float INT_DIST_FACTOR = 1000f;
     private Directory dir;
     // edge memory layout: nodeA,nodeB,linkA,linkB,dist,flags,geometryRef
     protected final int E_NODEA, E_NODEB, E_LINKA, E_LINKB, E_DIST, E_FLAGS, E_GEO;
@@ -74,11 +77,17 @@ public class GraphStorage implements Graph, Storable<GraphStorage> {
     // remove markers are not yet persistent!
     private GHBitSet removedNodes;
     private int edgeEntryIndex = -1, nodeEntryIndex = -1;
-    // length | nodeA | nextNode | ... | nodeB
-    // as we use integer index in 'egdes' area => 'geometry' area is limited to 2GB
+    // length | lat | lon | latDelta | lonDelta | ... as variable length longs
+    // every entry starts at an integer and geoRef is the integer index in the
+    // 'geometry' area => 'geometry' area is limited to 8GB instead of 2GB
     private DataAccess geometry;
-    // 0 stands for no separate geoRef
-    private int maxGeoRef = 1;
+    // the next free byte, the first integer is always 0 which stands for no separate geoRef
+    private long maxGeoPointer = 4;
+    // only to encode entries, reading is thread safe
+    private final VLongStorage geoBuffer = new VLongStorage(64);
+    // optional, the OSM way id of every edge as two integers
+    private DataAccess edgeWays;
+    private boolean storeWayIds = false;
     private boolean initialized = false;
     private CombinedEncoder combiEncoder;
     protected final EdgeFilter allEdgesFilter;
@@ -90,6 +99,7 @@ public class GraphStorage implements Graph, Storable<GraphStorage> {
         this.nodes = dir.findCreate("nodes");
         this.edges = dir.findCreate("edges");
         this.geometry = dir.findCreate("geometry");
+        this.edgeWays = dir.findCreate("edgeWays");
         this.bounds = BBox.INVERSE.clone();
         E_NODEA = nextEdgeEntryIndex();
         E_NODEB = nextEdgeEntryIndex();
@@ -110,6 +120,10 @@ public class GraphStorage implements Graph, Storable<GraphStorage> {
         return this;
     }
 
+    CombinedEncoder combinedEncoder() {
+        return combiEncoder;
+    }
+
     void checkInit() {
         if (initialized)
             throw new IllegalStateException("You cannot configure this GraphStorage "
@@ -143,9 +157,25 @@ public class GraphStorage implements Graph, Storable<GraphStorage> {
         nodes.segmentSize(bytes);
         edges.segmentSize(bytes);
         geometry.segmentSize(bytes);
+        edgeWays.segmentSize(bytes);
         return this;
     }
 
+    /**
+     * If true the OSM way id of every edge is stored in the separate file
+     * 'edgeWays', e.g. to find the edges of a way for updates later on. Call
+     * it before create, for loadExisting it is set if the file exists.
+     */
+    public GraphStorage storeWayIds(boolean storeWayIds) {
+        checkInit();
+        this.storeWayIds = storeWayIds;
+        return this;
+    }
+
+    public boolean isStoringWayIds() {
+        return storeWayIds;
+    }
+
     /**
      * After configuring this storage you need to create it explicitly.
      */
@@ -158,6 +188,8 @@ public class GraphStorage implements Graph, Storable<GraphStorage> {
 
         edges.create((long) initBytes * edgeEntrySize);
         geometry.create((long) initBytes);
+        if (storeWayIds)
+            edgeWays.create(initBytes * 8);
         initialized = true;
         return this;
     }
@@ -250,6 +282,11 @@ public class GraphStorage implements Graph, Storable<GraphStorage> {
     }
 
     private void ensureEdgeIndex(int edgeIndex) {
+        if (storeWayIds) {
+            long deltaWayCap = (long) edgeIndex * 8 - edgeWays.capacity();
+            if (deltaWayCap > 0)
+                incCapacity(edgeWays, deltaWayCap);
+        }
         long deltaCap = (long) edgeIndex * edgeEntrySize * 4 - edges.capacity();
         if (deltaCap <= 0)
             return;
@@ -257,8 +294,8 @@ public class GraphStorage implements Graph, Storable<GraphStorage> {
         incCapacity(edges, deltaCap);
     }
 
-    private void ensureGeometry(int index, int size) {
-        long deltaCap = ((long) index + size) * 4 - geometry.capacity();
+    private void ensureGeometry(long bytes) {
+        long deltaCap = bytes - geometry.capacity();
         if (deltaCap <= 0)
             return;
 
@@ -279,13 +316,96 @@ public class GraphStorage implements Graph, Storable<GraphStorage> {
         return iter;
     }
 
-    private int nextGeoRef(int arrayLength) {
-        int tmp = maxGeoRef;
-        // one more integer to store also the size itself
-        maxGeoRef += arrayLength + 1;
+    /**
+     * Entries are aligned to integers because E_GEO stores the integer index
+     * of an entry and not its byte position. The write pointer is a long, but
+     * the edge entry itself has no long-based addressing, so the geometry area
+     * is limited to 2^31 integers, i.e. 8GB of encoded pillar nodes.
+     *
+     * @return the byte position for the specified number of bytes
+     */
+    private long nextGeoPointer(int bytes) {
+        long tmp = maxGeoPointer;
+        // align the next entry to reference it via an integer index
+        maxGeoPointer = (tmp + bytes + 3) & ~3L;
+        if ((maxGeoPointer >>> 2) > Integer.MAX_VALUE)
+            throw new IllegalStateException("too many pillar nodes, geometry area is full. " + toString());
+        ensureGeometry(maxGeoPointer);
         return tmp;
     }
 
+    /**
+     * Stores the OSM way id of the specified edge, only possible if
+     * storeWayIds is enabled.
+     */
+    public void wayId(int edge, long wayId) {
+        if (!storeWayIds)
+            throw new IllegalStateException("way ids are not stored, see storeWayIds");
+        if (edge < 0 || edge >= edgeCount)
+            throw new IllegalArgumentException("edge " + edge + " out of bounds [0," + edgeCount + ")");
+        long pointer = (long) edge * 2;
+        edgeWays.setInt(pointer, (int) (wayId >>> 32));
+        edgeWays.setInt(pointer + 1, (int) wayId);
+    }
+
+    /**
+     * @return the OSM way id of the specified edge or 0 if unknown
+     */
+    public long wayId(int edge) {
+        if (!storeWayIds)
+            return 0;
+        long pointer = (long) edge * 2;
+        return BitUtil.toLong(edgeWays.getInt(pointer), edgeWays.getInt(pointer + 1));
+    }
+
+    /**
+     * Changes the flags and the distances of the specified edges in one pass,
+     * e.g. to apply new speeds several times an hour without importing the
+     * OSM file again. The flags are in the direction of the stored edge, like
+     * returned from getAllEdges.
+     *
+     * The edges are written in place without synchronization: a concurrent
+     * query can see a part of the changes or, without a happens-before
+     * relation to the writing thread, none of them. GraphHopper.updateSpeeds
+     * blocks the queries while updating. Copies like a FrozenGraph or
+     * CHOverlay and preparations like contraction hierarchies are not
+     * updated, they keep the old values until created again.
+     *
+     * @param flags the new flags for every edge or null to keep them
+     * @param distances the new distances for every edge or null to keep them
+     */
+    public void updateEdges(int[] edgeIds, int[] flags, double[] distances) {
+        if (flags != null && flags.length < edgeIds.length
+                || distances != null && distances.length < edgeIds.length)
+            throw new IllegalArgumentException("flags and distances need one entry per edge " + edgeIds.length);
+        for (int i = 0; i < edgeIds.length; i++) {
+            int edge = edgeIds[i];
+            if (edge < 0 || edge >= edgeCount)
+                throw new IllegalArgumentException("edge " + edge + " out of bounds [0," + edgeCount + ")");
+            long edgePointer = (long) edge * edgeEntrySize;
+            if (flags != null)
+                edges.setInt(edgePointer + E_FLAGS, flags[i]);
+            if (distances != null)
+                edges.setInt(edgePointer + E_DIST, distToInt(distances[i]));
+        }
+    }
+
+    /**
+     * Sets the speed of the specified encoder for the specified edges and
+     * keeps their directions. The same restrictions as for updateEdges apply.
+     */
+    public void updateSpeeds(int[] edgeIds, int[] speeds, VehicleEncoder encoder) {
+        if (speeds.length < edgeIds.length)
+            throw new IllegalArgumentException("speeds need one entry per edge " + edgeIds.length);
+        for (int i = 0; i < edgeIds.length; i++) {
+            int edge = edgeIds[i];
+            if (edge < 0 || edge >= edgeCount)
+                throw new IllegalArgumentException("edge " + edge + " out of bounds [0," + edgeCount + ")");
+            long pointer = (long) edge * edgeEntrySize + E_FLAGS;
+            edges.setInt(pointer, encoder.setSpeed(edges.getInt(pointer), speeds[i]));
+        }
+    }
+
     /**
      * @return edgeIdPointer which is edgeId * edgeEntrySize
      */
@@ -658,38 +778,97 @@ public class GraphStorage implements Graph, Storable<GraphStorage> {
     private void wayGeometry(PointList pillarNodes, long edgePointer, boolean reverse) {
         if (pillarNodes != null && !pillarNodes.isEmpty()) {
             int len = pillarNodes.size();
-            int geoRef = nextGeoRef(len * 2);
-            edges.setInt(edgePointer + E_GEO, geoRef);
-            ensureGeometry(geoRef, len * 2 + 1);
-            geometry.setInt(geoRef, len);
-            geoRef++;
             if (reverse)
                 pillarNodes.reverse();
 
-            for (int i = 0; i < len; geoRef += 2, i++) {
-                geometry.setInt(geoRef, Helper.degreeToInt(pillarNodes.latitude(i)));
-                geometry.setInt(geoRef + 1, Helper.degreeToInt(pillarNodes.longitude(i)));
+            int[] lats = new int[len];
+            int[] lons = new int[len];
+            for (int i = 0; i < len; i++) {
+                lats[i] = Helper.degreeToInt(pillarNodes.latitude(i));
+                lons[i] = Helper.degreeToInt(pillarNodes.longitude(i));
             }
+            int bytes = encodeGeometry(lats, lons, len);
+            long geoPointer = nextGeoPointer(bytes);
+            geoBuffer.writeTo(geometry, geoPointer);
+            edges.setInt(edgePointer + E_GEO, (int) (geoPointer >>> 2));
         } else
             edges.setInt(edgePointer + E_GEO, EdgeIterator.NO_EDGE);
     }
 
     private PointList wayGeometry(long edgePointer, boolean reverse) {
         int geoRef = edges.getInt(edgePointer + E_GEO);
-        int count = 0;
-        if (geoRef > EdgeIterator.NO_EDGE)
-            count = geometry.getInt(geoRef);
+        if (geoRef <= EdgeIterator.NO_EDGE)
+            return new PointList(0);
+
+        GeometryReader reader = new GeometryReader((long) geoRef << 2);
+        int count = (int) reader.readVLong();
         PointList pillarNodes = new PointList(count);
+        long lat = 0, lon = 0;
         for (int i = 0; i < count; i++) {
-            double lat = Helper.intToDegree(geometry.getInt(geoRef + i * 2 + 1));
-            double lon = Helper.intToDegree(geometry.getInt(geoRef + i * 2 + 2));
-            pillarNodes.add(lat, lon);
+            lat += BitUtil.fromZigZag(reader.readVLong());
+            lon += BitUtil.fromZigZag(reader.readVLong());
+            pillarNodes.add(Helper.intToDegree((int) lat), Helper.intToDegree((int) lon));
         }
         if (reverse)
             pillarNodes.reverse();
         return pillarNodes;
     }
 
+    /**
+     * Encodes the points into geoBuffer: the first point absolute and the
+     * following ones as the difference to their predecessor.
+     *
+     * @return the number of bytes
+     */
+    private int encodeGeometry(int[] lats, int[] lons, int len) {
+        geoBuffer.seek(0);
+        geoBuffer.writeVLong(len);
+        long prevLat = 0, prevLon = 0;
+        for (int i = 0; i < len; i++) {
+            geoBuffer.writeVLong(BitUtil.toZigZag(lats[i] - prevLat));
+            geoBuffer.writeVLong(BitUtil.toZigZag(lons[i] - prevLon));
+            prevLat = lats[i];
+            prevLon = lons[i];
+        }
+        return (int) geoBuffer.position();
+    }
+
+    /**
+     * Reads the variable length longs of the geometry area and caches the
+     * current integer. Create one per entry to keep reading thread safe.
+     */
+    private class GeometryReader {
+
+        private long pointer;
+        private long wordIndex = -1;
+        private int word;
+
+        GeometryReader(long pointer) {
+            this.pointer = pointer;
+        }
+
+        long readVLong() {
+            int b = readByte();
+            long i = b & 0x7F;
+            for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+                b = readByte();
+                i |= (long) (b & 0x7F) << shift;
+            }
+            return i;
+        }
+
+        private int readByte() {
+            long index = pointer >>> 2;
+            if (index != wordIndex) {
+                word = geometry.getInt(index);
+                wordIndex = index;
+            }
+            int b = (word >>> ((int) (pointer & 3) << 3)) & 0xFF;
+            pointer++;
+            return b;
+        }
+    }
+
     @Override
     public Graph copyTo(Graph g) {
         if (g.getClass().equals(getClass())) {
@@ -711,7 +890,10 @@ public class GraphStorage implements Graph, Storable<GraphStorage> {
         clonedG.nodeCount = nodeCount;
 
         geometry.copyTo(clonedG.geometry);
-        clonedG.maxGeoRef = maxGeoRef;
+        clonedG.maxGeoPointer = maxGeoPointer;
+
+        if (storeWayIds && clonedG.storeWayIds)
+            edgeWays.copyTo(clonedG.edgeWays);
 
         clonedG.bounds = bounds;
         if (removedNodes == null)
@@ -754,6 +936,174 @@ public class GraphStorage implements Graph, Storable<GraphStorage> {
 //        edges.trimTo(edgeCap * 4);
     }
 
+    /**
+     * Renumbers the nodes in place, e.g. to store nearby nodes close to each
+     * other. The edges are renumbered in the order of their first node so that
+     * the edges of a node are close to the node itself, already removed edges
+     * are dropped. Call optimize before to remove marked nodes. Existing
+     * indices or preparations referring to node or edge ids are invalid
+     * afterwards.
+     *
+     * @param oldToNew a permutation of the node ids, where oldToNew[oldNode]
+     * is the new id of oldNode
+     */
+    public void renumberNodes(int[] oldToNew) {
+        if (oldToNew.length != nodeCount)
+            throw new IllegalArgumentException("the permutation needs " + nodeCount + " entries but had " + oldToNew.length);
+        if (removedNodes != null && removedNodes.cardinality() > 0)
+            throw new IllegalStateException("call optimize before renumbering the nodes");
+        int[] newToOld = new int[nodeCount];
+        Arrays.fill(newToOld, -1);
+        for (int old = 0; old < nodeCount; old++) {
+            int newNode = oldToNew[old];
+            if (newNode < 0 || newNode >= nodeCount || newToOld[newNode] >= 0)
+                throw new IllegalArgumentException("not a permutation: " + old + "->" + newNode);
+            newToOld[newNode] = old;
+        }
+
+        // new edge ids in the order of the new nodes, removed edges to the end
+        int[] oldToNewEdges = new int[edgeCount];
+        Arrays.fill(oldToNewEdges, -1);
+        int nextEdge = 0;
+        for (int newNode = 0; newNode < nodeCount; newNode++) {
+            int old = newToOld[newNode];
+            int edge = nodes.getInt((long) old * nodeEntrySize + N_EDGE_REF);
+            while (edge > EdgeIterator.NO_EDGE) {
+                if (oldToNewEdges[edge] < 0)
+                    oldToNewEdges[edge] = nextEdge++;
+                long edgePointer = (long) edge * edgeEntrySize;
+                edge = edges.getInt(getLinkPosInEdgeArea(old, getOtherNode(old, edgePointer), edgePointer));
+            }
+        }
+        int validEdges = nextEdge;
+        for (int edge = 0; edge < edgeCount; edge++) {
+            if (oldToNewEdges[edge] >= 0)
+                continue;
+            if (edges.getInt((long) edge * edgeEntrySize + E_NODEA) != NO_NODE)
+                throw new IllegalStateException("edge " + edge + " is not reachable from its nodes");
+            oldToNewEdges[edge] = nextEdge++;
+        }
+
+        // update the references before moving the entries
+        for (int edge = 0; edge < edgeCount; edge++) {
+            long edgePointer = (long) edge * edgeEntrySize;
+            int nodeA = edges.getInt(edgePointer + E_NODEA);
+            if (nodeA == NO_NODE)
+                continue;
+            int nodeB = edges.getInt(edgePointer + E_NODEB);
+            int linkA = mapEdge(edges.getInt(edgePointer + E_LINKA), oldToNewEdges);
+            int linkB = mapEdge(edges.getInt(edgePointer + E_LINKB), oldToNewEdges);
+            int flags = edges.getInt(edgePointer + E_FLAGS);
+            int newA = oldToNew[nodeA];
+            int newB = oldToNew[nodeB];
+            if (newA > newB) {
+                // keep nodeA the smaller node
+                int tmp = newA;
+                newA = newB;
+                newB = tmp;
+                tmp = linkA;
+                linkA = linkB;
+                linkB = tmp;
+                flags = combiEncoder.swapDirection(flags);
+                reverseGeometry(edgePointer);
+            }
+            edges.setInt(edgePointer + E_NODEA, newA);
+            edges.setInt(edgePointer + E_NODEB, newB);
+            edges.setInt(edgePointer + E_LINKA, linkA);
+            edges.setInt(edgePointer + E_LINKB, linkB);
+            edges.setInt(edgePointer + E_FLAGS, flags);
+            renumberEdgeRefs(edgePointer, oldToNewEdges);
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            long pointer = (long) node * nodeEntrySize + N_EDGE_REF;
+            nodes.setInt(pointer, mapEdge(nodes.getInt(pointer), oldToNewEdges));
+        }
+
+        permute(nodes, nodeEntrySize, oldToNew);
+        permute(edges, edgeEntrySize, oldToNewEdges);
+        if (storeWayIds)
+            permute(edgeWays, 2, oldToNewEdges);
+        edgeCount = validEdges;
+    }
+
+    private static int mapEdge(int edge, int[] oldToNewEdges) {
+        if (edge > EdgeIterator.NO_EDGE)
+            return oldToNewEdges[edge];
+        return edge;
+    }
+
+    /**
+     * Hook to update further references to edges of the specified edge entry
+     * while renumbering.
+     */
+    protected void renumberEdgeRefs(long edgePointer, int[] oldToNewEdges) {
+    }
+
+    /**
+     * Reverses the pillar nodes of the specified edge. The deltas are encoded
+     * again, if they need more bytes than before the entry is appended.
+     */
+    private void reverseGeometry(long edgePointer) {
+        int geoRef = edges.getInt(edgePointer + E_GEO);
+        if (geoRef <= EdgeIterator.NO_EDGE)
+            return;
+        long geoPointer = (long) geoRef << 2;
+        GeometryReader reader = new GeometryReader(geoPointer);
+        int len = (int) reader.readVLong();
+        int[] lats = new int[len];
+        int[] lons = new int[len];
+        long lat = 0, lon = 0;
+        for (int i = len - 1; i >= 0; i--) {
+            lat += BitUtil.fromZigZag(reader.readVLong());
+            lon += BitUtil.fromZigZag(reader.readVLong());
+            lats[i] = (int) lat;
+            lons[i] = (int) lon;
+        }
+        int bytes = encodeGeometry(lats, lons, len);
+        if (bytes > reader.pointer - geoPointer) {
+            geoPointer = nextGeoPointer(bytes);
+            edges.setInt(edgePointer + E_GEO, (int) (geoPointer >>> 2));
+        }
+        // entries start at an integer and own their last integer, so whole
+        // integers can be written even if the new entry is shorter
+        geoBuffer.writeTo(geometry, geoPointer);
+    }
+
+    /**
+     * Moves the entry i to oldToNew[i] following the cycles of the
+     * permutation, so only one entry is buffered at a time.
+     */
+    private static void permute(DataAccess da, int entrySize, int[] oldToNew) {
+        GHBitSet moved = new GHBitSetImpl(oldToNew.length);
+        int[] carry = new int[entrySize];
+        int[] tmp = new int[entrySize];
+        for (int start = 0; start < oldToNew.length; start++) {
+            if (moved.contains(start))
+                continue;
+            read(da, (long) start * entrySize, carry);
+            int current = start;
+            do {
+                int target = oldToNew[current];
+                long pointer = (long) target * entrySize;
+                read(da, pointer, tmp);
+                for (int j = 0; j < entrySize; j++) {
+                    da.setInt(pointer + j, carry[j]);
+                }
+                moved.add(target);
+                int[] swap = carry;
+                carry = tmp;
+                tmp = swap;
+                current = target;
+            } while (current != start);
+        }
+    }
+
+    private static void read(DataAccess da, long pointer, int[] entry) {
+        for (int j = 0; j < entry.length; j++) {
+            entry[j] = da.getInt(pointer + j);
+        }
+    }
+
     /**
      * This method disconnects the specified edge from the list of edges of the
      * specified node. It does not release the freed space to be reused.
@@ -956,7 +1306,8 @@ public class GraphStorage implements Graph, Storable<GraphStorage> {
             edgeCount = edges.getHeader(1);
 
             // geometry
-            maxGeoRef = edges.getHeader(0);
+            maxGeoPointer = BitUtil.toLong(geometry.getHeader(0), geometry.getHeader(1));
+            storeWayIds = edgeWays.loadExisting();
             initialized = true;
             return true;
         }
@@ -979,11 +1330,14 @@ public class GraphStorage implements Graph, Storable<GraphStorage> {
         edges.setHeader(1, edgeCount);
 
         // geometry
-        geometry.setHeader(0, maxGeoRef);
+        geometry.setHeader(0, (int) (maxGeoPointer >>> 32));
+        geometry.setHeader(1, (int) maxGeoPointer);
 
         geometry.flush();
         edges.flush();
         nodes.flush();
+        if (storeWayIds)
+            edgeWays.flush();
     }
 
     @Override
@@ -991,11 +1345,16 @@ public class GraphStorage implements Graph, Storable<GraphStorage> {
         geometry.close();
         edges.close();
         nodes.close();
+        if (storeWayIds)
+            edgeWays.close();
     }
 
     @Override
     public long capacity() {
-        return edges.capacity() + nodes.capacity() + geometry.capacity();
+        long cap = edges.capacity() + nodes.capacity() + geometry.capacity();
+        if (storeWayIds)
+            cap += edgeWays.capacity();
+        return cap;
     }
 
     public int version() {
@@ -1005,7 +1364,7 @@ public class GraphStorage implements Graph, Storable<GraphStorage> {
     @Override public String toString() {
         return "edges:" + nf(edgeCount) + "(" + edges.capacity() / Helper.MB + "), "
                 + "nodes:" + nf(nodeCount) + "(" + nodes.capacity() / Helper.MB + "), "
-                + "geo:" + nf(maxGeoRef) + "(" + geometry.capacity() / Helper.MB + "), "
+                + "geo:" + nf(maxGeoPointer) + "(" + geometry.capacity() / Helper.MB + "), "
                 + "bounds:" + bounds;
     }
 }
@@ -117,6 +117,15 @@ public class LevelGraphStorage extends GraphStorage implements LevelGraph {
         }
     }
 
+    @Override
+    protected void renumberEdgeRefs(long edgePointer, int[] oldToNewEdges) {
+        int edge1 = edges.getInt(edgePointer + I_SKIP_EDGE1);
+        if (EdgeIterator.Edge.isValid(edge1)) {
+            edges.setInt(edgePointer + I_SKIP_EDGE1, oldToNewEdges[edge1]);
+            edges.setInt(edgePointer + I_SKIP_EDGE2, oldToNewEdges[edges.getInt(edgePointer + I_SKIP_EDGE2)]);
+        }
+    }
+
     /**
      * TODO hide this lower level API somehow. Removes the edge in one
      * direction.
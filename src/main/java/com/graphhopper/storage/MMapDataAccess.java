@@ -28,12 +28,16 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * This is a data structure which uses the operating system to synchronize
- * between disc and memory. Do not use this from multiple threads!
+ * between disc and memory. Do not use this from multiple threads! Only a
+ * read-only instance can be read from several threads.
+ *
+ * The segments of an existing file are mapped lazily on their first access.
+ * Use prefetch to map and load a hot file at startup and releaseSegment to
+ * drop cold segments, they are mapped again when accessed.
  *
  * @author Peter Karich
  */
@@ -41,9 +45,13 @@ import java.util.List;
 public class MMapDataAccess extends AbstractDataAccess {
 
     private RandomAccessFile raFile;
-    private List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+    // null if not (yet) mapped. The array is only replaced by the writing thread,
+    // for read-only instances lazily mapped entries are set under the lock and
+    // the atomic array makes the new buffers visible to the reading threads
+    private AtomicReferenceArray<ByteBuffer> segments = new AtomicReferenceArray<ByteBuffer>(0);
     private ByteOrder order;
     private boolean cleanAndRemap = false;
+    private boolean readOnly = false;
     private transient boolean closed = false;
     private transient int segmentSizePower;
     private transient int indexDivisor;
@@ -62,13 +70,33 @@ public class MMapDataAccess extends AbstractDataAccess {
         return this;
     }
 
+    /**
+     * Opens the file read-only and maps it with MapMode.READ_ONLY. Then the
+     * pages of the file can be shared via the OS page cache with every other
+     * process mapping the same file. Only loadExisting is possible, all
+     * modifying methods throw an exception.
+     */
+    MMapDataAccess readOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+        return this;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    private void checkWritable() {
+        if (readOnly)
+            throw new IllegalStateException("Cannot modify read-only DataAccess " + fullName());
+    }
+
     private void initRandomAccessFile() {
         if (raFile != null)
             return;
 
         try {
             // raFile necessary for loadExisting and create
-            raFile = new RandomAccessFile(fullName(), "rw");
+            raFile = new RandomAccessFile(fullName(), readOnly ? "r" : "rw");
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
@@ -76,8 +104,9 @@ public class MMapDataAccess extends AbstractDataAccess {
 
     @Override
     public MMapDataAccess create(long bytes) {
-        if (!segments.isEmpty())
+        if (segments.length() > 0)
             throw new IllegalThreadStateException("already created");
+        checkWritable();
         initRandomAccessFile();
         bytes = Math.max(10 * 4, bytes);
         segmentSize(segmentSizeInBytes);
@@ -107,10 +136,16 @@ public class MMapDataAccess extends AbstractDataAccess {
 
     @Override
     public void ensureCapacity(long bytes) {
-        mapIt(HEADER_OFFSET, bytes, true);
+        if (bytes > capacity())
+            checkWritable();
+        mapIt(HEADER_OFFSET, bytes, false);
     }
 
-    protected void mapIt(long offset, long byteCount, boolean clearNew) {
+    /**
+     * @param lazy if true the new segments are only mapped on their first
+     * access
+     */
+    protected void mapIt(long offset, long byteCount, boolean lazy) {
         if (byteCount <= capacity())
             return;
 
@@ -125,29 +160,34 @@ public class MMapDataAccess extends AbstractDataAccess {
             throw new IllegalStateException("0 segments are not allowed.");
 
         long bufferStart = offset;
-        int newSegments;
         int i = 0;
         long newFileLength = offset + segmentsToMap * longSegmentSize;
+        if (readOnly && newFileLength > fileLength())
+            throw new IllegalStateException("Cannot map " + byteCount + " bytes of the read-only file "
+                    + fullName() + " which is only " + fileLength() + " bytes long");
         try {
             // ugly remapping
             // http://stackoverflow.com/q/14011919/194609
             if (cleanAndRemap) {
-                newSegments = segmentsToMap;
-                clean(0, segments.size());
-                segments.clear();
-            } else {
-                // This approach is probably problematic but a bit faster if done often.
-                // Here we rely on the OS+file system that increasing the file 
-                // size has no effect on the old mappings!
-                bufferStart += segments.size() * longSegmentSize;
-                newSegments = segmentsToMap - segments.size();            
+                clean(0, segments.length());
+                segments = new AtomicReferenceArray<ByteBuffer>(0);
             }
+            // Otherwise we rely on the OS+file system that increasing the file 
+            // size has no effect on the old mappings!
+            int oldSegments = segments.length();
+            if (segmentsToMap <= oldSegments)
+                return;
+            AtomicReferenceArray<ByteBuffer> newSegs = copyOf(segments, segmentsToMap);
+            bufferStart += oldSegments * longSegmentSize;
             // rely on automatically increasing when mapping
 //            raFile.setLength(newFileLength);
-            for (; i < newSegments; i++) {
-                segments.add(newByteBuffer(bufferStart, longSegmentSize));
-                bufferStart += longSegmentSize;
+            if (!lazy) {
+                for (i = oldSegments; i < segmentsToMap; i++) {
+                    newSegs.set(i, newByteBuffer(bufferStart, longSegmentSize));
+                    bufferStart += longSegmentSize;
+                }
             }
+            segments = newSegs;
         } catch (IOException ex) {
             // we could get an exception here if buffer is too small and area too large
             // e.g. I got an exception for the 65421th buffer (probably around 2**16 == 65536)
@@ -157,6 +197,15 @@ public class MMapDataAccess extends AbstractDataAccess {
         }
     }
 
+    private static AtomicReferenceArray<ByteBuffer> copyOf(AtomicReferenceArray<ByteBuffer> segs, int newLength) {
+        AtomicReferenceArray<ByteBuffer> newSegs = new AtomicReferenceArray<ByteBuffer>(newLength);
+        int len = Math.min(segs.length(), newLength);
+        for (int i = 0; i < len; i++) {
+            newSegs.set(i, segs.get(i));
+        }
+        return newSegs;
+    }
+
     private ByteBuffer newByteBuffer(long offset, long byteCount) throws IOException {
         // If we request a buffer larger than the file length, it will automatically increase the file length!
         // Will this cause problems? http://stackoverflow.com/q/14011919/194609
@@ -166,7 +215,8 @@ public class MMapDataAccess extends AbstractDataAccess {
         // One retry if it fails. It could fail e.g. if previously buffer wasn't yet unmapped from the jvm
         for (int trial = 0; trial < 1;) {
             try {
-                buf = raFile.getChannel().map(FileChannel.MapMode.READ_WRITE, offset, byteCount);
+                FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+                buf = raFile.getChannel().map(mode, offset, byteCount);
                 break;
             } catch (IOException tmpex) {
                 ioex = tmpex;
@@ -199,9 +249,59 @@ public class MMapDataAccess extends AbstractDataAccess {
         return buf;
     }
 
+    /**
+     * Maps the specified segment if not already done. Several reading threads
+     * could call this at the same time for a read-only file.
+     */
+    private synchronized ByteBuffer mapSegment(int segment) {
+        ByteBuffer buffer = segments.get(segment);
+        if (buffer != null)
+            return buffer;
+        try {
+            buffer = newByteBuffer(HEADER_OFFSET + (long) segment * segmentSizeInBytes, segmentSizeInBytes);
+        } catch (IOException ex) {
+            throw new RuntimeException("Couldn't map segment " + segment + " of " + fullName(), ex);
+        }
+        segments.set(segment, buffer);
+        return buffer;
+    }
+
+    private ByteBuffer getSegment(int segment) {
+        ByteBuffer buffer = segments.get(segment);
+        if (buffer == null)
+            return mapSegment(segment);
+        return buffer;
+    }
+
+    /**
+     * Maps all segments and asks the operating system to load them into
+     * physical memory, e.g. to avoid page faults for a hot file after
+     * startup.
+     */
+    public MMapDataAccess prefetch() {
+        for (int i = 0; i < segments.length(); i++) {
+            ByteBuffer buffer = getSegment(i);
+            if (buffer instanceof MappedByteBuffer)
+                ((MappedByteBuffer) buffer).load();
+        }
+        return this;
+    }
+
+    /**
+     * @return the number of currently mapped segments
+     */
+    public int mappedSegments() {
+        int count = 0;
+        for (int i = 0; i < segments.length(); i++) {
+            if (segments.get(i) != null)
+                count++;
+        }
+        return count;
+    }
+
     @Override
     public boolean loadExisting() {
-        if (segments.size() > 0)
+        if (segments.length() > 0)
             throw new IllegalStateException("already initialized");
         if (closed)
             return false;
@@ -213,22 +313,33 @@ public class MMapDataAccess extends AbstractDataAccess {
             long byteCount = readHeader(raFile);
             if (byteCount < 0)
                 return false;
-            mapIt(HEADER_OFFSET, byteCount - HEADER_OFFSET, false);
+            mapIt(HEADER_OFFSET, byteCount - HEADER_OFFSET, true);
             return true;
         } catch (IOException ex) {
             throw new RuntimeException("Problem while loading " + fullName(), ex);
         }
     }
 
+    private long fileLength() {
+        try {
+            return raFile.length();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
     @Override
     public void flush() {
         if (closed)
             throw new IllegalStateException("already closed");
+        // nothing was changed and the header must not be rewritten
+        if (readOnly)
+            return;
         try {
-            if (!segments.isEmpty() && segments.get(0) instanceof MappedByteBuffer) {
-                for (ByteBuffer bb : segments) {
+            for (int i = 0; i < segments.length(); i++) {
+                ByteBuffer bb = segments.get(i);
+                if (bb instanceof MappedByteBuffer)
                     ((MappedByteBuffer) bb).force();
-                }
             }
             writeHeader(raFile, raFile.length(), segmentSizeInBytes);
 
@@ -243,8 +354,8 @@ public class MMapDataAccess extends AbstractDataAccess {
 
     @Override
     public void close() {        
-        clean(0, segments.size());
-        segments.clear();
+        clean(0, segments.length());
+        segments = new AtomicReferenceArray<ByteBuffer>(0);
         Helper.close(raFile);
         closed = true;
     }
@@ -260,7 +371,7 @@ public class MMapDataAccess extends AbstractDataAccess {
         longIndex <<= 2;
         int bufferIndex = (int) (longIndex >>> segmentSizePower);
         int index = (int) (longIndex & indexDivisor);
-        segments.get(bufferIndex).putInt(index, value);
+        getSegment(bufferIndex).putInt(index, value);
     }
 
     @Override
@@ -268,7 +379,7 @@ public class MMapDataAccess extends AbstractDataAccess {
         longIndex <<= 2;
         int bufferIndex = (int) (longIndex >>> segmentSizePower);
         int index = (int) (longIndex & indexDivisor);
-        return segments.get(bufferIndex).getInt(index);
+        return getSegment(bufferIndex).getInt(index);
     }
 
     @Override
@@ -281,16 +392,13 @@ public class MMapDataAccess extends AbstractDataAccess {
 
     @Override
     public long capacity() {
-        long cap = 0;
-        for (ByteBuffer bb : segments) {
-            cap += bb.capacity();
-        }
-        return cap;
+        // every segment is mapped with the full segment size
+        return (long) segments.length() * segmentSizeInBytes;
     }
 
     @Override
     public int segments() {
-        return segments.size();
+        return segments.length();
     }
 
     /**
@@ -302,23 +410,25 @@ public class MMapDataAccess extends AbstractDataAccess {
      */
     private void clean(int from, int to) {
         for (int i = from; i < to; i++) {
-            ByteBuffer bb = segments.get(i);
-            Helper.cleanMappedByteBuffer(bb);
-            segments.set(i, null);
+            ByteBuffer bb = segments.getAndSet(i, null);
+            if (bb != null)
+                Helper.cleanMappedByteBuffer(bb);
         }
-        cleanHack();
     }
 
     @Override
     public void trimTo(long capacity) {
+        checkWritable();
         if (capacity < segmentSizeInBytes)
             capacity = segmentSizeInBytes;
         int remainingSegNo = (int) (capacity / segmentSizeInBytes);
         if (capacity % segmentSizeInBytes != 0)
             remainingSegNo++;
 
-        clean(remainingSegNo, segments.size());
-        segments = new ArrayList<ByteBuffer>(segments.subList(0, remainingSegNo));
+        if (remainingSegNo > segments.length())
+            remainingSegNo = segments.length();
+        clean(remainingSegNo, segments.length());
+        segments = copyOf(segments, remainingSegNo);
                
         try {
             // windows does not allow changing the length of an open files
@@ -330,19 +440,28 @@ public class MMapDataAccess extends AbstractDataAccess {
         }        
     }
 
-    boolean releaseSegment(int segNumber) {
+    /**
+     * Writes the specified segment and drops its reference, e.g. if it is
+     * rarely used. It is mapped again on the next access. The old mapping is
+     * not unmapped explicitly as other threads could still read from it, it
+     * is released by the garbage collector.
+     *
+     * @return false if the segment was not mapped
+     */
+    public synchronized boolean releaseSegment(int segNumber) {
         ByteBuffer segment = segments.get(segNumber);
-        if (segment instanceof MappedByteBuffer)
+        if (segment == null)
+            return false;
+        if (!readOnly && segment instanceof MappedByteBuffer)
             ((MappedByteBuffer) segment).force();
 
-        Helper.cleanMappedByteBuffer(segment);
         segments.set(segNumber, null);
-        cleanHack();
         return true;
     }
 
     @Override
     public void rename(String newName) {
+        checkWritable();
         if (!checkBeforeRename(newName))
             return;
         close();
@@ -26,6 +26,8 @@ package com.graphhopper.storage;
  */
 public class MMapDirectory extends AbstractDirectory {
 
+    private final boolean readOnly;
+
     // reserve the empty constructor for direct mapped memory
     private MMapDirectory() {
         this("");
@@ -33,12 +35,40 @@ public class MMapDirectory extends AbstractDirectory {
     }
 
     public MMapDirectory(String _location) {
+        this(_location, false);
+    }
+
+    /**
+     * @param readOnly if true all created DataAccess objects map their files
+     * read-only so that several processes can share the same graph files via
+     * the OS page cache. Then only loadExisting can be used.
+     */
+    public MMapDirectory(String _location, boolean readOnly) {
         super(_location);
-        mkdirs();
+        this.readOnly = readOnly;
+        if (!readOnly)
+            mkdirs();
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Maps and loads the specified files into physical memory, e.g. the hot
+     * files of a graph directly after startup. Unknown names are ignored.
+     */
+    public MMapDirectory prefetch(String... names) {
+        for (String name : names) {
+            DataAccess da = map.get(name);
+            if (da instanceof MMapDataAccess)
+                ((MMapDataAccess) da).prefetch();
+        }
+        return this;
     }
 
     @Override
     protected DataAccess create(String id, String location) {
-        return new MMapDataAccess(id, location);
+        return new MMapDataAccess(id, location).readOnly(readOnly);
     }
 }
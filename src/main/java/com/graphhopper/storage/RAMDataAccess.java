@@ -18,11 +18,19 @@
  */
 package com.graphhopper.storage;
 
-import com.graphhopper.util.BitUtil;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This is an in-memory data structure but with the possibility to be stored on
@@ -35,6 +43,7 @@ public class RAMDataAccess extends AbstractDataAccess {
     private int[][] segments = new int[0][];
     private boolean closed = false;
     private boolean store;
+    private int threads = 1;
     private transient int segmentSizeIntsPower;
     private transient int indexDivisor;
 
@@ -59,10 +68,22 @@ public class RAMDataAccess extends AbstractDataAccess {
         return this;
     }
 
+    /**
+     * @param threads the number of threads reading or writing the segments
+     * in loadExisting and flush. Only useful for big files, e.g. if the file
+     * system cache already contains them.
+     */
+    public RAMDataAccess threads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive but was " + threads);
+        this.threads = threads;
+        return this;
+    }
+
     @Override
     public boolean isStoring() {
         return store;
-    }       
+    }
 
     @Override
     public DataAccess copyTo(DataAccess da) {
@@ -75,7 +96,7 @@ public class RAMDataAccess extends AbstractDataAccess {
                 rda.segments[i] = Arrays.copyOf(area, area.length);
             }
             rda.segmentSize(segmentSizeInBytes);
-            // leave id, store and close unchanged
+            // leave id, store, threads and close unchanged
             return da;
         } else
             return super.copyTo(da);
@@ -131,22 +152,26 @@ public class RAMDataAccess extends AbstractDataAccess {
                 long byteCount = readHeader(raFile) - HEADER_OFFSET;
                 if (byteCount < 0)
                     return false;
-                byte[] bytes = new byte[segmentSizeInBytes];
-                raFile.seek(HEADER_OFFSET);
-                // raFile.readInt() <- too slow                
                 int segmentCount = (int) (byteCount / segmentSizeInBytes);
                 if (byteCount % segmentSizeInBytes != 0)
                     segmentCount++;
                 segments = new int[segmentCount][];
-                for (int s = 0; s < segmentCount; s++) {
-                    int read = raFile.read(bytes) / 4;
-                    int area[] = new int[read];
-                    for (int j = 0; j < read; j++) {
-                        // TODO different system have different default byte order!
-                        area[j] = BitUtil.toInt(bytes, j * 4);
+                // raFile.readInt() <- too slow, decoding a byte array <- slow too
+                // so read big chunks into a direct buffer and bulk copy them via an IntBuffer view
+                final FileChannel channel = raFile.getChannel();
+                forEachSegment(new SegmentTask() {
+                    @Override void run(ByteBuffer buffer, int segment) throws IOException {
+                        long position = HEADER_OFFSET + (long) segment * segmentSizeInBytes;
+                        while (buffer.hasRemaining()) {
+                            if (channel.read(buffer, position + buffer.position()) < 0)
+                                break;
+                        }
+                        buffer.flip();
+                        int[] area = new int[1 << segmentSizeIntsPower];
+                        buffer.asIntBuffer().get(area, 0, buffer.remaining() / 4);
+                        segments[segment] = area;
                     }
-                    segments[s] = area;
-                }
+                });
                 return true;
             } finally {
                 raFile.close();
@@ -167,18 +192,17 @@ public class RAMDataAccess extends AbstractDataAccess {
             try {
                 long len = capacity();
                 writeHeader(raFile, len, segmentSizeInBytes);
-                raFile.seek(HEADER_OFFSET);
-                // raFile.writeInt() <- too slow, so copy into byte array
-                for (int s = 0; s < segments.length; s++) {
-                    int area[] = segments[s];
-                    int intLen = area.length;
-                    byte[] byteArea = new byte[intLen * 4];
-                    for (int i = 0; i < intLen; i++) {
-                        // TODO different system have different default byte order!
-                        BitUtil.fromInt(byteArea, area[i], i * 4);
+                raFile.setLength(HEADER_OFFSET + len);
+                final FileChannel channel = raFile.getChannel();
+                forEachSegment(new SegmentTask() {
+                    @Override void run(ByteBuffer buffer, int segment) throws IOException {
+                        buffer.asIntBuffer().put(segments[segment]);
+                        long position = HEADER_OFFSET + (long) segment * segmentSizeInBytes;
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer, position + buffer.position());
+                        }
                     }
-                    raFile.write(byteArea);
-                }
+                });
             } finally {
                 raFile.close();
             }
@@ -187,6 +211,60 @@ public class RAMDataAccess extends AbstractDataAccess {
         }
     }
 
+    /**
+     * Calls the task for every segment with a cleared direct buffer of the
+     * segment size. With more than one thread the segments are split among
+     * them and every thread uses its own buffer.
+     */
+    private void forEachSegment(final SegmentTask task) throws IOException {
+        final int segmentCount = segments.length;
+        int usedThreads = Math.min(threads, segmentCount);
+        if (usedThreads <= 1) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(segmentSizeInBytes);
+            for (int s = 0; s < segmentCount; s++) {
+                buffer.clear();
+                task.run(buffer, s);
+            }
+            return;
+        }
+
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(usedThreads);
+        for (int t = 0; t < usedThreads; t++) {
+            final int offset = t;
+            final int step = usedThreads;
+            tasks.add(new Callable<Object>() {
+                @Override public Object call() throws IOException {
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(segmentSizeInBytes);
+                    for (int s = offset; s < segmentCount; s += step) {
+                        buffer.clear();
+                        task.run(buffer, s);
+                    }
+                    return null;
+                }
+            });
+        }
+        ExecutorService service = Executors.newFixedThreadPool(usedThreads);
+        try {
+            for (Future<Object> future : service.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while accessing " + fullName(), ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException)
+                throw (IOException) ex.getCause();
+            throw new RuntimeException("Problem while accessing " + fullName(), ex.getCause());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    private static abstract class SegmentTask {
+
+        abstract void run(ByteBuffer buffer, int segment) throws IOException;
+    }
+
     @Override
     public void setInt(long longIndex, int value) {
         // assert segmentSizeIntsPower > 0 : "call create or loadExisting before usage!";
@@ -27,6 +27,7 @@ package com.graphhopper.storage;
 public class RAMDirectory extends AbstractDirectory {
 
     private boolean store;
+    private int threads = 1;
 
     public RAMDirectory() {
         this("", false);
@@ -56,8 +57,18 @@ public class RAMDirectory extends AbstractDirectory {
         return store;
     }
 
+    /**
+     * @param threads the number of threads every created RAMDataAccess uses to
+     * load or flush its segments
+     * @see RAMDataAccess#threads(int)
+     */
+    public RAMDirectory threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
     @Override
     protected DataAccess create(String id, String location) {
-        return new RAMDataAccess(id, location, store);
+        return new RAMDataAccess(id, location, store).threads(threads);
     }
 }
@@ -138,6 +138,34 @@ public class VLongStorage {
         throw new RuntimeException("Invalid vLong detected (negative values disallowed)");
     }
 
+    /**
+     * Copies the bytes up to the current position into the integers of the
+     * specified DataAccess, 4 bytes per integer starting with the lowest. Only
+     * a partially used first integer is read, all other integers are written
+     * as a whole and the unused bytes of the last integer are cleared. The
+     * DataAccess has to be big enough.
+     *
+     * @return the byte pointer after the copied bytes
+     */
+    long writeTo(DataAccess da, long bytePointer) {
+        long index = bytePointer >>> 2;
+        int shift = (int) (bytePointer & 3) << 3;
+        // keep the bytes in front of the pointer
+        int word = shift == 0 ? 0 : da.getInt(index) & ((1 << shift) - 1);
+        for (int i = 0; i < pointer; i++) {
+            word |= (bytes[i] & 0xFF) << shift;
+            shift += 8;
+            if (shift == 32) {
+                da.setInt(index++, word);
+                word = 0;
+                shift = 0;
+            }
+        }
+        if (shift != 0)
+            da.setInt(index, word);
+        return bytePointer + pointer;
+    }
+
     public void trimToSize() {
         if (bytes.length > pointer) {
             byte[] tmp = new byte[pointer];
@@ -0,0 +1,185 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.storage.index;
+
+import com.graphhopper.routing.util.AllEdgesIterator;
+import com.graphhopper.storage.DataAccess;
+import com.graphhopper.storage.Directory;
+import com.graphhopper.storage.GraphStorage;
+import com.graphhopper.storage.Storable;
+import com.graphhopper.util.BitUtil;
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Maps OSM way ids to the ids of the edges created from the way. The entries
+ * are (wayId, edge) pairs sorted by the way id and stored in the file
+ * 'wayIdIndex', so a lookup is a binary search. The graph has to store the way
+ * ids, see GraphStorage.storeWayIds. Prepare the index after the graph was
+ * sorted or optimized as the edge ids change there.
+ *
+ * @author Peter Karich
+ */
+public class WayIdIndex implements Storable<WayIdIndex> {
+
+    // entry layout: wayIdHigh, wayIdLow, edge
+    private static final int ENTRY_SIZE = 3;
+    private final GraphStorage graph;
+    private final DataAccess index;
+    private int size;
+
+    public WayIdIndex(GraphStorage graph, Directory dir) {
+        this.graph = graph;
+        this.index = dir.findCreate("wayIdIndex");
+    }
+
+    /**
+     * Creates the index from the way ids of all edges of the graph.
+     */
+    public WayIdIndex prepareIndex() {
+        if (!graph.isStoringWayIds())
+            throw new IllegalStateException("The graph does not store way ids, see GraphStorage.storeWayIds");
+        int maxEdges = graph.getAllEdges().maxId();
+        long[] ways = new long[maxEdges];
+        int[] edges = new int[maxEdges];
+        int count = 0;
+        AllEdgesIterator iter = graph.getAllEdges();
+        while (iter.next()) {
+            long wayId = graph.wayId(iter.edge());
+            if (wayId == 0)
+                continue;
+            ways[count] = wayId;
+            edges[count] = iter.edge();
+            count++;
+        }
+        sort(ways, edges, count);
+
+        create(count);
+        for (int i = 0; i < count; i++) {
+            long pointer = (long) i * ENTRY_SIZE;
+            index.setInt(pointer, (int) (ways[i] >>> 32));
+            index.setInt(pointer + 1, (int) ways[i]);
+            index.setInt(pointer + 2, edges[i]);
+        }
+        size = count;
+        flush();
+        return this;
+    }
+
+    /**
+     * @return the edges of the specified way, empty if the way is unknown
+     */
+    public TIntArrayList findEdges(long wayId) {
+        TIntArrayList res = new TIntArrayList(4);
+        // lower bound
+        int low = 0, high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (wayId(mid) < wayId)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        for (int i = low; i < size && wayId(i) == wayId; i++) {
+            res.add(index.getInt((long) i * ENTRY_SIZE + 2));
+        }
+        return res;
+    }
+
+    /**
+     * @return the number of (wayId, edge) pairs
+     */
+    public int size() {
+        return size;
+    }
+
+    private long wayId(int entry) {
+        long pointer = (long) entry * ENTRY_SIZE;
+        return BitUtil.toLong(index.getInt(pointer), index.getInt(pointer + 1));
+    }
+
+    /**
+     * Heap sort of the pairs by way id and then by edge, without boxing.
+     */
+    static void sort(long[] ways, int[] edges, int count) {
+        for (int i = count / 2 - 1; i >= 0; i--) {
+            siftDown(ways, edges, i, count);
+        }
+        for (int end = count - 1; end > 0; end--) {
+            swap(ways, edges, 0, end);
+            siftDown(ways, edges, 0, end);
+        }
+    }
+
+    private static void siftDown(long[] ways, int[] edges, int node, int count) {
+        while (true) {
+            int child = 2 * node + 1;
+            if (child >= count)
+                return;
+            if (child + 1 < count && greater(ways, edges, child + 1, child))
+                child++;
+            if (!greater(ways, edges, child, node))
+                return;
+            swap(ways, edges, node, child);
+            node = child;
+        }
+    }
+
+    private static boolean greater(long[] ways, int[] edges, int a, int b) {
+        return ways[a] > ways[b] || ways[a] == ways[b] && edges[a] > edges[b];
+    }
+
+    private static void swap(long[] ways, int[] edges, int a, int b) {
+        long tmpWay = ways[a];
+        ways[a] = ways[b];
+        ways[b] = tmpWay;
+        int tmpEdge = edges[a];
+        edges[a] = edges[b];
+        edges[b] = tmpEdge;
+    }
+
+    @Override
+    public boolean loadExisting() {
+        if (!index.loadExisting())
+            return false;
+        size = index.getHeader(0);
+        return true;
+    }
+
+    @Override
+    public WayIdIndex create(long entries) {
+        index.create(Math.max(entries, 1) * ENTRY_SIZE * 4);
+        return this;
+    }
+
+    @Override
+    public void flush() {
+        index.setHeader(0, size);
+        index.flush();
+    }
+
+    @Override
+    public void close() {
+        index.close();
+    }
+
+    @Override
+    public long capacity() {
+        return index.capacity();
+    }
+}
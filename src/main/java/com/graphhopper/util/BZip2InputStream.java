@@ -0,0 +1,400 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.util;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decompresses bzip2 streams like the ones offered by Geofabrik or the
+ * planet dump without depending on an external library. Concatenated streams
+ * as created from pbzip2 are read one after the other. Block and stream
+ * checksums are verified, randomized blocks (deprecated since bzip2 0.9.5)
+ * are not supported.
+ *
+ * @author Peter Karich
+ */
+public class BZip2InputStream extends InputStream {
+
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_MAGIC = 0x177245385090L;
+    private static final int MAX_CODE_LEN = 20;
+    private static final int GROUP_SIZE = 50;
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int c = i << 24;
+            for (int k = 0; k < 8; k++) {
+                c = (c & 0x80000000) != 0 ? (c << 1) ^ 0x04c11db7 : c << 1;
+            }
+            CRC_TABLE[i] = c;
+        }
+    }
+    private InputStream in;
+    private long bitBuffer;
+    private int bitCount;
+    private int blockSize;
+    private byte[] block;
+    private int[] tt;
+    private boolean streamEnd;
+    private int combinedCRC;
+    // state of the current block
+    private boolean inBlock;
+    private int expectedBlockCRC;
+    private int blockCRC;
+    private int tPos;
+    private int remaining;
+    private int rleLast;
+    private int rleCount;
+    private int repeat;
+    private final byte[] single = new byte[1];
+
+    public BZip2InputStream(InputStream in) throws IOException {
+        if (in == null)
+            throw new IllegalStateException("Stream cannot be empty");
+        // the bits are consumed byte-wise so avoid a native call per byte
+        this.in = new BufferedInputStream(in, 1 << 16);
+        if (!readStreamHeader(true))
+            throw new IOException("Not a bzip2 stream: empty");
+    }
+
+    @Override
+    public int read() throws IOException {
+        int res = read(single, 0, 1);
+        return res < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (in == null)
+            throw new IOException("Stream closed");
+        if (len == 0)
+            return 0;
+
+        int count = 0;
+        while (count < len) {
+            if (repeat > 0) {
+                repeat--;
+                b[off + count++] = (byte) rleLast;
+                blockCRC = (blockCRC << 8) ^ CRC_TABLE[((blockCRC >>> 24) ^ rleLast) & 0xFF];
+                continue;
+            }
+            if (remaining == 0) {
+                if (count > 0)
+                    break;
+                if (!nextBlock())
+                    return -1;
+                continue;
+            }
+
+            int ch = block[tPos] & 0xFF;
+            tPos = tt[tPos];
+            remaining--;
+            // undo the initial run length encoding: 4 equal bytes are followed by the count of further repeats
+            if (rleCount == 4) {
+                repeat = ch;
+                rleCount = 0;
+                continue;
+            }
+            if (ch == rleLast)
+                rleCount++;
+            else {
+                rleLast = ch;
+                rleCount = 1;
+            }
+            b[off + count++] = (byte) ch;
+            blockCRC = (blockCRC << 8) ^ CRC_TABLE[((blockCRC >>> 24) ^ ch) & 0xFF];
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in == null)
+            return;
+        in.close();
+        in = null;
+        block = null;
+        tt = null;
+    }
+
+    /**
+     * @param first if false an end of file is not an error but the end of all
+     * concatenated streams
+     */
+    private boolean readStreamHeader(boolean first) throws IOException {
+        bitBuffer = 0;
+        bitCount = 0;
+        int b = in.read();
+        if (b < 0 && !first)
+            return false;
+        if (b != 'B' || in.read() != 'Z' || in.read() != 'h')
+            throw new IOException("Not a bzip2 stream: missing 'BZh' signature");
+        int level = in.read() - '0';
+        if (level < 1 || level > 9)
+            throw new IOException("Not a bzip2 stream: illegal block size " + level);
+        if (blockSize != level * 100000) {
+            blockSize = level * 100000;
+            block = new byte[blockSize];
+            tt = new int[blockSize];
+        }
+        combinedCRC = 0;
+        streamEnd = false;
+        return true;
+    }
+
+    private boolean nextBlock() throws IOException {
+        if (inBlock) {
+            inBlock = false;
+            if (~blockCRC != expectedBlockCRC)
+                throw new IOException("bzip2 block checksum mismatch");
+            combinedCRC = ((combinedCRC << 1) | (combinedCRC >>> 31)) ^ expectedBlockCRC;
+        }
+        while (true) {
+            if (streamEnd) {
+                if (!readStreamHeader(false))
+                    return false;
+            }
+            long magic = ((long) bits(24) << 24) | bits(24);
+            if (magic == END_MAGIC) {
+                if (bits32() != combinedCRC)
+                    throw new IOException("bzip2 stream checksum mismatch");
+                streamEnd = true;
+                continue;
+            }
+            if (magic != BLOCK_MAGIC)
+                throw new IOException("bzip2 stream corrupted: bad block header");
+
+            expectedBlockCRC = bits32();
+            decodeBlock();
+            inBlock = true;
+            blockCRC = 0xFFFFFFFF;
+            rleLast = -1;
+            rleCount = 0;
+            repeat = 0;
+            if (remaining > 0)
+                return true;
+        }
+    }
+
+    /**
+     * Reads the Huffman coded and move-to-front transformed symbols of one
+     * block and prepares the inverse Burrows-Wheeler transform.
+     */
+    private void decodeBlock() throws IOException {
+        if (bits(1) != 0)
+            throw new IOException("randomized bzip2 blocks are not supported");
+        int origPtr = bits(24);
+
+        // the used bytes
+        byte[] seqToUnseq = new byte[256];
+        int inUse = 0;
+        int used16 = bits(16);
+        for (int i = 0; i < 16; i++) {
+            if ((used16 & (0x8000 >>> i)) == 0)
+                continue;
+            int used = bits(16);
+            for (int j = 0; j < 16; j++) {
+                if ((used & (0x8000 >>> j)) != 0)
+                    seqToUnseq[inUse++] = (byte) (i * 16 + j);
+            }
+        }
+        if (inUse == 0)
+            throw new IOException("bzip2 stream corrupted: no symbols in use");
+        int alphaSize = inUse + 2;
+
+        // the selectors are move-to-front encoded in unary
+        int groups = bits(3);
+        if (groups < 2 || groups > 6)
+            throw new IOException("bzip2 stream corrupted: illegal number of tables " + groups);
+        int selectorCount = bits(15);
+        if (selectorCount < 1)
+            throw new IOException("bzip2 stream corrupted: no selectors");
+        byte[] mtfGroups = new byte[groups];
+        for (int i = 0; i < groups; i++) {
+            mtfGroups[i] = (byte) i;
+        }
+        byte[] selectors = new byte[selectorCount];
+        for (int i = 0; i < selectorCount; i++) {
+            int j = 0;
+            while (bits(1) == 1) {
+                j++;
+                if (j >= groups)
+                    throw new IOException("bzip2 stream corrupted: illegal selector");
+            }
+            byte tmp = mtfGroups[j];
+            System.arraycopy(mtfGroups, 0, mtfGroups, 1, j);
+            mtfGroups[0] = tmp;
+            selectors[i] = tmp;
+        }
+
+        // the delta encoded code lengths
+        HuffmanTable[] tables = new HuffmanTable[groups];
+        int[] lengths = new int[alphaSize];
+        for (int t = 0; t < groups; t++) {
+            int curr = bits(5);
+            for (int i = 0; i < alphaSize; i++) {
+                while (true) {
+                    if (curr < 1 || curr > MAX_CODE_LEN)
+                        throw new IOException("bzip2 stream corrupted: illegal code length " + curr);
+                    if (bits(1) == 0)
+                        break;
+                    curr += bits(1) == 0 ? 1 : -1;
+                }
+                lengths[i] = curr;
+            }
+            tables[t] = new HuffmanTable(lengths, alphaSize);
+        }
+
+        // the symbols: run lengths of the first MTF symbol (RUNA, RUNB) and MTF indices
+        int[] counts = new int[256];
+        byte[] mtf = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            mtf[i] = (byte) i;
+        }
+        int eob = inUse + 1;
+        int groupIndex = -1;
+        int groupPos = 0;
+        HuffmanTable table = null;
+        int runLength = 0;
+        int runWeight = 1;
+        int n = 0;
+        while (true) {
+            if (groupPos == 0) {
+                groupIndex++;
+                if (groupIndex >= selectorCount)
+                    throw new IOException("bzip2 stream corrupted: selectors exhausted");
+                groupPos = GROUP_SIZE;
+                table = tables[selectors[groupIndex]];
+            }
+            groupPos--;
+            int sym = table.decode(this);
+            if (sym <= 1) {
+                runLength += (sym + 1) * runWeight;
+                runWeight <<= 1;
+                if (runLength > blockSize)
+                    throw new IOException("bzip2 stream corrupted: run exceeds block size");
+                continue;
+            }
+            if (runLength > 0) {
+                if (n + runLength > blockSize)
+                    throw new IOException("bzip2 stream corrupted: block overflow");
+                byte b = seqToUnseq[mtf[0] & 0xFF];
+                counts[b & 0xFF] += runLength;
+                for (; runLength > 0; runLength--) {
+                    block[n++] = b;
+                }
+                runWeight = 1;
+            }
+            if (sym == eob)
+                break;
+
+            int idx = sym - 1;
+            byte tmp = mtf[idx];
+            System.arraycopy(mtf, 0, mtf, 1, idx);
+            mtf[0] = tmp;
+            if (n >= blockSize)
+                throw new IOException("bzip2 stream corrupted: block overflow");
+            byte b = seqToUnseq[tmp & 0xFF];
+            counts[b & 0xFF]++;
+            block[n++] = b;
+        }
+        if (origPtr >= n)
+            throw new IOException("bzip2 stream corrupted: illegal origin pointer " + origPtr);
+
+        // inverse Burrows-Wheeler transform: tt links every position to its successor
+        int[] start = new int[256];
+        for (int i = 1; i < 256; i++) {
+            start[i] = start[i - 1] + counts[i - 1];
+        }
+        for (int i = 0; i < n; i++) {
+            tt[start[block[i] & 0xFF]++] = i;
+        }
+        tPos = tt[origPtr];
+        remaining = n;
+    }
+
+    int bits(int n) throws IOException {
+        while (bitCount < n) {
+            int b = in.read();
+            if (b < 0)
+                throw new EOFException("Unexpected end of bzip2 stream");
+            bitBuffer = (bitBuffer << 8) | b;
+            bitCount += 8;
+        }
+        bitCount -= n;
+        return (int) (bitBuffer >>> bitCount) & ((1 << n) - 1);
+    }
+
+    private int bits32() throws IOException {
+        return (bits(16) << 16) | bits(16);
+    }
+
+    /**
+     * Canonical Huffman code, codes of the same length are consecutive and
+     * assigned in symbol order.
+     */
+    private static class HuffmanTable {
+
+        private final int minLen;
+        private final int[] firstCode = new int[MAX_CODE_LEN + 1];
+        private final int[] firstIndex = new int[MAX_CODE_LEN + 1];
+        private final int[] lenCount = new int[MAX_CODE_LEN + 1];
+        private final int[] symbols;
+
+        HuffmanTable(int[] lengths, int alphaSize) {
+            int min = MAX_CODE_LEN;
+            for (int i = 0; i < alphaSize; i++) {
+                lenCount[lengths[i]]++;
+                min = Math.min(min, lengths[i]);
+            }
+            minLen = min;
+            int code = 0;
+            int index = 0;
+            for (int len = 1; len <= MAX_CODE_LEN; len++) {
+                firstCode[len] = code;
+                firstIndex[len] = index;
+                code = (code + lenCount[len]) << 1;
+                index += lenCount[len];
+            }
+            symbols = new int[alphaSize];
+            int[] next = firstIndex.clone();
+            for (int i = 0; i < alphaSize; i++) {
+                symbols[next[lengths[i]]++] = i;
+            }
+        }
+
+        int decode(BZip2InputStream is) throws IOException {
+            int len = minLen;
+            int code = is.bits(len);
+            while (true) {
+                int offset = code - firstCode[len];
+                if (offset < lenCount[len])
+                    return symbols[firstIndex[len] + offset];
+                len++;
+                if (len > MAX_CODE_LEN)
+                    throw new IOException("bzip2 stream corrupted: illegal huffman code");
+                code = (code << 1) | is.bits(1);
+            }
+        }
+    }
+}
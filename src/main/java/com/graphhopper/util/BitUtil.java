@@ -230,4 +230,16 @@ public class BitUtil {
         long rest = v & (~((1 << maxBits) - 1));
         return rest | reverse(v, maxBits);
     }
+
+    /**
+     * Maps signed to unsigned values so that small negative values become
+     * small positive ones, e.g. for the variable length encoding of deltas.
+     */
+    public static long toZigZag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    public static long fromZigZag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
 }
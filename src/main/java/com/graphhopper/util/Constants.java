@@ -56,7 +56,7 @@ public class Constants {
      * The file version is independent of the real world version. E.g. to make
      * major version jumps without the need to change the file version.
      */
-    public static final int VERSION_FILE = 6;
+    public static final int VERSION_FILE = 7;
     /**
      * The version without the snapshot string
      */
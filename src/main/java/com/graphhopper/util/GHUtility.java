@@ -20,6 +20,7 @@ package com.graphhopper.util;
 
 import com.graphhopper.coll.GHBitSet;
 import com.graphhopper.coll.GHBitSetImpl;
+import com.graphhopper.geohash.SpatialKeyAlgo;
 import com.graphhopper.routing.util.EdgeFilter;
 import com.graphhopper.storage.Directory;
 import com.graphhopper.storage.Graph;
@@ -31,6 +32,7 @@ import com.graphhopper.storage.RAMDirectory;
 import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TIntArrayList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
@@ -142,7 +144,8 @@ public class GHUtility {
     /**
      * Sorts the graph according to depth-first search traversal. Other
      * traversals have either no significant difference (bfs) for querying or
-     * are worse (z-curve).
+     * are worse (z-curve). This requires a second graph, see sortSpatial for
+     * sorting in-place.
      */
     public static Graph sortDFS(Graph g, Graph sortedGraph) {
         final TIntList list = new TIntArrayList(g.nodes(), -1);
@@ -167,6 +170,38 @@ public class GHUtility {
         return createSortedGraph(g, sortedGraph, list);
     }
 
+    /**
+     * Renumbers the nodes and edges of the specified storage in-place along
+     * the space filling curve of the SpatialKeyAlgo. Nodes close to each other
+     * get similar ids and end up in the same DataAccess segment.
+     */
+    public static GraphStorage sortSpatial(GraphStorage g) {
+        g.renumberNodes(createSpatialOrder(g));
+        return g;
+    }
+
+    /**
+     * @return the new node ids where nodes are ordered by their spatial key
+     * and then by their old id
+     */
+    public static int[] createSpatialOrder(Graph g) {
+        int nodes = g.nodes();
+        int[] oldToNew = new int[nodes];
+        if (nodes == 0)
+            return oldToNew;
+        // 32 bits for the key and 31 bits for the node to sort primitives only
+        SpatialKeyAlgo algo = new SpatialKeyAlgo(32).bounds(g.bounds());
+        long[] keys = new long[nodes];
+        for (int node = 0; node < nodes; node++) {
+            keys[node] = algo.encode(g.getLatitude(node), g.getLongitude(node)) << 31 | node;
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < nodes; i++) {
+            oldToNew[(int) (keys[i] & 0x7FFFFFFF)] = i;
+        }
+        return oldToNew;
+    }
+
     static Graph createSortedGraph(Graph g, Graph sortedGraph, final TIntList oldToNewNodeList) {
         int len = oldToNewNodeList.size();
         // important to avoid creating two edges for edges with both directions
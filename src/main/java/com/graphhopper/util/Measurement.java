@@ -19,18 +19,28 @@
 package com.graphhopper.util;
 
 import com.graphhopper.routing.Path;
+import com.graphhopper.routing.RoutingAlgorithm;
 import com.graphhopper.routing.ch.PrepareContractionHierarchies;
 import com.graphhopper.routing.util.AlgorithmPreparation;
+import com.graphhopper.routing.util.CarFlagEncoder;
+import com.graphhopper.routing.util.NoOpAlgorithmPreparation;
+import com.graphhopper.routing.util.VehicleEncoder;
+import com.graphhopper.storage.DataAccess;
 import com.graphhopper.storage.Directory;
+import com.graphhopper.storage.FrozenLevelGraph;
 import com.graphhopper.storage.Graph;
 import com.graphhopper.storage.GraphStorage;
 import com.graphhopper.storage.LevelGraph;
 import com.graphhopper.storage.LevelGraphStorage;
+import com.graphhopper.storage.MMapDataAccess;
+import com.graphhopper.storage.MMapDirectory;
 import com.graphhopper.storage.RAMDirectory;
+import com.graphhopper.storage.DirectDirectory;
 import com.graphhopper.storage.index.Location2NodesNtreeLG;
 import com.graphhopper.util.shapes.BBox;
 import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TIntArrayList;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.DecimalFormat;
@@ -71,21 +81,44 @@ public class Measurement {
         int count = args.getInt("measurement.count", 1000);
         int lookupCount = 0;
 
-        Directory dir = new RAMDirectory(graphLocation, true);
+        int loadThreads = args.getInt("measurement.loadThreads", 1);
+        Directory dir = new RAMDirectory(graphLocation, true).threads(loadThreads);
         LevelGraphStorage g = new LevelGraphStorage(dir);
+        StopWatch loadSW = new StopWatch().start();
         if (!g.loadExisting())
             throw new IllegalStateException("Cannot load existing levelgraph at " + graphLocation);
+        put("graph.loadTime", loadSW.stop().getTime());
+        put("graph.loadThreads", loadThreads);
         // TODO make sure the graph is unprepared!
 
         StopWatch sw = new StopWatch().start();
         try {
             printGraphDetails(g);
-            PrepareContractionHierarchies prepare = new PrepareContractionHierarchies().graph(g);
+            printDataAccessDetails(graphLocation, args.getInt("measurement.dataAccessCount", 20));
+            // compare before the preparation adds shortcuts to the graph
+            printAlgoComparison(g, args.getInt("measurement.compareCount", 100), seed);
+            PrepareContractionHierarchies prepare = new PrepareContractionHierarchies().graph(g).
+                    witnessHops(args.getInt("osmreader.chWitnessHops", Integer.MAX_VALUE)).
+                    witnessSettledNodes(args.getInt("osmreader.chWitnessSettledNodes", Integer.MAX_VALUE));
             if (doPrepare)
                 printPreparationDetails(g, prepare);
             TIntList list = printLocation2IDQuery(g, dir, count, rand);
             lookupCount = list.size();
-            printTimeOfRouteQuery(prepare, list);
+            printTimeOfRouteQuery(prepare, list, "routing");
+            // the former query without stall-on-demand
+            final PrepareContractionHierarchies refPrepare = prepare;
+            printTimeOfRouteQuery(new NoOpAlgorithmPreparation() {
+                @Override public RoutingAlgorithm createAlgo() {
+                    return refPrepare.createDijkstraRef();
+                }
+            }, list, "routing.dijkstraCH");
+            // the same queries on the compressed sparse row layout
+            FrozenLevelGraph frozen = printFreezeDetails(g, false);
+            printTimeOfRouteQuery(new PrepareContractionHierarchies().graph(frozen), list, "routing.frozen");
+            frozen.close();
+            // and with the variable length encoded adjacency lists
+            frozen = printFreezeDetails(g, true);
+            printTimeOfRouteQuery(new PrepareContractionHierarchies().graph(frozen), list, "routing.frozenCompact");
             logger.info("store into " + propLocation);
         } catch (Exception ex) {
             logger.error("Problem while measuring " + graphLocation, ex);
@@ -112,6 +145,104 @@ public class Measurement {
         put("graph.nodes", g.nodes());
         put("graph.edges", g.getAllEdges().maxId());
         put("graph.sizeInMB", g.capacity() / Helper.MB);
+        put("graph.bytesPerEdge", g.capacity() / Math.max(1, g.getAllEdges().maxId()));
+    }
+
+    /**
+     * Compares the load time and the raw getInt/setInt throughput of the
+     * DataAccess implementations for the edges of the graph.
+     */
+    private void printDataAccessDetails(String graphLocation, int count) {
+        if (count <= 0)
+            return;
+        String tmpLocation = graphLocation + "-measurement";
+        try {
+            String[] types = {"ram", "mmap", "direct"};
+            for (String type : types) {
+                Directory loadDir, createDir;
+                if ("ram".equals(type)) {
+                    loadDir = new RAMDirectory(graphLocation, true);
+                    createDir = new RAMDirectory();
+                } else if ("mmap".equals(type)) {
+                    loadDir = new MMapDirectory(graphLocation, true);
+                    createDir = new MMapDirectory(tmpLocation);
+                } else {
+                    loadDir = new DirectDirectory(graphLocation, true);
+                    createDir = new DirectDirectory();
+                }
+                String prefix = "dataaccess." + type;
+                StopWatch sw = new StopWatch().start();
+                DataAccess da = loadDir.findCreate("edges");
+                if (!da.loadExisting())
+                    throw new IllegalStateException("Cannot load edges at " + graphLocation);
+                put(prefix + ".loadTime", sw.stop().getTime());
+                if (da instanceof MMapDataAccess) {
+                    // the segments are mapped lazily, so measure the page-in separately
+                    sw = new StopWatch().start();
+                    ((MMapDataAccess) da).prefetch();
+                    put(prefix + ".prefetchTime", sw.stop().getTime());
+                }
+                printIntAccess(prefix + ".getInt", da, false, false, count);
+                printIntAccess(prefix + ".getIntRandom", da, false, true, count);
+                da.close();
+
+                DataAccess created = createDir.findCreate("measurement");
+                created.create(da.capacity());
+                printIntAccess(prefix + ".setInt", created, true, false, count);
+                created.close();
+            }
+        } finally {
+            Helper.removeDir(new File(tmpLocation));
+        }
+    }
+
+    private void printIntAccess(String prefix, final DataAccess da, final boolean write,
+            final boolean random, int count) {
+        final int ints = (int) (da.capacity() / 4);
+        MiniPerfTest miniPerf = new MiniPerfTest() {
+            @Override public int doCalc(boolean warmup, int run) {
+                // every call touches every integer once
+                int sum = 0;
+                int index = run;
+                for (int i = 0; i < ints; i++) {
+                    if (random)
+                        index = (int) ((index * 1103515245L + 12345) & Integer.MAX_VALUE) % ints;
+                    else
+                        index = i;
+
+                    if (write)
+                        da.setInt(index, i);
+                    else
+                        sum += da.getInt(index);
+                }
+                return sum;
+            }
+        }.count(count).start();
+        print(prefix, miniPerf);
+    }
+
+    /**
+     * Measures the primitive algorithms against their EdgeEntry based
+     * reference implementations for the same random queries.
+     */
+    private void printAlgoComparison(final Graph g, int count, long seed) {
+        if (count <= 0)
+            return;
+        final VehicleEncoder encoder = new CarFlagEncoder();
+        String[] algos = {"dijkstra", "dijkstraRef", "dijkstrabi", "dijkstrabiRef",
+            "astar", "astarRef", "astarbi", "astarbiRef"};
+        for (String algoStr : algos) {
+            final Random rand = new Random(seed);
+            final AlgorithmPreparation prepare = NoOpAlgorithmPreparation.createAlgoPrepare(g, algoStr, encoder);
+            MiniPerfTest miniPerf = new MiniPerfTest() {
+                @Override public int doCalc(boolean warmup, int run) {
+                    int from = rand.nextInt(g.nodes());
+                    int to = rand.nextInt(g.nodes());
+                    return prepare.createAlgo().calcPath(from, to).calcNodes().size();
+                }
+            }.count(count).start();
+            print("compare." + algoStr, miniPerf);
+        }
     }
 
     private void printPreparationDetails(Graph g, PrepareContractionHierarchies prepare) {
@@ -120,6 +251,8 @@ public class Measurement {
         prepare.doWork();
         put("prepare.time", sw.stop().getTime());
         put("prepare.shortcuts", prepare.shortcuts());
+        put("prepare.witnessSearches", prepare.witnessSearches());
+        put("prepare.witnessSettledNodes", prepare.settledWitnessNodes());
     }
 
     private TIntList printLocation2IDQuery(LevelGraph g, Directory dir, int count, final Random rand) {
@@ -148,19 +281,34 @@ public class Measurement {
         return list;
     }
 
-    private void printTimeOfRouteQuery(final AlgorithmPreparation prepare, final TIntList list) {
+    private FrozenLevelGraph printFreezeDetails(LevelGraph g, boolean compact) {
+        String prefix = compact ? "freeze.compact" : "freeze";
+        StopWatch sw = new StopWatch().start();
+        FrozenLevelGraph frozen = new FrozenLevelGraph(new RAMDirectory());
+        frozen.compact(compact).freeze(g);
+        put(prefix + ".time", sw.stop().getTime());
+        put(prefix + ".sizeInMB", frozen.capacity() / Helper.MB);
+        // compare with graph.bytesPerEdge
+        put(prefix + ".bytesPerEdge", frozen.capacity() / Math.max(1, frozen.getAllEdges().maxId()));
+        return frozen;
+    }
+
+    private void printTimeOfRouteQuery(final AlgorithmPreparation prepare, final TIntList list, String prefix) {
         // time(route query)
         final AtomicLong maxDistance = new AtomicLong(0);
         final AtomicLong minDistance = new AtomicLong(Long.MAX_VALUE);
         final AtomicLong sum = new AtomicLong(0);
+        final AtomicLong visitedSum = new AtomicLong(0);
         int count = list.size() / 2;
         MiniPerfTest miniPerf = new MiniPerfTest() {
             @Override public int doCalc(boolean warmup, int run) {
                 run *= 2;
                 int from = list.get(run);
                 int to = list.get(run + 1);
-                Path p = prepare.createAlgo().calcPath(from, to);
+                RoutingAlgorithm algo = prepare.createAlgo();
+                Path p = algo.calcPath(from, to);
                 if (!warmup) {
+                    visitedSum.addAndGet(algo.calcVisitedNodes());
                     long dist = (long) p.distance();
                     sum.addAndGet(dist);
                     if (dist > maxDistance.get())
@@ -173,10 +321,11 @@ public class Measurement {
             }
         }.count(count).start();
 
-        put("routing.distanceMin", minDistance.get());
-        put("routing.distanceMean", (float) sum.get() / count);
-        put("routing.distanceMax", maxDistance.get());
-        print("routing", miniPerf);
+        put(prefix + ".distanceMin", minDistance.get());
+        put(prefix + ".distanceMean", (float) sum.get() / count);
+        put(prefix + ".distanceMax", maxDistance.get());
+        put(prefix + ".visitedNodesMean", (float) visitedSum.get() / count);
+        print(prefix, miniPerf);
     }
 
     void print(String prefix, MiniPerfTest perf) {
@@ -0,0 +1,248 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads (and therefor decompresses) the wrapped stream in a dedicated thread
+ * into a ring of buffers so that e.g. the XML parser and the decompression
+ * overlap. The buffers are recycled and no further memory is allocated while
+ * reading. The time the decompressing thread was busy and how long each side
+ * had to wait for the other is logged when closing the stream.
+ *
+ * This stream must be read from a single thread only.
+ *
+ * @author Peter Karich
+ */
+public class ReadAheadInputStream extends InputStream {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReadAheadInputStream.class);
+    private static final Chunk END = new Chunk(0);
+    private final InputStream in;
+    private final BlockingQueue<Chunk> free;
+    private final BlockingQueue<Chunk> filled = new LinkedBlockingQueue<Chunk>();
+    private final Thread reader;
+    private final StopWatch readerBusy = new StopWatch();
+    private final StopWatch readerWaiting = new StopWatch();
+    private final StopWatch consumerWaiting = new StopWatch();
+    private final StopWatch total = new StopWatch();
+    private volatile IOException error;
+    private volatile long bytes;
+    private Chunk current;
+    private int pos;
+    private boolean finished;
+    private boolean closed;
+
+    public ReadAheadInputStream(InputStream in) {
+        this(in, 1 << 16, 64);
+    }
+
+    /**
+     * @param chunkSize the size of one buffer in bytes
+     * @param chunks the number of buffers in the ring, i.e. how many
+     * chunks can be read ahead
+     */
+    public ReadAheadInputStream(InputStream in, int chunkSize, int chunks) {
+        if (in == null)
+            throw new IllegalStateException("Stream cannot be empty");
+        if (chunkSize < 1 || chunks < 1)
+            throw new IllegalArgumentException("chunkSize and chunks must be positive");
+        this.in = in;
+        free = new ArrayBlockingQueue<Chunk>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            free.add(new Chunk(chunkSize));
+        }
+        reader = new Thread("read-ahead") {
+            @Override public void run() {
+                fill();
+            }
+        };
+        reader.setDaemon(true);
+        total.start();
+        reader.start();
+    }
+
+    private void fill() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                readerWaiting.start();
+                Chunk chunk = free.take();
+                readerWaiting.stop();
+
+                readerBusy.start();
+                chunk.length = 0;
+                while (chunk.length < chunk.data.length) {
+                    int read = in.read(chunk.data, chunk.length, chunk.data.length - chunk.length);
+                    if (read < 0)
+                        break;
+                    chunk.length += read;
+                }
+                readerBusy.stop();
+                bytes += chunk.length;
+                if (chunk.length > 0)
+                    filled.add(chunk);
+                if (chunk.length < chunk.data.length)
+                    break;
+            }
+        } catch (IOException ex) {
+            error = ex;
+        } catch (InterruptedException ex) {
+            // closed before the end was reached
+        } finally {
+            filled.add(END);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextChunk())
+            return -1;
+        return current.data[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!nextChunk())
+            return -1;
+        int count = Math.min(len, current.length - pos);
+        System.arraycopy(current.data, pos, b, off, count);
+        pos += count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current == null ? 0 : current.length - pos;
+    }
+
+    private boolean nextChunk() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+        if (current != null && pos < current.length)
+            return true;
+        if (current != null) {
+            free.add(current);
+            current = null;
+        }
+        if (finished)
+            return false;
+
+        Chunk chunk;
+        consumerWaiting.start();
+        try {
+            chunk = filled.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for data");
+        } finally {
+            consumerWaiting.stop();
+        }
+        if (chunk == END) {
+            finished = true;
+            if (error != null)
+                throw new IOException("Cannot read ahead", error);
+            return false;
+        }
+        current = chunk;
+        pos = 0;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        reader.interrupt();
+        try {
+            reader.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        total.stop();
+        in.close();
+        logger.info(getStats());
+    }
+
+    /**
+     * @return the seconds the underlying stream was read (i.e. decompressed)
+     */
+    public float getReadSeconds() {
+        return readerBusy.getSeconds();
+    }
+
+    /**
+     * @return the seconds the consumer waited for data. A high value means
+     * the decompression is the bottleneck.
+     */
+    public float getConsumerWaitSeconds() {
+        return consumerWaiting.getSeconds();
+    }
+
+    /**
+     * @return the seconds the reading thread waited for free buffers. A high
+     * value means the consumer (e.g. parsing) is the bottleneck.
+     */
+    public float getReaderWaitSeconds() {
+        return readerWaiting.getSeconds();
+    }
+
+    /**
+     * @return the fraction of the read time which was hidden behind the
+     * consumer, i.e. where the consumer did not wait.
+     */
+    public float getOverlap() {
+        float read = getReadSeconds();
+        if (read <= 0)
+            return 0;
+        return Math.max(0, Math.min(1, (read - getConsumerWaitSeconds()) / read));
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Only complete after close was called.
+     */
+    public String getStats() {
+        return "read ahead " + Helper.nf(bytes) + " bytes in " + total.getSeconds() + "s, "
+                + "reading:" + getReadSeconds() + "s, consumer waited:" + getConsumerWaitSeconds() + "s, "
+                + "reader waited:" + getReaderWaitSeconds() + "s, overlap:" + Math.round(getOverlap() * 100) + "%";
+    }
+
+    private static class Chunk {
+
+        final byte[] data;
+        int length;
+
+        Chunk(int size) {
+            data = new byte[size];
+        }
+    }
+}
@@ -18,10 +18,26 @@
  */
 package com.graphhopper;
 
+import com.graphhopper.routing.util.CarFlagEncoder;
+import com.graphhopper.routing.util.FastestCalc;
+import com.graphhopper.routing.util.ShortestCalc;
+import com.graphhopper.routing.util.WeightCalculation;
+import com.graphhopper.storage.FrozenGraph;
+import com.graphhopper.storage.FrozenLevelGraph;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.storage.GraphSnapshots;
 import com.graphhopper.storage.GraphStorage;
 import com.graphhopper.storage.GraphBuilder;
+import com.graphhopper.storage.LevelGraph;
 import com.graphhopper.util.Helper;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -67,4 +83,384 @@ public class GraphHopperAPITest {
         assertTrue(ph.found());
         assertEquals(3, ph.points().size());
     }
+
+    @Test
+    public void testLoadFrozen() {
+        String str = "./target/tmp/ghosm-frozen-gh";
+        Helper.removeDir(new File(str));
+        GraphHopper instance = new GraphHopper().frozen(true).graphHopperLocation(str);
+        instance.load("./src/test/resources/com/graphhopper/reader/test-osm.xml");
+        assertTrue(instance.graph() instanceof FrozenGraph);
+        GHResponse ph = instance.route(new GHRequest(51.2492152, 9.4317166, 51.2, 9.4));
+        assertTrue(ph.found());
+        assertEquals(3, ph.points().size());
+
+        // load the stored graph with contraction hierarchies
+        Helper.removeDir(new File(str));
+        new GraphHopper().contractionHierarchies(true).graphHopperLocation(str).
+                load("./src/test/resources/com/graphhopper/reader/test-osm.xml");
+        instance = new GraphHopper().contractionHierarchies(true).frozen(true);
+        instance.load(str);
+        assertTrue(instance.graph() instanceof FrozenLevelGraph);
+        ph = instance.route(new GHRequest(51.2492152, 9.4317166, 51.2, 9.4).algorithm("dijkstrabi"));
+        assertTrue(ph.found());
+        assertEquals(3, ph.points().size());
+        Helper.removeDir(new File(str));
+    }
+
+    @Test
+    public void testLoadFrozenNotStored() {
+        String str = "./target/tmp/ghosm-frozen-ram-gh";
+        Helper.removeDir(new File(str));
+        GraphHopper instance = new GraphHopper().setInMemory(true, false).frozen(true).
+                graphHopperLocation(str);
+        instance.load("./src/test/resources/com/graphhopper/reader/test-osm.xml");
+        assertTrue(instance.graph() instanceof FrozenGraph);
+        GHResponse ph = instance.route(new GHRequest(51.2492152, 9.4317166, 51.2, 9.4));
+        assertTrue(ph.found());
+        assertEquals(3, ph.points().size());
+        instance.close();
+        assertFalse(new File(str + "/spatialNIndex").exists());
+        Helper.removeDir(new File(str));
+    }
+
+    @Test
+    public void testLoadFrozenMemoryMapped() {
+        String str = "./target/tmp/ghosm-frozen-mmap-gh";
+        Helper.removeDir(new File(str));
+        GraphHopper instance = new GraphHopper().memoryMapped().frozen(true).compactFrozen(true).
+                graphHopperLocation(str);
+        instance.load("./src/test/resources/com/graphhopper/reader/test-osm.xml");
+        assertTrue(((FrozenGraph) instance.graph()).isCompact());
+        assertTrue(new File(str + "/frozen_edges").exists());
+        assertTrue(new File(str + "/spatialNIndex").length() > 0);
+        GHResponse expected = instance.route(new GHRequest(51.2492152, 9.4317166, 51.2, 9.4));
+        assertTrue(expected.found());
+        instance.close();
+
+        // the stored frozen graph is loaded instead of freezing the graph again
+        instance = new GraphHopper().memoryMappedReadOnly().frozen(true);
+        instance.load(str);
+        assertTrue(((FrozenGraph) instance.graph()).isCompact());
+        GHResponse ph = instance.route(new GHRequest(51.2492152, 9.4317166, 51.2, 9.4));
+        assertTrue(ph.found());
+        assertEquals(expected.distance(), ph.distance(), 1e-3);
+        assertEquals(expected.points().size(), ph.points().size());
+        instance.close();
+        Helper.removeDir(new File(str));
+    }
+
+    @Test
+    public void testUpdateSpeeds() {
+        String str = "./target/tmp/ghosm-update-gh";
+        Helper.removeDir(new File(str));
+        GraphHopper instance = new GraphHopper().storeWayIds(true).graphHopperLocation(str);
+        instance.load("./src/test/resources/com/graphhopper/reader/test-osm.xml");
+        GHRequest req = new GHRequest(51.2492152, 9.4317166, 51.2, 9.4);
+        GHResponse ph = instance.route(req);
+        assertEquals(3, ph.points().size());
+        long time = ph.time();
+
+        // the motorway 10 consists of two edges
+        assertEquals(2, instance.updateSpeeds(new long[]{10, 99}, new int[]{10, 50}, new CarFlagEncoder()));
+        ph = instance.route(req);
+        assertEquals(3, ph.points().size());
+        assertTrue(ph.time() + " should be greater than " + time, ph.time() > time);
+        instance.close();
+
+        // the way id index is loaded with the graph
+        assertTrue(new File(str + "/wayIdIndex").exists());
+        instance = new GraphHopper();
+        instance.load(str);
+        assertEquals(2, instance.updateSpeeds(new long[]{10}, new int[]{10}, new CarFlagEncoder()));
+        instance.close();
+
+        instance = new GraphHopper().frozen(true);
+        instance.load(str);
+        try {
+            instance.updateSpeeds(new long[]{10}, new int[]{10}, new CarFlagEncoder());
+            fail();
+        } catch (IllegalStateException ex) {
+        }
+        instance.close();
+        Helper.removeDir(new File(str));
+
+        instance = new GraphHopper().graphHopperLocation(str);
+        instance.load("./src/test/resources/com/graphhopper/reader/test-osm.xml");
+        try {
+            instance.updateSpeeds(new long[]{10}, new int[]{10}, new CarFlagEncoder());
+            fail();
+        } catch (IllegalStateException ex) {
+        }
+        instance.close();
+        Helper.removeDir(new File(str));
+    }
+
+    @Test
+    public void testLoadCHChecksPreparation() {
+        String str = "./target/tmp/ghosm-ch-gh";
+        Helper.removeDir(new File(str));
+        new GraphHopper().contractionHierarchies(true).graphHopperLocation(str).
+                load("./src/test/resources/com/graphhopper/reader/test-osm.xml").close();
+        GraphHopper instance = new GraphHopper().contractionHierarchies(true);
+        instance.load(str);
+        assertTrue(instance.route(new GHRequest(51.2492152, 9.4317166, 51.2, 9.4).algorithm("dijkstrabi")).found());
+        instance.close();
+
+        try {
+            // prepared for fastest
+            new GraphHopper().contractionHierarchies(false).load(str);
+            fail();
+        } catch (IllegalStateException ex) {
+        }
+        Helper.removeDir(new File(str));
+    }
+
+    @Test
+    public void testCHProfiles() {
+        String str = "./target/tmp/ghosm-profiles-gh";
+        Helper.removeDir(new File(str));
+        GraphHopper instance = new GraphHopper().chProfiles("fastest,car", "shortest").graphHopperLocation(str);
+        instance.load("./src/test/resources/com/graphhopper/reader/test-osm.xml");
+        assertFalse(instance.graph() instanceof LevelGraph);
+        assertTrue(new File(str + "/ch-fastest-car").exists());
+        assertTrue(new File(str + "/ch-shortest-car").exists());
+        List<GHResponse> expected = routeProfiles(instance, "dijkstra");
+        assertSameRoutes(expected, routeProfiles(instance, "dijkstrabi"));
+        instance.close();
+
+        instance = new GraphHopper().chProfiles("fastest,car", "shortest");
+        instance.load(str);
+        assertSameRoutes(expected, routeProfiles(instance, "dijkstrabi"));
+        assertSameRoutes(expected, routeProfiles(instance, "astarbi"));
+        instance.close();
+
+        // shortest has no profile and is calculated on the graph
+        instance = new GraphHopper().chProfiles("fastest,car");
+        instance.load(str);
+        assertSameRoutes(expected, routeProfiles(instance, "dijkstrabi"));
+        instance.close();
+        Helper.removeDir(new File(str));
+    }
+
+    List<GHResponse> routeProfiles(GraphHopper instance, String algo) {
+        List<GHResponse> list = new ArrayList<GHResponse>();
+        for (WeightCalculation type : new WeightCalculation[]{new FastestCalc(new CarFlagEncoder()), new ShortestCalc()}) {
+            GHResponse rsp = instance.route(new GHRequest(51.2492152, 9.4317166, 51.2, 9.4).algorithm(algo).type(type));
+            assertTrue(rsp.found());
+            list.add(rsp);
+        }
+        return list;
+    }
+
+    void assertSameRoutes(List<GHResponse> expected, List<GHResponse> list) {
+        assertEquals(expected.size(), list.size());
+        for (int i = 0; i < expected.size(); i++) {
+            // the distances of the fastest contraction hierarchies are calculated back from the weights
+            assertEquals(expected.get(i).distance(), list.get(i).distance(), 1);
+            assertEquals(expected.get(i).points(), list.get(i).points());
+        }
+    }
+
+    @Test
+    public void testLoadReadOnly() {
+        String str = "./target/tmp/ghosm-readonly-gh";
+        Helper.removeDir(new File(str));
+        GraphHopperAPI instance = new GraphHopper().memoryMapped().graphHopperLocation(str);
+        instance.load("./src/test/resources/com/graphhopper/reader/test-osm.xml");
+        GHResponse expected = instance.route(new GHRequest(51.2492152, 9.4317166, 51.2, 9.4));
+
+        // two readers share the same files
+        GraphHopperAPI reader1 = new GraphHopper().memoryMappedReadOnly();
+        reader1.load(str);
+        GraphHopperAPI reader2 = new GraphHopper().memoryMappedReadOnly();
+        reader2.load(str);
+        for (GraphHopperAPI reader : new GraphHopperAPI[]{reader1, reader2}) {
+            GHResponse ph = reader.route(new GHRequest(51.2492152, 9.4317166, 51.2, 9.4));
+            assertTrue(ph.found());
+            assertEquals(expected.distance(), ph.distance(), 1e-6);
+            assertEquals(3, ph.points().size());
+        }
+
+        try {
+            new GraphHopper().memoryMappedReadOnly().graphHopperLocation(str + "2").
+                    load("./src/test/resources/com/graphhopper/reader/test-osm.xml");
+            fail();
+        } catch (IllegalStateException ex) {
+        }
+    }
+
+    @Test
+    public void testWarmUp() {
+        String str = "./target/tmp/ghosm-warmup-gh";
+        Helper.removeDir(new File(str));
+        GraphHopper instance = new GraphHopper().memoryMapped().graphHopperLocation(str);
+        instance.load("./src/test/resources/com/graphhopper/reader/test-osm.xml");
+        GHResponse expected = instance.route(new GHRequest(51.2492152, 9.4317166, 51.2, 9.4));
+
+        GraphHopper reader = new GraphHopper().memoryMappedReadOnly();
+        reader.load(str);
+        assertTrue(reader == reader.warmUp(10));
+        GHResponse ph = reader.route(new GHRequest(51.2492152, 9.4317166, 51.2, 9.4));
+        assertTrue(ph.found());
+        assertEquals(expected.distance(), ph.distance(), 1e-6);
+        Helper.removeDir(new File(str));
+    }
+
+    @Test
+    public void testWarmUpWhileClosing() throws Exception {
+        String str = "./target/tmp/ghosm-warmup-frozen-gh";
+        Helper.removeDir(new File(str));
+        new GraphHopper().memoryMapped().frozen(true).compactFrozen(true).graphHopperLocation(str).
+                load("./src/test/resources/com/graphhopper/reader/test-osm.xml").close();
+
+        final GraphHopper instance = new GraphHopper().memoryMappedReadOnly().frozen(true);
+        instance.load(str);
+        ExecutorService service = Executors.newSingleThreadExecutor();
+        Future<GraphHopper> future = service.submit(new Callable<GraphHopper>() {
+            @Override public GraphHopper call() {
+                return instance.warmUp(20000);
+            }
+        });
+        Thread.sleep(20);
+        // the graph is closed after the warm up has finished
+        instance.close();
+        assertTrue(instance == future.get());
+        service.shutdown();
+        try {
+            instance.warmUp(1);
+            fail();
+        } catch (IllegalStateException ex) {
+        }
+        Helper.removeDir(new File(str));
+    }
+
+    @Test
+    public void testHotSwap() throws Exception {
+        String str = "./target/tmp/ghosm-snapshots";
+        Helper.removeDir(new File(str));
+        GraphSnapshots snapshots = new GraphSnapshots(str);
+        String tmp = snapshots.create();
+        new GraphHopper().graphHopperLocation(tmp).
+                load("./src/test/resources/com/graphhopper/reader/test-osm.xml").close();
+        snapshots.commit(tmp);
+
+        final GraphHopper instance = new GraphHopper().memoryMappedReadOnly();
+        instance.load(str);
+        final GHRequest request = new GHRequest(51.2492152, 9.4317166, 51.2, 9.4);
+        final GHResponse expected = instance.route(request);
+        assertTrue(expected.found());
+        Graph oldGraph = instance.graph();
+
+        tmp = snapshots.create();
+        new GraphHopper().graphHopperLocation(tmp).
+                load("./src/test/resources/com/graphhopper/reader/test-osm.xml").close();
+        snapshots.commit(tmp);
+
+        // route while swapping, no query must fail
+        ExecutorService service = Executors.newFixedThreadPool(2);
+        try {
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for (int i = 0; i < 2; i++) {
+                tasks.add(new Callable<Object>() {
+                    @Override public Object call() {
+                        for (int j = 0; j < 200; j++) {
+                            GHResponse rsp = instance.route(request);
+                            assertTrue(rsp.found());
+                            assertEquals(expected.distance(), rsp.distance(), 1e-6);
+                        }
+                        return null;
+                    }
+                });
+            }
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (Callable<Object> task : tasks) {
+                futures.add(service.submit(task));
+            }
+            instance.hotSwap(str);
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        } finally {
+            service.shutdown();
+        }
+        assertTrue(oldGraph != instance.graph());
+        assertEquals(expected.distance(), instance.route(request).distance(), 1e-6);
+
+        try {
+            instance.hotSwap("./src/test/resources/com/graphhopper/reader/test-osm.xml");
+            fail();
+        } catch (IllegalArgumentException ex) {
+        }
+        instance.close();
+        try {
+            instance.route(request);
+            fail();
+        } catch (IllegalStateException ex) {
+        }
+        Helper.removeDir(new File(str));
+    }
+
+    @Test
+    public void testConcurrentRoute() throws Exception {
+        // 0.01° ~ 1km => matrix of 20*20 nodes with slightly different edge distances
+        int size = 20;
+        Random rand = new Random(1);
+        GraphStorage graph = new GraphBuilder().create();
+        for (int lat = 0; lat < size; lat++) {
+            for (int lon = 0; lon < size; lon++) {
+                int node = lat * size + lon;
+                graph.setNode(node, 42 + lat * 0.01, 10 + lon * 0.01);
+                if (lon > 0)
+                    graph.edge(node, node - 1, 1000 + rand.nextInt(500), true);
+                if (lat > 0)
+                    graph.edge(node, node - size, 1000 + rand.nextInt(500), true);
+            }
+        }
+
+        final GraphHopper instance = new GraphHopper(graph);
+        final List<GHRequest> requests = new ArrayList<GHRequest>();
+        String[] algos = new String[]{"dijkstra", "dijkstrabi", "astar", "astarbi"};
+        for (int i = 0; i < 40; i++) {
+            int from = rand.nextInt(size * size);
+            int to = rand.nextInt(size * size);
+            requests.add(new GHRequest(graph.getLatitude(from), graph.getLongitude(from),
+                    graph.getLatitude(to), graph.getLongitude(to)).algorithm(algos[i % algos.length]));
+        }
+
+        final List<GHResponse> expected = new ArrayList<GHResponse>();
+        for (GHRequest req : requests) {
+            expected.add(instance.route(req));
+        }
+
+        int threads = 8;
+        ExecutorService service = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < threads * 4; t++) {
+                final int offset = t;
+                futures.add(service.submit(new Callable<Integer>() {
+                    @Override public Integer call() {
+                        int checked = 0;
+                        for (int i = 0; i < requests.size(); i++) {
+                            int index = (i + offset) % requests.size();
+                            GHResponse rsp = instance.route(requests.get(index));
+                            GHResponse exp = expected.get(index);
+                            assertEquals(exp.found(), rsp.found());
+                            assertEquals(exp.distance(), rsp.distance(), 1e-6);
+                            assertEquals(exp.points(), rsp.points());
+                            checked++;
+                        }
+                        return checked;
+                    }
+                }));
+            }
+            for (Future<Integer> f : futures) {
+                // rethrows assertion errors of the worker threads
+                assertEquals(requests.size(), (int) f.get());
+            }
+        } finally {
+            service.shutdown();
+        }
+    }
 }
@@ -0,0 +1,149 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.coll;
+
+import com.graphhopper.storage.RAMDirectory;
+import gnu.trove.map.hash.TLongIntHashMap;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Peter Karich
+ */
+public class GHLongIntSegmentMapTest {
+
+    @Test
+    public void testPutAndGet() {
+        GHLongIntSegmentMap map = new GHLongIntSegmentMap(new RAMDirectory(), "test", 2);
+        assertEquals(-1, map.put(10, 1));
+        assertEquals(-1, map.put(5, 2));
+        // buffer is full => first segment
+        assertEquals(1, map.segments());
+        assertEquals(-1, map.put(7, 3));
+        // the old value is not looked up in the segments
+        assertEquals(-1, map.put(10, 4));
+        // the full buffer was written and merged into the first segment
+        // which dropped the duplicate key
+        assertEquals(1, map.segments());
+        assertEquals(3, map.size());
+
+        assertEquals(4, map.get(10));
+        assertEquals(2, map.get(5));
+        assertEquals(3, map.get(7));
+        assertEquals(-1, map.get(6));
+        assertEquals(-1, map.get(11));
+
+        map.optimize();
+        assertEquals(1, map.segments());
+        assertEquals(3, map.size());
+        assertEquals(4, map.get(10));
+        assertEquals(2, map.get(5));
+        assertEquals(3, map.get(7));
+        assertEquals(-1, map.get(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testPutReturnsOldValueFromBuffer() {
+        GHLongIntSegmentMap map = new GHLongIntSegmentMap(new RAMDirectory(), "test", 10);
+        assertEquals(-1, map.put(10, 1));
+        assertEquals(1, map.put(10, 2));
+        assertEquals(1, map.size());
+        assertEquals(2, map.get(10));
+
+        map.flushBuffer();
+        assertEquals(-1, map.put(10, 3));
+        // counted twice until the segments are merged
+        assertEquals(2, map.size());
+        assertEquals(3, map.get(10));
+        map.optimize();
+        assertEquals(1, map.size());
+        assertEquals(3, map.get(10));
+    }
+
+    @Test
+    public void testThrowException_IfPutting_NoEntryValue() {
+        GHLongIntSegmentMap map = new GHLongIntSegmentMap(new RAMDirectory(), "test", 2);
+        try {
+            map.put(1, -1);
+            fail();
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    @Test
+    public void testThrowException_IfPutting_NoEntryKey() {
+        GHLongIntSegmentMap map = new GHLongIntSegmentMap(new RAMDirectory(), "test", 2);
+        try {
+            map.put(Long.MIN_VALUE, 1);
+            fail();
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    @Test
+    public void testRandom() {
+        Random rand = new Random(123);
+        for (int bufferSize = 1; bufferSize < 100; bufferSize *= 3) {
+            GHLongIntSegmentMap map = new GHLongIntSegmentMap(new RAMDirectory(), "test", bufferSize);
+            TLongIntHashMap expected = new TLongIntHashMap();
+            int size = 2000;
+            for (int i = 0; i < size; i++) {
+                // also big and negative keys like in OSM files
+                long key = rand.nextInt(size) * 1000000007L - 500 * 1000000007L;
+                int value = rand.nextInt(Integer.MAX_VALUE);
+                expected.put(key, value);
+                map.put(key, value);
+                assertTrue(map.size() >= expected.size());
+            }
+            // the number of segments has to be logarithmic
+            int maxSegments = 2 * (int) Math.ceil(Math.log(size / bufferSize + 1) / Math.log(2)) + 1;
+            assertTrue(bufferSize + "| segments:" + map.segments(), map.segments() <= maxSegments);
+            for (long key : expected.keys()) {
+                assertEquals(expected.get(key), map.get(key));
+            }
+
+            map.optimize();
+            assertTrue(map.segments() <= 1);
+            for (long key : expected.keys()) {
+                assertEquals(expected.get(key), map.get(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+    }
+
+    @Test
+    public void testMemoryUsageAndRemove() {
+        RAMDirectory dir = new RAMDirectory();
+        GHLongIntSegmentMap map = new GHLongIntSegmentMap(dir, "test", 1000);
+        for (int i = 0; i < 10000; i++) {
+            map.put(i, i);
+        }
+        // 12 bytes per entry are stored in the segments
+        assertTrue(map.segmentBytes() >= 9000 * 12);
+        assertTrue(map.heapBytes() < 1000 * 12 * 4);
+        assertTrue(map.segments() >= 1);
+
+        map.remove();
+        assertEquals(0, map.segments());
+        assertEquals(0, map.segmentBytes());
+        assertEquals(0, map.size());
+        assertEquals(-1, map.get(10));
+    }
+}
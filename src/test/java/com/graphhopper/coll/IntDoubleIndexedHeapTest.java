@@ -0,0 +1,92 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.coll;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Peter Karich
+ */
+public class IntDoubleIndexedHeapTest extends AbstractBinHeapTest {
+
+    @Override
+    public BinHeapWrapper<Number, Integer> createHeap(int capacity) {
+        return new IntDoubleIndexedHeap(capacity, capacity);
+    }
+
+    @Test
+    public void testDecreaseAndIncreaseKey() {
+        IntDoubleIndexedHeap heap = new IntDoubleIndexedHeap(10, 10);
+        heap.insert_(10, 1);
+        heap.insert_(20, 2);
+        heap.insert_(30, 3);
+        heap.update_(5, 3);
+        heap.update_(25, 1);
+        assertEquals(3, heap.size());
+        assertTrue(heap.contains(1));
+        assertEquals(25, heap.getKey(1), 1e-6);
+        assertEquals(3, heap.poll_element());
+        assertEquals(2, heap.poll_element());
+        assertEquals(1, heap.poll_element());
+        assertFalse(heap.contains(1));
+        assertTrue(heap.isEmpty());
+    }
+
+    @Test
+    public void testClearResetsPositions() {
+        IntDoubleIndexedHeap heap = new IntDoubleIndexedHeap(10, 10);
+        heap.insert_(1, 4);
+        heap.insert_(2, 5);
+        heap.clear();
+        assertFalse(heap.contains(4));
+        assertFalse(heap.contains(5));
+        heap.insert_(3, 5);
+        assertEquals(1, heap.size());
+        assertEquals(5, heap.poll_element());
+    }
+
+    @Test
+    public void testRandomUpdates() {
+        Random rand = new Random(1);
+        int N = 500;
+        IntDoubleIndexedHeap heap = new IntDoubleIndexedHeap(10, 10);
+        double[] expectedKeys = new double[N];
+        for (int i = 0; i < N; i++) {
+            expectedKeys[i] = rand.nextDouble();
+            heap.insert_(expectedKeys[i], i);
+        }
+        for (int i = 0; i < 2 * N; i++) {
+            int el = rand.nextInt(N);
+            expectedKeys[el] = rand.nextDouble();
+            heap.update_(expectedKeys[el], el);
+        }
+
+        assertEquals(N, heap.size());
+        double last = -1;
+        while (!heap.isEmpty()) {
+            double key = heap.peek_key();
+            int el = heap.poll_element();
+            assertEquals(expectedKeys[el], key, 1e-10);
+            assertTrue(last <= key);
+            last = key;
+        }
+    }
+}
@@ -30,7 +30,9 @@ import com.graphhopper.storage.RAMDirectory;
 import com.graphhopper.util.EdgeIterator;
 import com.graphhopper.util.GHUtility;
 import com.graphhopper.util.Helper;
+import gnu.trove.list.array.TIntArrayList;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import org.junit.After;
@@ -49,6 +51,7 @@ public class OSMReaderTest {
     private String file2 = "test-osm2.xml";
     private String file3 = "test-osm3.xml";
     private String file4 = "test-osm4.xml";
+    private String filePBF = "test-osm.pbf";
     private String dir = "./target/tmp/test-db";
     private CarFlagEncoder carEncoder = new CarFlagEncoder();
     private FootFlagEncoder footEncoder = new FootFlagEncoder();
@@ -126,6 +129,194 @@ public class OSMReaderTest {
         assertEquals(9, graph.getLongitude(reader.location2IDIndex().findID(51.25, 9.43)), 1e-3);
     }
 
+    @Test public void testWayIds() throws IOException {
+        checkWayIds(false);
+    }
+
+    @Test public void testWayIdsSinglePass() throws IOException {
+        checkWayIds(true);
+    }
+
+    void checkWayIds(boolean singlePass) throws IOException {
+        OSMReader reader = init(new OSMReader(buildGraph(dir).storeWayIds(true), 1000).singlePass(singlePass));
+        reader.osm2Graph(new File("./src/test/resources/com/graphhopper/reader/" + file1));
+        GraphStorage graph = (GraphStorage) reader.graph();
+        int n10 = AbstractGraphTester.getIdOf(graph, 51.2492152);
+        int n20 = AbstractGraphTester.getIdOf(graph, 52);
+        int n50 = AbstractGraphTester.getIdOf(graph, 49);
+
+        TIntArrayList edges = reader.wayIdIndex().findEdges(10);
+        assertEquals(2, edges.size());
+        for (int i = 0; i < edges.size(); i++) {
+            assertEquals(10, graph.wayId(edges.get(i)));
+        }
+        edges = reader.wayIdIndex().findEdges(11);
+        assertEquals(1, edges.size());
+        assertEquals(0, reader.wayIdIndex().findEdges(12).size());
+
+        // slow down the service way
+        graph.updateSpeeds(edges.toArray(), new int[]{6}, carEncoder);
+        EdgeIterator iter = graph.getEdges(n20, carOutFilter);
+        while (iter.next()) {
+            if (iter.adjNode() == n50)
+                assertEquals(6, carEncoder.getSpeed(iter.flags()));
+            else if (iter.adjNode() == n10)
+                assertEquals((int) carEncoder.getSpeed("motorway"), carEncoder.getSpeed(iter.flags()));
+            assertTrue(carEncoder.isBoth(iter.flags()));
+        }
+    }
+
+    @Test public void testPBF() throws IOException {
+        OSMReader reader = init(new OSMReader(buildGraph(dir), 1000));
+        reader.helper().preProcess(new PBFReader(getClass().getResourceAsStream(filePBF)));
+        reader.writePbf2Graph(getClass().getResourceAsStream(filePBF));
+        reader.optimize();
+        reader.flush();
+        reader.createIndex();
+        Graph graph = reader.graph();
+        assertEquals(4, graph.nodes());
+        int n20 = AbstractGraphTester.getIdOf(graph, 52);
+        int n10 = AbstractGraphTester.getIdOf(graph, 51.2492152);
+        int n30 = AbstractGraphTester.getIdOf(graph, 51.2);
+        int n50 = AbstractGraphTester.getIdOf(graph, 49);
+        assertEquals(Arrays.asList(n20), GHUtility.neighbors(graph.getEdges(n10, carOutFilter)));
+        assertEquals(3, GHUtility.count(graph.getEdges(n20, carOutFilter)));
+
+        EdgeIterator iter = graph.getEdges(n20, carOutFilter);
+        assertTrue(iter.next());
+        assertEquals(n10, iter.adjNode());
+        assertEquals(88643, iter.distance(), 1);
+        assertTrue(iter.next());
+        assertEquals(n30, iter.adjNode());
+        assertEquals(93147, iter.distance(), 1);
+        assertTrue(carEncoder.isMotorway(iter.flags()));
+        assertTrue(iter.next());
+        assertEquals(n50, iter.adjNode());
+        AbstractGraphTester.assertPList(Helper.createPointList(51.25, 9.43), iter.wayGeometry());
+        assertTrue(carEncoder.isService(iter.flags()));
+
+        assertEquals(10, graph.getLongitude(reader.location2IDIndex().findID(49, 10)), 1e-3);
+        assertEquals(51.249, graph.getLatitude(reader.location2IDIndex().findID(51.2492152, 9.4317166)), 1e-3);
+    }
+
+    @Test public void testPBFFile() throws IOException {
+        OSMReader reader = init(new OSMReader(buildGraph(dir), 1000)).workerThreads(3);
+        reader.osm2Graph(new File("./src/test/resources/com/graphhopper/reader/" + filePBF));
+        Graph graph = reader.graph();
+        assertEquals(4, graph.nodes());
+        assertEquals(10, graph.getLongitude(reader.location2IDIndex().findID(49, 10)), 1e-3);
+    }
+
+    @Test public void testCompressedFiles() throws IOException {
+        OSMReader expected = init(new OSMReader(buildGraph(dir), 1000));
+        expected.osm2Graph(new File("./src/test/resources/com/graphhopper/reader/" + file1));
+        for (String suffix : new String[]{".bz2", ".gz"}) {
+            for (boolean readAhead : new boolean[]{true, false}) {
+                OSMReader reader = init(new OSMReader(buildGraph(dir), 1000)).readAhead(readAhead);
+                reader.osm2Graph(new File("./src/test/resources/com/graphhopper/reader/" + file1 + suffix));
+                assertSameGraph(suffix + " " + readAhead, expected.graph(), reader.graph());
+            }
+        }
+    }
+
+    @Test public void testSinglePass() {
+        OSMReader reader = init(new OSMReader(buildGraph(dir), 1000).singlePass(true));
+        reader.writeOsm2Graph(getClass().getResourceAsStream(file1));
+        reader.optimize();
+        reader.flush();
+        reader.createIndex();
+        Graph graph = reader.graph();
+        assertEquals(4, graph.nodes());
+        int n20 = AbstractGraphTester.getIdOf(graph, 52);
+        int n10 = AbstractGraphTester.getIdOf(graph, 51.2492152);
+        int n30 = AbstractGraphTester.getIdOf(graph, 51.2);
+        int n50 = AbstractGraphTester.getIdOf(graph, 49);
+        assertEquals(Arrays.asList(n20), GHUtility.neighbors(graph.getEdges(n10, carOutFilter)));
+        assertEquals(3, GHUtility.count(graph.getEdges(n20, carOutFilter)));
+        assertEquals(Arrays.asList(n20), GHUtility.neighbors(graph.getEdges(n30, carOutFilter)));
+
+        EdgeIterator iter = graph.getEdges(n50, carOutFilter);
+        assertTrue(iter.next());
+        assertEquals(n20, iter.adjNode());
+        AbstractGraphTester.assertPList(Helper.createPointList(51.25, 9.43), iter.wayGeometry());
+        assertTrue(carEncoder.isService(iter.flags()));
+        assertFalse(iter.next());
+        assertEquals(10, graph.getLongitude(reader.location2IDIndex().findID(49, 10)), 1e-3);
+    }
+
+    @Test public void testSinglePassWithBounds() {
+        OSMReader reader = init(new OSMReader(buildGraph(dir), 1000) {
+            @Override public boolean isInBounds(double lat, double lon) {
+                return lat > 49 && lon > 8;
+            }
+        }.singlePass(true));
+        reader.writeOsm2Graph(getClass().getResourceAsStream(file1));
+        Graph graph = reader.graph();
+        assertEquals(4, graph.nodes());
+        int n20 = AbstractGraphTester.getIdOf(graph, 52);
+        int n40 = AbstractGraphTester.getIdOf(graph, 51.25);
+        EdgeIterator iter = graph.getEdges(n40, carOutFilter);
+        assertTrue(iter.next());
+        assertEquals(n20, iter.adjNode());
+        AbstractGraphTester.assertPList(Helper.createPointList(), iter.wayGeometry());
+        assertFalse(iter.next());
+    }
+
+    @Test public void testSinglePassSameGraph() throws IOException {
+        AcceptWay carAndFoot = new AcceptWay(true, false, true);
+        for (String file : new String[]{file1, file2, file3, file4}) {
+            OSMReader doubleParse = preProcess(init(new OSMReader(buildGraph(dir), 1000).
+                    acceptStreet(carAndFoot)), file);
+            doubleParse.writeOsm2Graph(getClass().getResourceAsStream(file));
+            OSMReader singlePass = init(new OSMReader(buildGraph(dir), 1000).singlePass(true).
+                    acceptStreet(carAndFoot));
+            singlePass.writeOsm2Graph(getClass().getResourceAsStream(file));
+            assertSameGraph(file, doubleParse.graph(), singlePass.graph());
+        }
+
+        OSMReader doubleParse = init(new OSMReader(buildGraph(dir), 1000));
+        doubleParse.helper().preProcess(new PBFReader(getClass().getResourceAsStream(filePBF)));
+        doubleParse.writePbf2Graph(getClass().getResourceAsStream(filePBF));
+        OSMReader singlePass = init(new OSMReader(buildGraph(dir), 1000).singlePass(true));
+        singlePass.writePbf2Graph(getClass().getResourceAsStream(filePBF));
+        assertSameGraph(filePBF, doubleParse.graph(), singlePass.graph());
+    }
+
+    @Test public void testOffHeapIdMap() throws IOException {
+        for (boolean singlePass : new boolean[]{false, true}) {
+            for (String file : new String[]{file1, file2, file3}) {
+                OSMReader expected = preProcess(init(new OSMReader(buildGraph(dir), 1000)), file);
+                expected.writeOsm2Graph(getClass().getResourceAsStream(file));
+                OSMReader reader = init(new OSMReader(buildGraph(dir), 1000).singlePass(singlePass).
+                        offHeapIdMap(true));
+                if (!singlePass)
+                    preProcess(reader, file);
+                reader.writeOsm2Graph(getClass().getResourceAsStream(file));
+                assertSameGraph(file, expected.graph(), reader.graph());
+            }
+        }
+    }
+
+    void assertSameGraph(String msg, Graph expected, Graph graph) {
+        assertEquals(msg, expected.nodes(), graph.nodes());
+        // the single pass helper buffers also the tower coordinates as integers
+        assertEquals(msg, sumDistances(expected), sumDistances(graph), 0.1);
+        for (int node = 0; node < expected.nodes(); node++) {
+            int other = AbstractGraphTester.getIdOf(graph, expected.getLatitude(node));
+            assertEquals(msg, expected.getLongitude(node), graph.getLongitude(other), 1e-6);
+            assertEquals(msg, GHUtility.count(expected.getEdges(node)), GHUtility.count(graph.getEdges(other)));
+        }
+    }
+
+    double sumDistances(Graph graph) {
+        double sum = 0;
+        EdgeIterator iter = graph.getAllEdges();
+        while (iter.next()) {
+            sum += iter.distance();
+        }
+        return sum;
+    }
+
     @Test public void testSort() {
         OSMReader reader = preProcess(init(new OSMReader(buildGraph(dir), 1000).sort(true)), file1);
         reader.writeOsm2Graph(getClass().getResourceAsStream(file1));
@@ -0,0 +1,116 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader;
+
+import com.graphhopper.routing.util.AcceptWay;
+import com.graphhopper.routing.util.CarFlagEncoder;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * @author Peter Karich
+ */
+public class OSMXMLPipelineTest {
+
+    private AcceptWay acceptWay = new AcceptWay(true, false, false);
+
+    private static class CollectingSink implements OSMXMLPipeline.Sink {
+
+        TLongArrayList nodeIds = new TLongArrayList();
+        List<double[]> coords = new ArrayList<double[]>();
+        TLongArrayList wayIds = new TLongArrayList();
+        List<TLongArrayList> wayNodes = new ArrayList<TLongArrayList>();
+        TIntArrayList wayFlags = new TIntArrayList();
+
+        @Override public void processNode(long osmId, double lat, double lon) {
+            nodeIds.add(osmId);
+            coords.add(new double[]{lat, lon});
+        }
+
+        @Override public void processWay(long osmId, TLongList nodes, int flags) {
+            wayIds.add(osmId);
+            wayNodes.add(new TLongArrayList(nodes));
+            wayFlags.add(flags);
+        }
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        CarFlagEncoder encoder = new CarFlagEncoder();
+        for (int batchSize = 1; batchSize < 5; batchSize++) {
+            for (int threads = 1; threads < 4; threads++) {
+                CollectingSink sink = new CollectingSink();
+                new OSMXMLPipeline(getClass().getResourceAsStream("test-osm.xml"), acceptWay).
+                        workerThreads(threads).batchSize(batchSize).queueSize(1).read(sink);
+                assertEquals(new TLongArrayList(new long[]{10, 20, 30, 35, 40, 41, 45, 50}), sink.nodeIds);
+                assertEquals(51.2492152, sink.coords.get(0)[0], 1e-9);
+                assertEquals(9.4317166, sink.coords.get(0)[1], 1e-9);
+                assertEquals(10, sink.coords.get(7)[1], 1e-9);
+
+                assertEquals(new TLongArrayList(new long[]{10, 11}), sink.wayIds);
+                assertEquals(new TLongArrayList(new long[]{10, 20, 30}), sink.wayNodes.get(0));
+                assertEquals(new TLongArrayList(new long[]{20, 40, 50}), sink.wayNodes.get(1));
+                assertTrue(encoder.isMotorway(sink.wayFlags.get(0)));
+                assertTrue(encoder.isService(sink.wayFlags.get(1)));
+            }
+        }
+    }
+
+    @Test
+    public void testSkipNodesAndNotAcceptedWays() throws IOException {
+        CollectingSink sink = new CollectingSink();
+        // motorways are not accepted for foot, only the ferry
+        new OSMXMLPipeline(getClass().getResourceAsStream("test-osm2.xml"), new AcceptWay(false, false, true)).
+                skipNodes(true).read(sink);
+        assertTrue(sink.nodeIds.isEmpty());
+        assertEquals(new TLongArrayList(new long[]{15}), sink.wayIds);
+    }
+
+    @Test
+    public void testParseError() {
+        String xml = "<osm><node id='1' lat='1' lon='2'/><way id='2'><nd ref='1'/></osm>";
+        try {
+            new OSMXMLPipeline(new ByteArrayInputStream(xml.getBytes()), acceptWay).read(new CollectingSink());
+            fail();
+        } catch (IOException ex) {
+        }
+    }
+
+    @Test
+    public void testSinkError() throws IOException {
+        try {
+            new OSMXMLPipeline(getClass().getResourceAsStream("test-osm.xml"), acceptWay).batchSize(1).queueSize(1).
+                    read(new CollectingSink() {
+                @Override public void processNode(long osmId, double lat, double lon) {
+                    throw new IllegalStateException("stop");
+                }
+            });
+            fail();
+        } catch (IllegalStateException ex) {
+            assertEquals("stop", ex.getMessage());
+        }
+    }
+}
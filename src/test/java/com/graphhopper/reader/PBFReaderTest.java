@@ -0,0 +1,113 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.reader;
+
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * @author Peter Karich
+ */
+public class PBFReaderTest {
+
+    private String file = "test-osm.pbf";
+
+    private static class CollectingSink implements PBFReader.Sink {
+
+        TLongArrayList nodeIds = new TLongArrayList();
+        List<double[]> coords = new ArrayList<double[]>();
+        TLongArrayList wayIds = new TLongArrayList();
+        List<TLongArrayList> wayNodes = new ArrayList<TLongArrayList>();
+        List<Map<String, Object>> wayTags = new ArrayList<Map<String, Object>>();
+
+        @Override public void processNode(long osmId, double lat, double lon) {
+            // all nodes are emitted before the ways
+            assertTrue(wayIds.isEmpty());
+            nodeIds.add(osmId);
+            coords.add(new double[]{lat, lon});
+        }
+
+        @Override public void processWay(long osmId, TLongList nodes, Map<String, Object> tags) {
+            wayIds.add(osmId);
+            wayNodes.add(new TLongArrayList(nodes));
+            wayTags.add(new HashMap<String, Object>(tags));
+        }
+    }
+
+    CollectingSink read(int threads, boolean skipNodes) throws IOException {
+        CollectingSink sink = new CollectingSink();
+        new PBFReader(getClass().getResourceAsStream(file)).workerThreads(threads).
+                skipNodes(skipNodes).read(sink);
+        return sink;
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        for (int threads = 0; threads < 4; threads++) {
+            CollectingSink sink = read(threads, false);
+            // dense nodes first, then the nodes of the second block
+            assertEquals(new TLongArrayList(new long[]{10, 20, 30, 35, 40, 41, 45, 50}), sink.nodeIds);
+            assertEquals(51.2492152, sink.coords.get(0)[0], 1e-9);
+            assertEquals(9.4317166, sink.coords.get(0)[1], 1e-9);
+            assertEquals(45.2, sink.coords.get(3)[0], 1e-9);
+            assertEquals(13.431, sink.coords.get(3)[1], 1e-9);
+            // block with granularity and offsets
+            assertEquals(51.23, sink.coords.get(5)[0], 1e-9);
+            assertEquals(11.43, sink.coords.get(5)[1], 1e-9);
+            assertEquals(49, sink.coords.get(7)[0], 1e-9);
+            assertEquals(10, sink.coords.get(7)[1], 1e-9);
+
+            assertEquals(new TLongArrayList(new long[]{10, 11}), sink.wayIds);
+            assertEquals(new TLongArrayList(new long[]{10, 20, 30}), sink.wayNodes.get(0));
+            assertEquals(new TLongArrayList(new long[]{20, 40, 50}), sink.wayNodes.get(1));
+            assertEquals("motorway", sink.wayTags.get(0).get("highway"));
+            assertEquals("service", sink.wayTags.get(1).get("highway"));
+            assertEquals(1, sink.wayTags.get(1).size());
+        }
+    }
+
+    @Test
+    public void testSkipNodes() throws IOException {
+        CollectingSink sink = read(2, true);
+        assertTrue(sink.nodeIds.isEmpty());
+        assertEquals(2, sink.wayIds.size());
+    }
+
+    @Test
+    public void testProtoBuffer() throws IOException {
+        // 300 as varint, -2 as zig zag varint and a packed field with 3, 270
+        byte[] bytes = new byte[]{(byte) 0xAC, 0x02, 0x03, 0x0A, 0x03, 0x03, (byte) 0x8E, 0x02};
+        PBFReader.ProtoBuffer buf = new PBFReader.ProtoBuffer(bytes, 0, bytes.length);
+        assertEquals(300, buf.readVarint());
+        assertEquals(-2, buf.readSVarint());
+        int key = buf.readKey();
+        assertEquals(1, key >>> 3);
+        TLongArrayList list = new TLongArrayList();
+        buf.readVarints(key, list);
+        assertEquals(new TLongArrayList(new long[]{3, 270}), list);
+        assertFalse(buf.hasMore());
+    }
+}
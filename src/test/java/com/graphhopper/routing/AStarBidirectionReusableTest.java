@@ -0,0 +1,54 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing;
+
+import com.graphhopper.routing.util.AlgorithmPreparation;
+import com.graphhopper.routing.util.NoOpAlgorithmPreparation;
+import com.graphhopper.routing.util.VehicleEncoder;
+import com.graphhopper.routing.util.WeightCalculation;
+import com.graphhopper.storage.Graph;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Peter Karich
+ */
+public class AStarBidirectionReusableTest extends AbstractRoutingAlgorithmTester {
+
+    @Override
+    public AlgorithmPreparation prepareGraph(Graph g, final WeightCalculation calc, final VehicleEncoder encoder) {
+        return new NoOpAlgorithmPreparation() {
+            @Override public RoutingAlgorithm createAlgo() {
+                return new AStarBidirectionReusable(_graph, encoder).type(calc);
+            }
+        }.graph(g);
+    }
+
+    @Test
+    public void testReuseInstance() {
+        Graph g = createTestGraph();
+        RoutingAlgorithm algo = new AStarBidirectionReusable(g, carEncoder);
+        for (int i = 0; i < 3; i++) {
+            Path p = algo.calcPath(0, 7);
+            assertEquals(p.toString(), 13, p.distance(), 1e-4);
+            assertEquals(p.toString(), 5, p.calcNodes().size());
+            assertFalse(algo.calcPath(0, 0).found());
+        }
+    }
+}
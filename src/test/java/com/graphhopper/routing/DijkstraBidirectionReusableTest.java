@@ -0,0 +1,70 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing;
+
+import com.graphhopper.routing.util.AlgorithmPreparation;
+import com.graphhopper.routing.util.NoOpAlgorithmPreparation;
+import com.graphhopper.routing.util.VehicleEncoder;
+import com.graphhopper.routing.util.WeightCalculation;
+import com.graphhopper.storage.Graph;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Peter Karich
+ */
+public class DijkstraBidirectionReusableTest extends AbstractRoutingAlgorithmTester {
+
+    @Override
+    public AlgorithmPreparation prepareGraph(Graph g, final WeightCalculation calc, final VehicleEncoder encoder) {
+        return new NoOpAlgorithmPreparation() {
+            @Override public RoutingAlgorithm createAlgo() {
+                return new DijkstraBidirectionReusable(_graph, encoder).type(calc);
+            }
+        }.graph(g);
+    }
+
+    @Test
+    public void testReuseInstance() {
+        Graph g = getMatrixGraph();
+        RoutingAlgorithm algo = new DijkstraBidirectionReusable(g, carEncoder);
+        Random rand = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            int from = rand.nextInt(g.nodes());
+            int to = rand.nextInt(g.nodes());
+            Path expected = new DijkstraBidirectionRef(g, carEncoder).calcPath(from, to);
+            Path p = algo.calcPath(from, to);
+            assertEquals(expected.found(), p.found());
+            assertEquals(expected.distance(), p.distance(), 1e-6);
+            assertEquals(expected.weight(), p.weight(), 1e-6);
+        }
+    }
+
+    @Test
+    public void testCannotCalculateSP2() {
+        Graph g = createGraph();
+        g.edge(0, 1, 1, false);
+        g.edge(1, 2, 1, false);
+        RoutingAlgorithm algo = new DijkstraBidirectionReusable(g, carEncoder);
+        assertTrue(algo.calcPath(0, 2).found());
+        assertFalse(algo.calcPath(2, 0).found());
+        assertTrue(algo.calcPath(0, 2).found());
+    }
+}
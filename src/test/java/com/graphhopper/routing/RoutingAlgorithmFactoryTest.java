@@ -0,0 +1,87 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license
+ *  agreements. See the NOTICE file distributed with this work for
+ *  additional information regarding copyright ownership.
+ *
+ *  Peter Karich licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License. You may obtain a copy of the
+ *  License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing;
+
+import com.graphhopper.routing.util.AlgorithmPreparation;
+import com.graphhopper.routing.util.CarFlagEncoder;
+import com.graphhopper.routing.util.NoOpAlgorithmPreparation;
+import com.graphhopper.routing.util.VehicleEncoder;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.storage.GraphBuilder;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Peter Karich
+ */
+public class RoutingAlgorithmFactoryTest {
+
+    private final VehicleEncoder encoder = new CarFlagEncoder();
+
+    Graph createGraph() {
+        // two components: 0-1-2 and 3-4-5
+        Graph g = new GraphBuilder().create();
+        g.edge(0, 1, 10, true);
+        g.edge(1, 2, 10, true);
+        g.edge(3, 4, 10, true);
+        g.edge(4, 5, 10, true);
+        return g;
+    }
+
+    @Test
+    public void testInterleaveAlgorithmsOfOneFactory() {
+        Graph g = createGraph();
+        RoutingAlgorithmFactory factory = new RoutingAlgorithmFactory("dijkstrabi", false);
+        DijkstraBidirectionReusable algo1 = (DijkstraBidirectionReusable) factory.createAlgo(g, encoder);
+        DijkstraBidirectionReusable algo2 = (DijkstraBidirectionReusable) factory.createAlgo(g, encoder);
+        assertNotSame(algo1.stateFrom, algo2.stateFrom);
+
+        // start a search with algo1 and run algo2 on the same thread in between
+        algo1.initFrom(0);
+        algo1.initTo(2);
+        assertEquals(20, algo2.calcPath(3, 5).distance(), 1e-6);
+        assertTrue(algo1.stateFrom.isVisited(0));
+        assertTrue(algo1.stateTo.isVisited(2));
+        assertFalse(algo1.stateFrom.isVisited(3));
+
+        assertEquals(20, algo1.calcPath(0, 2).distance(), 1e-6);
+        assertFalse(algo2.calcPath(0, 5).found());
+        assertEquals(20, algo1.calcPath(2, 0).distance(), 1e-6);
+    }
+
+    @Test
+    public void testInterleaveAlgorithmsOfOnePreparation() {
+        AlgorithmPreparation prepare = NoOpAlgorithmPreparation.createAlgoPrepare(createGraph(), "astarbi", encoder);
+        AStarBidirectionReusable algo1 = (AStarBidirectionReusable) prepare.createAlgo();
+        AStarBidirectionReusable algo2 = (AStarBidirectionReusable) prepare.createAlgo();
+        assertNotSame(algo1.stateFrom, algo2.stateFrom);
+        assertNotSame(algo1.stateTo, algo2.stateTo);
+    }
+
+    @Test
+    public void testPoolSharesStatesPerThread() {
+        Graph g = createGraph();
+        RoutingAlgorithmFactory factory = new RoutingAlgorithmFactory("dijkstrabi", false, new SearchStatePool());
+        DijkstraBidirectionReusable algo1 = (DijkstraBidirectionReusable) factory.createAlgo(g, encoder);
+        DijkstraBidirectionReusable algo2 = (DijkstraBidirectionReusable) factory.createAlgo(g, encoder);
+        assertSame(algo1.stateFrom, algo2.stateFrom);
+        assertEquals(20, algo1.calcPath(0, 2).distance(), 1e-6);
+        assertEquals(20, algo2.calcPath(3, 5).distance(), 1e-6);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing;
+
+import com.graphhopper.util.EdgeIterator;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Peter Karich
+ */
+public class SearchStateTest {
+
+    @Test
+    public void testDecreaseKey() {
+        SearchState state = new SearchState(10);
+        state.init(3);
+        state.update(4, 10, 10, 1, 3);
+        state.update(5, 7, 7, 2, 3);
+        state.update(4, 5, 5, 3, 5);
+        assertEquals(3, state.poll());
+        assertEquals(4, state.poll());
+        assertEquals(5, state.weight(4), 1e-6);
+        assertEquals(3, state.parentEdge(4));
+        assertEquals(5, state.parentNode(4));
+        assertEquals(5, state.poll());
+        assertEquals(-1, state.poll());
+    }
+
+    @Test
+    public void testReset() {
+        SearchState state = new SearchState(10);
+        state.init(3);
+        state.update(4, 10, 10, 1, 3);
+        assertTrue(state.isVisited(4));
+        assertEquals(EdgeIterator.NO_EDGE, state.parentEdge(3));
+
+        state.reset(20);
+        assertEquals(20, state.capacity());
+        assertFalse(state.isVisited(3));
+        assertFalse(state.isVisited(4));
+        assertEquals(-1, state.poll());
+
+        state.init(15);
+        assertTrue(state.isVisited(15));
+        assertEquals(15, state.poll());
+    }
+
+    @Test
+    public void testEpochOverflow() {
+        SearchState state = new SearchState(10);
+        state.epoch(Integer.MAX_VALUE - 1);
+        state.init(1);
+        assertTrue(state.isVisited(1));
+        state.reset(10);
+        assertFalse(state.isVisited(1));
+        state.init(2);
+        assertTrue(state.isVisited(2));
+        state.reset(10);
+        assertFalse(state.isVisited(2));
+    }
+}
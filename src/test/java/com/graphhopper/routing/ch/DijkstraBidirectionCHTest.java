@@ -30,6 +30,7 @@ import com.graphhopper.util.EdgeSkipIterator;
 import com.graphhopper.storage.GraphBuilder;
 import com.graphhopper.util.Helper;
 import java.io.IOException;
+import java.util.Random;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -75,6 +76,35 @@ public class DijkstraBidirectionCHTest extends AbstractRoutingAlgorithmTester {
         // super.testPerformance();
     }
 
+    @Test
+    public void testStallOnDemand() {
+        Graph g = getMatrixGraph();
+        PrepareContractionHierarchies prepare = (PrepareContractionHierarchies) prepareGraph(g);
+        DijkstraBidirectionCH algo = (DijkstraBidirectionCH) prepare.createAlgo();
+        Random rand = new Random(12);
+        int visited = 0, visitedWithoutStalling = 0, stalled = 0;
+        for (int i = 0; i < 100; i++) {
+            int from = rand.nextInt(g.nodes());
+            int to = rand.nextInt(g.nodes());
+            Path expected = prepare.createDijkstraRef().calcPath(from, to);
+
+            // the same instance is used for all queries
+            Path p = algo.stallOnDemand(true).calcPath(from, to);
+            visited += algo.calcVisitedNodes();
+            stalled += algo.stalledNodes();
+            assertEquals(expected.found(), p.found());
+            assertEquals(expected.distance(), p.distance(), 1e-4);
+            assertEquals(expected.calcNodes().size(), p.calcNodes().size());
+
+            p = algo.stallOnDemand(false).calcPath(from, to);
+            visitedWithoutStalling += algo.calcVisitedNodes();
+            assertEquals(0, algo.stalledNodes());
+            assertEquals(expected.distance(), p.distance(), 1e-4);
+        }
+        assertTrue(stalled > 0);
+        assertTrue(visited + " vs. " + visitedWithoutStalling, visited < visitedWithoutStalling);
+    }
+
     @Test
     public void testPathRecursiveUnpacking() {
         LevelGraphStorage g2 = (LevelGraphStorage) createGraph();
@@ -21,10 +21,10 @@ package com.graphhopper.routing.ch;
 import com.graphhopper.routing.DijkstraSimple;
 import com.graphhopper.routing.Path;
 import com.graphhopper.routing.RoutingAlgorithm;
-import com.graphhopper.routing.ch.PrepareContractionHierarchies.NodeCH;
 import com.graphhopper.routing.ch.PrepareContractionHierarchies.Shortcut;
 import com.graphhopper.routing.util.CarFlagEncoder;
 import com.graphhopper.routing.util.FastestCalc;
+import com.graphhopper.routing.util.FootFlagEncoder;
 import com.graphhopper.routing.util.ShortestCalc;
 import com.graphhopper.routing.util.WeightCalculation;
 import com.graphhopper.storage.Graph;
@@ -35,10 +35,10 @@ import com.graphhopper.storage.GraphBuilder;
 import com.graphhopper.util.BitUtil;
 import com.graphhopper.util.GHUtility;
 import com.graphhopper.util.Helper;
-import java.util.ArrayList;
+import java.io.File;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.List;
+import java.util.Random;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -72,53 +72,6 @@ public class PrepareContractionHierarchiesTest {
         return g;
     }
 
-    List<NodeCH> createGoals(int... gNodes) {
-        List<NodeCH> goals = new ArrayList<NodeCH>();
-        for (int i = 0; i < gNodes.length; i++) {
-            NodeCH n = new NodeCH();
-            n.endNode = gNodes[i];
-            goals.add(n);
-        }
-        return goals;
-    }
-
-    @Test
-    public void testShortestPathSkipNode() {
-        LevelGraph g = createExampleGraph();
-        double normalDist = new DijkstraSimple(g, carEncoder).calcPath(4, 2).distance();
-        PrepareContractionHierarchies.OneToManyDijkstraCH algo =
-                new PrepareContractionHierarchies.OneToManyDijkstraCH(g, carEncoder);
-        algo.edgeFilter(new PrepareContractionHierarchies.LevelEdgeFilterCH(g).avoidNode(3));
-        List<NodeCH> gs = createGoals(2);
-        algo.limit(10).calcPath(4, gs);
-        Path p = algo.extractPath(gs.get(0).entry);
-        assertTrue(p.distance() > normalDist);
-    }
-
-    @Test
-    public void testShortestPathSkipNode2() {
-        LevelGraph g = createExampleGraph();
-        double normalDist = new DijkstraSimple(g, carEncoder).calcPath(4, 2).distance();
-        PrepareContractionHierarchies.OneToManyDijkstraCH algo =
-                new PrepareContractionHierarchies.OneToManyDijkstraCH(g, carEncoder);
-        algo.edgeFilter(new PrepareContractionHierarchies.LevelEdgeFilterCH(g).avoidNode(3));
-        List<NodeCH> gs = createGoals(1, 2);
-        algo.limit(10).calcPath(4, gs);
-        Path p = algo.extractPath(gs.get(1).entry);
-        assertTrue(p.distance() > normalDist);
-    }
-
-    @Test
-    public void testShortestPathLimit() {
-        LevelGraph g = createExampleGraph();
-        PrepareContractionHierarchies.OneToManyDijkstraCH algo = 
-                new PrepareContractionHierarchies.OneToManyDijkstraCH(g, carEncoder);
-        algo.edgeFilter(new PrepareContractionHierarchies.LevelEdgeFilterCH(g).avoidNode(0));
-        List<NodeCH> gs = createGoals(1);
-        algo.limit(2).calcPath(4, gs);
-        assertNull(gs.get(0).entry);
-    }
-
     @Test
     public void testAddShortcuts() {
         LevelGraph g = createExampleGraph();
@@ -377,6 +330,121 @@ public class PrepareContractionHierarchiesTest {
         assertEquals(0, prepare.shortcuts());
     }
 
+    @Test
+    public void testParallelPreparationFindsSameRoutes() {
+        Graph g = new GraphBuilder().create();
+        Random rand = new Random(3);
+        int nodes = 300;
+        for (int i = 0; i < nodes; i++) {
+            g.edge(i, (i + 1) % nodes, 1 + rand.nextInt(20), true);
+            for (int j = 0; j < 2; j++) {
+                int other = (i + 2 + rand.nextInt(30)) % nodes;
+                g.edge(i, other, 1 + rand.nextInt(50), rand.nextBoolean());
+            }
+        }
+        LevelGraph sequentialG = (LevelGraph) g.copyTo(createGraph());
+        PrepareContractionHierarchies sequential = new PrepareContractionHierarchies().graph(sequentialG);
+        sequential.doWork();
+        LevelGraph parallelG = (LevelGraph) g.copyTo(createGraph());
+        PrepareContractionHierarchies parallel = new PrepareContractionHierarchies().graph(parallelG).
+                threads(4).batchSize(50);
+        parallel.doWork();
+        assertTrue(parallel.shortcuts() > 0);
+
+        for (int i = 0; i < 300; i++) {
+            int from = rand.nextInt(nodes);
+            int to = rand.nextInt(nodes);
+            if (from == to)
+                continue;
+            Path expected = new DijkstraSimple(g, carEncoder).calcPath(from, to);
+            Path seqPath = sequential.createAlgo().calcPath(from, to);
+            Path parPath = parallel.createAlgo().calcPath(from, to);
+            assertEquals("seq " + from + "->" + to, expected.found(), seqPath.found());
+            assertEquals("par " + from + "->" + to, expected.found(), parPath.found());
+            assertEquals(seqPath.distance(), parPath.distance(), 1e-6);
+            assertEquals(expected.distance(), parPath.distance(), 1e-6);
+            if (expected.found())
+                assertEquals(from, parPath.calcNodes().get(0));
+        }
+    }
+
+    @Test
+    public void testLimitedWitnessSearchFindsSameRoutes() {
+        Graph g = new GraphBuilder().create();
+        Random rand = new Random(5);
+        int nodes = 200;
+        for (int i = 0; i < nodes; i++) {
+            g.edge(i, (i + 1) % nodes, 1 + rand.nextInt(20), true);
+            int other = (i + 2 + rand.nextInt(30)) % nodes;
+            g.edge(i, other, 1 + rand.nextInt(50), rand.nextBoolean());
+        }
+        LevelGraph unlimitedG = (LevelGraph) g.copyTo(createGraph());
+        PrepareContractionHierarchies unlimited = new PrepareContractionHierarchies().graph(unlimitedG);
+        unlimited.doWork();
+        LevelGraph limitedG = (LevelGraph) g.copyTo(createGraph());
+        PrepareContractionHierarchies limited = new PrepareContractionHierarchies().graph(limitedG).
+                witnessHops(3).witnessSettledNodes(50);
+        limited.doWork();
+        assertTrue(limited.shortcuts() > unlimited.shortcuts());
+        assertTrue(limited.witnessSearches() > 0);
+        assertTrue(limited.settledWitnessNodes() <= 50 * limited.witnessSearches());
+
+        for (int i = 0; i < 200; i++) {
+            int from = rand.nextInt(nodes);
+            int to = rand.nextInt(nodes);
+            Path expected = new DijkstraSimple(g, carEncoder).calcPath(from, to);
+            Path path = limited.createAlgo().calcPath(from, to);
+            assertEquals(from + "->" + to, expected.found(), path.found());
+            assertEquals(from + "->" + to, expected.distance(), path.distance(), 1e-6);
+        }
+    }
+
+    @Test
+    public void testFlushAndLoadExisting() {
+        String location = "./target/ch-metadata";
+        Helper.removeDir(new File(location));
+        LevelGraphStorage g = new GraphBuilder().location(location).store(true).levelGraphCreate();
+        initShortcutsGraph(g);
+        PrepareContractionHierarchies prepare = new PrepareContractionHierarchies().graph(g);
+        // nothing to store before doWork
+        prepare.flush();
+        assertFalse(new PrepareContractionHierarchies().graph(g).loadExisting());
+        prepare.doWork();
+        double distance = prepare.createAlgo().calcPath(10, 6).distance();
+        g.flush();
+        prepare.flush();
+        g.close();
+
+        LevelGraphStorage loaded = new GraphBuilder().location(location).store(true).levelGraphBuild();
+        assertTrue(loaded.loadExisting());
+        PrepareContractionHierarchies loadedPrepare = new PrepareContractionHierarchies().graph(loaded);
+        assertTrue(loadedPrepare.loadExisting());
+        assertEquals(prepare.shortcuts(), loadedPrepare.shortcuts());
+        assertEquals(distance, loadedPrepare.createAlgo().calcPath(10, 6).distance(), 1e-6);
+
+        try {
+            new PrepareContractionHierarchies().graph(loaded).type(new FastestCalc(carEncoder)).loadExisting();
+            assertTrue(false);
+        } catch (IllegalStateException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("weighting"));
+        }
+        try {
+            new PrepareContractionHierarchies().graph(loaded).vehicle(new FootFlagEncoder()).loadExisting();
+            assertTrue(false);
+        } catch (IllegalStateException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("vehicle"));
+        }
+        loaded.setLevel(0, loaded.getLevel(0) + 1000);
+        try {
+            new PrepareContractionHierarchies().graph(loaded).loadExisting();
+            assertTrue(false);
+        } catch (IllegalStateException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("levels"));
+        }
+        loaded.close();
+        Helper.removeDir(new File(location));
+    }
+
     // 0-1-2-3-4
     // |     / |
     // |    8  |
@@ -0,0 +1,315 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing.ch;
+
+import com.graphhopper.routing.AbstractRoutingAlgorithmTester;
+import com.graphhopper.routing.DijkstraBidirectionRef;
+import com.graphhopper.routing.DijkstraSimple;
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.util.AllEdgesIterator;
+import com.graphhopper.routing.util.FastestCalc;
+import com.graphhopper.routing.util.ShortestCalc;
+import com.graphhopper.routing.util.VehicleEncoder;
+import com.graphhopper.routing.util.WeightCalculation;
+import com.graphhopper.storage.Graph;
+import com.graphhopper.storage.GraphBuilder;
+import com.graphhopper.storage.GraphStorage;
+import com.graphhopper.storage.LevelGraph;
+import com.graphhopper.storage.LevelGraphStorage;
+import com.graphhopper.util.EdgeIterator;
+import com.graphhopper.util.Helper;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Runs the routing tests against a graph prepared with customizable
+ * contraction hierarchies and tests the re-customization.
+ *
+ * @author Peter Karich
+ */
+public class PrepareCustomizableCHTest extends AbstractRoutingAlgorithmTester {
+
+    // graph is expensive to create and to prepare!
+    private static Graph preparedMatrixGraph;
+    // the weights are not stored in the graph => reuse the preparation too
+    private static PrepareCustomizableCH preparedMatrix;
+
+    @Override public Graph getMatrixGraph() {
+        if (preparedMatrixGraph == null) {
+            LevelGraph lg = createGraph();
+            getMatrixAlikeGraph().copyTo(lg);
+            preparedMatrix = prepareGraph(lg, new ShortestCalc(), carEncoder);
+            preparedMatrixGraph = lg;
+        }
+        return preparedMatrixGraph;
+    }
+
+    @Override
+    protected LevelGraph createGraph() {
+        return new GraphBuilder().levelGraphCreate();
+    }
+
+    @Override
+    public PrepareCustomizableCH prepareGraph(Graph g, WeightCalculation calc, VehicleEncoder encoder) {
+        // hack: prepare matrixgraph only once
+        if (g == preparedMatrixGraph)
+            return preparedMatrix;
+        PrepareCustomizableCH ch = new PrepareCustomizableCH();
+        ch.graph(g).type(calc).vehicle(encoder);
+        ch.doWork();
+        return ch;
+    }
+
+    @Test @Override public void testPerformance() throws IOException {
+        // the preparation of the big graph takes too long
+    }
+
+    /**
+     * Creates the same edge ids for the same seed, in contrast to copyTo.
+     */
+    <T extends Graph> T initRandomGraph(T g, long seed, int nodes) {
+        Random rand = new Random(seed);
+        for (int i = 0; i < nodes; i++) {
+            g.edge(i, (i + 1) % nodes, 1 + rand.nextInt(20), carEncoder.flags(10 + 10 * rand.nextInt(8), true));
+            for (int j = 0; j < 2; j++) {
+                int other = (i + 2 + rand.nextInt(30)) % nodes;
+                g.edge(i, other, 1 + rand.nextInt(50), carEncoder.flags(10 + 10 * rand.nextInt(8), rand.nextBoolean()));
+            }
+        }
+        return g;
+    }
+
+    void assertSameWeights(Graph expectedGraph, WeightCalculation calc, PrepareCustomizableCH prepare,
+            Random rand, int nodes) {
+        for (int i = 0; i < 200; i++) {
+            int from = rand.nextInt(nodes);
+            int to = rand.nextInt(nodes);
+            if (from == to)
+                continue;
+            Path expected = new DijkstraBidirectionRef(expectedGraph, carEncoder).type(calc).calcPath(from, to);
+            Path path = prepare.createAlgo().calcPath(from, to);
+            assertEquals(from + "->" + to, expected.found(), path.found());
+            if (!expected.found())
+                continue;
+            assertEquals(from + "->" + to, expected.weight(), path.weight(), 1e-2);
+            assertEquals(from, path.calcNodes().get(0));
+            assertEquals(to, path.calcNodes().get(path.calcNodes().size() - 1));
+        }
+    }
+
+    @Test
+    public void testCustomizeKeepsShortcuts() {
+        Random rand = new Random(2);
+        int nodes = 300;
+        Graph g = initRandomGraph(new GraphBuilder().create(), 2, nodes);
+        LevelGraph lg = (LevelGraph) g.copyTo(createGraph());
+        PrepareCustomizableCH prepare = new PrepareCustomizableCH();
+        prepare.graph(lg);
+        prepare.doWork();
+        int shortcuts = prepare.shortcuts();
+        int edges = lg.getAllEdges().maxId();
+        assertTrue(shortcuts > 0);
+        assertSameWeights(g, new ShortestCalc(), prepare, rand, nodes);
+        for (int i = 0; i < 200; i++) {
+            int from = rand.nextInt(nodes);
+            int to = rand.nextInt(nodes);
+            Path expected = new DijkstraSimple(g, carEncoder).calcPath(from, to);
+            assertEquals(expected.distance(), prepare.createAlgo().calcPath(from, to).distance(), 1e-2);
+        }
+
+        FastestCalc fastest = new FastestCalc(carEncoder);
+        prepare.customize(fastest);
+        assertEquals(shortcuts, prepare.shortcuts());
+        assertEquals(edges, lg.getAllEdges().maxId());
+        assertSameWeights(g, fastest, prepare, rand, nodes);
+
+        prepare.customize(new ShortestCalc());
+        assertSameWeights(g, new ShortestCalc(), prepare, rand, nodes);
+    }
+
+    @Test
+    public void testCustomizeUpdatedSpeeds() {
+        Random rand = new Random(5);
+        int nodes = 300;
+        GraphStorage g = initRandomGraph(new GraphBuilder().create(), 5, nodes);
+        LevelGraphStorage lg = initRandomGraph(new GraphBuilder().levelGraphCreate(), 5, nodes);
+        FastestCalc fastest = new FastestCalc(carEncoder);
+        PrepareCustomizableCH prepare = new PrepareCustomizableCH();
+        prepare.graph(lg).type(fastest);
+        prepare.doWork();
+        assertSameWeights(g, fastest, prepare, rand, nodes);
+
+        int originalEdges = g.getAllEdges().maxId();
+        int[] edgeIds = new int[originalEdges / 3];
+        int[] speeds = new int[edgeIds.length];
+        for (int i = 0; i < edgeIds.length; i++) {
+            edgeIds[i] = rand.nextInt(originalEdges);
+            speeds[i] = 5 + rand.nextInt(100);
+        }
+        g.updateSpeeds(edgeIds, speeds, carEncoder);
+        lg.updateSpeeds(edgeIds, speeds, carEncoder);
+        prepare.customize(fastest);
+        assertSameWeights(g, fastest, prepare, rand, nodes);
+    }
+
+    @Test
+    public void testCustomizeKeepsDistances() {
+        int nodes = 100;
+        Graph g = initRandomGraph(new GraphBuilder().create(), 4, nodes);
+        LevelGraph lg = initRandomGraph(new GraphBuilder().levelGraphCreate(), 4, nodes);
+        PrepareCustomizableCH prepare = new PrepareCustomizableCH();
+        prepare.graph(lg);
+        prepare.doWork();
+        prepare.customize(new FastestCalc(carEncoder));
+        AllEdgesIterator iter = g.getAllEdges();
+        while (iter.next()) {
+            EdgeIterator prepared = lg.getEdgeProps(iter.edge(), iter.adjNode());
+            assertEquals(iter.distance(), prepared.distance(), 1e-6);
+            assertEquals(iter.flags(), prepared.flags());
+        }
+    }
+
+    @Test
+    public void testCreateAlgoForOtherWeights() {
+        Random rand = new Random(6);
+        int nodes = 200;
+        Graph g = initRandomGraph(new GraphBuilder().create(), 6, nodes);
+        LevelGraph lg = initRandomGraph(new GraphBuilder().levelGraphCreate(), 6, nodes);
+        PrepareCustomizableCH prepare = new PrepareCustomizableCH();
+        prepare.graph(lg);
+        prepare.doWork();
+        FastestCalc fastest = new FastestCalc(carEncoder);
+        CCHWeights fastestWeights = prepare.calcWeights(fastest);
+        assertSame(fastest, fastestWeights.type());
+        // the weights of createAlgo are still the shortest ones
+        assertSameWeights(g, new ShortestCalc(), prepare, rand, nodes);
+        for (int i = 0; i < 100; i++) {
+            int from = rand.nextInt(nodes);
+            int to = rand.nextInt(nodes);
+            Path expected = new DijkstraBidirectionRef(g, carEncoder).type(fastest).calcPath(from, to);
+            Path path = prepare.createAlgo(fastestWeights).calcPath(from, to);
+            assertEquals(from + "->" + to, expected.found(), path.found());
+            assertEquals(from + "->" + to, expected.weight(), path.weight(), 1e-2);
+        }
+    }
+
+    @Test
+    public void testQueryWhileCustomize() throws InterruptedException {
+        Random rand = new Random(3);
+        int nodes = 300;
+        Graph g = initRandomGraph(new GraphBuilder().create(), 3, nodes);
+        LevelGraph lg = initRandomGraph(new GraphBuilder().levelGraphCreate(), 3, nodes);
+        final PrepareCustomizableCH prepare = new PrepareCustomizableCH();
+        prepare.graph(lg);
+        prepare.doWork();
+        final ShortestCalc shortest = new ShortestCalc();
+        final FastestCalc fastest = new FastestCalc(carEncoder);
+        final int queries = 100;
+        final int[] from = new int[queries];
+        final int[] to = new int[queries];
+        final double[] shortestWeights = new double[queries];
+        final double[] fastestWeights = new double[queries];
+        for (int i = 0; i < queries; i++) {
+            from[i] = rand.nextInt(nodes);
+            to[i] = rand.nextInt(nodes);
+            shortestWeights[i] = new DijkstraBidirectionRef(g, carEncoder).type(shortest).calcPath(from[i], to[i]).weight();
+            fastestWeights[i] = new DijkstraBidirectionRef(g, carEncoder).type(fastest).calcPath(from[i], to[i]).weight();
+        }
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<String> error = new AtomicReference<String>();
+        Thread[] threads = new Thread[3];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override public void run() {
+                    try {
+                        for (int i = 0; running.get() && error.get() == null; i++) {
+                            int q = i % queries;
+                            // the weights of one algorithm do not change while customize runs
+                            DijkstraBidirectionCCH algo = (DijkstraBidirectionCCH) prepare.createAlgo();
+                            double expected = algo.weights().type() == fastest ? fastestWeights[q] : shortestWeights[q];
+                            double weight = algo.calcPath(from[q], to[q]).weight();
+                            if (Math.abs(expected - weight) > 1e-2)
+                                error.compareAndSet(null, from[q] + "->" + to[q] + " " + algo.weights()
+                                        + " expected " + expected + " but was " + weight);
+                        }
+                    } catch (Throwable ex) {
+                        error.compareAndSet(null, ex.toString());
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int i = 0; i < 20; i++) {
+            prepare.customize(i % 2 == 0 ? fastest : shortest);
+        }
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get());
+    }
+
+    @Test
+    public void testLoadExisting() {
+        String location = "./target/cch-graph";
+        Helper.removeDir(new File(location));
+        Random rand = new Random(7);
+        int nodes = 100;
+        Graph g = initRandomGraph(new GraphBuilder().create(), 7, nodes);
+        LevelGraphStorage lg = (LevelGraphStorage) g.copyTo(new GraphBuilder().location(location).store(true).levelGraphCreate());
+        PrepareCustomizableCH prepare = new PrepareCustomizableCH();
+        prepare.graph(lg);
+        try {
+            prepare.customize(new ShortestCalc());
+            assertTrue(false);
+        } catch (IllegalStateException ex) {
+        }
+        prepare.doWork();
+        lg.flush();
+        prepare.flush();
+        lg.close();
+
+        LevelGraphStorage loaded = new GraphBuilder().location(location).store(true).levelGraphBuild();
+        assertTrue(loaded.loadExisting());
+        PrepareCustomizableCH loadedPrepare = new PrepareCustomizableCH();
+        loadedPrepare.graph(loaded);
+        assertTrue(loadedPrepare.loadExisting());
+        assertEquals(prepare.shortcuts(), loadedPrepare.shortcuts());
+        FastestCalc fastest = new FastestCalc(carEncoder);
+        loadedPrepare.customize(fastest);
+        assertSameWeights(g, fastest, loadedPrepare, rand, nodes);
+        loaded.close();
+        Helper.removeDir(new File(location));
+    }
+
+    @Test
+    public void testRemoveHigher2LowerEdgesRequired() {
+        try {
+            new PrepareCustomizableCH().removeHigher2LowerEdges(false);
+            assertTrue(false);
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing.ch;
+
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.util.AllEdgesSkipIterator;
+import com.graphhopper.storage.GraphBuilder;
+import com.graphhopper.storage.LevelGraph;
+import com.graphhopper.util.EdgeSkipIterator;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Peter Karich
+ */
+public class ShortcutUnpackCacheTest {
+
+    LevelGraph createGrid(int size) {
+        LevelGraph g = new GraphBuilder().levelGraphCreate();
+        Random rand = new Random(1);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int node = y * size + x;
+                g.setNode(node, y * 0.01, x * 0.01);
+                if (x + 1 < size)
+                    g.edge(node, node + 1, 10 + rand.nextInt(90), rand.nextInt(10) > 0);
+                if (y + 1 < size)
+                    g.edge(node, node + size, 10 + rand.nextInt(90), true);
+            }
+        }
+        return g;
+    }
+
+    @Test
+    public void testSamePaths() {
+        LevelGraph g = createGrid(30);
+        PrepareContractionHierarchies prepare = new PrepareContractionHierarchies().graph(g).doWork();
+        PrepareContractionHierarchies cached = new PrepareContractionHierarchies().graph(g).unpackCache(1000000);
+        Random rand = new Random(2);
+        for (int i = 0; i < 200; i++) {
+            int from = rand.nextInt(g.nodes());
+            int to = rand.nextInt(g.nodes());
+            Path expected = prepare.createAlgo().calcPath(from, to);
+            assertSamePath(expected, cached.createAlgo().calcPath(from, to));
+            assertSamePath(expected, cached.createDijkstraRef().calcPath(from, to));
+        }
+    }
+
+    void assertSamePath(Path expected, Path p) {
+        assertEquals(expected.found(), p.found());
+        assertEquals(expected.distance(), p.distance(), 1e-4);
+        assertEquals(expected.time(), p.time());
+        assertEquals(expected.calcNodes(), p.calcNodes());
+    }
+
+    @Test
+    public void testMemoryBudget() {
+        LevelGraph g = createGrid(20);
+        new PrepareContractionHierarchies().graph(g).doWork();
+        ShortcutUnpackCache all = new ShortcutUnpackCache(g, Long.MAX_VALUE);
+        assertTrue(all.shortcuts() > 0);
+
+        ShortcutUnpackCache cache = new ShortcutUnpackCache(g, all.bytes() / 4);
+        assertTrue(cache.bytes() <= all.bytes() / 4);
+        assertTrue(cache.shortcuts() > 0);
+        assertTrue(cache.shortcuts() < all.shortcuts());
+        assertEquals(0, new ShortcutUnpackCache(g, 10).shortcuts());
+
+        // a shortcut is only cached if all more important ones are cached
+        int minCachedRank = Integer.MAX_VALUE;
+        AllEdgesSkipIterator iter = g.getAllEdges();
+        while (iter.next()) {
+            if (cache.offset(iter.edge()) >= 0)
+                minCachedRank = Math.min(minCachedRank, rank(g, iter));
+        }
+        iter = g.getAllEdges();
+        while (iter.next()) {
+            if (all.offset(iter.edge()) >= 0 && rank(g, iter) > minCachedRank)
+                assertTrue(cache.offset(iter.edge()) >= 0);
+        }
+    }
+
+    int rank(LevelGraph g, EdgeSkipIterator iter) {
+        return Math.min(g.getLevel(iter.baseNode()), g.getLevel(iter.adjNode()));
+    }
+
+    @Test
+    public void testCachedEdgesInBothDirections() {
+        LevelGraph g = createGrid(20);
+        PrepareContractionHierarchies prepare = new PrepareContractionHierarchies().graph(g).doWork();
+        ShortcutUnpackCache cache = new ShortcutUnpackCache(g, Long.MAX_VALUE);
+        ShortcutUnpacker unpacker = new ShortcutUnpacker(g, null);
+        ShortcutUnpacker cachedUnpacker = new ShortcutUnpacker(g, cache);
+        AllEdgesSkipIterator iter = g.getAllEdges();
+        int checked = 0;
+        while (iter.next()) {
+            if (cache.offset(iter.edge()) < 0)
+                continue;
+            for (int endNode : new int[]{iter.baseNode(), iter.adjNode()}) {
+                for (boolean reverseOrder : new boolean[]{true, false}) {
+                    assertEquals(unpack(unpacker, iter.edge(), endNode, reverseOrder),
+                            unpack(cachedUnpacker, iter.edge(), endNode, reverseOrder));
+                }
+            }
+            checked++;
+        }
+        assertTrue(checked > 0);
+    }
+
+    String unpack(ShortcutUnpacker unpacker, int edge, int endNode, boolean reverseOrder) {
+        final StringBuilder sb = new StringBuilder();
+        unpacker.unpack(edge, endNode, reverseOrder, new ShortcutUnpacker.Visitor() {
+            @Override public void next(EdgeSkipIterator originalEdge) {
+                sb.append(originalEdge.baseNode()).append('-').append(originalEdge.adjNode()).append(' ');
+            }
+        });
+        return sb.toString();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.routing.ch;
+
+import com.graphhopper.routing.DijkstraSimple;
+import com.graphhopper.routing.util.CarFlagEncoder;
+import com.graphhopper.storage.GraphBuilder;
+import com.graphhopper.storage.LevelGraph;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * @author Peter Karich
+ */
+public class WitnessSearchTest {
+
+    CarFlagEncoder carEncoder = new CarFlagEncoder();
+
+    LevelGraph createExampleGraph() {
+        LevelGraph g = new GraphBuilder().levelGraphCreate();
+
+        //5-1-----2
+        //   \ __/|
+        //    0   |
+        //   /    |
+        //  4-----3
+        //
+        g.edge(0, 1, 1, true);
+        g.edge(0, 2, 1, true);
+        g.edge(0, 4, 3, true);
+        g.edge(1, 2, 2, true);
+        g.edge(2, 3, 1, true);
+        g.edge(4, 3, 2, true);
+        g.edge(5, 1, 2, true);
+        return g;
+    }
+
+    @Test
+    public void testShortestPathSkipNode() {
+        LevelGraph g = createExampleGraph();
+        double normalDist = new DijkstraSimple(g, carEncoder).calcPath(4, 2).distance();
+        WitnessSearch search = new WitnessSearch(g, carEncoder);
+        search.reset().addTarget(2);
+        search.search(4, 3, 10);
+        assertTrue(search.weight(2) > normalDist);
+        assertEquals(4, search.weight(2), 1e-6);
+    }
+
+    @Test
+    public void testShortestPathSkipNode2() {
+        LevelGraph g = createExampleGraph();
+        double normalDist = new DijkstraSimple(g, carEncoder).calcPath(4, 2).distance();
+        WitnessSearch search = new WitnessSearch(g, carEncoder);
+        search.reset().addTarget(1);
+        search.addTarget(2);
+        search.search(4, 3, 10);
+        assertEquals(4, search.weight(1), 1e-6);
+        assertTrue(search.weight(2) > normalDist);
+    }
+
+    @Test
+    public void testShortestPathLimit() {
+        LevelGraph g = createExampleGraph();
+        WitnessSearch search = new WitnessSearch(g, carEncoder);
+        search.reset().addTarget(1);
+        search.search(4, 0, 2);
+        assertTrue(Double.isInfinite(search.weight(1)));
+    }
+
+    @Test
+    public void testIgnoresContractedNodes() {
+        LevelGraph g = createExampleGraph();
+        g.setLevel(0, 1);
+        WitnessSearch search = new WitnessSearch(g, carEncoder);
+        search.reset().addTarget(2);
+        search.search(4, 5, 10);
+        assertEquals(3, search.weight(2), 1e-6);
+    }
+
+    @Test
+    public void testReset() {
+        LevelGraph g = createExampleGraph();
+        WitnessSearch search = new WitnessSearch(g, carEncoder);
+        search.reset().addTarget(2);
+        search.search(4, 3, 10);
+        assertEquals(4, search.weight(2), 1e-6);
+
+        search.reset().addTarget(3);
+        search.search(2, 0, 10);
+        assertEquals(1, search.weight(3), 1e-6);
+        assertTrue(Double.isInfinite(search.weight(4)));
+        assertEquals(2, search.searches());
+    }
+
+    @Test
+    public void testMaxHops() {
+        LevelGraph g = createExampleGraph();
+        WitnessSearch search = new WitnessSearch(g, carEncoder).maxHops(1);
+        search.reset().addTarget(2);
+        search.search(4, 3, 10);
+        // 4-0-2 needs two edges
+        assertTrue(Double.isInfinite(search.weight(2)));
+
+        search.maxHops(2).reset().addTarget(2);
+        search.search(4, 3, 10);
+        assertEquals(4, search.weight(2), 1e-6);
+    }
+
+    @Test
+    public void testMaxSettledNodes() {
+        LevelGraph g = createExampleGraph();
+        WitnessSearch search = new WitnessSearch(g, carEncoder).maxSettledNodes(2);
+        search.reset().addTarget(5);
+        search.search(4, 3, 10);
+        // only 4 and 0 are settled
+        assertEquals(3, search.weight(0), 1e-6);
+        assertTrue(Double.isInfinite(search.weight(1)));
+        assertTrue(Double.isInfinite(search.weight(5)));
+        assertEquals(2, search.settledNodes());
+    }
+}
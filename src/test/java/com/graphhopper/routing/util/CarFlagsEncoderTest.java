@@ -73,6 +73,20 @@ public class CarFlagsEncoderTest {
         assertEquals(0, encoder.swapDirection(0));
     }
 
+    @Test
+    public void testSetSpeed() {
+        FootFlagEncoder footEncoder = new FootFlagEncoder();
+        int flags = encoder.swapDirection(encoder.flags(50, false)) | footEncoder.flags(4, true);
+        int newFlags = encoder.setSpeed(flags, 30);
+        assertEquals(30, encoder.getSpeed(newFlags));
+        assertFalse(encoder.isForward(newFlags));
+        assertTrue(encoder.isBackward(newFlags));
+        // other vehicles are kept
+        assertEquals(footEncoder.getSpeed(flags), footEncoder.getSpeed(newFlags));
+        assertTrue(footEncoder.isBoth(newFlags));
+        assertEquals(0, encoder.getSpeed(encoder.setSpeed(flags, 0)));
+    }
+
     @Test
     public void testService() {
         Map<String, Object> properties = new HashMap<String, Object>();
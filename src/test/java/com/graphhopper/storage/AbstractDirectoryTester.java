@@ -72,4 +72,17 @@ public abstract class AbstractDirectoryTester {
         da.create(100);
         da.flush();
     }
+
+    @Test
+    public void testRemoveCloses() {
+        Directory dir = createDir();
+        DataAccess removed = dir.findCreate("testing");
+        removed.create(100);
+        removed.setInt(1, 123);
+        dir.remove(removed);
+        assertEquals(0, removed.capacity());
+
+        da = dir.findCreate("testing");
+        assertTrue(da != removed);
+    }
 }
@@ -0,0 +1,206 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.storage;
+
+import com.graphhopper.routing.DijkstraBidirectionRef;
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.ch.PrepareContractionHierarchies;
+import com.graphhopper.routing.util.CarFlagEncoder;
+import com.graphhopper.routing.util.FastestCalc;
+import com.graphhopper.util.EdgeIterator;
+import com.graphhopper.util.GHUtility;
+import com.graphhopper.util.Helper;
+import java.io.File;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Peter Karich
+ */
+public class CHOverlayTest {
+
+    private final String location = "./target/ch-overlay";
+
+    @Before
+    public void setUp() {
+        Helper.removeDir(new File(location));
+    }
+
+    @After
+    public void tearDown() {
+        Helper.removeDir(new File(location));
+    }
+
+    GraphStorage createBase(Directory dir) {
+        GraphStorage g = new GraphStorage(dir).create(10);
+        g.setNode(0, 1, 1);
+        g.setNode(1, 1, 2);
+        g.setNode(2, 1, 3);
+        g.setNode(3, 1, 4);
+        g.setNode(4, 0, 2);
+        g.setNode(5, 2, 3);
+        g.edge(0, 1, 10, true).wayGeometry(Helper.createPointList(1.1, 1.5));
+        g.edge(1, 2, 10, true);
+        g.edge(2, 3, 10, true).wayGeometry(Helper.createPointList(1.1, 3.3, 1.2, 3.6));
+        g.edge(0, 4, 30, true);
+        g.edge(4, 3, 30, true);
+        g.edge(1, 4, 5, true);
+        g.edge(2, 5, 3, true).wayGeometry(Helper.createPointList(1.5, 3));
+        g.edge(5, 3, 3, false);
+        return g;
+    }
+
+    @Test
+    public void testSameRoutesAsBase() {
+        GraphStorage base = createBase(new RAMDirectory());
+        CHOverlay overlay = new CHOverlay(base, new RAMDirectory());
+        overlay.create(10);
+        assertEquals(base.nodes(), overlay.nodes());
+        assertEquals(base.getAllEdges().maxId(), overlay.getAllEdges().maxId());
+        PrepareContractionHierarchies prepare = new PrepareContractionHierarchies().graph(overlay).doWork();
+        // only the shortcuts are stored in the overlay
+        assertEquals(base.getAllEdges().maxId() + prepare.shortcuts(), overlay.getAllEdges().maxId());
+
+        for (int from = 0; from < base.nodes(); from++) {
+            for (int to = 0; to < base.nodes(); to++) {
+                Path expected = new DijkstraBidirectionRef(base, new CarFlagEncoder()).calcPath(from, to);
+                Path p = prepare.createAlgo().calcPath(from, to);
+                assertEquals(from + "->" + to, expected.found(), p.found());
+                assertEquals(from + "->" + to, expected.distance(), p.distance(), 1e-4);
+                assertEquals(from + "->" + to, expected.calcPoints(), p.calcPoints());
+            }
+        }
+
+        // the base graph is not modified by the preparation
+        assertEquals(10, base.getEdgeProps(0, 1).distance(), 1e-6);
+        assertEquals(3, GHUtility.count(base.getEdges(4)));
+    }
+
+    @Test
+    public void testTwoProfilesOnOneBase() {
+        GraphStorage base = createBase(new RAMDirectory());
+        CarFlagEncoder encoder = new CarFlagEncoder();
+        base.edge(0, 3, 20, encoder.flags(10, true));
+        FastestCalc fastest = new FastestCalc(encoder);
+        CHOverlay shortestOverlay = new CHOverlay(base, new RAMDirectory()).create(10);
+        CHOverlay fastestOverlay = new CHOverlay(base, new RAMDirectory()).create(10);
+        PrepareContractionHierarchies shortest = new PrepareContractionHierarchies().graph(shortestOverlay).doWork();
+        PrepareContractionHierarchies fastestPrepare = new PrepareContractionHierarchies().type(fastest).
+                graph(fastestOverlay).doWork();
+
+        for (int from = 0; from < base.nodes(); from++) {
+            for (int to = 0; to < base.nodes(); to++) {
+                Path expected = new DijkstraBidirectionRef(base, encoder).calcPath(from, to);
+                assertEquals(from + "->" + to, expected.distance(), shortest.createAlgo().calcPath(from, to).distance(), 1e-4);
+                expected = new DijkstraBidirectionRef(base, encoder).type(fastest).calcPath(from, to);
+                Path p = fastestPrepare.createAlgo().calcPath(from, to);
+                assertEquals(from + "->" + to, expected.weight(), p.weight(), 1e-2);
+            }
+        }
+        // the slow direct edge is only used by the shortest profile
+        assertEquals(Helper.createTList(0, 3), shortest.createAlgo().calcPath(0, 3).calcNodes());
+        assertEquals(Helper.createTList(0, 1, 2, 5, 3), fastestPrepare.createAlgo().calcPath(0, 3).calcNodes());
+        assertEquals(20, base.getEdgeProps(8, 3).distance(), 1e-6);
+    }
+
+    @Test
+    public void testDisconnectHidesBaseEdge() {
+        GraphStorage base = createBase(new RAMDirectory());
+        CHOverlay overlay = new CHOverlay(base, new RAMDirectory()).create(10);
+        EdgeIterator iter = overlay.getEdges(0);
+        assertTrue(iter.next());
+        assertEquals(1, iter.adjNode());
+        overlay.disconnect(iter);
+        assertEquals(2, GHUtility.count(overlay.getEdges(0)));
+        assertEquals(2, GHUtility.count(overlay.getEdges(1)));
+        assertEquals(3, GHUtility.count(base.getEdges(1)));
+
+        // the weight is per overlay
+        iter = overlay.getEdgeProps(1, 2);
+        iter.distance(25);
+        assertEquals(25, overlay.getEdgeProps(1, 2).distance(), 1e-6);
+        assertEquals(10, base.getEdgeProps(1, 2).distance(), 1e-6);
+        try {
+            iter.flags(0);
+            fail();
+        } catch (UnsupportedOperationException ex) {
+        }
+    }
+
+    @Test
+    public void testGeometryFromBase() {
+        GraphStorage base = createBase(new RAMDirectory());
+        CHOverlay overlay = new CHOverlay(base, new RAMDirectory());
+        overlay.create(10);
+        EdgeIterator iter = overlay.getEdgeProps(2, 3);
+        assertEquals(Helper.createPointList(1.1, 3.3, 1.2, 3.6), iter.wayGeometry());
+        iter = overlay.getEdgeProps(2, 2);
+        assertEquals(Helper.createPointList(1.2, 3.6, 1.1, 3.3), iter.wayGeometry());
+        assertEquals(0, overlay.getEdgeProps(1, 2).wayGeometry().size());
+
+        int shortcut = overlay.edge(0, 2, 20, true).edge();
+        assertEquals(base.getAllEdges().maxId(), shortcut);
+        assertEquals(0, overlay.getEdgeProps(shortcut, 2).wayGeometry().size());
+        assertEquals(2, GHUtility.count(base.getEdges(0)));
+        assertEquals(3, GHUtility.count(overlay.getEdges(0)));
+    }
+
+    @Test
+    public void testFlushAndLoadExisting() {
+        GraphStorage base = createBase(new RAMDirectory(location + "/base", true));
+        base.flush();
+        CHOverlay overlay = new CHOverlay(base, new RAMDirectory(location + "/base/ch", true));
+        overlay.create(10);
+        PrepareContractionHierarchies prepare = new PrepareContractionHierarchies().graph(overlay).doWork();
+        int edges = overlay.getAllEdges().maxId();
+        double dist = prepare.createAlgo().calcPath(0, 3).distance();
+        overlay.flush();
+        overlay.close();
+
+        overlay = new CHOverlay(base, new RAMDirectory(location + "/base/ch", true));
+        assertTrue(overlay.loadExisting());
+        assertEquals(edges, overlay.getAllEdges().maxId());
+        Path p = new PrepareContractionHierarchies().graph(overlay).createAlgo().calcPath(0, 3);
+        assertEquals(dist, p.distance(), 1e-6);
+        assertEquals(Helper.createPointList(1, 1, 1.1, 1.5, 1, 2, 1, 3, 1.5, 3, 2, 3, 1, 4), p.calcPoints());
+
+        // an overlay for a different base graph
+        GraphStorage other = new GraphStorage(new RAMDirectory()).create(10);
+        other.setNode(0, 1, 1);
+        other.edge(0, 1, 10, true);
+        try {
+            new CHOverlay(other, new RAMDirectory(location + "/base/ch", true)).loadExisting();
+            fail();
+        } catch (IllegalStateException ex) {
+        }
+    }
+
+    @Test
+    public void testOwnDirectory() {
+        RAMDirectory dir = new RAMDirectory();
+        try {
+            new CHOverlay(new GraphStorage(dir), dir);
+            fail();
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+}
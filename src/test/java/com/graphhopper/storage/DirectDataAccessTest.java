@@ -0,0 +1,86 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.storage;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * @author Peter Karich
+ */
+public class DirectDataAccessTest extends DataAccessTest {
+
+    @Override
+    public DataAccess createDataAccess(String name) {
+        return new DirectDataAccess(name, directory, true).segmentSize(128);
+    }
+
+    @Test
+    public void testMixRAM2Direct() {
+        DataAccess da = new RAMDataAccess(name, directory, true).segmentSize(128);
+        da.create(300);
+        da.setInt(7, 123);
+        da.setInt(70, -456);
+        da.setHeader(0, 789);
+        da.flush();
+        da.close();
+
+        da = createDataAccess(name);
+        assertTrue(da.loadExisting());
+        assertEquals(123, da.getInt(7));
+        assertEquals(-456, da.getInt(70));
+        assertEquals(789, da.getHeader(0));
+        da.close();
+    }
+
+    @Test
+    public void testMixDirect2MMap() {
+        DataAccess da = createDataAccess(name);
+        da.create(300);
+        da.setInt(7, 123);
+        da.setInt(70, 0x01020304);
+        da.flush();
+        da.close();
+
+        da = new MMapDataAccess(name, directory);
+        assertTrue(da.loadExisting());
+        assertEquals(123, da.getInt(7));
+        assertEquals(0x01020304, da.getInt(70));
+        da.close();
+    }
+
+    @Test
+    public void testLoadTrimmedMMap() {
+        DataAccess da = new MMapDataAccess(name, directory).segmentSize(128);
+        da.create(128 * 3);
+        da.setInt(5, 5);
+        da.setInt(80, 80);
+        da.trimTo(128 * 2 + 4);
+        da.flush();
+        da.close();
+
+        da = createDataAccess(name);
+        assertTrue(da.loadExisting());
+        assertEquals(3, da.segments());
+        assertEquals(5, da.getInt(5));
+        assertEquals(80, da.getInt(80));
+        assertEquals(0, da.getInt(95));
+        da.close();
+    }
+}
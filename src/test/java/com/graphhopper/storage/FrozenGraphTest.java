@@ -0,0 +1,325 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.storage;
+
+import com.graphhopper.routing.DijkstraBidirection;
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.util.AllEdgesIterator;
+import com.graphhopper.routing.util.CarFlagEncoder;
+import com.graphhopper.routing.util.DefaultEdgeFilter;
+import com.graphhopper.util.EdgeIterator;
+import com.graphhopper.util.GHUtility;
+import com.graphhopper.util.Helper;
+import com.graphhopper.util.PointList;
+import java.io.File;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Peter Karich
+ */
+public class FrozenGraphTest {
+
+    private String location = "./target/tmp/frozen";
+
+    @Before
+    public void setUp() {
+        Helper.removeDir(new File(location));
+    }
+
+    @After
+    public void tearDown() {
+        Helper.removeDir(new File(location));
+    }
+
+    /**
+     * Creates a grid with random distances, some one-way edges and some
+     * pillar nodes.
+     */
+    static void initGrid(Graph g, int size, long seed) {
+        Random rand = new Random(seed);
+        for (int lat = 0; lat < size; lat++) {
+            for (int lon = 0; lon < size; lon++) {
+                int node = lat * size + lon;
+                g.setNode(node, 42 + lat * 0.01, 10 + lon * 0.01);
+            }
+        }
+        for (int lat = 0; lat < size; lat++) {
+            for (int lon = 0; lon < size; lon++) {
+                int node = lat * size + lon;
+                if (lon > 0) {
+                    EdgeIterator iter = g.edge(node, node - 1, 1000 + rand.nextInt(500), rand.nextInt(5) > 0);
+                    if (rand.nextInt(3) == 0) {
+                        PointList pillars = new PointList();
+                        pillars.add(42 + lat * 0.01 + 0.001, 10 + lon * 0.01 - 0.003);
+                        pillars.add(42 + lat * 0.01 + 0.002, 10 + lon * 0.01 - 0.006);
+                        iter.wayGeometry(pillars);
+                    }
+                }
+                if (lat > 0)
+                    g.edge(node - size, node, 1000 + rand.nextInt(500), rand.nextInt(5) > 0);
+            }
+        }
+    }
+
+    static void assertSameGraph(Graph expected, Graph graph) {
+        assertEquals(expected.nodes(), graph.nodes());
+        assertEquals(expected.bounds().minLat, graph.bounds().minLat, 1e-6);
+        assertEquals(expected.bounds().maxLat, graph.bounds().maxLat, 1e-6);
+        assertEquals(expected.bounds().minLon, graph.bounds().minLon, 1e-6);
+        assertEquals(expected.bounds().maxLon, graph.bounds().maxLon, 1e-6);
+        for (int node = 0; node < expected.nodes(); node++) {
+            assertEquals(expected.getLatitude(node), graph.getLatitude(node), 1e-6);
+            assertEquals(expected.getLongitude(node), graph.getLongitude(node), 1e-6);
+            EdgeIterator expectedIter = expected.getEdges(node);
+            EdgeIterator iter = graph.getEdges(node);
+            while (expectedIter.next()) {
+                assertTrue(iter.next());
+                assertSameEdge(expectedIter, iter);
+                assertSameEdge(expected.getEdgeProps(expectedIter.edge(), expectedIter.adjNode()),
+                        graph.getEdgeProps(iter.edge(), iter.adjNode()));
+                assertSameEdge(expected.getEdgeProps(expectedIter.edge(), node),
+                        graph.getEdgeProps(iter.edge(), node));
+            }
+            assertFalse(iter.next());
+        }
+
+        AllEdgesIterator expectedAll = expected.getAllEdges();
+        AllEdgesIterator all = graph.getAllEdges();
+        assertEquals(expectedAll.maxId(), all.maxId());
+        while (expectedAll.next()) {
+            assertTrue(all.next());
+            assertSameEdge(expectedAll, all);
+        }
+        assertFalse(all.next());
+    }
+
+    static void assertSameEdge(EdgeIterator expected, EdgeIterator iter) {
+        assertEquals(expected.edge(), iter.edge());
+        assertEquals(expected.baseNode(), iter.baseNode());
+        assertEquals(expected.adjNode(), iter.adjNode());
+        assertEquals(expected.flags(), iter.flags());
+        assertEquals(expected.distance(), iter.distance(), 1e-6);
+        PointList expectedPillars = expected.wayGeometry();
+        PointList pillars = iter.wayGeometry();
+        assertEquals(expectedPillars.size(), pillars.size());
+        for (int i = 0; i < pillars.size(); i++) {
+            assertEquals(expectedPillars.latitude(i), pillars.latitude(i), 1e-6);
+            assertEquals(expectedPillars.longitude(i), pillars.longitude(i), 1e-6);
+        }
+    }
+
+    @Test
+    public void testFreeze() {
+        GraphStorage g = new GraphBuilder().create();
+        initGrid(g, 10, 1);
+        FrozenGraph frozen = new FrozenGraph(new RAMDirectory()).freeze(g);
+        assertSameGraph(g, frozen);
+        assertEquals(GHUtility.EMPTY, frozen.getEdgeProps(0, 55));
+
+        CarFlagEncoder encoder = new CarFlagEncoder();
+        EdgeIterator iter = frozen.getEdges(0, new DefaultEdgeFilter(encoder, false, true));
+        assertEquals(GHUtility.count(g.getEdges(0, new DefaultEdgeFilter(encoder, false, true))),
+                GHUtility.count(iter));
+    }
+
+    @Test
+    public void testFreezeWithRemovedNodes() {
+        GraphStorage g = new GraphBuilder().create();
+        initGrid(g, 5, 2);
+        g.markNodeRemoved(3);
+        g.markNodeRemoved(12);
+        g.optimize();
+        FrozenGraph frozen = new FrozenGraph(new RAMDirectory()).freeze(g);
+        assertEquals(23, frozen.nodes());
+        assertSameGraph(g, frozen);
+    }
+
+    @Test
+    public void testReadOnly() {
+        GraphStorage g = new GraphBuilder().create();
+        initGrid(g, 3, 3);
+        FrozenGraph frozen = new FrozenGraph(new RAMDirectory()).freeze(g);
+        try {
+            frozen.edge(0, 1, 10, true);
+            assertTrue(false);
+        } catch (UnsupportedOperationException ex) {
+        }
+        try {
+            frozen.setNode(0, 1, 1);
+            assertTrue(false);
+        } catch (UnsupportedOperationException ex) {
+        }
+        EdgeIterator iter = frozen.getEdges(0);
+        assertTrue(iter.next());
+        try {
+            iter.distance(10);
+            assertTrue(false);
+        } catch (UnsupportedOperationException ex) {
+        }
+        try {
+            frozen.freeze(g);
+            assertTrue(false);
+        } catch (IllegalStateException ex) {
+        }
+    }
+
+    @Test
+    public void testStoreAndLoad() {
+        GraphStorage g = new GraphBuilder().create();
+        initGrid(g, 10, 4);
+        FrozenGraph frozen = new FrozenGraph(new RAMDirectory(location, true)).freeze(g);
+        frozen.flush();
+        frozen.close();
+
+        frozen = new FrozenGraph(new RAMDirectory(location, true));
+        assertTrue(frozen.loadExisting());
+        assertSameGraph(g, frozen);
+
+        frozen = new FrozenGraph(new MMapDirectory(location, true));
+        assertTrue(frozen.loadExisting());
+        assertSameGraph(g, frozen);
+        frozen.close();
+
+        try {
+            new FrozenLevelGraph(new RAMDirectory(location, true)).loadExisting();
+            assertTrue(false);
+        } catch (IllegalStateException ex) {
+        }
+        assertFalse(new FrozenGraph(new RAMDirectory(location + "2", false)).loadExisting());
+    }
+
+    static Directory smallSegments(Directory dir, String... names) {
+        for (String name : names) {
+            dir.findCreate(name).segmentSize(1024);
+        }
+        return dir;
+    }
+
+    @Test
+    public void testCompact() {
+        GraphStorage g = new GraphStorage(smallSegments(new RAMDirectory(),
+                "nodes", "edges", "geometry", "edgeWays")).create(100);
+        initGrid(g, 50, 7);
+        Directory dir = new RAMDirectory();
+        dir.findCreate("frozen_adjacency").segmentSize(1024);
+        FrozenGraph frozen = new FrozenGraph(dir).freeze(g);
+        Directory compactDir = smallSegments(new RAMDirectory(), "frozen_nodes", "frozen_offsets",
+                "frozen_adjacency", "frozen_edges", "frozen_edge_blocks", "frozen_geometry");
+        FrozenGraph compact = new FrozenGraph(compactDir).compact(true).freeze(g);
+        assertTrue(compact.isCompact());
+        assertSameGraph(g, compact);
+        assertSameGraph(frozen, compact);
+        // 16 bytes per entry vs. roughly 1 + 2 + 1 + 4 bytes
+        long adjacency = dir.findCreate("frozen_adjacency").capacity();
+        long compactAdjacency = compactDir.findCreate("frozen_adjacency").capacity();
+        assertTrue(adjacency + " vs. " + compactAdjacency, compactAdjacency < 0.6 * adjacency);
+        // the edge records only refer to the adjacency, so the whole graph is smaller than the storage
+        assertTrue(g.capacity() + " vs. " + compact.capacity(), compact.capacity() < 0.9 * g.capacity());
+
+        CarFlagEncoder encoder = new CarFlagEncoder();
+        for (int node = 0; node < g.nodes(); node += 7) {
+            DefaultEdgeFilter filter = new DefaultEdgeFilter(encoder, true, false);
+            assertEquals(GHUtility.count(g.getEdges(node, filter)),
+                    GHUtility.count(compact.getEdges(node, filter)));
+        }
+        try {
+            compact.compact(false);
+            assertTrue(false);
+        } catch (IllegalStateException ex) {
+        }
+    }
+
+    @Test
+    public void testCompactStoreAndLoad() {
+        GraphStorage g = new GraphBuilder().create();
+        initGrid(g, 10, 8);
+        g.markNodeRemoved(4);
+        g.optimize();
+        FrozenGraph frozen = new FrozenGraph(new MMapDirectory(location)).compact(true).freeze(g);
+        frozen.flush();
+        frozen.close();
+
+        // the format is taken from the stored graph
+        frozen = new FrozenGraph(new MMapDirectory(location, true));
+        assertTrue(frozen.loadExisting());
+        assertTrue(frozen.isCompact());
+        assertSameGraph(g, frozen);
+        frozen.close();
+
+        frozen = new FrozenGraph(new RAMDirectory(location, true));
+        assertTrue(frozen.loadExisting());
+        assertSameGraph(g, frozen);
+    }
+
+    @Test
+    public void testCompactEdgesNotInBothAdjacencies() {
+        LevelGraphStorage g = new GraphBuilder().levelGraphCreate();
+        g.setNode(0, 42, 10);
+        g.setNode(1, 42, 10.01);
+        g.setNode(2, 42.01, 10);
+        g.setNode(3, 42.01, 10.01);
+        g.edge(0, 1, 1000, false);
+        g.edge(1, 2, 1200, true);
+        g.edge(2, 3, 1100, false);
+        // remove 0-1 from both nodes and 1-2 from the smaller node
+        EdgeIterator iter = g.getEdges(0);
+        assertTrue(iter.next());
+        g.disconnect(iter, EdgeIterator.NO_EDGE, true);
+        for (int i = 0; i < 2; i++) {
+            iter = g.getEdges(1);
+            assertTrue(iter.next());
+            g.disconnect(iter, EdgeIterator.NO_EDGE, true);
+        }
+        assertEquals(0, GHUtility.count(g.getEdges(1)));
+
+        FrozenGraph compact = new FrozenGraph(new RAMDirectory()).compact(true).freeze(g);
+        assertSameGraph(g, compact);
+        assertSameEdge(g.getEdgeProps(0, 1), compact.getEdgeProps(0, 1));
+        assertSameEdge(g.getEdgeProps(1, 1), compact.getEdgeProps(1, 1));
+        assertSameEdge(g.getEdgeProps(0, 0), compact.getEdgeProps(0, 0));
+        assertEquals(1000, compact.getEdgeProps(0, 1).distance(), 1e-6);
+        assertEquals(3, GHUtility.count(compact.getAllEdges()));
+    }
+
+    @Test
+    public void testRouting() {
+        GraphStorage g = new GraphBuilder().create();
+        initGrid(g, 20, 5);
+        FrozenGraph frozen = new FrozenGraph(new RAMDirectory()).freeze(g);
+        FrozenGraph compact = new FrozenGraph(new RAMDirectory()).compact(true).freeze(g);
+        CarFlagEncoder encoder = new CarFlagEncoder();
+        Random rand = new Random(5);
+        for (int i = 0; i < 50; i++) {
+            int from = rand.nextInt(g.nodes());
+            int to = rand.nextInt(g.nodes());
+            Path expected = new DijkstraBidirection(g, encoder).calcPath(from, to);
+            Path path = new DijkstraBidirection(frozen, encoder).calcPath(from, to);
+            assertEquals(expected.found(), path.found());
+            assertEquals(expected.distance(), path.distance(), 1e-4);
+            assertEquals(expected.calcPoints().size(), path.calcPoints().size());
+            path = new DijkstraBidirection(compact, encoder).calcPath(from, to);
+            assertEquals(expected.distance(), path.distance(), 1e-4);
+            assertEquals(expected.calcNodes(), path.calcNodes());
+        }
+    }
+}
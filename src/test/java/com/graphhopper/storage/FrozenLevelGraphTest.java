@@ -0,0 +1,93 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.storage;
+
+import com.graphhopper.routing.Path;
+import com.graphhopper.routing.ch.PrepareContractionHierarchies;
+import com.graphhopper.util.EdgeSkipIterator;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Peter Karich
+ */
+public class FrozenLevelGraphTest {
+
+    @Test
+    public void testFreezePreparedGraph() {
+        checkFreezePreparedGraph(false);
+    }
+
+    @Test
+    public void testFreezePreparedGraphCompact() {
+        checkFreezePreparedGraph(true);
+    }
+
+    private void checkFreezePreparedGraph(boolean compact) {
+        LevelGraphStorage g = new GraphBuilder().levelGraphCreate();
+        FrozenGraphTest.initGrid(g, 20, 6);
+        PrepareContractionHierarchies prepare = new PrepareContractionHierarchies().graph(g);
+        prepare.doWork();
+        assertTrue(prepare.shortcuts() > 0);
+
+        FrozenLevelGraph frozen = new FrozenLevelGraph(new RAMDirectory());
+        frozen.compact(compact);
+        frozen.freeze(g);
+        FrozenGraphTest.assertSameGraph(g, frozen);
+        int shortcuts = 0;
+        for (int node = 0; node < g.nodes(); node++) {
+            assertEquals(g.getLevel(node), frozen.getLevel(node));
+            EdgeSkipIterator expected = g.getEdges(node);
+            EdgeSkipIterator iter = frozen.getEdges(node);
+            while (expected.next()) {
+                assertTrue(iter.next());
+                assertEquals(expected.isShortcut(), iter.isShortcut());
+                assertEquals(expected.skippedEdge1(), iter.skippedEdge1());
+                assertEquals(expected.skippedEdge2(), iter.skippedEdge2());
+                if (iter.isShortcut())
+                    shortcuts++;
+            }
+        }
+        assertTrue(shortcuts > 0);
+
+        PrepareContractionHierarchies frozenPrepare = new PrepareContractionHierarchies().graph(frozen);
+        Random rand = new Random(6);
+        for (int i = 0; i < 50; i++) {
+            int from = rand.nextInt(g.nodes());
+            int to = rand.nextInt(g.nodes());
+            Path expectedPath = prepare.createAlgo().calcPath(from, to);
+            Path path = frozenPrepare.createAlgo().calcPath(from, to);
+            assertEquals(expectedPath.found(), path.found());
+            assertEquals(expectedPath.distance(), path.distance(), 1e-4);
+            assertEquals(expectedPath.calcNodes(), path.calcNodes());
+        }
+    }
+
+    @Test
+    public void testFreezeNeedsLevelGraph() {
+        GraphStorage g = new GraphBuilder().create();
+        FrozenGraphTest.initGrid(g, 3, 7);
+        try {
+            new FrozenLevelGraph(new RAMDirectory()).freeze(g);
+            assertTrue(false);
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+}
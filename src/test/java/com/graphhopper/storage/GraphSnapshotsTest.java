@@ -0,0 +1,129 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.storage;
+
+import com.graphhopper.util.Helper;
+import java.io.File;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Peter Karich
+ */
+public class GraphSnapshotsTest {
+
+    private final String location = "./target/tmp/snapshots";
+
+    @Before
+    public void setUp() {
+        Helper.removeDir(new File(location));
+    }
+
+    @After
+    public void tearDown() {
+        Helper.removeDir(new File(location));
+    }
+
+    private void writeGraph(String loc, int nodes) {
+        GraphStorage g = new GraphStorage(new RAMDirectory(loc, true)).create(10);
+        for (int i = 0; i < nodes; i++) {
+            g.setNode(i, i, i);
+        }
+        g.edge(0, 1, 10, true);
+        g.flush();
+        g.close();
+    }
+
+    private int loadNodes(String loc) {
+        GraphStorage g = new GraphStorage(new RAMDirectory(loc, true));
+        assertTrue(g.loadExisting());
+        int nodes = g.nodes();
+        g.close();
+        return nodes;
+    }
+
+    @Test
+    public void testCommit() {
+        GraphSnapshots snapshots = new GraphSnapshots(location);
+        assertNull(snapshots.current());
+        assertFalse(GraphSnapshots.isSnapshotBase(location));
+
+        String tmp = snapshots.create();
+        writeGraph(tmp, 2);
+        // not visible before commit
+        assertNull(snapshots.current());
+        String first = snapshots.commit(tmp);
+        assertFalse(new File(tmp).exists());
+        assertTrue(GraphSnapshots.isSnapshotBase(location));
+        assertEquals(new File(first).getAbsoluteFile(), new File(snapshots.current()).getAbsoluteFile());
+        assertEquals(2, loadNodes(snapshots.current()));
+
+        tmp = snapshots.create();
+        writeGraph(tmp, 3);
+        String second = snapshots.commit(tmp);
+        assertFalse(first.equals(second));
+        assertEquals(3, loadNodes(snapshots.current()));
+        // the previous snapshot is still intact
+        assertEquals(2, loadNodes(first));
+
+        try {
+            snapshots.commit(first);
+            fail();
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    @Test
+    public void testUnfinishedSnapshot() {
+        GraphSnapshots snapshots = new GraphSnapshots(location);
+        String tmp = snapshots.create();
+        writeGraph(tmp, 2);
+        String first = snapshots.commit(tmp);
+
+        // simulate a crash while writing the next snapshot
+        tmp = snapshots.create();
+        writeGraph(tmp, 3);
+        snapshots = new GraphSnapshots(location);
+        assertEquals(new File(first).getAbsoluteFile(), new File(snapshots.current()).getAbsoluteFile());
+        assertEquals(2, loadNodes(snapshots.current()));
+        assertEquals(1, snapshots.cleanUp(1));
+        assertFalse(new File(tmp).exists());
+    }
+
+    @Test
+    public void testCleanUp() {
+        GraphSnapshots snapshots = new GraphSnapshots(location);
+        String first = null;
+        for (int i = 0; i < 4; i++) {
+            String tmp = snapshots.create();
+            writeGraph(tmp, 2 + i);
+            String loc = snapshots.commit(tmp);
+            if (first == null)
+                first = loc;
+        }
+        assertEquals(2, snapshots.cleanUp(2));
+        assertFalse(new File(first).exists());
+        assertEquals(5, loadNodes(snapshots.current()));
+        assertEquals(1, snapshots.cleanUp(1));
+        assertEquals(0, snapshots.cleanUp(1));
+        assertEquals(5, loadNodes(snapshots.current()));
+    }
+}
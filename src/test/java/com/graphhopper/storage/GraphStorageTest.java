@@ -18,12 +18,18 @@
  */
 package com.graphhopper.storage;
 
+import com.graphhopper.routing.util.AllEdgesIterator;
+import com.graphhopper.routing.util.CarFlagEncoder;
 import com.graphhopper.util.EdgeIterator;
 import com.graphhopper.util.GHUtility;
 import com.graphhopper.util.Helper;
+import com.graphhopper.util.PointList;
 import com.graphhopper.util.shapes.BBox;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -70,6 +76,144 @@ public class GraphStorageTest extends AbstractGraphTester {
         }
     }
 
+    @Test
+    public void testRenumberNodes() {
+        GraphStorage g = createGraph(defaultGraph, defaultSize);
+        FrozenGraphTest.initGrid(g, 10, 8);
+        // the edges of removed nodes stay invalid and are dropped while renumbering
+        g.markNodeRemoved(5);
+        g.optimize();
+        int edges = GHUtility.count(g.getAllEdges());
+        assertTrue(edges < g.getAllEdges().maxId());
+        Graph orig = GHUtility.clone(g);
+
+        int[] oldToNew = GHUtility.createSpatialOrder(g);
+        g.renumberNodes(oldToNew);
+        assertEquals(orig.nodes(), g.nodes());
+        assertEquals(edges, g.getAllEdges().maxId());
+        assertEquals(edges, GHUtility.count(g.getAllEdges()));
+        for (int old = 0; old < orig.nodes(); old++) {
+            int node = oldToNew[old];
+            assertEquals(orig.getLatitude(old), g.getLatitude(node), 1e-6);
+            assertEquals(orig.getLongitude(old), g.getLongitude(node), 1e-6);
+            EdgeIterator origIter = orig.getEdges(old);
+            EdgeIterator iter = g.getEdges(node);
+            while (origIter.next()) {
+                assertTrue(iter.next());
+                assertEquals(oldToNew[origIter.adjNode()], iter.adjNode());
+                assertEquals(origIter.flags(), iter.flags());
+                assertEquals(origIter.distance(), iter.distance(), 1e-6);
+                assertEquals(origIter.wayGeometry(), iter.wayGeometry());
+                EdgeIterator single = g.getEdgeProps(iter.edge(), iter.adjNode());
+                assertEquals(origIter.flags(), single.flags());
+                assertEquals(origIter.wayGeometry(), single.wayGeometry());
+            }
+            assertFalse(iter.next());
+        }
+
+        // the edges of the first node come first
+        EdgeIterator iter = g.getEdges(0);
+        assertTrue(iter.next());
+        assertEquals(0, iter.edge());
+    }
+
+    @Test
+    public void testWayIds() {
+        GraphStorage g = newGraph(new RAMDirectory(defaultGraph, true)).storeWayIds(true).create(defaultSize);
+        FrozenGraphTest.initGrid(g, 10, 8);
+        Map<String, Long> ways = new HashMap<String, Long>();
+        AllEdgesIterator iter = g.getAllEdges();
+        while (iter.next()) {
+            long way = (1L << 40) + iter.edge() / 2;
+            g.wayId(iter.edge(), way);
+            ways.put(iter.baseNode() + "-" + iter.adjNode(), way);
+        }
+
+        // the way ids move with the edges
+        int[] oldToNew = GHUtility.createSpatialOrder(g);
+        int[] newToOld = new int[oldToNew.length];
+        for (int i = 0; i < oldToNew.length; i++) {
+            newToOld[oldToNew[i]] = i;
+        }
+        g.renumberNodes(oldToNew);
+        iter = g.getAllEdges();
+        int count = 0;
+        while (iter.next()) {
+            int a = newToOld[iter.baseNode()], b = newToOld[iter.adjNode()];
+            Long way = ways.get(a + "-" + b);
+            if (way == null)
+                way = ways.get(b + "-" + a);
+            assertEquals(way.longValue(), g.wayId(iter.edge()));
+            count++;
+        }
+        assertEquals(ways.size(), count);
+
+        int edge = g.getAllEdges().maxId() - 1;
+        long way = g.wayId(edge);
+        g.flush();
+        g.close();
+
+        g = newGraph(new RAMDirectory(defaultGraph, true));
+        assertTrue(g.loadExisting());
+        assertTrue(g.isStoringWayIds());
+        assertEquals(way, g.wayId(edge));
+        g.close();
+    }
+
+    @Test
+    public void testUpdateEdges() {
+        GraphStorage g = createGraph(defaultGraph, defaultSize);
+        g.edge(0, 1, 10, true);
+        g.edge(2, 1, 20, false);
+        g.edge(1, 3, 30, true);
+        CarFlagEncoder encoder = new CarFlagEncoder();
+        g.updateEdges(new int[]{0, 2}, new int[]{encoder.flags(20, false), encoder.flags(40, true)},
+                new double[]{12, 33});
+        g.updateSpeeds(new int[]{1}, new int[]{60}, encoder);
+
+        EdgeIterator iter = g.getEdgeProps(0, 1);
+        assertEquals(12, iter.distance(), 1e-3);
+        assertEquals(20, encoder.getSpeed(iter.flags()));
+        assertFalse(encoder.isBackward(iter.flags()));
+        iter = g.getEdgeProps(2, 3);
+        assertEquals(33, iter.distance(), 1e-3);
+        assertEquals(40, encoder.getSpeed(iter.flags()));
+        // the direction 2->1 is kept
+        iter = g.getEdgeProps(1, 1);
+        assertEquals(20, iter.distance(), 1e-3);
+        assertEquals(60, encoder.getSpeed(iter.flags()));
+        assertTrue(encoder.isForward(iter.flags()));
+        assertFalse(encoder.isBackward(iter.flags()));
+
+        try {
+            g.updateEdges(new int[]{3}, new int[]{0}, null);
+            assertTrue(false);
+        } catch (IllegalArgumentException ex) {
+        }
+        try {
+            g.wayId(0, 1);
+            assertTrue(false);
+        } catch (IllegalStateException ex) {
+        }
+    }
+
+    @Test
+    public void testRenumberNodesNeedsPermutation() {
+        GraphStorage g = createGraph(defaultGraph, defaultSize);
+        FrozenGraphTest.initGrid(g, 2, 9);
+        try {
+            g.renumberNodes(new int[]{0, 1, 1, 2});
+            assertTrue(false);
+        } catch (IllegalArgumentException ex) {
+        }
+        g.markNodeRemoved(1);
+        try {
+            g.renumberNodes(new int[]{3, 2, 1, 0});
+            assertTrue(false);
+        } catch (IllegalStateException ex) {
+        }
+    }
+
     @Test
     public void testSave_and_fileFormat() throws IOException {
         GraphStorage graph = createGraphStorage(new RAMDirectory(defaultGraph, true));
@@ -96,6 +240,77 @@ public class GraphStorageTest extends AbstractGraphTester {
         graph.close();
     }
 
+    @Test
+    public void testGeometryEncoding() {
+        GraphStorage graph = createGraphStorage(new RAMDirectory(defaultGraph, true));
+        graph.setNode(0, 10, 10);
+        graph.setNode(1, -10, -170);
+        PointList far = Helper.createPointList(89.9, -179.9, -89.9, 179.9, 0, 0);
+        graph.edge(0, 1, 100, true).wayGeometry(far);
+        graph.edge(1, 0, 100, true).wayGeometry(Helper.createPointList(-10.001, -170.002));
+        graph.edge(0, 1, 100, true);
+        PointList many = createRandomPointList(200, 1);
+        graph.edge(0, 1, 100, true).wayGeometry(many);
+        graph.flush();
+        graph.close();
+
+        graph = newGraph(new RAMDirectory(defaultGraph, true));
+        assertTrue(graph.loadExisting());
+        // appending after loading must not overwrite existing pillar nodes
+        graph.edge(1, 0, 100, true).wayGeometry(createRandomPointList(20, 2));
+        EdgeIterator iter = graph.getEdges(0);
+        assertTrue(iter.next());
+        assertPList(far, iter.wayGeometry());
+        assertTrue(iter.next());
+        assertPList(Helper.createPointList(-10.001, -170.002), iter.wayGeometry());
+        assertTrue(iter.next());
+        assertTrue(iter.wayGeometry().isEmpty());
+        assertTrue(iter.next());
+        assertPList(many, iter.wayGeometry());
+        assertTrue(iter.next());
+        PointList reverse = createRandomPointList(20, 2);
+        reverse.reverse();
+        assertPList(reverse, iter.wayGeometry());
+        graph.close();
+    }
+
+    @Test
+    public void testRenumberNodesReversesGeometry() {
+        // the reversed deltas can need more or less bytes
+        for (int seed = 0; seed < 20; seed++) {
+            GraphStorage graph = createGraph(defaultGraph, defaultSize);
+            graph.setNode(0, 1, 1);
+            graph.setNode(1, 2, 2);
+            PointList points = createRandomPointList(30, seed);
+            graph.edge(0, 1, 100, true).wayGeometry(points);
+            graph.edge(0, 1, 50, true).wayGeometry(Helper.createPointList(1.5, 1.5));
+            graph.renumberNodes(new int[]{1, 0});
+
+            EdgeIterator iter = graph.getEdges(1);
+            assertTrue(iter.next());
+            assertPList(points, iter.wayGeometry());
+            assertTrue(iter.next());
+            assertPList(Helper.createPointList(1.5, 1.5), iter.wayGeometry());
+            iter = graph.getEdges(0);
+            assertTrue(iter.next());
+            points.reverse();
+            assertPList(points, iter.wayGeometry());
+            graph.close();
+        }
+    }
+
+    private static PointList createRandomPointList(int count, long seed) {
+        Random rand = new Random(seed);
+        PointList list = new PointList(count);
+        double lat = 1, lon = 1;
+        for (int i = 0; i < count; i++) {
+            lat += (rand.nextDouble() - 0.5) * (i % 5 == 0 ? 1 : 0.001);
+            lon += (rand.nextDouble() - 0.5) * (i % 5 == 0 ? 1 : 0.001);
+            list.add(lat, lon);
+        }
+        return list;
+    }
+
     protected void checkGraph(Graph g) {
         assertEquals(new BBox(10, 20, 10, 12), g.bounds());
         assertEquals(10, g.getLatitude(0), 1e-2);
@@ -46,6 +46,36 @@ public class LevelGraphStorageTest extends GraphStorageTest {
         return new LevelGraphStorage(dir);
     }
 
+    @Test
+    public void testRenumberNodesWithShortcut() {
+        LevelGraphStorage g = createGraphStorage(new RAMDirectory());
+        g.setNode(0, 1, 1);
+        g.setNode(1, 2, 2);
+        g.setNode(2, 3, 3);
+        int edge01 = g.edge(0, 1, 10, true).edge();
+        int edge12 = g.edge(1, 2, 10, false).edge();
+        EdgeSkipIterator sc = g.edge(0, 2, 20, false);
+        sc.skippedEdges(edge01, edge12);
+        g.setLevel(1, 1);
+
+        g.renumberNodes(new int[]{2, 0, 1});
+        assertEquals(1, g.getLevel(0));
+        assertEquals(0, g.getLevel(2));
+        EdgeSkipIterator iter = g.getEdges(2);
+        assertTrue(iter.next());
+        assertTrue(iter.next());
+        assertTrue(iter.isShortcut());
+        assertEquals(1, iter.adjNode());
+        assertEquals(20, iter.distance(), 1e-6);
+        // one-way from the old node 0 to the old node 2
+        assertTrue(carOutFilter.accept(iter));
+
+        EdgeSkipIterator skipped = g.getEdgeProps(iter.skippedEdge1(), 0);
+        assertEquals(2, skipped.baseNode());
+        skipped = g.getEdgeProps(iter.skippedEdge2(), 1);
+        assertEquals(0, skipped.baseNode());
+    }
+
     @Test
     public void testCannotBeLoadedViaDifferentClass() {
         GraphStorage g = createGraphStorage(new RAMDirectory(defaultGraph, true));
@@ -18,6 +18,10 @@
  */
 package com.graphhopper.storage;
 
+import java.io.File;
+import java.nio.ReadOnlyBufferException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -60,4 +64,132 @@ public class MMapDataAccessTest extends DataAccessTest {
         assertEquals(123, da.getInt(7));
         da.close();
     }
+
+    @Test
+    public void testReadOnly() {
+        DataAccess da = createDataAccess(name);
+        da.create(300);
+        da.setInt(7, 123);
+        da.setInt(70, 456);
+        da.setHeader(0, 789);
+        da.flush();
+        da.close();
+        long length = new File(directory + name).length();
+
+        MMapDataAccess readDA = new MMapDataAccess(name, directory).readOnly(true);
+        assertTrue(readDA.loadExisting());
+        assertEquals(123, readDA.getInt(7));
+        assertEquals(456, readDA.getInt(70));
+        assertEquals(789, readDA.getHeader(0));
+        try {
+            readDA.setInt(7, 1);
+            fail();
+        } catch (ReadOnlyBufferException ex) {
+        }
+        try {
+            readDA.ensureCapacity(10 * readDA.capacity());
+            fail();
+        } catch (IllegalStateException ex) {
+        }
+        // a second reader can map the same file at the same time
+        MMapDataAccess readDA2 = new MMapDataAccess(name, directory).readOnly(true);
+        assertTrue(readDA2.loadExisting());
+        assertEquals(456, readDA2.getInt(70));
+
+        readDA.setHeader(0, 1);
+        readDA.flush();
+        readDA.close();
+        readDA2.close();
+        assertEquals(length, new File(directory + name).length());
+
+        da = createDataAccess(name);
+        assertTrue(da.loadExisting());
+        assertEquals(789, da.getHeader(0));
+        da.close();
+    }
+
+    @Test
+    public void testReadOnlyFromRAM() {
+        DataAccess da = new RAMDataAccess(name, directory, true);
+        da.create(100);
+        da.setInt(7, 123);
+        da.flush();
+        da.close();
+
+        MMapDataAccess readDA = new MMapDataAccess(name, directory).readOnly(true);
+        assertTrue(readDA.loadExisting());
+        assertEquals(123, readDA.getInt(7));
+        readDA.close();
+    }
+
+    @Test
+    public void testLazyMapping() {
+        DataAccess da = createDataAccess(name);
+        da.create(300);
+        da.setInt(1, 123);
+        da.setInt(70, 456);
+        da.flush();
+        da.close();
+
+        MMapDataAccess mmapDA = (MMapDataAccess) createDataAccess(name);
+        assertTrue(mmapDA.loadExisting());
+        assertEquals(3, mmapDA.segments());
+        assertEquals(3 * 128, mmapDA.capacity());
+        assertEquals(0, mmapDA.mappedSegments());
+        assertEquals(456, mmapDA.getInt(70));
+        assertEquals(1, mmapDA.mappedSegments());
+
+        mmapDA.prefetch();
+        assertEquals(3, mmapDA.mappedSegments());
+        assertEquals(123, mmapDA.getInt(1));
+
+        mmapDA.setInt(70, 789);
+        assertTrue(mmapDA.releaseSegment(2));
+        assertFalse(mmapDA.releaseSegment(2));
+        assertEquals(2, mmapDA.mappedSegments());
+        // mapped again on access
+        assertEquals(789, mmapDA.getInt(70));
+        assertEquals(3, mmapDA.mappedSegments());
+        mmapDA.close();
+    }
+
+    @Test
+    public void testReleaseSegmentWhileReading() throws Exception {
+        DataAccess da = createDataAccess(name);
+        da.create(300);
+        for (int i = 0; i < 75; i++) {
+            da.setInt(i, i);
+        }
+        da.flush();
+        da.close();
+
+        final MMapDataAccess readDA = new MMapDataAccess(name, directory).readOnly(true);
+        assertTrue(readDA.loadExisting());
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        Thread[] readers = new Thread[3];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread() {
+                @Override public void run() {
+                    while (!stop.get()) {
+                        for (int i = 0; i < 75; i++) {
+                            if (readDA.getInt(i) != i)
+                                failures.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            readers[t].start();
+        }
+        // released segments must stay readable for threads still using them
+        for (int round = 0; round < 2000; round++) {
+            readDA.releaseSegment(round % readDA.segments());
+        }
+        stop.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(0, failures.get());
+        readDA.close();
+    }
 }
@@ -18,6 +18,9 @@
  */
 package com.graphhopper.storage;
 
+import static org.junit.Assert.*;
+import org.junit.Test;
+
 /**
  *
  * @author Peter Karich
@@ -28,4 +31,35 @@ public class RAMDataAccessTest extends DataAccessTest {
     public DataAccess createDataAccess(String name) {
         return new RAMDataAccess(name, directory, true).segmentSize(128);
     }
+
+    @Test
+    public void testThreads() {
+        RAMDataAccess da = new RAMDataAccess(name, directory, true).threads(3);
+        da.segmentSize(128);
+        da.create(128 * 7);
+        for (int i = 0; i < 7 * 32; i++) {
+            da.setInt(i, i * 31);
+        }
+        da.setHeader(0, 17);
+        da.flush();
+        da.close();
+
+        // written in parallel but loadable as usual
+        DataAccess loaded = createDataAccess(name);
+        assertTrue(loaded.loadExisting());
+        assertEquals(7, loaded.segments());
+        assertEquals(17, loaded.getHeader(0));
+        for (int i = 0; i < 7 * 32; i++) {
+            assertEquals(i * 31, loaded.getInt(i));
+        }
+        loaded.close();
+
+        da = new RAMDataAccess(name, directory, true).threads(4);
+        assertTrue(da.loadExisting());
+        assertEquals(7, da.segments());
+        for (int i = 0; i < 7 * 32; i++) {
+            assertEquals(i * 31, da.getInt(i));
+        }
+        da.close();
+    }
 }
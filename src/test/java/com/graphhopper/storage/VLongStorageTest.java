@@ -61,4 +61,32 @@ public class VLongStorageTest {
         assertEquals(7L, store.readVLong());
         assertEquals(777666555L, store.readVLong());
     }
+
+    @Test
+    public void testWriteTo() {
+        DataAccess da = new RAMDirectory().findCreate("test");
+        da.create(100);
+        VLongStorage store = new VLongStorage();
+        store.writeVLong(1);
+        store.writeVLong(777666555);
+        // 6 bytes from the second byte on
+        da.setInt(0, 0xAB);
+        assertEquals(7, store.writeTo(da, 1));
+        assertEquals(0x01AB, da.getInt(0) & 0xFFFF);
+
+        store.seek(0);
+        store.writeVLong(2);
+        assertEquals(8, store.writeTo(da, 7));
+
+        VLongStorage read = new VLongStorage(8);
+        for (int i = 0; i < 8; i++) {
+            read.writeByte((byte) (da.getInt(i / 4) >>> (i % 4 * 8)));
+        }
+        read.seek(1);
+        assertEquals(1L, read.readVLong());
+        assertEquals(777666555L, read.readVLong());
+        assertEquals(2L, read.readVLong());
+        read.seek(0);
+        assertEquals((byte) 0xAB, read.readByte());
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.storage.index;
+
+import com.graphhopper.storage.GraphStorage;
+import com.graphhopper.storage.RAMDirectory;
+import com.graphhopper.util.Helper;
+import gnu.trove.list.array.TIntArrayList;
+import java.io.File;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Peter Karich
+ */
+public class WayIdIndexTest {
+
+    private final String location = "./target/tmp/wayIdIndex";
+
+    @Before
+    public void setUp() {
+        Helper.removeDir(new File(location));
+    }
+
+    @After
+    public void tearDown() {
+        Helper.removeDir(new File(location));
+    }
+
+    @Test
+    public void testFindEdges() {
+        RAMDirectory dir = new RAMDirectory(location, true);
+        GraphStorage g = new GraphStorage(dir).storeWayIds(true).create(10);
+        g.edge(0, 1, 10, true);
+        g.edge(1, 2, 10, true);
+        g.edge(2, 3, 10, true);
+        g.edge(3, 4, 10, true);
+        g.edge(4, 5, 10, true);
+        g.wayId(0, 7);
+        g.wayId(1, 1L << 35);
+        g.wayId(2, 7);
+        g.wayId(3, 3);
+        // edge 4 has no way
+
+        WayIdIndex index = new WayIdIndex(g, dir).prepareIndex();
+        assertEquals(4, index.size());
+        assertEquals(new TIntArrayList(new int[]{0, 2}), index.findEdges(7));
+        assertEquals(new TIntArrayList(new int[]{1}), index.findEdges(1L << 35));
+        assertEquals(new TIntArrayList(new int[]{3}), index.findEdges(3));
+        assertEquals(0, index.findEdges(4).size());
+        assertEquals(0, index.findEdges(0).size());
+        index.close();
+
+        index = new WayIdIndex(g, new RAMDirectory(location, true));
+        assertTrue(index.loadExisting());
+        assertEquals(4, index.size());
+        assertEquals(new TIntArrayList(new int[]{0, 2}), index.findEdges(7));
+        index.close();
+    }
+
+    @Test
+    public void testNoWayIds() {
+        GraphStorage g = new GraphStorage(new RAMDirectory()).create(10);
+        try {
+            new WayIdIndex(g, new RAMDirectory()).prepareIndex();
+            fail();
+        } catch (IllegalStateException ex) {
+        }
+    }
+
+    @Test
+    public void testSort() {
+        Random rand = new Random(0);
+        int count = 1000;
+        long[] ways = new long[count];
+        int[] edges = new int[count];
+        for (int i = 0; i < count; i++) {
+            ways[i] = rand.nextInt(100);
+            edges[i] = rand.nextInt(1000);
+        }
+        WayIdIndex.sort(ways, edges, count);
+        for (int i = 1; i < count; i++) {
+            assertTrue(ways[i - 1] < ways[i] || ways[i - 1] == ways[i] && edges[i - 1] <= edges[i]);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Peter Karich
+ */
+public class BZip2InputStreamTest {
+
+    static byte[] readAll(InputStream is, int bufferSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[bufferSize];
+        int read;
+        while ((read = is.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        is.close();
+        return out.toByteArray();
+    }
+
+    static byte[] resource(Class<?> clazz, String name) throws IOException {
+        return readAll(clazz.getResourceAsStream(name), 4096);
+    }
+
+    /**
+     * Same pseudo random data as used to create multistream.bz2: long runs to
+     * test the run length encodings and a small alphabet.
+     */
+    static byte[] createData(int size) {
+        byte[] data = new byte[size];
+        int x = 42;
+        int n = 0;
+        while (n < size) {
+            x = (x * 1103515245 + 12345) & 0x7fffffff;
+            int kind = x % 4;
+            x = (x * 1103515245 + 12345) & 0x7fffffff;
+            int len = x % 600;
+            if (kind == 0) {
+                x = (x * 1103515245 + 12345) & 0x7fffffff;
+                for (int i = 0; i < len && n < size; i++) {
+                    data[n++] = (byte) (x % 256);
+                }
+            } else {
+                for (int i = 0; i < len % 50; i++) {
+                    x = (x * 1103515245 + 12345) & 0x7fffffff;
+                    if (n < size)
+                        data[n++] = (byte) (x % 8 + 'a');
+                }
+            }
+        }
+        return data;
+    }
+
+    @Test
+    public void testDecompress() throws IOException {
+        byte[] expected = resource(getClass(), "/com/graphhopper/reader/test-osm.xml");
+        byte[] bytes = readAll(new BZip2InputStream(getClass().
+                getResourceAsStream("/com/graphhopper/reader/test-osm.xml.bz2")), 100);
+        assertArrayEquals(expected, bytes);
+    }
+
+    @Test
+    public void testMultipleBlocksAndStreams() throws IOException {
+        byte[] expected = createData(350000);
+        // two concatenated streams with several blocks of 100k
+        BZip2InputStream is = new BZip2InputStream(getClass().getResourceAsStream("multistream.bz2"));
+        assertArrayEquals(expected, readAll(is, 7777));
+
+        is = new BZip2InputStream(getClass().getResourceAsStream("multistream.bz2"));
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("position " + i, expected[i] & 0xFF, is.read());
+        }
+        assertEquals(-1, is.read());
+        is.close();
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        byte[] empty = new byte[]{'B', 'Z', 'h', '9', 0x17, 0x72, 0x45, 0x38, 0x50, (byte) 0x90, 0, 0, 0, 0};
+        BZip2InputStream is = new BZip2InputStream(new ByteArrayInputStream(empty));
+        assertEquals(-1, is.read());
+        is.close();
+    }
+
+    @Test
+    public void testCorrupted() throws IOException {
+        try {
+            new BZip2InputStream(new ByteArrayInputStream("<osm></osm>".getBytes()));
+            assertTrue(false);
+        } catch (IOException ex) {
+        }
+
+        byte[] bytes = resource(getClass(), "multistream.bz2");
+        bytes[bytes.length / 3] ^= 0x10;
+        try {
+            readAll(new BZip2InputStream(new ByteArrayInputStream(bytes)), 1000);
+            assertTrue(false);
+        } catch (IOException ex) {
+        }
+
+        bytes = resource(getClass(), "multistream.bz2");
+        byte[] truncated = new byte[bytes.length / 2];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        try {
+            readAll(new BZip2InputStream(new ByteArrayInputStream(truncated)), 1000);
+            assertTrue(false);
+        } catch (IOException ex) {
+        }
+    }
+}
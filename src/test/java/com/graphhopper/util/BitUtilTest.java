@@ -104,6 +104,18 @@ public class BitUtilTest {
         assertEquals("0111000010100000", BitUtil.toBitString(ret, 16));
     }
 
+    @Test
+    public void testZigZag() {
+        assertEquals(0, BitUtil.toZigZag(0));
+        assertEquals(1, BitUtil.toZigZag(-1));
+        assertEquals(2, BitUtil.toZigZag(1));
+        assertEquals(3, BitUtil.toZigZag(-2));
+        long[] values = {0, 1, -1, 63, -64, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long v : values) {
+            assertEquals(v, BitUtil.fromZigZag(BitUtil.toZigZag(v)));
+        }
+    }
+
     String toString(byte[] bytes) {
         return BitUtil.toBitString(bytes);
     }
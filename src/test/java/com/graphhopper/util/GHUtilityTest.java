@@ -20,7 +20,9 @@ package com.graphhopper.util;
 
 import com.graphhopper.storage.GraphBuilder;
 import com.graphhopper.storage.Graph;
+import com.graphhopper.storage.GraphStorage;
 import com.graphhopper.storage.LevelGraph;
+import java.util.Arrays;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -79,6 +81,27 @@ public class GHUtilityTest {
         assertEquals(4.6, newG.getLatitude(3), 1e-4); // 8
     }
 
+    @Test
+    public void testSortSpatial() {
+        GraphStorage g = (GraphStorage) initUnsorted(createGraph());
+        GHUtility.sortSpatial(g);
+        assertEquals(9, g.nodes());
+        // the quadrants of the bounds are in z-order: south-west, south-east, north-west, north-east
+        for (int node = 0; node < 2; node++) {
+            assertTrue(g.getLatitude(node) <= 2.5 && g.getLongitude(node) <= 2.5);
+        }
+        assertEquals(2.5, g.getLatitude(2), 1e-4);
+        assertEquals(4.5, g.getLongitude(2), 1e-4);
+        for (int node = 3; node < 6; node++) {
+            assertTrue(g.getLatitude(node) > 2.5 && g.getLongitude(node) <= 2.5);
+        }
+        for (int node = 6; node < 9; node++) {
+            assertTrue(g.getLatitude(node) > 2.5 && g.getLongitude(node) > 2.5);
+        }
+        assertEquals(0, g.getLatitude(0), 1e-4);
+        assertEquals(Arrays.asList(2), GHUtility.neighbors(g.getEdges(0)));
+    }
+
     @Test
     public void testSortDirected() {
         Graph g = createGraph();
@@ -0,0 +1,97 @@
+/*
+ *  Licensed to Peter Karich under one or more contributor license 
+ *  agreements. See the NOTICE file distributed with this work for 
+ *  additional information regarding copyright ownership.
+ * 
+ *  Peter Karich licenses this file to you under the Apache License, 
+ *  Version 2.0 (the "License"); you may not use this file except 
+ *  in compliance with the License. You may obtain a copy of the 
+ *  License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.graphhopper.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Peter Karich
+ */
+public class ReadAheadInputStreamTest {
+
+    @Test
+    public void testRead() throws IOException {
+        byte[] expected = BZip2InputStreamTest.createData(350000);
+        // more data than fits into the ring
+        ReadAheadInputStream is = new ReadAheadInputStream(new ByteArrayInputStream(expected), 1000, 4);
+        assertEquals(expected[0] & 0xFF, is.read());
+        byte[] rest = BZip2InputStreamTest.readAll(is, 777);
+        assertEquals(expected.length - 1, rest.length);
+        for (int i = 0; i < rest.length; i++) {
+            assertEquals(expected[i + 1], rest[i]);
+        }
+        assertEquals(expected.length, is.getBytes());
+
+        is = new ReadAheadInputStream(new BZip2InputStream(getClass().getResourceAsStream("multistream.bz2")));
+        assertArrayEquals(expected, BZip2InputStreamTest.readAll(is, 4096));
+        assertTrue(is.getOverlap() >= 0 && is.getOverlap() <= 1);
+
+        is = new ReadAheadInputStream(new ByteArrayInputStream(new byte[0]));
+        assertEquals(-1, is.read());
+        assertEquals(-1, is.read());
+        is.close();
+    }
+
+    @Test
+    public void testCloseEarly() throws IOException {
+        final boolean[] closed = new boolean[1];
+        InputStream endless = new InputStream() {
+            @Override public int read() {
+                return 'a';
+            }
+
+            @Override public void close() {
+                closed[0] = true;
+            }
+        };
+        ReadAheadInputStream is = new ReadAheadInputStream(endless, 100, 2);
+        assertEquals('a', is.read());
+        is.close();
+        assertTrue(closed[0]);
+        try {
+            is.read();
+            assertTrue(false);
+        } catch (IOException ex) {
+        }
+    }
+
+    @Test
+    public void testError() throws IOException {
+        InputStream failing = new InputStream() {
+            int count;
+
+            @Override public int read() throws IOException {
+                if (count++ > 150)
+                    throw new IOException("broken");
+                return 'a';
+            }
+        };
+        ReadAheadInputStream is = new ReadAheadInputStream(failing, 100, 2);
+        try {
+            BZip2InputStreamTest.readAll(is, 10);
+            assertTrue(false);
+        } catch (IOException ex) {
+            assertEquals("broken", ex.getCause().getMessage());
+        }
+    }
+}